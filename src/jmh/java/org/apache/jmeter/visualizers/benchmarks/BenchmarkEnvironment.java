@@ -0,0 +1,96 @@
+package org.apache.jmeter.visualizers.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * Shared setup of the benchmarks: a throw-away JMeter home (the dashboard engine writes its files to its bin
+ * directory) and samples replayed from the JTL files bundled with the project.
+ */
+final class BenchmarkEnvironment {
+
+    static final String TEST_JTL = "sample-webapp-test.jtl";
+    static final String THIRTY_MINUTES_JTL = "sample-webapp-30min.jtl";
+
+    // Directory holding the bundled JTL files; benchmarks run from the project directory by default
+    private static final String JTL_DIR_PROPERTY = "benchmark.jtl.dir";
+
+    private static Path jmeterBin;
+
+    private BenchmarkEnvironment() {
+    }
+
+    /**
+     * Initializes JMeter with an empty jmeter.properties in target/benchmark-jmeter, once per JVM
+     * @return The bin directory of that JMeter home
+     */
+    static synchronized Path initJMeter() throws IOException {
+        if (jmeterBin == null) {
+            Path home = Path.of("target", "benchmark-jmeter").toAbsolutePath();
+            Path bin = Files.createDirectories(home.resolve("bin"));
+            Path properties = bin.resolve("jmeter.properties");
+            if (!Files.exists(properties)) {
+                Files.createFile(properties);
+            }
+            JMeterUtils.setJMeterHome(home.toString());
+            JMeterUtils.loadJMeterProperties(properties.toString());
+            jmeterBin = bin;
+        }
+        return jmeterBin;
+    }
+
+    /**
+     * Location of a JTL file bundled with the project
+     */
+    static Path bundledJtl(String name) {
+        return Path.of(System.getProperty(JTL_DIR_PROPERTY, ".")).resolve(name);
+    }
+
+    /**
+     * Reads a bundled JTL file (CSV with header) into sample results
+     */
+    static SampleResult[] loadSamples(String name) throws IOException {
+        List<SampleResult> samples = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(bundledJtl(name), StandardCharsets.UTF_8)) {
+            List<String> header = Arrays.asList(reader.readLine().split(","));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    samples.add(toSampleResult(header, line.split(",", -1)));
+                }
+            }
+        }
+        return samples.toArray(new SampleResult[0]);
+    }
+
+    private static SampleResult toSampleResult(List<String> header, String[] values) throws IOException {
+        long timeStamp = Long.parseLong(values[header.indexOf("timeStamp")]);
+        long elapsed = Long.parseLong(values[header.indexOf("elapsed")]);
+        SampleResult result = SampleResult.createTestSample(timeStamp, timeStamp + elapsed);
+        result.setSampleLabel(values[header.indexOf("label")]);
+        result.setResponseCode(values[header.indexOf("responseCode")]);
+        result.setResponseMessage(values[header.indexOf("responseMessage")]);
+        result.setThreadName(values[header.indexOf("threadName")]);
+        result.setDataType(values[header.indexOf("dataType")]);
+        result.setSuccessful(Boolean.parseBoolean(values[header.indexOf("success")]));
+        result.setBytes(Long.parseLong(values[header.indexOf("bytes")]));
+        result.setSentBytes(Long.parseLong(values[header.indexOf("sentBytes")]));
+        result.setGroupThreads(Integer.parseInt(values[header.indexOf("grpThreads")]));
+        result.setAllThreads(Integer.parseInt(values[header.indexOf("allThreads")]));
+        result.setURL(new URL(values[header.indexOf("URL")]));
+        result.setLatency(Long.parseLong(values[header.indexOf("latency")]));
+        result.setIdleTime(Long.parseLong(values[header.indexOf("IdleTime")]));
+        result.setConnectTime(Long.parseLong(values[header.indexOf("Connect")]));
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+package org.apache.jmeter.visualizers.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.visualizers.JtlAnalyzer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of the offline analysis of a JTL of about 100 MB (the 30 minute sample JTL repeated, one run after the
+ * other) with 1 to 8 parsing threads. The file stays in the page cache, so this measures parsing and merging.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class JtlAnalysisBenchmark {
+
+    private static final int REPETITIONS = 128;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private Path jtl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        List<String> lines = Files.readAllLines(BenchmarkEnvironment.bundledJtl(BenchmarkEnvironment.THIRTY_MINUTES_JTL),
+            StandardCharsets.UTF_8);
+        long first = Long.parseLong(lines.get(1).substring(0, lines.get(1).indexOf(',')));
+        long last = Long.parseLong(lines.get(lines.size() - 1).substring(0, lines.get(lines.size() - 1).indexOf(',')));
+        jtl = Files.createTempFile("jtl-analysis", ".jtl");
+        try (BufferedWriter writer = Files.newBufferedWriter(jtl, StandardCharsets.UTF_8)) {
+            writer.write(lines.get(0));
+            writer.newLine();
+            for (int run = 0; run < REPETITIONS; run++) {
+                long shift = run * (last - first + 1000);
+                for (String line : lines.subList(1, lines.size())) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    int comma = line.indexOf(',');
+                    writer.write(Long.toString(Long.parseLong(line.substring(0, comma)) + shift));
+                    writer.write(line, comma, line.length() - comma);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(jtl);
+    }
+
+    @Benchmark
+    public long analyze() throws IOException {
+        JtlAnalyzer analyzer = new JtlAnalyzer(5000, Collections.emptyList(), 80, 60, threads);
+        return analyzer.add(jtl.toFile());
+    }
+}
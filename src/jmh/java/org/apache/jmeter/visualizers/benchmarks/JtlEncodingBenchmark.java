@@ -0,0 +1,62 @@
+package org.apache.jmeter.visualizers.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.JtlRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of turning samples into JTL lines: capturing the columns of a {@link SampleResult} (done on the sampler
+ * thread) and encoding the captured records as CSV (done by the writer), for all samples of the 30 minute JTL.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JtlEncodingBenchmark {
+
+    private SampleResult[] samples;
+    private JtlRecord[] records;
+    private final StringBuilder buffer = new StringBuilder(1024 * 1024);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkEnvironment.initJMeter();
+        samples = BenchmarkEnvironment.loadSamples(BenchmarkEnvironment.THIRTY_MINUTES_JTL);
+        records = new JtlRecord[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            records[i] = JtlRecord.from(samples[i]);
+        }
+    }
+
+    @Benchmark
+    public void capture(Blackhole blackhole) {
+        for (SampleResult sample : samples) {
+            blackhole.consume(JtlRecord.from(sample));
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        buffer.setLength(0);
+        for (JtlRecord record : records) {
+            record.appendCsv(buffer);
+        }
+        return buffer.length();
+    }
+}
@@ -0,0 +1,95 @@
+package org.apache.jmeter.visualizers.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.visualizers.LiveDashboardServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to download the 30 minute sample JTL (about 800 KB) from the dashboard server, as the whole file and
+ * through /jtl/tail, with one client and with 8 concurrent clients.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JtlServingBenchmark {
+
+    // Name under which the default run serves its JTL file (LiveDashboardEngine.JTL_FILENAME)
+    private static final String SERVED_JTL = "live-dashboard.jtl";
+
+    private LiveDashboardServer server;
+    private String baseUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path bin = BenchmarkEnvironment.initJMeter();
+        Files.copy(BenchmarkEnvironment.bundledJtl(BenchmarkEnvironment.THIRTY_MINUTES_JTL), bin.resolve(SERVED_JTL),
+            StandardCopyOption.REPLACE_EXISTING);
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = LiveDashboardServer.getInstance();
+        server.startServer(port);
+        baseUrl = "http://localhost:" + port;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stopServer();
+    }
+
+    @Benchmark
+    public long file() throws IOException {
+        return download(baseUrl + "/" + SERVED_JTL, new byte[64 * 1024]);
+    }
+
+    @Benchmark
+    public long tail() throws IOException {
+        return download(baseUrl + "/jtl/tail?offset=0", new byte[64 * 1024]);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long file8Clients() throws IOException {
+        return download(baseUrl + "/" + SERVED_JTL, new byte[64 * 1024]);
+    }
+
+    private static long download(String url, byte[] buffer) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                total += read;
+            }
+            if (connection.getResponseCode() != 200) {
+                throw new IOException("HTTP " + connection.getResponseCode() + " for " + url);
+            }
+            return total;
+        }
+    }
+}
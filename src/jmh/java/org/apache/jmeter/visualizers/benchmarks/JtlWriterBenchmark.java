@@ -0,0 +1,107 @@
+package org.apache.jmeter.visualizers.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.AsyncJtlWriter;
+import org.apache.jmeter.visualizers.DirectJtlWriter;
+import org.apache.jmeter.visualizers.JtlSampleWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the JTL writers alone with 1, 8 and 64 sampler threads replaying the 30 minute sample JTL:
+ * the {@link AsyncJtlWriter} (striped queue, batched writes on one background thread) against the single
+ * synchronized {@link DirectJtlWriter} (write and flush on the sampler thread). The async writer blocks when its
+ * queue is full, so its score is bounded by how fast the writer thread gets the lines to disk.
+ * Every iteration writes a new file.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JtlWriterBenchmark {
+
+    @Param({"async", "direct"})
+    public String writerType;
+
+    private SampleResult[] samples;
+    private File file;
+    private JtlSampleWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = BenchmarkEnvironment.initJMeter().resolve("benchmark-writer.jtl").toFile();
+        samples = BenchmarkEnvironment.loadSamples(BenchmarkEnvironment.THIRTY_MINUTES_JTL);
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        if ("direct".equals(writerType)) {
+            writer = new DirectJtlWriter(file);
+        } else {
+            // The defaults of the live.dashboard.jtl.* properties
+            writer = new AsyncJtlWriter(file, 65536, Runtime.getRuntime().availableProcessors(),
+                AsyncJtlWriter.OverflowPolicy.BLOCK, 10, 65536, 250);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        writer.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    /**
+     * Position of a sampler thread in the replayed samples
+     */
+    @State(Scope.Thread)
+    public static class Replay {
+        private int next;
+
+        SampleResult nextSample(SampleResult[] samples) {
+            SampleResult sample = samples[next];
+            next = next + 1 < samples.length ? next + 1 : 0;
+            return sample;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1(Replay replay) {
+        writer.write(replay.nextSample(samples));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads8(Replay replay) {
+        writer.write(replay.nextSample(samples));
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void threads64(Replay replay) {
+        writer.write(replay.nextSample(samples));
+    }
+}
@@ -0,0 +1,85 @@
+package org.apache.jmeter.visualizers.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.QualityGateEvaluator;
+import org.apache.jmeter.visualizers.QualityGateMetric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Quality gate evaluation over the samples of the 30 minute JTL: replaying all samples into a new evaluator,
+ * and evaluating (plus serializing, as /quality-gate/status does) an evaluator that already holds them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QualityGateBenchmark {
+
+    private static final double RELATIVE_ERROR = 0.01;
+
+    private List<QualityGateMetric> gates;
+    private SampleResult[] samples;
+    private QualityGateEvaluator replayed;
+
+    /**
+     * Gates on every sample-based metric, including percentiles so the latency histograms are exercised
+     */
+    static List<QualityGateMetric> createGates() {
+        List<QualityGateMetric> gates = new ArrayList<>();
+        gates.add(createGate("Response Time", "Avg", "<", 500f, 1000f));
+        gates.add(createGate("Response Time", "95Pct", "<", 1000f, 2000f));
+        gates.add(createGate("Response Time", "99Pct", "<", 2000f, 3000f));
+        gates.add(createGate("Throughput", "Avg", ">", 2f, 1f));
+        gates.add(createGate("Error Rate", "Avg", "<", 1f, 5f));
+        return gates;
+    }
+
+    private static QualityGateMetric createGate(String metric, String aggregate, String operator, float pass, float warning) {
+        QualityGateMetric gate = new QualityGateMetric();
+        gate.setMetric(metric);
+        gate.setAggregate(aggregate);
+        gate.setOperator(operator);
+        gate.setPassValue(pass);
+        gate.setWarningValue(warning);
+        return gate;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkEnvironment.initJMeter();
+        gates = createGates();
+        samples = BenchmarkEnvironment.loadSamples(BenchmarkEnvironment.THIRTY_MINUTES_JTL);
+        replayed = replay();
+    }
+
+    @Benchmark
+    public QualityGateEvaluator replay() {
+        QualityGateEvaluator evaluator = new QualityGateEvaluator(gates, 80, 60, RELATIVE_ERROR);
+        for (SampleResult sample : samples) {
+            evaluator.add(sample);
+        }
+        return evaluator;
+    }
+
+    @Benchmark
+    public String evaluate() {
+        return replayed.toJson(replayed.evaluate());
+    }
+}
@@ -0,0 +1,88 @@
+package org.apache.jmeter.visualizers.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.visualizers.LiveDashboardEngine;
+import org.apache.jmeter.visualizers.LiveDashboardServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link LiveDashboardEngine#sampleOccurred} (JTL writer, aggregator and quality gate evaluator)
+ * with 1, 8 and 64 sampler threads replaying the 30 minute sample JTL.
+ * Every iteration is a new test, so the JTL file does not grow across iterations.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SampleOccurredBenchmark {
+
+    private LiveDashboardEngine engine;
+    private SampleResult[] samples;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkEnvironment.initJMeter();
+        engine = LiveDashboardServer.getInstance().acquireRun("benchmark");
+        engine.setQualityGateConfiguration(QualityGateBenchmark.createGates(), 80, 60);
+        samples = BenchmarkEnvironment.loadSamples(BenchmarkEnvironment.THIRTY_MINUTES_JTL);
+    }
+
+    @Setup(Level.Iteration)
+    public void startTest() {
+        engine.testStarted();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endTest() {
+        engine.testEnded();
+    }
+
+    /**
+     * Position of a sampler thread in the replayed samples
+     */
+    @State(Scope.Thread)
+    public static class Replay {
+        private int next;
+
+        SampleResult nextSample(SampleResult[] samples) {
+            SampleResult sample = samples[next];
+            next = next + 1 < samples.length ? next + 1 : 0;
+            return sample;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1(Replay replay) {
+        engine.sampleOccurred(replay.nextSample(samples));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads8(Replay replay) {
+        engine.sampleOccurred(replay.nextSample(samples));
+    }
+
+    @Benchmark
+    @Threads(64)
+    public void threads64(Replay replay) {
+        engine.sampleOccurred(replay.nextSample(samples));
+    }
+}
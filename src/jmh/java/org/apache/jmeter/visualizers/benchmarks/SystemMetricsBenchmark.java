@@ -0,0 +1,42 @@
+package org.apache.jmeter.visualizers.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.visualizers.SystemMetricsCollector;
+import org.apache.jmeter.visualizers.SystemMetricsSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency distribution of {@link SystemMetricsCollector#collectMetrics()} when every call collects fresh values
+ * (collection interval 0), i.e. the work done by the sampling thread every 5 seconds.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SystemMetricsBenchmark {
+
+    private SystemMetricsCollector collector;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        collector = new SystemMetricsCollector(0);
+    }
+
+    @Benchmark
+    public SystemMetricsSnapshot collectMetrics() {
+        return collector.collectMetrics();
+    }
+}
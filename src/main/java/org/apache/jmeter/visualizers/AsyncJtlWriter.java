@@ -0,0 +1,299 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JTL writer that hands samples to a single background thread.
+ * Sampler threads only copy the JTL columns into a striped, bounded lock-free queue; the writer thread
+ * is the only one touching the file, encodes the samples in batches and flushes when the batch size
+ * or the flush interval is reached. Lines can therefore never interleave and the header is written once.
+ * The writer thread maintains the {@link JtlIndex} of the file, and optionally also appends every sample to a
+ * {@link BinarySampleLogWriter binary sample log}.
+ */
+public class AsyncJtlWriter implements JtlSampleWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncJtlWriter.class);
+
+    // Upper bound for records encoded between two checks of the flush conditions
+    private static final int DRAIN_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long MIN_FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_FULL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long CLOSE_TIMEOUT_MS = 30000;
+
+    /**
+     * What a sampler thread does when the queue is full
+     */
+    public enum OverflowPolicy {
+        /** Wait until the writer thread made room; no sample is lost */
+        BLOCK,
+        /** Discard the sample and count it */
+        DROP,
+        /** Keep every n-th overflowing sample (waiting for room) and discard the others */
+        SAMPLE;
+
+        /**
+         * Parses a policy name, falling back to BLOCK for unknown values
+         */
+        public static OverflowPolicy fromString(String value) {
+            if (value != null) {
+                for (OverflowPolicy policy : values()) {
+                    if (policy.name().equalsIgnoreCase(value.trim())) {
+                        return policy;
+                    }
+                }
+            }
+            return BLOCK;
+        }
+    }
+
+    private final StripedMpscQueue<JtlRecord> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int overflowSampleRate;
+    private final int flushBytes;
+    private final long flushIntervalNanos;
+    private final Writer writer;
+    private final Thread writerThread;
+    private final JtlIndex index;
+    // Only touched by the writer thread (and by close() once it finished); null if disabled or failed
+    private BinarySampleLogWriter binaryLog;
+
+    private final LongAdder droppedCount = new LongAdder();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile boolean running = true;
+    // Set first by the writer thread when it finishes, or by close() when it gives up waiting for it;
+    // whoever comes second closes the files, so they are never closed while the writer thread uses them
+    private final AtomicBoolean closeHandOff = new AtomicBoolean();
+
+    // Only touched by the writer thread
+    private final StringBuilder batch;
+    private long lastFlushNanos;
+
+    /**
+     * Creates the JTL file, writes the header and starts the writer thread
+     * @param file JTL file to (re)create
+     * @param queueCapacity Maximum number of queued samples
+     * @param queueStripes Number of queue stripes sampler threads are spread over
+     * @param overflowPolicy Behaviour when the queue is full
+     * @param overflowSampleRate For {@link OverflowPolicy#SAMPLE}: keep one of this many overflowing samples
+     * @param flushBytes Flush once this many characters are buffered
+     * @param flushIntervalMs Flush buffered samples at least this often
+     * @throws IOException if the file cannot be created
+     */
+    public AsyncJtlWriter(File file, int queueCapacity, int queueStripes, OverflowPolicy overflowPolicy,
+                          int overflowSampleRate, int flushBytes, long flushIntervalMs) throws IOException {
+        this(file, null, queueCapacity, queueStripes, overflowPolicy, overflowSampleRate, flushBytes, flushIntervalMs);
+    }
+
+    /**
+     * Creates the JTL file, writes the header and starts the writer thread, which also writes a binary sample log
+     * @param binaryLog Binary sample log also written (and closed) by this writer, may be null
+     * @see #AsyncJtlWriter(File, int, int, OverflowPolicy, int, int, long)
+     */
+    public AsyncJtlWriter(File file, BinarySampleLogWriter binaryLog, int queueCapacity, int queueStripes,
+                          OverflowPolicy overflowPolicy, int overflowSampleRate, int flushBytes,
+                          long flushIntervalMs) throws IOException {
+        this(new FileOutputStream(file), binaryLog, queueCapacity, queueStripes, overflowPolicy, overflowSampleRate,
+            flushBytes, flushIntervalMs);
+    }
+
+    /**
+     * Writes the JTL to a stream, e.g. a {@link BlockCompressedOutputStream}, starting with the header.
+     * The stream is flushed with every batch.
+     * @param out Stream the JTL is written to (and closed by this writer)
+     * @see #AsyncJtlWriter(File, BinarySampleLogWriter, int, int, OverflowPolicy, int, int, long)
+     */
+    public AsyncJtlWriter(OutputStream out, BinarySampleLogWriter binaryLog, int queueCapacity, int queueStripes,
+                          OverflowPolicy overflowPolicy, int overflowSampleRate, int flushBytes,
+                          long flushIntervalMs) throws IOException {
+        this.binaryLog = binaryLog;
+        this.queue = new StripedMpscQueue<>(queueCapacity, queueStripes);
+        this.overflowPolicy = overflowPolicy;
+        this.overflowSampleRate = Math.max(1, overflowSampleRate);
+        this.flushBytes = Math.max(1024, flushBytes);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMs));
+        this.batch = new StringBuilder(this.flushBytes + 1024);
+
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), this.flushBytes);
+        writer.write(JtlRecord.HEADER);
+        writer.flush();
+        this.index = new JtlIndex(JtlRecord.HEADER.length());
+        this.lastFlushNanos = System.nanoTime();
+
+        this.writerThread = new Thread(this::runWriter, "LiveDashboardJtlWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void write(SampleResult result) {
+        if (!running) {
+            droppedCount.increment();
+            return;
+        }
+        JtlRecord record = JtlRecord.from(result);
+        if (queue.offer(record)) {
+            return;
+        }
+        switch (overflowPolicy) {
+            case DROP:
+                droppedCount.increment();
+                break;
+            case SAMPLE:
+                if (overflowCount.getAndIncrement() % overflowSampleRate == 0) {
+                    offerBlocking(record);
+                } else {
+                    droppedCount.increment();
+                }
+                break;
+            case BLOCK:
+            default:
+                offerBlocking(record);
+                break;
+        }
+    }
+
+    private void offerBlocking(JtlRecord record) {
+        LockSupport.unpark(writerThread);
+        // Back off exponentially so waiting sampler threads leave CPU to the writer thread
+        long parkNanos = MIN_FULL_PARK_NANOS;
+        while (!queue.offer(record)) {
+            if (!running) {
+                droppedCount.increment();
+                return;
+            }
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos * 2, MAX_FULL_PARK_NANOS);
+        }
+    }
+
+    private void runWriter() {
+        try {
+            writeUntilClosed();
+        } catch (IOException e) {
+            log.error("Error writing sample results to JTL file", e);
+        } finally {
+            if (!closeHandOff.compareAndSet(false, true)) {
+                // close() did not wait for this thread and left the files to it
+                try {
+                    closeFiles();
+                } catch (IOException e) {
+                    log.error("Error closing JTL file", e);
+                }
+            }
+        }
+    }
+
+    private void writeUntilClosed() throws IOException {
+        while (running) {
+            int drained = queue.drain(this::encode, DRAIN_BATCH);
+            long now = System.nanoTime();
+            if (batch.length() >= flushBytes
+                    || (batch.length() > 0 && now - lastFlushNanos >= flushIntervalNanos)) {
+                flushBatch(now);
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        // Drain whatever the sampler threads queued before close()
+        while (queue.drain(this::encode, DRAIN_BATCH) > 0) {
+            if (batch.length() >= flushBytes) {
+                flushBatch(System.nanoTime());
+            }
+        }
+        flushBatch(System.nanoTime());
+    }
+
+    private void encode(JtlRecord record) {
+        int start = batch.length();
+        record.appendCsv(batch);
+        index.add(record.getTimeStamp(), JtlIndex.utf8Length(batch, start, batch.length()));
+        if (binaryLog != null) {
+            try {
+                binaryLog.append(record);
+            } catch (IOException e) {
+                log.error("Error writing binary sample log, no more samples are written to it", e);
+                binaryLog = null;
+            }
+        }
+    }
+
+    private void flushBatch(long now) throws IOException {
+        if (batch.length() > 0) {
+            writer.append(batch);
+            batch.setLength(0);
+        }
+        writer.flush();
+        index.commit();
+        lastFlushNanos = now;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writerThread.isAlive() && closeHandOff.compareAndSet(false, true)) {
+            log.warn("JTL writer thread did not finish within {} ms, it closes the file once it does",
+                CLOSE_TIMEOUT_MS);
+        } else {
+            // Samples offered while the writer thread was finishing; this thread is now the only consumer
+            while (queue.drain(this::encode, DRAIN_BATCH) > 0) {
+                flushBatch(System.nanoTime());
+            }
+            closeFiles();
+        }
+        long dropped = droppedCount.sum();
+        if (dropped > 0) {
+            log.warn("Live dashboard JTL writer dropped {} samples because the queue was full", dropped);
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        writer.close();
+        if (binaryLog != null) {
+            binaryLog.close();
+        }
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    @Override
+    public JtlIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Number of samples waiting to be written
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,219 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the segments of a binary sample log written by {@link BinarySampleLogWriter}: replays the samples into
+ * the aggregation path or exports them as a CSV JTL. Segments are read through read-only mappings up to the data
+ * end recorded in their header, so a log still being written can be read as well.
+ * <p>
+ * Command line export: {@code BinarySampleLogReader <first segment, e.g. live-dashboard-00000.jtlb> <output.jtl>}
+ */
+public class BinarySampleLogReader {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(.+)-(\\d{5})" + Pattern.quote(BinarySampleLogWriter.EXTENSION));
+
+    private final List<File> segments;
+
+    /**
+     * Reads the log a segment file belongs to, from its first segment
+     * @param segment Any segment file of the log
+     */
+    public BinarySampleLogReader(File segment) {
+        Matcher matcher = SEGMENT_NAME.matcher(segment.getName());
+        File directory = segment.getAbsoluteFile().getParentFile();
+        this.segments = matcher.matches() ? segmentsOf(directory, matcher.group(1)) : List.of(segment);
+    }
+
+    /**
+     * Reads the log with the given name
+     * @param directory Directory of the segment files
+     * @param name Segment file name prefix
+     */
+    public BinarySampleLogReader(File directory, String name) {
+        this.segments = segmentsOf(directory, name);
+    }
+
+    /**
+     * Existing segment files of a log, in segment order
+     */
+    static List<File> segmentsOf(File directory, String name) {
+        List<File> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches() && matcher.group(1).equals(name)) {
+                    segments.add(file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    public List<File> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Reads all samples in the order they were written
+     * @param consumer Called with every sample
+     * @return Number of samples read
+     * @throws IOException if a segment cannot be read or is not a binary sample log
+     */
+    public long read(Consumer<JtlRecord> consumer) throws IOException {
+        long count = 0;
+        for (File segment : segments) {
+            count += readSegment(segment, consumer);
+        }
+        return count;
+    }
+
+    private static long readSegment(File segment, Consumer<JtlRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < BinarySampleLogWriter.HEADER_SIZE) {
+                throw new IOException("Not a binary sample log: " + segment);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != BinarySampleLogWriter.MAGIC) {
+                throw new IOException("Not a binary sample log: " + segment);
+            }
+            short version = buffer.getShort(4);
+            if (version != BinarySampleLogWriter.VERSION) {
+                throw new IOException("Unsupported binary sample log version " + version + ": " + segment);
+            }
+            int headerSize = buffer.getShort(6);
+            int sampleSize = buffer.getInt(12);
+            long dataEnd = Math.min(size, buffer.getLong(BinarySampleLogWriter.DATA_END_OFFSET));
+            buffer.position(headerSize);
+            buffer.limit((int) dataEnd);
+
+            List<String> dictionary = new ArrayList<>();
+            long count = 0;
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                if (type == BinarySampleLogWriter.ENTRY_STRING) {
+                    int id = buffer.getInt();
+                    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(bytes);
+                    while (dictionary.size() <= id) {
+                        dictionary.add(null);
+                    }
+                    dictionary.set(id, new String(bytes, StandardCharsets.UTF_8));
+                } else if (type == BinarySampleLogWriter.ENTRY_SAMPLE) {
+                    int start = buffer.position();
+                    long timeStamp = buffer.getLong();
+                    long bytes = buffer.getLong();
+                    long sentBytes = buffer.getLong();
+                    long elapsed = buffer.getInt();
+                    long latency = buffer.getInt();
+                    long idleTime = buffer.getInt();
+                    long connectTime = buffer.getInt();
+                    int grpThreads = buffer.getInt();
+                    int allThreads = buffer.getInt();
+                    String label = lookup(dictionary, buffer.getInt());
+                    String responseCode = lookup(dictionary, buffer.getInt());
+                    String responseMessage = lookup(dictionary, buffer.getInt());
+                    String threadName = lookup(dictionary, buffer.getInt());
+                    String dataType = lookup(dictionary, buffer.getInt());
+                    String url = lookup(dictionary, buffer.getInt());
+                    boolean success = buffer.get() != 0;
+                    // Newer versions may append fields to the sample entry
+                    buffer.position(start + sampleSize);
+                    consumer.accept(new JtlRecord(timeStamp, elapsed, label, responseCode, responseMessage, threadName,
+                        dataType, success, bytes, sentBytes, grpThreads, allThreads, url, latency, idleTime, connectTime));
+                    count++;
+                } else {
+                    throw new IOException("Corrupt binary sample log " + segment + " at offset " + (buffer.position() - 1));
+                }
+            }
+            return count;
+        }
+    }
+
+    private static String lookup(List<String> dictionary, int id) {
+        return id >= 0 && id < dictionary.size() ? dictionary.get(id) : null;
+    }
+
+    /**
+     * Replays all samples into the server-side aggregation, as {@link LiveDashboardEngine#sampleOccurred} does
+     * @param aggregator Aggregates to update
+     * @param evaluator Quality gates to update, may be null
+     * @return Number of samples replayed
+     */
+    public long replay(SampleAggregator aggregator, QualityGateEvaluator evaluator) throws IOException {
+        return read(record -> {
+            aggregator.add(record.getLabel(), record.getTimeStamp(), record.getElapsed(), record.isSuccess(),
+                record.getResponseCode(), record.getResponseMessage(), record.getBytes(), record.getConnectTime(),
+                record.getLatency(), record.getAllThreads());
+            if (evaluator != null) {
+                evaluator.add(record.getTimeStamp(), record.getElapsed(), record.isSuccess());
+            }
+        });
+    }
+
+    /**
+     * Writes all samples as a CSV JTL with the columns of the live JTL file ({@link JtlRecord#HEADER})
+     * @return Number of samples exported
+     */
+    public long exportCsv(Writer writer) throws IOException {
+        writer.write(JtlRecord.HEADER);
+        StringBuilder batch = new StringBuilder(64 * 1024);
+        IOException[] failure = new IOException[1];
+        long count = read(record -> {
+            if (failure[0] != null) {
+                return;
+            }
+            record.appendCsv(batch);
+            if (batch.length() >= 60 * 1024) {
+                try {
+                    writer.append(batch);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+                batch.setLength(0);
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        writer.append(batch);
+        writer.flush();
+        return count;
+    }
+
+    /**
+     * Exports a binary sample log to a CSV JTL
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BinarySampleLogReader <segment.jtlb> <output.jtl>");
+            System.exit(1);
+        }
+        BinarySampleLogReader reader = new BinarySampleLogReader(new File(args[0]));
+        if (reader.getSegments().isEmpty()) {
+            System.err.println("No binary sample log found: " + args[0]);
+            System.exit(1);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(new File(args[1]).toPath(), StandardCharsets.UTF_8)) {
+            long count = reader.exportCsv(writer);
+            System.out.println("Exported " + count + " samples from " + reader.getSegments().size() + " segment(s) to " + args[1]);
+        }
+    }
+}
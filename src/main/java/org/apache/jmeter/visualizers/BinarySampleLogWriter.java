@@ -0,0 +1,206 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes samples to a compact binary log through memory-mapped segment files, as an alternative to parsing the
+ * CSV JTL: name-00000.jtlb, name-00001.jtlb, ... each at most segmentBytes long.
+ * <p>
+ * Every segment starts with a {@link #HEADER_SIZE} byte header (magic, schema version, segment index, sample
+ * entry size, end of the written data, creation time) followed by entries:
+ * <ul>
+ * <li>{@link #ENTRY_STRING}: id (int), length (unsigned short), UTF-8 bytes. Defines a dictionary string
+ * (label, URL, thread name, response code, message or data type) before the first sample using it</li>
+ * <li>{@link #ENTRY_SAMPLE}: fixed-width sample, numbers as is and strings as dictionary ids (-1 for null)</li>
+ * </ul>
+ * The dictionary starts empty in every segment, so each segment can be read on its own. The data end in the
+ * header is updated after every entry, so a reader sees complete entries while the log is being written.
+ * Not thread-safe: called by one writer at a time.
+ */
+public class BinarySampleLogWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(BinarySampleLogWriter.class);
+
+    static final int MAGIC = 0x4A544C42; // "JTLB"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int DATA_END_OFFSET = 16;
+    static final String EXTENSION = ".jtlb";
+
+    static final byte ENTRY_STRING = 1;
+    static final byte ENTRY_SAMPLE = 2;
+    // timeStamp, bytes, sentBytes (long); elapsed, latency, idleTime, connectTime, grpThreads, allThreads (int);
+    // label, responseCode, responseMessage, threadName, dataType, URL (dictionary id); success (byte)
+    static final int SAMPLE_SIZE = 3 * 8 + 6 * 4 + 6 * 4 + 1;
+
+    private static final int MAX_STRING_BYTES = 0xFFFF;
+    private static final long MIN_SEGMENT_BYTES = 1024 * 1024;
+
+    private final File directory;
+    private final String name;
+    private final long segmentBytes;
+
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int segmentIndex = -1;
+    private long sampleCount;
+
+    /**
+     * Deletes the segments of a previous log with the same name and maps the first segment
+     * @param directory Directory of the segment files
+     * @param name Segment file name prefix
+     * @param segmentBytes Size at which a new segment is started (at least 1 MB)
+     * @throws IOException if the first segment cannot be created
+     */
+    public BinarySampleLogWriter(File directory, String name, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.segmentBytes = Math.max(MIN_SEGMENT_BYTES, Math.min(segmentBytes, Integer.MAX_VALUE));
+        for (File segment : BinarySampleLogReader.segmentsOf(directory, name)) {
+            if (!segment.delete()) {
+                log.warn("Could not delete previous binary log segment {}", segment);
+            }
+        }
+        openSegment();
+    }
+
+    /**
+     * File of a segment
+     */
+    static File segmentFile(File directory, String name, int index) {
+        return new File(directory, String.format("%s-%05d%s", name, index, EXTENSION));
+    }
+
+    private void openSegment() throws IOException {
+        closeSegment();
+        segmentIndex++;
+        dictionary.clear();
+        channel = FileChannel.open(segmentFile(directory, name, segmentIndex).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) HEADER_SIZE);
+        buffer.putInt(segmentIndex);
+        buffer.putInt(SAMPLE_SIZE);
+        buffer.putLong(HEADER_SIZE);
+        buffer.putLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Truncates the current segment to its data, the rest of the mapping is never used
+     */
+    private void closeSegment() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.truncate(buffer.position());
+        } catch (IOException e) {
+            // Not possible while mapped on some platforms; readers rely on the data end in the header
+            log.debug("Could not truncate binary log segment: {}", e.toString());
+        }
+        channel.close();
+        channel = null;
+        buffer = null;
+    }
+
+    /**
+     * Appends one sample, preceded by the dictionary entries of its new strings
+     */
+    public void append(JtlRecord record) throws IOException {
+        int label = stringId(record.getLabel());
+        int responseCode = stringId(record.getResponseCode());
+        int responseMessage = stringId(record.getResponseMessage());
+        int threadName = stringId(record.getThreadName());
+        int dataType = stringId(record.getDataType());
+        int url = stringId(record.getUrl());
+        if (label == Integer.MIN_VALUE || responseCode == Integer.MIN_VALUE || responseMessage == Integer.MIN_VALUE
+                || threadName == Integer.MIN_VALUE || dataType == Integer.MIN_VALUE || url == Integer.MIN_VALUE) {
+            // A new segment was started while defining the strings: define them all again there
+            append(record);
+            return;
+        }
+        if (buffer.remaining() < 1 + SAMPLE_SIZE) {
+            openSegment();
+            append(record);
+            return;
+        }
+        buffer.put(ENTRY_SAMPLE);
+        buffer.putLong(record.getTimeStamp());
+        buffer.putLong(record.getBytes());
+        buffer.putLong(record.getSentBytes());
+        buffer.putInt(toInt(record.getElapsed()));
+        buffer.putInt(toInt(record.getLatency()));
+        buffer.putInt(toInt(record.getIdleTime()));
+        buffer.putInt(toInt(record.getConnectTime()));
+        buffer.putInt(record.getGrpThreads());
+        buffer.putInt(record.getAllThreads());
+        buffer.putInt(label);
+        buffer.putInt(responseCode);
+        buffer.putInt(responseMessage);
+        buffer.putInt(threadName);
+        buffer.putInt(dataType);
+        buffer.putInt(url);
+        buffer.put((byte) (record.isSuccess() ? 1 : 0));
+        buffer.putLong(DATA_END_OFFSET, buffer.position());
+        sampleCount++;
+    }
+
+    /**
+     * Dictionary id of a string, defining it in the current segment if needed
+     * @return The id, -1 for null, or Integer.MIN_VALUE if a new segment had to be started
+     */
+    private int stringId(String value) throws IOException {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = dictionary.get(value);
+        if (id != null) {
+            return id;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        if (buffer.remaining() < 1 + 4 + 2 + length + 1 + SAMPLE_SIZE) {
+            openSegment();
+            return Integer.MIN_VALUE;
+        }
+        id = dictionary.size();
+        buffer.put(ENTRY_STRING);
+        buffer.putInt(id);
+        buffer.putShort((short) length);
+        buffer.put(bytes, 0, length);
+        buffer.putLong(DATA_END_OFFSET, buffer.position());
+        dictionary.put(value, id);
+        return id;
+    }
+
+    private static int toInt(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    /**
+     * Number of samples written
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Truncates the last segment to its data and closes it
+     */
+    public void close() throws IOException {
+        closeSegment();
+    }
+}
@@ -0,0 +1,240 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a file as a sequence of independent gzip members: bytes are buffered and every {@link #flush()} (or
+ * every {@link #MAX_BLOCK_BYTES}) compresses the buffer into one member appended to the file. The result is a
+ * valid gzip file at every flush, can be appended to indefinitely, and can be read at any uncompressed offset by
+ * decompressing only the member holding it, using the block table kept here.
+ * Written by one thread; the read methods may be called concurrently and only see flushed blocks.
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+
+    static final int MAX_BLOCK_BYTES = 256 * 1024;
+
+    private final File file;
+    private final OutputStream out;
+    private final Deflater deflater;
+    private byte[] buffer = new byte[64 * 1024];
+    private int buffered;
+
+    // Block table, guarded by this: block i holds uncompressed bytes [plainEnds[i-1], plainEnds[i]) and is stored
+    // at [compressedEnds[i-1], compressedEnds[i]) in the file
+    private long[] plainEnds = new long[256];
+    private long[] compressedEnds = new long[256];
+    private int blocks;
+    private volatile long plainLength;
+    private long compressedLength;
+
+    /**
+     * Creates (or truncates) the file
+     * @param level Deflater compression level, e.g. {@link Deflater#BEST_SPEED}
+     */
+    public BlockCompressedOutputStream(File file, int level) throws IOException {
+        this.file = file;
+        this.out = new FileOutputStream(file);
+        this.deflater = new Deflater(level, true);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (buffered == buffer.length) {
+            grow(1);
+        }
+        buffer[buffered++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (buffered == buffer.length) {
+                grow(length);
+            }
+            int count = Math.min(length, buffer.length - buffered);
+            System.arraycopy(bytes, offset, buffer, buffered, count);
+            buffered += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Makes room for more bytes: a larger buffer up to the maximum block size, else a block is written
+     */
+    private void grow(int needed) throws IOException {
+        if (buffer.length < MAX_BLOCK_BYTES) {
+            buffer = Arrays.copyOf(buffer, Math.min(MAX_BLOCK_BYTES, Math.max(buffer.length * 2, buffered + needed)));
+        } else {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Compresses the buffered bytes into a new member, making them visible to readers
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    private void writeBlock() throws IOException {
+        if (buffered == 0) {
+            return;
+        }
+        byte[] member = GzipMembers.compress(buffer, 0, buffered, deflater);
+        out.write(member);
+        synchronized (this) {
+            if (blocks == plainEnds.length) {
+                plainEnds = Arrays.copyOf(plainEnds, blocks * 2);
+                compressedEnds = Arrays.copyOf(compressedEnds, blocks * 2);
+            }
+            compressedLength += member.length;
+            plainEnds[blocks] = plainLength + buffered;
+            compressedEnds[blocks] = compressedLength;
+            blocks++;
+            plainLength += buffered;
+        }
+        buffered = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Uncompressed length of the flushed blocks
+     */
+    public long getPlainLength() {
+        return plainLength;
+    }
+
+    /**
+     * Index of the block holding an uncompressed offset (offset &lt; plain length)
+     */
+    private synchronized int blockAt(long offset) {
+        int index = Arrays.binarySearch(plainEnds, 0, blocks, offset);
+        // An offset equal to a block end is the start of the next block
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    private synchronized long plainStart(int block) {
+        return block > 0 ? plainEnds[block - 1] : 0;
+    }
+
+    private synchronized long plainEnd(int block) {
+        return plainEnds[block];
+    }
+
+    private synchronized long compressedStart(int block) {
+        return block > 0 ? compressedEnds[block - 1] : 0;
+    }
+
+    private synchronized long compressedEnd(int block) {
+        return compressedEnds[block];
+    }
+
+    /**
+     * Opens a reader of the uncompressed content
+     */
+    public Reader openReader() throws IOException {
+        return new Reader(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Reads the uncompressed content by decompressing the blocks holding the requested offsets, keeping the last
+     * decompressed block for sequential reads. Not thread-safe.
+     */
+    public class Reader implements AutoCloseable {
+        private final FileChannel channel;
+        private int cachedBlock = -1;
+        private byte[] cachedPlain;
+
+        private Reader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Reads uncompressed bytes at a position, up to the end of the block holding it
+         * @return Number of bytes read, -1 at the end of the flushed content
+         */
+        public int read(ByteBuffer destination, long position) throws IOException {
+            if (position >= plainLength) {
+                return -1;
+            }
+            int block = blockAt(position);
+            byte[] plain = decompress(block);
+            int from = (int) (position - plainStart(block));
+            int count = Math.min(destination.remaining(), plain.length - from);
+            destination.put(plain, from, count);
+            return count;
+        }
+
+        private byte[] decompress(int block) throws IOException {
+            if (block != cachedBlock) {
+                cachedPlain = GzipMembers.decompress(new ByteArrayInputStream(readCompressed(block)),
+                    (int) (plainEnd(block) - plainStart(block)));
+                cachedBlock = block;
+            }
+            return cachedPlain;
+        }
+
+        private byte[] readCompressed(int block) throws IOException {
+            long start = compressedStart(block);
+            ByteBuffer member = ByteBuffer.allocate((int) (compressedEnd(block) - start));
+            while (member.hasRemaining()) {
+                if (channel.read(member, start + member.position()) < 0) {
+                    throw new IOException("Compressed file is shorter than its block table: " + file);
+                }
+            }
+            return member.array();
+        }
+
+        /**
+         * Writes the uncompressed bytes [start, end) as a gzip stream. Whole blocks are copied as stored;
+         * only partially covered blocks at the edges are compressed again.
+         */
+        public void copyGzip(long start, long end, OutputStream destination, Deflater deflater) throws IOException {
+            end = Math.min(end, plainLength);
+            while (start < end) {
+                int block = blockAt(start);
+                long blockStart = plainStart(block);
+                long blockEnd = plainEnd(block);
+                if (start == blockStart && end >= blockEnd) {
+                    destination.write(readCompressed(block));
+                } else {
+                    byte[] plain = decompress(block);
+                    int from = (int) (start - blockStart);
+                    int to = (int) (Math.min(end, blockEnd) - blockStart);
+                    destination.write(GzipMembers.compress(plain, from, to - from, deflater));
+                }
+                start = blockEnd;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.apache.jmeter.visualizers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bookkeeping of the engines reporting to this dashboard in a distributed test ({@link ClusterDeltaReporter}):
+ * which delta of each engine was applied last, so deltas resent after a lost response are applied only once,
+ * and what each engine sent, served by /cluster. Thread-safe.
+ */
+final class ClusterCoordinator {
+
+    private static final class Engine {
+        private final String id;
+        private long runId;
+        private long lastSequence;
+        private long deltas;
+        private long bytes;
+        private long samples;
+        private long lastSeen;
+        private double cpuUsage = -1;
+        private double memoryUsage = -1;
+
+        Engine(String id, long runId) {
+            this.id = id;
+            this.runId = runId;
+        }
+    }
+
+    private final Map<String, Engine> engines = new LinkedHashMap<>();
+    private long duplicates;
+
+    /**
+     * True if the delta was not applied yet: a later delta of the engine's run, or the first delta of a new run
+     * of the engine
+     */
+    synchronized boolean isNew(ClusterDeltaReporter.DeltaHeader header) {
+        Engine engine = engines.get(header.engineId);
+        if (engine != null && engine.runId == header.runId && header.sequence <= engine.lastSequence) {
+            duplicates++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records a delta that was applied
+     * @param payloadBytes Size of the delta request body
+     * @param samples Number of samples in the delta
+     */
+    synchronized void applied(ClusterDeltaReporter.DeltaHeader header, long payloadBytes, long samples) {
+        Engine engine = engines.get(header.engineId);
+        if (engine == null || engine.runId != header.runId) {
+            // Counts restart with a new run (e.g. the next test) of the engine
+            engine = new Engine(header.engineId, header.runId);
+            engines.put(header.engineId, engine);
+        }
+        engine.lastSequence = header.sequence;
+        engine.deltas++;
+        engine.bytes += payloadBytes;
+        engine.samples += samples;
+        engine.lastSeen = System.currentTimeMillis();
+        engine.cpuUsage = header.cpuUsage;
+        engine.memoryUsage = header.memoryUsage;
+    }
+
+    /**
+     * Forgets all engines, e.g. when a new test starts
+     */
+    synchronized void reset() {
+        engines.clear();
+        duplicates = 0;
+    }
+
+    /**
+     * Engines that reported, with their delta counts and sizes and last CPU and memory usage
+     */
+    synchronized String toJson() {
+        List<Engine> snapshot = new ArrayList<>(engines.values());
+        StringBuilder json = new StringBuilder(256 + snapshot.size() * 256);
+        json.append("{\"duplicates\":").append(duplicates).append(",\"engines\":[");
+        for (int i = 0; i < snapshot.size(); i++) {
+            Engine engine = snapshot.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":");
+            SampleAggregator.appendJsonString(json, engine.id);
+            json.append(",\"runId\":").append(engine.runId)
+                .append(",\"lastSequence\":").append(engine.lastSequence)
+                .append(",\"deltas\":").append(engine.deltas)
+                .append(",\"bytes\":").append(engine.bytes)
+                .append(",\"avgDeltaBytes\":").append(engine.deltas > 0 ? engine.bytes / engine.deltas : 0)
+                .append(",\"samples\":").append(engine.samples)
+                .append(",\"lastSeen\":").append(engine.lastSeen)
+                .append(",\"cpuUsage\":").append(format(engine.cpuUsage))
+                .append(",\"memoryUsage\":").append(format(engine.memoryUsage))
+                .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String format(double value) {
+        return value >= 0 ? String.format(Locale.ROOT, "%.2f", value) : "null";
+    }
+}
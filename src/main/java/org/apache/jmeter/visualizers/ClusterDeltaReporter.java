@@ -0,0 +1,415 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Engine side of distributed tests: aggregates the samples of this JVM like the dashboard does
+ * ({@link SampleAggregator}) and every interval POSTs the aggregates of that interval, compactly encoded, to the
+ * /cluster/delta endpoint of the coordinator (the dashboard of the controlling JMeter), which merges the deltas of
+ * all engines. A delta holds the buckets, histograms and response code counts touched during the interval, so its
+ * size depends on the number of labels and the spread of the response times, not on the number of samples.
+ * <p>
+ * A delta that could not be sent is resent with the same sequence number at the next interval (the coordinator
+ * ignores sequences it already applied) while new samples keep accumulating, so nothing is lost while the
+ * coordinator is unreachable for a while.
+ * <p>
+ * The main method replays JTL files as an engine, to exercise a coordinator without remote JMeter servers:
+ * <pre>
+ * java -cp live-dashboard-listener.jar:$JMETER_HOME/lib/* org.apache.jmeter.visualizers.ClusterDeltaReporter \
+ *     --coordinator http://localhost:9090 --engine-id engine-1 results.jtl
+ * </pre>
+ */
+public class ClusterDeltaReporter implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterDeltaReporter.class);
+
+    static final String DELTA_PATH = "/cluster/delta";
+    // Carries the shared token of live.dashboard.cluster.token, checked by the coordinator
+    static final String TOKEN_HEADER = "X-Live-Dashboard-Token";
+    // Identifies a delta request body (and the version of its header)
+    static final int PAYLOAD_MAGIC = 0x4C444344;
+    static final int MAX_ENGINE_ID_LENGTH = 256;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 10000;
+    // Attempts to send the last delta when the test ends, one interval apart
+    private static final int CLOSE_ATTEMPTS = 5;
+
+    private final URL deltaUrl;
+    private final String engineId;
+    // Shared token sent with every delta, null if none
+    private final String token;
+    private final long runId = System.currentTimeMillis();
+    private final long intervalMillis;
+    private final SystemMetricsCollector systemMetrics;
+    private final SampleAggregator pending;
+    private final Thread reporterThread;
+    private volatile boolean running = true;
+
+    // Delta that could not be sent yet and its sequence number (reporter thread only, then close)
+    private byte[] unsent;
+    private long sequence;
+
+    private final AtomicLong deltasSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Starts reporting to a coordinator
+     * @param coordinator Base URL of the coordinator's dashboard, e.g. http://controller:9090
+     * @param engineId Name of this engine on the coordinator, unique among the engines of a test
+     * @param intervalMillis Time between two deltas
+     * @param bucketMillis Width of the time buckets, the same as on the coordinator
+     * @param relativeError Relative error of the histograms, the same as on the coordinator
+     * @param systemMetrics Collector of the CPU and memory usage sent with every delta (sampled at most once per
+     *                      its collection interval), or null
+     */
+    public ClusterDeltaReporter(String coordinator, String engineId, long intervalMillis, long bucketMillis,
+                                double relativeError, SystemMetricsCollector systemMetrics) throws IOException {
+        this(coordinator, engineId, intervalMillis, bucketMillis, relativeError, systemMetrics, null, null);
+    }
+
+    /**
+     * Starts reporting to a coordinator, aggregating the labels through a dictionary so the size of the deltas
+     * stays bounded too (the coordinator folds the labels again with its own dictionary)
+     * @param labels Dictionary normalizing and bounding the labels, or null
+     * @param token Token the coordinator requires (live.dashboard.cluster.token), or null
+     */
+    ClusterDeltaReporter(String coordinator, String engineId, long intervalMillis, long bucketMillis,
+                         double relativeError, SystemMetricsCollector systemMetrics, LabelDictionary labels,
+                         String token) throws IOException {
+        String base = coordinator.endsWith("/") ? coordinator.substring(0, coordinator.length() - 1) : coordinator;
+        this.deltaUrl = new URL(base + DELTA_PATH);
+        this.engineId = engineId.length() > MAX_ENGINE_ID_LENGTH ? engineId.substring(0, MAX_ENGINE_ID_LENGTH) : engineId;
+        this.token = token != null && !token.isEmpty() ? token : null;
+        this.intervalMillis = Math.max(100, intervalMillis);
+        this.systemMetrics = systemMetrics;
+        this.pending = new SampleAggregator(bucketMillis, relativeError, labels);
+        this.reporterThread = new Thread(this::runReporter, "LiveDashboardClusterReporter");
+        reporterThread.setDaemon(true);
+        reporterThread.start();
+    }
+
+    /**
+     * Default name of this engine: host name and process id
+     */
+    public static String defaultEngineId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "localhost";
+        }
+        return host + ":" + ProcessHandle.current().pid();
+    }
+
+    public String getEngineId() {
+        return engineId;
+    }
+
+    /**
+     * Records one sample. Called concurrently from sampler threads.
+     */
+    public void add(SampleResult result) {
+        pending.add(result);
+    }
+
+    /**
+     * Records one sample from individual values, like {@link SampleAggregator#add(String, long, long, boolean,
+     * String, String, long, long, long, int)}
+     */
+    public void add(String label, long timeStamp, long elapsed, boolean success, String responseCode,
+                    String responseMessage, long bytes, long connectTime, long latency, int allThreads) {
+        pending.add(label, timeStamp, elapsed, success, responseCode, responseMessage, bytes, connectTime, latency,
+            allThreads);
+    }
+
+    public long getDeltasSent() {
+        return deltasSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private void runReporter() {
+        long next = System.nanoTime() + intervalMillis * 1_000_000L;
+        while (running) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            next += intervalMillis * 1_000_000L;
+            report();
+        }
+    }
+
+    /**
+     * Sends the samples collected so far without waiting for the next interval
+     * @return True if they were sent, false if the coordinator could not be reached (they are sent later)
+     */
+    public boolean flush() {
+        return report();
+    }
+
+    /**
+     * Sends the delta left over from a failed attempt, then the samples collected since the last delta
+     * @return True if everything was sent
+     */
+    private synchronized boolean report() {
+        if (unsent != null && !send(unsent)) {
+            return false;
+        }
+        unsent = null;
+        SampleAggregator delta = pending.drain();
+        if (delta.isEmpty()) {
+            return true;
+        }
+        try {
+            unsent = encode(++sequence, delta);
+        } catch (IOException e) {
+            // Writes to memory only
+            throw new IllegalStateException(e);
+        }
+        if (!send(unsent)) {
+            return false;
+        }
+        unsent = null;
+        return true;
+    }
+
+    private byte[] encode(long deltaSequence, SampleAggregator delta) throws IOException {
+        double cpu = -1;
+        double memory = -1;
+        if (systemMetrics != null) {
+            SystemMetricsSnapshot snapshot = systemMetrics.collectMetrics();
+            cpu = snapshot.getCpuUsage();
+            memory = snapshot.getMemoryUsage();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(PAYLOAD_MAGIC);
+            out.writeUTF(engineId);
+            out.writeLong(runId);
+            out.writeLong(deltaSequence);
+            out.writeDouble(cpu);
+            out.writeDouble(memory);
+            delta.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private boolean send(byte[] payload) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) deltaUrl.openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(payload.length);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            if (token != null) {
+                connection.setRequestProperty(TOKEN_HEADER, token);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(payload);
+            }
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    in.readAllBytes();
+                }
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status);
+            }
+            deltasSent.incrementAndGet();
+            bytesSent.addAndGet(payload.length);
+            return true;
+        } catch (IOException e) {
+            if (failures.incrementAndGet() == 1) {
+                log.warn("Could not send aggregates to {}, retrying every interval: {}", deltaUrl, e.toString());
+            } else {
+                log.debug("Could not send aggregates to {}: {}", deltaUrl, e.toString());
+            }
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Stops the reporter thread and sends the remaining samples, retrying a few times if the coordinator
+     * cannot be reached
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(reporterThread);
+        try {
+            reporterThread.join(READ_TIMEOUT_MS + CONNECT_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int attempt = 1; !report(); attempt++) {
+            if (attempt == CLOSE_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                log.error("Could not send the last aggregates of {} to {}", engineId, deltaUrl);
+                return;
+            }
+            LockSupport.parkNanos(intervalMillis * 1_000_000L);
+        }
+        log.info("Sent {} deltas ({} bytes) to {}", deltasSent.get(), bytesSent.get(), deltaUrl);
+    }
+
+    /**
+     * Header of a delta request body, read by the coordinator before the aggregates
+     */
+    static final class DeltaHeader {
+        final String engineId;
+        final long runId;
+        final long sequence;
+        final double cpuUsage;
+        final double memoryUsage;
+
+        private DeltaHeader(String engineId, long runId, long sequence, double cpuUsage, double memoryUsage) {
+            this.engineId = engineId;
+            this.runId = runId;
+            this.sequence = sequence;
+            this.cpuUsage = cpuUsage;
+            this.memoryUsage = memoryUsage;
+        }
+
+        static DeltaHeader readFrom(DataInput in) throws IOException {
+            if (in.readInt() != PAYLOAD_MAGIC) {
+                throw new IOException("Not a cluster delta");
+            }
+            String engineId = in.readUTF();
+            if (engineId.isEmpty() || engineId.length() > MAX_ENGINE_ID_LENGTH) {
+                throw new IOException("Invalid engine id");
+            }
+            return new DeltaHeader(engineId, in.readLong(), in.readLong(), in.readDouble(), in.readDouble());
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: ClusterDeltaReporter [options] <results.jtl>...");
+        System.err.println("  --coordinator <url>  Dashboard receiving the deltas (default http://localhost:9090)");
+        System.err.println("  --engine-id <id>     Name of this engine (default: host name and process id)");
+        System.err.println("  --interval-ms <ms>   Time between deltas (default 1000)");
+        System.err.println("  --bucket-ms <ms>     Width of the time buckets, as on the coordinator (default 5000)");
+        System.err.println("  --speed <factor>     Replay speed relative to the recorded timestamps, 0 for no pauses (default 0)");
+        System.err.println("  --token <token>      Token the coordinator requires (live.dashboard.cluster.token)");
+    }
+
+    /**
+     * Replays JTL files as an engine of a distributed test: the samples are reported with their recorded
+     * timestamps, optionally paced like the recorded test
+     */
+    public static void main(String[] args) throws Exception {
+        String coordinator = "http://localhost:9090";
+        String engineId = defaultEngineId();
+        long intervalMillis = 1000;
+        long bucketMillis = 5000;
+        double speed = 0;
+        String token = null;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--") && i + 1 >= args.length) {
+                usage();
+                System.exit(JtlAnalyzer.EXIT_ERROR);
+            } else if (arg.equals("--coordinator")) {
+                coordinator = args[++i];
+            } else if (arg.equals("--engine-id")) {
+                engineId = args[++i];
+            } else if (arg.equals("--interval-ms")) {
+                intervalMillis = Long.parseLong(args[++i]);
+            } else if (arg.equals("--bucket-ms")) {
+                bucketMillis = Long.parseLong(args[++i]);
+            } else if (arg.equals("--speed")) {
+                speed = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--token")) {
+                token = args[++i];
+            } else if (arg.startsWith("--")) {
+                usage();
+                System.exit(JtlAnalyzer.EXIT_ERROR);
+            } else {
+                files.add(new File(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            usage();
+            System.exit(JtlAnalyzer.EXIT_ERROR);
+        }
+
+        long samples = 0;
+        ClusterDeltaReporter reporter = new ClusterDeltaReporter(coordinator, engineId, intervalMillis, bucketMillis,
+            0.01, null, null, token);
+        try {
+            for (File file : files) {
+                samples += new JtlCsvParser(new Pacer(reporter, speed)).parse(file);
+            }
+        } finally {
+            reporter.close();
+        }
+        System.err.println(String.format(Locale.ROOT, "%s: %d samples, %d deltas, %d bytes, %d failed attempts",
+            engineId, samples, reporter.getDeltasSent(), reporter.getBytesSent(), reporter.getFailures()));
+    }
+
+    /**
+     * Forwards replayed samples to the reporter, sleeping so they arrive at the recorded pace times the speed
+     */
+    private static final class Pacer implements JtlCsvParser.SampleSink {
+        private final ClusterDeltaReporter reporter;
+        private final double speed;
+        private long firstTimestamp = Long.MIN_VALUE;
+        private final long startNanos = System.nanoTime();
+
+        Pacer(ClusterDeltaReporter reporter, double speed) {
+            this.reporter = reporter;
+            this.speed = speed;
+        }
+
+        @Override
+        public void sample(String label, long timeStamp, long elapsed, boolean success, String responseCode,
+                           String responseMessage, long bytes, long connectTime, long latency, int allThreads) {
+            if (speed > 0) {
+                if (firstTimestamp == Long.MIN_VALUE) {
+                    firstTimestamp = timeStamp;
+                }
+                long due = startNanos + (long) ((timeStamp - firstTimestamp) * 1_000_000L / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            reporter.add(label, timeStamp, elapsed, success, responseCode, responseMessage, bytes, connectTime,
+                latency, allThreads);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package org.apache.jmeter.visualizers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor for the dashboard HTTP server.
+ * Requests run on a bounded thread pool, or one virtual thread per request when the JVM supports it (JDK 21+,
+ * otherwise the pool is used). Admission is bounded: with the pool by its queue, with virtual threads by a
+ * maximum number of requests in flight. A request over the limit runs on the server's dispatcher thread with
+ * {@link #isRejected()} set, so the handler can answer 503 right away instead of doing the work there.
+ */
+public class DashboardHttpExecutor implements Executor {
+
+    private static final Logger log = LoggerFactory.getLogger(DashboardHttpExecutor.class);
+
+    private static final ThreadLocal<Boolean> REJECTED = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * How requests are executed
+     */
+    public enum Mode {
+        /** Fixed thread pool with a bounded queue */
+        POOL,
+        /** One virtual thread per request (JDK 21+) */
+        VIRTUAL,
+        /** Everything on the server's dispatcher thread (the HttpServer default) */
+        DISPATCHER;
+
+        /**
+         * Parses a mode name, falling back to POOL for unknown values
+         */
+        public static Mode fromString(String value) {
+            if (value != null) {
+                for (Mode mode : values()) {
+                    if (mode.name().equalsIgnoreCase(value.trim())) {
+                        return mode;
+                    }
+                }
+            }
+            return POOL;
+        }
+    }
+
+    private final Mode mode;
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService virtualExecutor;
+    private final Semaphore virtualPermits;
+    private final int maxInFlight;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * Creates the executor
+     * @param requestedMode Execution mode; VIRTUAL falls back to POOL before JDK 21
+     * @param threads Pool size
+     * @param queueCapacity Requests waiting for a pool thread before new ones are rejected
+     * @param maxInFlight Requests running at the same time on virtual threads before new ones are rejected
+     */
+    public DashboardHttpExecutor(Mode requestedMode, int threads, int queueCapacity, int maxInFlight) {
+        ExecutorService virtual = requestedMode == Mode.VIRTUAL ? createVirtualThreadExecutor() : null;
+        this.mode = requestedMode == Mode.VIRTUAL && virtual == null ? Mode.POOL : requestedMode;
+        this.virtualExecutor = virtual;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.virtualPermits = virtual != null ? new Semaphore(this.maxInFlight) : null;
+
+        if (mode == Mode.POOL) {
+            int poolSize = Math.max(1, threads);
+            pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), new DaemonThreadFactory(),
+                (task, executor) -> runRejected(task));
+            pool.allowCoreThreadTimeOut(true);
+        } else {
+            pool = null;
+        }
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() looked up reflectively, so the plugin still builds and runs on JDK 17
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.info("Virtual threads not available on Java {}, using a thread pool for the dashboard server",
+                System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        switch (mode) {
+            case POOL:
+                pool.execute(task);
+                break;
+            case VIRTUAL:
+                if (!virtualPermits.tryAcquire()) {
+                    runRejected(task);
+                    return;
+                }
+                try {
+                    virtualExecutor.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            virtualPermits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    virtualPermits.release();
+                    runRejected(task);
+                }
+                break;
+            default:
+                task.run();
+                break;
+        }
+    }
+
+    private void runRejected(Runnable task) {
+        rejectedCount.increment();
+        REJECTED.set(Boolean.TRUE);
+        try {
+            task.run();
+        } finally {
+            REJECTED.set(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * True if requests run on the server's dispatcher thread, i.e. the server needs no executor
+     */
+    public boolean isDispatcherOnly() {
+        return mode == Mode.DISPATCHER;
+    }
+
+    /**
+     * True while the current thread runs a request that exceeded the admission limit
+     */
+    public static boolean isRejected() {
+        return REJECTED.get();
+    }
+
+    /**
+     * Stops the worker threads; requests in progress complete
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        if (virtualExecutor != null) {
+            virtualExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Appends the executor state as a JSON object
+     */
+    public void appendJson(StringBuilder json) {
+        json.append("{\"mode\":\"").append(mode.name().toLowerCase()).append('"')
+            .append(",\"rejected\":").append(rejectedCount.sum());
+        if (pool != null) {
+            json.append(",\"threads\":").append(pool.getMaximumPoolSize())
+                .append(",\"active\":").append(pool.getActiveCount())
+                .append(",\"queued\":").append(pool.getQueue().size())
+                .append(",\"queueCapacity\":").append(pool.getQueue().size() + pool.getQueue().remainingCapacity())
+                .append(",\"completed\":").append(pool.getCompletedTaskCount());
+        } else if (virtualPermits != null) {
+            json.append(",\"active\":").append(maxInFlight - virtualPermits.availablePermits())
+                .append(",\"maxInFlight\":").append(maxInFlight);
+        }
+        json.append('}');
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "LiveDashboardHttp-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes and flushes every sample on the calling sampler thread.
+ * Writes are serialized on this writer so concurrent sampler threads cannot interleave lines.
+ * Optionally every sample is also appended to a {@link BinarySampleLogWriter binary sample log}.
+ */
+public class DirectJtlWriter implements JtlSampleWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectJtlWriter.class);
+
+    private final BufferedWriter writer;
+    private final StringBuilder line = new StringBuilder(256);
+    private final JtlIndex index;
+    private BinarySampleLogWriter binaryLog;
+
+    /**
+     * Creates the JTL file and writes the header
+     * @param file JTL file to (re)create
+     * @throws IOException if the file cannot be created
+     */
+    public DirectJtlWriter(File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Creates the JTL file and writes the header
+     * @param file JTL file to (re)create
+     * @param binaryLog Binary sample log also written (and closed) by this writer, may be null
+     * @throws IOException if the file cannot be created
+     */
+    public DirectJtlWriter(File file, BinarySampleLogWriter binaryLog) throws IOException {
+        this(new FileOutputStream(file), binaryLog);
+    }
+
+    /**
+     * Writes the JTL to a stream, e.g. a {@link BlockCompressedOutputStream}, starting with the header.
+     * Every sample flushes the stream.
+     * @param out Stream the JTL is written to (and closed by this writer)
+     * @param binaryLog Binary sample log also written (and closed) by this writer, may be null
+     * @throws IOException if the header cannot be written
+     */
+    public DirectJtlWriter(OutputStream out, BinarySampleLogWriter binaryLog) throws IOException {
+        this.binaryLog = binaryLog;
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(JtlRecord.HEADER);
+        writer.flush();
+        this.index = new JtlIndex(JtlRecord.HEADER.length());
+    }
+
+    @Override
+    public synchronized void write(SampleResult result) {
+        try {
+            line.setLength(0);
+            JtlRecord record = JtlRecord.from(result);
+            record.appendCsv(line);
+            writer.append(line);
+            writer.flush();
+            index.add(record.getTimeStamp(), JtlIndex.utf8Length(line, 0, line.length()));
+            index.commit();
+            if (binaryLog != null) {
+                appendBinary(record);
+            }
+        } catch (IOException e) {
+            log.error("Error writing sample result to JTL file", e);
+        }
+    }
+
+    private void appendBinary(JtlRecord record) {
+        try {
+            binaryLog.append(record);
+        } catch (IOException e) {
+            log.error("Error writing binary sample log, no more samples are written to it", e);
+            binaryLog = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+        if (binaryLog != null) {
+            binaryLog.close();
+        }
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return 0;
+    }
+
+    @Override
+    public JtlIndex getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,133 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+import org.apache.jmeter.samplers.AbstractSampleSender;
+import org.apache.jmeter.samplers.RemoteSampleListener;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sample sender of distributed tests that aggregates on the remote engines instead of shipping samples: selected
+ * on the controller with
+ * <pre>
+ * mode=org.apache.jmeter.visualizers.DistributedSampleSender
+ * </pre>
+ * each engine reports its aggregates to the live dashboard of the controller every interval
+ * ({@link ClusterDeltaReporter}), so the traffic per engine does not grow with the sample rate. Samples are
+ * not sent to the controller's listeners over RMI, only the test start and end events are.
+ * <p>
+ * Created on the controller, where the coordinator URL, aggregation settings and shared token are read, then
+ * serialized to every engine. All senders of an engine JVM (one per listener of the plan) share one reporter,
+ * and a sample is reported once even when several listeners see it.
+ */
+public class DistributedSampleSender extends AbstractSampleSender implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = LoggerFactory.getLogger(DistributedSampleSender.class);
+
+    static final String COORDINATOR_PROPERTY = "live.dashboard.cluster.coordinator";
+    static final String INTERVAL_PROPERTY = "live.dashboard.cluster.interval_ms";
+    static final String ENGINE_ID_PROPERTY = "live.dashboard.cluster.engine_id";
+    static final String TOKEN_PROPERTY = "live.dashboard.cluster.token";
+    private static final String PORT_PROPERTY = "live.dashboard.port";
+
+    // Reporter shared by the senders of this JVM and the number of senders using it
+    private static ClusterDeltaReporter sharedReporter;
+    private static int sharedReporterUsers;
+    // Last sample reported by each sampler thread: listeners are notified one after the other on that thread
+    private static final ThreadLocal<SampleResult> LAST_REPORTED = new ThreadLocal<>();
+
+    private final RemoteSampleListener listener;
+    private final String coordinator;
+    private final long intervalMillis;
+    private final long bucketMillis;
+    private final double relativeError;
+    private final String token;
+
+    private transient ClusterDeltaReporter reporter;
+
+    /**
+     * Called on the controller by JMeter's SampleSenderFactory
+     */
+    public DistributedSampleSender(RemoteSampleListener listener) {
+        this.listener = listener;
+        this.coordinator = JMeterUtils.getPropDefault(COORDINATOR_PROPERTY, "http://" + JMeterUtils.getLocalHostIP()
+            + ":" + JMeterUtils.getPropDefault(PORT_PROPERTY, LiveDashboardEngine.DEFAULT_PORT));
+        this.intervalMillis = JMeterUtils.getPropDefault(INTERVAL_PROPERTY, 1000L);
+        this.bucketMillis = LiveDashboardEngine.aggregateBucketMillis();
+        this.relativeError = LiveDashboardEngine.histogramRelativeError();
+        this.token = JMeterUtils.getProperty(TOKEN_PROPERTY);
+        log.info("Remote engines will report aggregates to {} every {} ms", coordinator, intervalMillis);
+    }
+
+    /**
+     * Called on the engine once deserialized: joins (or starts) the reporter of this JVM. A coordinator
+     * configured on the engine overrides the one of the controller, e.g. when the engines reach the controller
+     * through another address.
+     */
+    private Object readResolve() throws ObjectStreamException {
+        String target = JMeterUtils.getPropDefault(COORDINATOR_PROPERTY, coordinator);
+        synchronized (DistributedSampleSender.class) {
+            if (sharedReporter == null) {
+                String engineId = JMeterUtils.getPropDefault(ENGINE_ID_PROPERTY, ClusterDeltaReporter.defaultEngineId());
+                try {
+                    sharedReporter = new ClusterDeltaReporter(target, engineId, intervalMillis, bucketMillis,
+                        relativeError, new SystemMetricsCollector(intervalMillis), LabelDictionary.fromProperties(),
+                        JMeterUtils.getPropDefault(TOKEN_PROPERTY, token));
+                } catch (IOException e) {
+                    log.error("Invalid live dashboard coordinator {}, aggregates will not be reported", target, e);
+                    return this;
+                }
+                log.info("Reporting aggregates as {} to {} every {} ms", engineId, target, intervalMillis);
+            }
+            sharedReporterUsers++;
+            reporter = sharedReporter;
+        }
+        return this;
+    }
+
+    @Override
+    public void sampleOccurred(SampleEvent event) {
+        SampleResult result = event.getResult();
+        if (reporter != null && LAST_REPORTED.get() != result) {
+            LAST_REPORTED.set(result);
+            reporter.add(result);
+        }
+    }
+
+    @Override
+    public void testEnded(String host) {
+        LAST_REPORTED.remove();
+        if (reporter != null) {
+            release(reporter);
+            reporter = null;
+        }
+        try {
+            listener.testEnded(host);
+        } catch (RemoteException e) {
+            log.warn("Could not notify the end of the test on {}: {}", host, e.toString());
+        }
+    }
+
+    /**
+     * Sends the samples of this JVM reported so far, so the controller has them when it learns the test ended
+     * on this host; the last sender stops the reporter
+     */
+    private static void release(ClusterDeltaReporter released) {
+        synchronized (DistributedSampleSender.class) {
+            if (released == sharedReporter && --sharedReporterUsers == 0) {
+                sharedReporter = null;
+                released.close();
+                return;
+            }
+        }
+        released.flush();
+    }
+}
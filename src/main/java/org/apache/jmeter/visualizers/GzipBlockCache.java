@@ -0,0 +1,140 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip responses for a growing, uncompressed file (the live JTL) without compressing the same data twice.
+ * The file is cut into aligned blocks of {@link #BLOCK_BYTES}; a block that is complete is compressed once into
+ * a gzip member and cached (least recently used first out, up to a byte budget). A response covering a range is
+ * the concatenation of the cached members of its whole blocks plus freshly compressed partial blocks at the edges.
+ * Thread-safe.
+ */
+public class GzipBlockCache {
+
+    static final int BLOCK_BYTES = 256 * 1024;
+
+    private final long maxBytes;
+    private final int level;
+    // Blocks of the file identified by path and creation key, most recently used last
+    private final LinkedHashMap<String, byte[]> members = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes Maximum size of the cached members
+     * @param level Deflater compression level
+     */
+    public GzipBlockCache(long maxBytes, int level) {
+        this.maxBytes = maxBytes;
+        this.level = level;
+    }
+
+    /**
+     * Writes the bytes [start, end) of a file as a gzip stream
+     * @param fileKey Identifies the file content, e.g. path and generation; blocks are reused for the same key
+     * @param fileLength Length of the file considered complete; blocks reaching beyond it are not cached
+     */
+    public void copyGzip(String fileKey, FileChannel channel, long start, long end, long fileLength,
+                         OutputStream out) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            byte[] block = null;
+            while (start < end) {
+                long blockIndex = start / BLOCK_BYTES;
+                long blockStart = blockIndex * BLOCK_BYTES;
+                long blockEnd = blockStart + BLOCK_BYTES;
+                if (start == blockStart && end >= blockEnd && blockEnd <= fileLength) {
+                    String key = fileKey + '#' + blockIndex;
+                    byte[] member = get(key);
+                    if (member == null) {
+                        block = read(channel, blockStart, BLOCK_BYTES, block);
+                        member = GzipMembers.compress(block, 0, BLOCK_BYTES, deflater);
+                        put(key, member);
+                    }
+                    out.write(member);
+                    start = blockEnd;
+                } else {
+                    int length = (int) (Math.min(end, blockEnd) - start);
+                    block = read(channel, start, length, block);
+                    out.write(GzipMembers.compress(block, 0, length, deflater));
+                    start += length;
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length, byte[] reuse) throws IOException {
+        byte[] bytes = reuse != null && reuse.length >= length ? reuse : new byte[BLOCK_BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("File is shorter than expected");
+            }
+        }
+        return bytes;
+    }
+
+    private synchronized byte[] get(String key) {
+        byte[] member = members.get(key);
+        if (member != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return member;
+    }
+
+    private synchronized void put(String key, byte[] member) {
+        if (member.length > maxBytes) {
+            return;
+        }
+        byte[] previous = members.put(key, member);
+        cachedBytes += member.length - (previous != null ? previous.length : 0);
+        Iterator<Map.Entry<String, byte[]>> eldest = members.entrySet().iterator();
+        while (cachedBytes > maxBytes && eldest.hasNext()) {
+            cachedBytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the cached blocks of a file, e.g. when it is recreated
+     */
+    public synchronized void invalidate(File file) {
+        String prefix = file.getPath() + '@';
+        Iterator<Map.Entry<String, byte[]>> entries = members.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, byte[]> entry = entries.next();
+            if (entry.getKey().startsWith(prefix)) {
+                cachedBytes -= entry.getValue().length;
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Key of a file for {@link #copyGzip}: its path and a value changing whenever it is recreated
+     */
+    public static String fileKey(File file, long generation) {
+        return file.getPath() + '@' + generation;
+    }
+
+    /**
+     * Cache state as a JSON object
+     */
+    public synchronized String toJson() {
+        return "{\"blocks\":" + members.size() + ",\"bytes\":" + cachedBytes + ",\"maxBytes\":" + maxBytes
+            + ",\"hits\":" + hits + ",\"misses\":" + misses + "}";
+    }
+}
@@ -0,0 +1,83 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds complete gzip members (RFC 1952) with the JDK {@link Deflater}. Concatenated members form a valid gzip
+ * stream that decompresses to the concatenation of their contents, which is what makes block-compressed files
+ * appendable and lets compressed blocks be reused in any response covering them.
+ */
+final class GzipMembers {
+
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private GzipMembers() {
+    }
+
+    /**
+     * Compresses data into one gzip member
+     * @param deflater Deflater created with nowrap=true; it is reset before use
+     */
+    static byte[] compress(byte[] data, int offset, int length, Deflater deflater) {
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        ByteArrayOutputStream member = new ByteArrayOutputStream(Math.max(64, length / 4));
+        member.write(HEADER, 0, HEADER.length);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int produced = deflater.deflate(buffer);
+            member.write(buffer, 0, produced);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        writeIntLE(member, (int) crc.getValue());
+        writeIntLE(member, length);
+        return member.toByteArray();
+    }
+
+    /**
+     * Compresses data into one gzip member with a temporary Deflater
+     */
+    static byte[] compress(byte[] data, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            return compress(data, 0, data.length, deflater);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeIntLE(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    /**
+     * Decompresses gzip members (one or more, concatenated)
+     * @param plainLength Expected decompressed length
+     */
+    static byte[] decompress(InputStream members, int plainLength) throws IOException {
+        try (InputStream in = new GZIPInputStream(members, 8192)) {
+            byte[] plain = new byte[plainLength];
+            int read = 0;
+            while (read < plainLength) {
+                int count = in.read(plain, read, plainLength - read);
+                if (count < 0) {
+                    throw new IOException("Compressed block is shorter than expected");
+                }
+                read += count;
+            }
+            return plain;
+        }
+    }
+}
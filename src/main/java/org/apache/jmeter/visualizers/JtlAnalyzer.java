@@ -0,0 +1,421 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Offline analysis of finished JTL files, without JMeter or a browser: computes the statistics, time series and
+ * percentiles of the dashboard with the server-side aggregation ({@link SampleAggregator}) and evaluates the
+ * quality gates of the Live Dashboard element of a .jmx test plan ({@link QualityGateEvaluator}).
+ * Main class of the plugin jar, so it can gate CI builds:
+ * <pre>
+ * java -jar live-dashboard-listener.jar --jmx plan.jmx --json report.json --html report.html results.jtl ...
+ * </pre>
+ * Exits with 1 when the quality gate verdict is FAIL, 2 on invalid arguments or unreadable files, 0 otherwise.
+ */
+public class JtlAnalyzer {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_FAIL = 1;
+    public static final int EXIT_ERROR = 2;
+
+    private static final double[] PERCENTILES = {50, 90, 95, 99};
+    private static final String COLLECTOR_CLASS = "LiveDashboardCollector";
+    private static final double RELATIVE_ERROR = 0.01;
+
+    private final long bucketMillis;
+    private final List<QualityGateMetric> metrics;
+    private final float passScore;
+    private final float warningScore;
+    private final int threads;
+    // Aggregates of all files; the parts of a file are merged into it
+    private final Partial total;
+    private final List<File> files = new ArrayList<>();
+    private long samples;
+    private long skippedLines;
+    private long parseMillis;
+
+    /**
+     * Creates an analyzer parsing with one thread per available processor
+     * @param bucketMillis Width of the time series buckets
+     * @param metrics Quality gates to evaluate, may be empty
+     * @param passScore Score required for PASS
+     * @param warningScore Score required for WARNING
+     */
+    public JtlAnalyzer(long bucketMillis, List<QualityGateMetric> metrics, float passScore, float warningScore) {
+        this(bucketMillis, metrics, passScore, warningScore, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads Number of threads parsing a file
+     */
+    public JtlAnalyzer(long bucketMillis, List<QualityGateMetric> metrics, float passScore, float warningScore,
+                       int threads) {
+        this.bucketMillis = bucketMillis;
+        this.metrics = metrics;
+        this.passScore = passScore;
+        this.warningScore = warningScore;
+        this.threads = Math.max(1, threads);
+        this.total = new Partial();
+    }
+
+    /**
+     * Adds the samples of a JTL file, parsed in parallel ranges ({@link ParallelJtlReader})
+     * @return Number of samples read
+     */
+    public long add(File file) throws IOException {
+        long started = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            ParallelJtlReader<Partial> reader = new ParallelJtlReader<>(pool, Partial::new, Partial::merge);
+            reader.read(file, total);
+            files.add(file);
+            samples += reader.getSampleCount();
+            skippedLines += reader.getSkippedLines();
+            parseMillis += (System.nanoTime() - started) / 1_000_000;
+            return reader.getSampleCount();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Aggregates of one range of a file, or of everything read
+     */
+    private final class Partial implements JtlCsvParser.SampleSink {
+        private final SampleAggregator aggregator = new SampleAggregator(bucketMillis, RELATIVE_ERROR);
+        private final QualityGateEvaluator evaluator =
+            new QualityGateEvaluator(metrics, passScore, warningScore, RELATIVE_ERROR);
+
+        @Override
+        public void sample(String label, long timeStamp, long elapsed, boolean success, String responseCode,
+                           String responseMessage, long bytes, long connectTime, long latency, int allThreads) {
+            aggregator.add(label, timeStamp, elapsed, success, responseCode, responseMessage, bytes, connectTime,
+                latency, allThreads);
+            evaluator.add(timeStamp, elapsed, success);
+        }
+
+        void merge(Partial later) {
+            aggregator.merge(later.aggregator);
+            evaluator.merge(later.evaluator);
+        }
+    }
+
+    /**
+     * Adds the CPU and memory samples of a system metrics CSV (.jmeter-system-metrics.csv) for the CPU Usage and
+     * Memory Usage gates, which otherwise have no value and fail, as in the dashboard. Gates scoped to a rolling
+     * window read the samples of its timestamp column up to the last sample, so the JTL files are added first.
+     * @return Number of samples read
+     */
+    public long addSystemMetrics(File csv) throws IOException {
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            List<String> columns = header != null ? Arrays.asList(header.trim().split(",")) : Collections.emptyList();
+            int cpuColumn = columns.indexOf("cpu_usage");
+            int memoryColumn = columns.indexOf("memory_usage");
+            int timestampColumn = columns.indexOf("timestamp");
+            long end = total.evaluator.getLatestSampleEnd();
+            if (cpuColumn < 0 || memoryColumn < 0) {
+                throw new IOException("Not a system metrics CSV (no cpu_usage and memory_usage columns): " + csv);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split(",");
+                if (values.length > Math.max(Math.max(cpuColumn, memoryColumn), timestampColumn)) {
+                    try {
+                        double cpuUsage = Double.parseDouble(values[cpuColumn]);
+                        double memoryUsage = Double.parseDouble(values[memoryColumn]);
+                        long timestamp = timestampColumn >= 0 ? Long.parseLong(values[timestampColumn].trim()) : -1;
+                        if (timestamp >= 0 && (end == Long.MIN_VALUE || timestamp <= end)) {
+                            total.evaluator.addSystemMetrics(timestamp, cpuUsage, memoryUsage);
+                        } else {
+                            // Metrics after the last sample would displace its slots in the rolling windows
+                            total.evaluator.addSystemMetrics(cpuUsage, memoryUsage);
+                        }
+                        count++;
+                    } catch (NumberFormatException e) {
+                        // Incomplete line, e.g. of a file still being written
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Evaluates the quality gates; gates scoped to a rolling window read the window ending with the last sample
+     */
+    public QualityGateEvaluator.Evaluation evaluate() {
+        long end = total.evaluator.getLatestSampleEnd();
+        return end != Long.MIN_VALUE ? total.evaluator.evaluate(end) : total.evaluator.evaluate();
+    }
+
+    /**
+     * The report as JSON: "files", "samples", "skippedLines", "parseMs", "summary" (per label and overall, see
+     * {@link SampleAggregator#summaryToJson}), "timeSeries" (the buckets of {@link SampleAggregator#toJson}),
+     * "percentiles" ({@link SampleAggregator#percentilesToJson}) and "qualityGate" ({@link QualityGateEvaluator#toJson})
+     * @param periodMillis Width of the percentile periods
+     */
+    public String toJson(QualityGateEvaluator.Evaluation evaluation, long periodMillis) {
+        StringBuilder json = new StringBuilder(64 * 1024);
+        json.append("{\"files\":[");
+        for (int i = 0; i < files.size(); i++) {
+            if (i > 0) json.append(',');
+            SampleAggregator.appendJsonString(json, files.get(i).getPath());
+        }
+        json.append("],\"samples\":").append(samples)
+            .append(",\"skippedLines\":").append(skippedLines)
+            .append(",\"parseMs\":").append(parseMillis)
+            .append(",\"summary\":").append(total.aggregator.summaryToJson(PERCENTILES))
+            .append(",\"timeSeries\":");
+        total.aggregator.appendJson(json, 0, 0);
+        json.append(",\"percentiles\":").append(total.aggregator.percentilesToJson(PERCENTILES, periodMillis, Long.MIN_VALUE))
+            .append(",\"qualityGate\":").append(total.evaluator.toJson(evaluation))
+            .append('}');
+        return json.toString();
+    }
+
+    /**
+     * A self-contained HTML page with the quality gate verdict, the gates and the statistics per label.
+     * The JSON report is embedded as well (script element "report"), for tools and further charts.
+     */
+    public String toHtml(QualityGateEvaluator.Evaluation evaluation, String json) {
+        StringBuilder html = new StringBuilder(json.length() + 16 * 1024);
+        String status = evaluation.getStatus();
+        html.append("<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n<meta charset=\"utf-8\">\n<title>JMeter Report - ")
+            .append(status).append("</title>\n<style>\n")
+            .append("body{font-family:-apple-system,Segoe UI,Roboto,sans-serif;margin:24px;color:#1f2937}\n")
+            .append("table{border-collapse:collapse;margin:12px 0 24px}th,td{border:1px solid #d1d5db;padding:4px 10px;text-align:right}\n")
+            .append("th{background:#f3f4f6}td:first-child,th:first-child{text-align:left}\n")
+            .append(".PASS{color:#047857}.WARNING{color:#b45309}.FAIL{color:#b91c1c}.verdict{font-size:28px;font-weight:bold}\n")
+            .append("</style>\n</head>\n<body>\n<h1>JMeter Test Report</h1>\n");
+        html.append("<p class=\"verdict ").append(status).append("\">Quality gate: ").append(status);
+        if (!total.evaluator.hasGates()) {
+            html.append(" (no quality gates configured)");
+        } else {
+            html.append(" &middot; score ").append(String.format(Locale.ROOT, "%.2f", evaluation.getScore()));
+        }
+        html.append("</p>\n<p>").append(samples).append(" samples from ").append(files.size()).append(" file(s)");
+        for (File file : files) {
+            html.append(" &middot; ").append(escapeHtml(file.getName()));
+        }
+        html.append("</p>\n");
+
+        if (total.evaluator.hasGates()) {
+            html.append("<h2>Quality Gates</h2>\n<table>\n<tr><th>Metric</th><th>Aggregate</th><th>Condition</th>")
+                .append("<th>Warning</th><th>Actual</th><th>Weight</th><th>Status</th></tr>\n");
+            for (QualityGateEvaluator.GateResult result : evaluation.getGates()) {
+                QualityGateMetric metric = result.getMetric();
+                html.append("<tr><td>").append(escapeHtml(metric.getMetric()))
+                    .append("</td><td>").append(escapeHtml(metric.getAggregate()))
+                    .append("</td><td>").append(escapeHtml(metric.getOperator())).append(' ').append(metric.getPassValue())
+                    .append("</td><td>").append(metric.getWarningValue() != null ? metric.getWarningValue() : "-")
+                    .append("</td><td>").append(result.getActualValue() != null
+                        ? String.format(Locale.ROOT, "%.2f", result.getActualValue()) : "N/A")
+                    .append("</td><td>").append(metric.getWeightage())
+                    .append("</td><td class=\"").append(result.getStatus()).append("\">").append(result.getStatus())
+                    .append("</td></tr>\n");
+            }
+            html.append("</table>\n");
+        }
+
+        html.append("<h2>Statistics</h2>\n<table id=\"statistics\">\n<tr><th>Label</th><th>Samples</th><th>Errors</th>")
+            .append("<th>Error %</th><th>Avg (ms)</th><th>Min</th><th>Max</th>");
+        for (double percentile : PERCENTILES) {
+            html.append("<th>P").append((int) percentile).append("</th>");
+        }
+        html.append("<th>Throughput/s</th><th>Received KB/s</th></tr>\n</table>\n");
+        // Rows are rendered from the embedded JSON, so the HTML needs no second copy of the numbers
+        html.append("<script type=\"application/json\" id=\"report\">")
+            .append(json.replace("</", "<\\/"))
+            .append("</script>\n<script>\n")
+            .append("const report = JSON.parse(document.getElementById('report').textContent);\n")
+            .append("const table = document.getElementById('statistics');\n")
+            .append("const rows = report.summary.labels.concat([Object.assign({label: 'TOTAL'}, report.summary.overall)]);\n")
+            .append("for (const s of rows) {\n")
+            .append("  const tr = table.insertRow();\n")
+            .append("  [s.label, s.samples, s.errors, s.errorRate.toFixed(2), s.avg.toFixed(1), s.min, s.max]\n")
+            .append("    .concat(s.percentiles, [s.throughput.toFixed(2), s.receivedKBps.toFixed(2)])\n")
+            .append("    .forEach(value => { tr.insertCell().textContent = value; });\n")
+            .append("  if (s.label === 'TOTAL') tr.style.fontWeight = 'bold';\n")
+            .append("}\n</script>\n</body>\n</html>\n");
+        return html.toString();
+    }
+
+    private static String escapeHtml(String value) {
+        if (value == null) {
+            return "";
+        }
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Quality gate configuration of the first enabled Live Dashboard element of a .jmx test plan
+     * @return {metrics config, pass score, warning score} as saved, null if the plan has no such element
+     */
+    static String[] readQualityGateConfiguration(File jmx) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(jmx);
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Cannot read test plan " + jmx + ": " + e.getMessage(), e);
+        }
+        NodeList elements = document.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = (Element) elements.item(i);
+            boolean collector = element.getTagName().endsWith(COLLECTOR_CLASS)
+                || element.getAttribute("testclass").endsWith(COLLECTOR_CLASS);
+            if (collector && !"false".equals(element.getAttribute("enabled"))) {
+                return new String[] {
+                    stringProp(element, QualityGateManager.QUALITY_GATE_PROPERTY, ""),
+                    stringProp(element, QualityGateManager.PASS_SCORE_PROPERTY, "80"),
+                    stringProp(element, QualityGateManager.WARNING_SCORE_PROPERTY, "60")
+                };
+            }
+        }
+        return null;
+    }
+
+    private static String stringProp(Element element, String name, String defaultValue) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && "stringProp".equals(((Element) child).getTagName())
+                    && name.equals(((Element) child).getAttribute("name"))) {
+                return child.getTextContent();
+            }
+        }
+        return defaultValue;
+    }
+
+    private static void usage(PrintStream out) {
+        out.println("Usage: java -jar live-dashboard-listener.jar [options] <results.jtl>...");
+        out.println("  --jmx <plan.jmx>        Evaluate the quality gates of the plan's Live Dashboard element");
+        out.println("  --system-metrics <csv>  System metrics CSV for the CPU and memory gates");
+        out.println("  --json <file>           Write the JSON report to a file (default: standard output)");
+        out.println("  --html <file>           Write the HTML report to a file");
+        out.println("  --bucket-ms <ms>        Width of the time series buckets (default 5000)");
+        out.println("  --period-ms <ms>        Width of the percentile periods (default 60000)");
+        out.println("  --threads <n>           Threads parsing each file (default: number of processors)");
+        out.println("Exit status: 0 PASS, WARNING or no gates; 1 FAIL; 2 invalid arguments or unreadable files");
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the analysis like {@link #main} and returns the exit status
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        File jmx = null;
+        File systemMetrics = null;
+        File jsonFile = null;
+        File htmlFile = null;
+        long bucketMillis = 5000;
+        long periodMillis = 60000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<File> jtlFiles = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-h") || arg.equals("--help")) {
+                    usage(out);
+                    return EXIT_OK;
+                } else if (arg.startsWith("--") && i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value of " + arg);
+                } else if (arg.equals("--jmx")) {
+                    jmx = new File(args[++i]);
+                } else if (arg.equals("--system-metrics")) {
+                    systemMetrics = new File(args[++i]);
+                } else if (arg.equals("--json")) {
+                    jsonFile = new File(args[++i]);
+                } else if (arg.equals("--html")) {
+                    htmlFile = new File(args[++i]);
+                } else if (arg.equals("--bucket-ms")) {
+                    bucketMillis = Math.max(1, Long.parseLong(args[++i]));
+                } else if (arg.equals("--period-ms")) {
+                    periodMillis = Math.max(1, Long.parseLong(args[++i]));
+                } else if (arg.equals("--threads")) {
+                    threads = Math.max(1, Integer.parseInt(args[++i]));
+                } else if (arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                } else {
+                    jtlFiles.add(new File(arg));
+                }
+            }
+            if (jtlFiles.isEmpty()) {
+                throw new IllegalArgumentException("No JTL file given");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            usage(err);
+            return EXIT_ERROR;
+        }
+
+        try {
+            List<QualityGateMetric> metrics = Collections.emptyList();
+            float passScore = 80;
+            float warningScore = 60;
+            if (jmx != null) {
+                String[] configuration = readQualityGateConfiguration(jmx);
+                if (configuration == null) {
+                    err.println("No Live Dashboard element in " + jmx + ", no quality gates evaluated");
+                } else {
+                    metrics = QualityGateManager.parseQualityGateMetrics(configuration[0]);
+                    passScore = Float.parseFloat(configuration[1].trim());
+                    warningScore = Float.parseFloat(configuration[2].trim());
+                }
+            }
+
+            JtlAnalyzer analyzer = new JtlAnalyzer(bucketMillis, metrics, passScore, warningScore, threads);
+            for (File file : jtlFiles) {
+                analyzer.add(file);
+            }
+            if (systemMetrics != null) {
+                analyzer.addSystemMetrics(systemMetrics);
+            }
+            QualityGateEvaluator.Evaluation evaluation = analyzer.evaluate();
+            String json = analyzer.toJson(evaluation, periodMillis);
+            if (jsonFile != null) {
+                Files.writeString(jsonFile.toPath(), json, StandardCharsets.UTF_8);
+            } else {
+                out.println(json);
+            }
+            if (htmlFile != null) {
+                Files.writeString(htmlFile.toPath(), analyzer.toHtml(evaluation, json), StandardCharsets.UTF_8);
+            }
+            err.println(String.format(Locale.ROOT, "Quality gate: %s (score %.2f), %d samples from %d file(s) in %d ms",
+                evaluation.getStatus(), evaluation.getScore(), analyzer.samples, jtlFiles.size(), analyzer.parseMillis));
+            return QualityGateEvaluator.FAIL.equals(evaluation.getStatus()) ? EXIT_FAIL : EXIT_OK;
+        } catch (IOException | NumberFormatException e) {
+            err.println("Analysis failed: " + e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+}
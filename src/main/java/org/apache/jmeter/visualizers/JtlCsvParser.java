@@ -0,0 +1,466 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Streaming parser of CSV JTL files for offline analysis. Works on the raw bytes: numbers are parsed in place and
+ * only the label and response code (interned) and the message of failed samples become strings, so a file is
+ * read at disk speed with constant memory. Columns are located by the header line, so JTL files with any column
+ * selection and order (the 17 columns of the live JTL, JMeter's default 22, ...) are read alike; a file
+ * without header is read with the columns of {@link JtlRecord#HEADER}. Quoted fields, including line breaks in
+ * quotes, follow JMeter's CSV quoting. Lines whose timestamp or elapsed time is not a number are skipped.
+ * Not thread-safe; parts of a file can be parsed concurrently by {@link #copy copies} (see {@link ParallelJtlReader}).
+ */
+public class JtlCsvParser {
+
+    /**
+     * Receives the columns the aggregation needs, per sample
+     */
+    public interface SampleSink {
+        void sample(String label, long timeStamp, long elapsed, boolean success, String responseCode,
+                    String responseMessage, long bytes, long connectTime, long latency, int allThreads);
+    }
+
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
+    // Columns the sink needs, in order of COLUMN_NAMES
+    private static final int TIMESTAMP = 0;
+    private static final int ELAPSED = 1;
+    private static final int LABEL = 2;
+    private static final int RESPONSE_CODE = 3;
+    private static final int RESPONSE_MESSAGE = 4;
+    private static final int SUCCESS = 5;
+    private static final int BYTES = 6;
+    private static final int ALL_THREADS = 7;
+    private static final int LATENCY = 8;
+    private static final int CONNECT = 9;
+    private static final String[] COLUMN_NAMES = {
+        "timestamp", "elapsed", "label", "responsecode", "responsemessage", "success", "bytes", "allthreads",
+        "latency", "connect"
+    };
+
+    private final SampleSink sink;
+    private final StringCache labels = new StringCache();
+    private final StringCache codes = new StringCache();
+
+    // Field index of every needed column in the current file, -1 if absent
+    private final int[] columnFields = new int[COLUMN_NAMES.length];
+    // Needed column of every field index, -1 for the other fields
+    private int[] fieldColumns = new int[0];
+    // Bounds of the needed fields of the current line, indexed by column; quoted fields are marked
+    private final int[] starts = new int[COLUMN_NAMES.length];
+    private final int[] ends = new int[COLUMN_NAMES.length];
+    private final boolean[] quoted = new boolean[COLUMN_NAMES.length];
+
+    private long samples;
+    private long skippedLines;
+
+    public JtlCsvParser(SampleSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Number of samples passed to the sink so far
+     */
+    public long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Number of lines that were not samples (bad timestamp or elapsed time) so far
+     */
+    public long getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * Parses a whole JTL file
+     * @return Number of samples read from the file
+     */
+    public long parse(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return parse(channel, readHeader(channel), Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Creates a parser of another part of the same file, sharing the column layout read by
+     * {@link #readHeader(FileChannel)}
+     */
+    public JtlCsvParser copy(SampleSink otherSink) {
+        JtlCsvParser copy = new JtlCsvParser(otherSink);
+        System.arraycopy(columnFields, 0, copy.columnFields, 0, columnFields.length);
+        copy.fieldColumns = fieldColumns;
+        return copy;
+    }
+
+    /**
+     * Maps the columns of the file's header line; a first line starting with a digit is a sample of a file without
+     * header, read with the columns of {@link JtlRecord#HEADER}
+     * @return Offset of the first sample line
+     */
+    public long readHeader(FileChannel channel) throws IOException {
+        byte[] bytes = new byte[8192];
+        int length = 0;
+        int end;
+        while ((end = recordEnd(bytes, 0, length)) < 0) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int read = channel.read(ByteBuffer.wrap(bytes, length, bytes.length - length), length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        int lineEnd = end >= 0 ? end : length;
+        if (lineEnd > 0 && bytes[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+        if (lineEnd == 0 || (bytes[0] >= '0' && bytes[0] <= '9')) {
+            mapColumns(JtlRecord.HEADER.trim().split(","));
+            return 0;
+        }
+        mapColumns(new String(bytes, 0, lineEnd, StandardCharsets.UTF_8).split(","));
+        return end >= 0 ? end + 1 : length;
+    }
+
+    /**
+     * Parses the sample lines in [start, end) of a file, once the columns are known ({@link #readHeader}).
+     * start must be the start of a line and end the end of a line, or beyond the end of the file.
+     * @return Number of samples read
+     */
+    public long parse(FileChannel channel, long start, long end) throws IOException {
+        long before = samples;
+        byte[] bytes = new byte[(int) Math.min(BUFFER_BYTES, Math.max(8192, end - start))];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long filePosition = start;
+        int length = 0;
+        boolean eof = false;
+        while (!eof || length > 0) {
+            if (!eof && length < bytes.length) {
+                buffer.limit((int) Math.min(bytes.length, length + end - filePosition)).position(length);
+                int read = buffer.hasRemaining() ? channel.read(buffer, filePosition) : -1;
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
+                    filePosition += read;
+                }
+            }
+            int position = 0;
+            while (position < length) {
+                int recordEnd = recordEnd(bytes, position, length);
+                if (recordEnd < 0) {
+                    if (!eof) {
+                        break;
+                    }
+                    // Last line without line break
+                    recordEnd = length;
+                }
+                int lineEnd = recordEnd > position && bytes[recordEnd - 1] == '\r' ? recordEnd - 1 : recordEnd;
+                if (lineEnd > position) {
+                    parseRecord(bytes, position, lineEnd);
+                }
+                position = Math.min(recordEnd + 1, length);
+            }
+            if (eof && position >= length) {
+                break;
+            }
+            // Keep the incomplete record at the start of the buffer, growing it for records longer than it
+            System.arraycopy(bytes, position, bytes, 0, length - position);
+            length -= position;
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            }
+        }
+        return samples - before;
+    }
+
+    /**
+     * Start of the first sample line at or after a position, for splitting a file into parts parsed separately.
+     * A line break can be quoted, in a multi-line response message, so a line only counts as a start if it reads
+     * as a whole sample: all the header's fields, with a numeric timestamp and elapsed time. Only reads the column
+     * layout, so may be called concurrently.
+     * @return The line start, end if there is none before end
+     */
+    public long nextRecordStart(FileChannel channel, long position, long end) throws IOException {
+        byte[] bytes = new byte[64 * 1024];
+        // The byte before position tells whether position already starts a line
+        long bufferStart = Math.max(0, position - 1);
+        int length = 0;
+        int scan = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof && length < bytes.length) {
+                int read = channel.read(ByteBuffer.wrap(bytes, length, bytes.length - length), bufferStart + length);
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    length += read;
+                }
+            }
+            int candidate = -1;
+            for (int i = scan; i < length; i++) {
+                if (bytes[i] == '\n') {
+                    candidate = i + 1;
+                    break;
+                }
+            }
+            if (candidate < 0) {
+                if (eof || bufferStart + length >= end) {
+                    return end;
+                }
+                scan = length;
+            } else {
+                if (bufferStart + candidate >= end) {
+                    return end;
+                }
+                int recordEnd = recordEnd(bytes, candidate, length);
+                if (recordEnd < 0 && length - candidate >= BUFFER_BYTES) {
+                    // An unbalanced quote: the line is the rest of a quoted field, not a sample
+                    scan = candidate;
+                    continue;
+                }
+                if (recordEnd >= 0 || eof) {
+                    int lineEnd = recordEnd >= 0 ? recordEnd : length;
+                    if (lineEnd > candidate && bytes[lineEnd - 1] == '\r') {
+                        lineEnd--;
+                    }
+                    if (isSample(bytes, candidate, lineEnd)) {
+                        return bufferStart + candidate;
+                    }
+                    scan = candidate;
+                    continue;
+                }
+            }
+            // Make room for the rest of a long line
+            if (length == bytes.length) {
+                int keep = candidate >= 0 ? candidate - 1 : length;
+                if (keep > bytes.length / 2) {
+                    System.arraycopy(bytes, keep, bytes, 0, length - keep);
+                    bufferStart += keep;
+                    length -= keep;
+                    scan = Math.max(0, scan - keep);
+                } else {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+            }
+        }
+    }
+
+    private boolean isSample(byte[] bytes, int start, int end) {
+        long timeStamp = Long.MIN_VALUE;
+        long elapsed = Long.MIN_VALUE;
+        int field = 0;
+        int position = start;
+        while (position <= end) {
+            int fieldEnd = fieldEnd(bytes, position, end);
+            int column = field < fieldColumns.length ? fieldColumns[field] : -1;
+            boolean isQuoted = position < end && bytes[position] == '"';
+            if (column == TIMESTAMP) {
+                timeStamp = parseLong(bytes, position, fieldEnd, isQuoted, Long.MIN_VALUE);
+            } else if (column == ELAPSED) {
+                elapsed = parseLong(bytes, position, fieldEnd, isQuoted, Long.MIN_VALUE);
+            }
+            field++;
+            position = fieldEnd + 1;
+        }
+        return field == fieldColumns.length && timeStamp != Long.MIN_VALUE && elapsed != Long.MIN_VALUE;
+    }
+
+    /**
+     * Offset of the line break ending the record starting at position (outside quotes), -1 if not buffered yet
+     */
+    static int recordEnd(byte[] bytes, int position, int length) {
+        boolean inQuotes = false;
+        for (int i = position; i < length; i++) {
+            byte b = bytes[i];
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void mapColumns(String[] names) {
+        Arrays.fill(columnFields, -1);
+        fieldColumns = new int[names.length];
+        Arrays.fill(fieldColumns, -1);
+        for (int field = 0; field < names.length; field++) {
+            String name = names[field].trim().replace("\"", "").toLowerCase(Locale.ROOT);
+            for (int column = 0; column < COLUMN_NAMES.length; column++) {
+                if (COLUMN_NAMES[column].equals(name) && columnFields[column] < 0) {
+                    columnFields[column] = field;
+                    fieldColumns[field] = column;
+                }
+            }
+        }
+    }
+
+    private void parseRecord(byte[] bytes, int start, int end) {
+        Arrays.fill(starts, -1);
+        int field = 0;
+        int position = start;
+        while (position <= end && field < fieldColumns.length) {
+            int fieldEnd = fieldEnd(bytes, position, end);
+            int column = fieldColumns[field];
+            if (column >= 0) {
+                starts[column] = position;
+                ends[column] = fieldEnd;
+                quoted[column] = position < end && bytes[position] == '"';
+            }
+            field++;
+            position = fieldEnd + 1;
+        }
+
+        long timeStamp = parseLong(bytes, TIMESTAMP, Long.MIN_VALUE);
+        long elapsed = parseLong(bytes, ELAPSED, Long.MIN_VALUE);
+        if (timeStamp == Long.MIN_VALUE || elapsed == Long.MIN_VALUE) {
+            skippedLines++;
+            return;
+        }
+        boolean success = starts[SUCCESS] < 0 || starts[SUCCESS] == ends[SUCCESS]
+            || (bytes[starts[SUCCESS]] | 0x20) == 't';
+        String label = string(bytes, LABEL, labels);
+        String responseCode = string(bytes, RESPONSE_CODE, codes);
+        // The aggregation only keeps the messages of failures
+        String responseMessage = success ? null : string(bytes, RESPONSE_MESSAGE, null);
+        sink.sample(label, timeStamp, elapsed, success, responseCode, responseMessage,
+            parseLong(bytes, BYTES, 0), parseLong(bytes, CONNECT, 0), parseLong(bytes, LATENCY, 0),
+            (int) parseLong(bytes, ALL_THREADS, 0));
+        samples++;
+    }
+
+    /**
+     * Checks whether the field starting at position holds a value, reading it with JMeter's CSV quoting
+     * @param end End of the line
+     * @param value UTF-8 bytes of the unquoted value
+     */
+    static boolean fieldEquals(byte[] bytes, int position, int end, byte[] value) {
+        int fieldEnd = fieldEnd(bytes, position, end);
+        if (position < fieldEnd && bytes[position] == '"' && fieldEnd - position >= 2 && bytes[fieldEnd - 1] == '"') {
+            // Compare the content between the quotes, doubled quotes standing for one
+            int j = 0;
+            for (int i = position + 1; i < fieldEnd - 1; i++, j++) {
+                if (j >= value.length || bytes[i] != value[j]) {
+                    return false;
+                }
+                if (bytes[i] == '"') {
+                    i++;
+                }
+            }
+            return j == value.length;
+        }
+        if (fieldEnd - position != value.length) {
+            return false;
+        }
+        for (int j = 0; j < value.length; j++) {
+            if (bytes[position + j] != value[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * End of the field starting at position: the next comma outside quotes, or end
+     */
+    static int fieldEnd(byte[] bytes, int position, int end) {
+        int fieldEnd = position;
+        if (position < end && bytes[position] == '"') {
+            // Up to the closing quote; doubled quotes are escaped quotes
+            fieldEnd = position + 1;
+            while (fieldEnd < end && !(bytes[fieldEnd] == '"' && (fieldEnd + 1 >= end || bytes[fieldEnd + 1] != '"'))) {
+                fieldEnd += bytes[fieldEnd] == '"' ? 2 : 1;
+            }
+            fieldEnd = Math.min(fieldEnd + 1, end);
+        }
+        while (fieldEnd < end && bytes[fieldEnd] != ',') {
+            fieldEnd++;
+        }
+        return fieldEnd;
+    }
+
+    /**
+     * Parses a column as a decimal integer
+     * @return The value, defaultValue if the column is missing, empty or not a number
+     */
+    private long parseLong(byte[] bytes, int column, long defaultValue) {
+        int start = starts[column];
+        if (start < 0) {
+            return defaultValue;
+        }
+        return parseLong(bytes, start, ends[column], quoted[column], defaultValue);
+    }
+
+    private static long parseLong(byte[] bytes, int start, int end, boolean quoted, long defaultValue) {
+        if (quoted) {
+            start++;
+            end--;
+        }
+        boolean negative = start < end && bytes[start] == '-';
+        int i = negative ? start + 1 : start;
+        if (i >= end) {
+            return defaultValue;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return defaultValue;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private String string(byte[] bytes, int column, StringCache cache) {
+        int start = starts[column];
+        if (start < 0) {
+            return "";
+        }
+        int end = ends[column];
+        if (quoted[column]) {
+            String value = new String(bytes, start + 1, Math.max(0, end - start - 2), StandardCharsets.UTF_8);
+            return value.replace("\"\"", "\"");
+        }
+        return cache != null ? cache.get(bytes, start, end) : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes repeated byte sequences (labels, response codes) to the same String without allocating;
+     * a direct-mapped cache, so a colliding value only costs a decode
+     */
+    private static final class StringCache {
+        private static final int SLOTS = 4096;
+        private final byte[][] keys = new byte[SLOTS][];
+        private final String[] values = new String[SLOTS];
+
+        String get(byte[] bytes, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+            byte[] key = keys[slot];
+            if (key != null && Arrays.equals(key, 0, key.length, bytes, start, end)) {
+                return values[slot];
+            }
+            String value = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            keys[slot] = Arrays.copyOfRange(bytes, start, end);
+            values[slot] = value;
+            return value;
+        }
+    }
+}
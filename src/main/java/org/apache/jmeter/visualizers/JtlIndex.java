@@ -0,0 +1,160 @@
+package org.apache.jmeter.visualizers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sparse timestamp index of a JTL file, built by the JTL writer while it appends lines.
+ * The file is split into blocks of {@link #BLOCK_SAMPLES} consecutive lines; for every block the index keeps its
+ * end offset and the smallest and largest sample timestamp in it. Samples are written when they complete, so
+ * timestamps are only roughly ordered; the per block range keeps lookups exact anyway. A range query then only
+ * reads the blocks overlapping the requested time window (plus the block being filled), however large the file.
+ * <p>
+ * {@link #add} and {@link #commit} are called by the writing thread only; {@link #ranges} may be called
+ * concurrently and only returns data the writer has flushed to the file.
+ */
+public class JtlIndex {
+
+    public static final int BLOCK_SAMPLES = 1024;
+
+    // Block being filled; only touched by the writing thread
+    private long writtenBytes;
+    private long blockMin = Long.MAX_VALUE;
+    private long blockMax = Long.MIN_VALUE;
+    private int blockCount;
+
+    // Closed blocks, guarded by this. maxSoFar[i] is the largest timestamp in blocks 0..i, so the first block
+    // that can hold a timestamp is found by binary search
+    private final long headerBytes;
+    private long[] ends = new long[64];
+    private long[] minTimestamps = new long[64];
+    private long[] maxTimestamps = new long[64];
+    private long[] maxSoFar = new long[64];
+    private int blocks;
+
+    private volatile long committedBytes;
+
+    /**
+     * Creates the index of a file whose header line takes headerBytes
+     */
+    public JtlIndex(long headerBytes) {
+        this.headerBytes = headerBytes;
+        this.writtenBytes = headerBytes;
+        this.committedBytes = headerBytes;
+    }
+
+    /**
+     * Records the next line appended to the file
+     * @param timestamp Sample timestamp of the line
+     * @param lineBytes Length of the line in bytes, including its newline
+     */
+    public void add(long timestamp, int lineBytes) {
+        writtenBytes += lineBytes;
+        blockMin = Math.min(blockMin, timestamp);
+        blockMax = Math.max(blockMax, timestamp);
+        if (++blockCount == BLOCK_SAMPLES) {
+            closeBlock();
+        }
+    }
+
+    private synchronized void closeBlock() {
+        if (blocks == ends.length) {
+            int capacity = blocks * 2;
+            ends = Arrays.copyOf(ends, capacity);
+            minTimestamps = Arrays.copyOf(minTimestamps, capacity);
+            maxTimestamps = Arrays.copyOf(maxTimestamps, capacity);
+            maxSoFar = Arrays.copyOf(maxSoFar, capacity);
+        }
+        ends[blocks] = writtenBytes;
+        minTimestamps[blocks] = blockMin;
+        maxTimestamps[blocks] = blockMax;
+        maxSoFar[blocks] = blocks > 0 ? Math.max(maxSoFar[blocks - 1], blockMax) : blockMax;
+        blocks++;
+        blockMin = Long.MAX_VALUE;
+        blockMax = Long.MIN_VALUE;
+        blockCount = 0;
+    }
+
+    /**
+     * Marks all lines added so far as flushed to the file
+     */
+    public void commit() {
+        committedBytes = writtenBytes;
+    }
+
+    /**
+     * Length of the file the index covers: the lines flushed so far
+     */
+    public long getCommittedBytes() {
+        return committedBytes;
+    }
+
+    /**
+     * Byte ranges of the file holding all flushed samples with a timestamp between from and to (inclusive).
+     * Ranges start and end at line boundaries and are in file order; adjacent blocks are merged.
+     * @return {start, end} offsets
+     */
+    public List<long[]> ranges(long from, long to) {
+        long committed = committedBytes;
+        List<long[]> ranges = new ArrayList<>();
+        long tailStart;
+        synchronized (this) {
+            // Blocks before the first one reaching from only hold older samples
+            int low = 0;
+            int high = blocks;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (maxSoFar[middle] < from) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (int block = low; block < blocks; block++) {
+                if (maxTimestamps[block] >= from && minTimestamps[block] <= to) {
+                    addRange(ranges, block > 0 ? ends[block - 1] : headerBytes, ends[block], committed);
+                }
+            }
+            tailStart = blocks > 0 ? ends[blocks - 1] : headerBytes;
+        }
+        // The block being filled has no time range yet
+        addRange(ranges, tailStart, committed, committed);
+        return ranges;
+    }
+
+    private static void addRange(List<long[]> ranges, long start, long end, long committed) {
+        end = Math.min(end, committed);
+        if (start >= end) {
+            return;
+        }
+        long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+        if (last != null && last[1] == start) {
+            last[1] = end;
+        } else {
+            ranges.add(new long[] {start, end});
+        }
+    }
+
+    /**
+     * Number of bytes of the UTF-8 encoding of a range of characters
+     */
+    static int utf8Length(CharSequence chars, int start, int end) {
+        int length = end - start;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    length++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                    // 4 bytes for the pair of chars
+                    length += 2;
+                    i++;
+                } else {
+                    length += 2;
+                }
+            }
+        }
+        return length;
+    }
+}
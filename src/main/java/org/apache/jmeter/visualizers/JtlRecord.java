@@ -0,0 +1,190 @@
+package org.apache.jmeter.visualizers;
+
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Immutable copy of the sample fields written to the live JTL file.
+ * Only the columns of the CSV line are kept so queued records do not retain response data.
+ */
+public final class JtlRecord {
+
+    /**
+     * CSV header matching the columns written by {@link #appendCsv(StringBuilder)}
+     */
+    public static final String HEADER = "timeStamp,elapsed,label,responseCode,responseMessage,threadName,dataType,success,failureMessage,bytes,sentBytes,grpThreads,allThreads,URL,Latency,IdleTime,Connect\n";
+
+    private final long timeStamp;
+    private final long elapsed;
+    private final String label;
+    private final String responseCode;
+    private final String responseMessage;
+    private final String threadName;
+    private final String dataType;
+    private final boolean success;
+    private final long bytes;
+    private final long sentBytes;
+    private final int grpThreads;
+    private final int allThreads;
+    private final String url;
+    private final long latency;
+    private final long idleTime;
+    private final long connectTime;
+
+    private JtlRecord(SampleResult result) {
+        this.timeStamp = result.getTimeStamp();
+        this.elapsed = result.getTime();
+        this.label = result.getSampleLabel();
+        this.responseCode = result.getResponseCode();
+        this.responseMessage = result.getResponseMessage();
+        this.threadName = result.getThreadName();
+        this.dataType = result.getDataType();
+        this.success = result.isSuccessful();
+        this.bytes = result.getBytesAsLong();
+        this.sentBytes = result.getSentBytes();
+        this.grpThreads = result.getGroupThreads();
+        this.allThreads = result.getAllThreads();
+        this.url = result.getURL() != null ? result.getURL().toString() : null;
+        this.latency = result.getLatency();
+        this.idleTime = result.getIdleTime();
+        this.connectTime = result.getConnectTime();
+    }
+
+    /**
+     * Creates a record from its column values, e.g. read back from a {@link BinarySampleLogReader binary log}
+     */
+    JtlRecord(long timeStamp, long elapsed, String label, String responseCode, String responseMessage,
+              String threadName, String dataType, boolean success, long bytes, long sentBytes, int grpThreads,
+              int allThreads, String url, long latency, long idleTime, long connectTime) {
+        this.timeStamp = timeStamp;
+        this.elapsed = elapsed;
+        this.label = label;
+        this.responseCode = responseCode;
+        this.responseMessage = responseMessage;
+        this.threadName = threadName;
+        this.dataType = dataType;
+        this.success = success;
+        this.bytes = bytes;
+        this.sentBytes = sentBytes;
+        this.grpThreads = grpThreads;
+        this.allThreads = allThreads;
+        this.url = url;
+        this.latency = latency;
+        this.idleTime = idleTime;
+        this.connectTime = connectTime;
+    }
+
+    /**
+     * Captures the JTL columns of a sample result
+     * @param result Sample result to copy
+     * @return Record holding the JTL column values
+     */
+    public static JtlRecord from(SampleResult result) {
+        return new JtlRecord(result);
+    }
+
+    /**
+     * Appends this record as one CSV line (including the trailing newline).
+     * Text fields containing a comma or a double quote are quoted as in JMeter's CSV output, the other fields are
+     * written as they are.
+     * @param sb Target buffer
+     */
+    public void appendCsv(StringBuilder sb) {
+        sb.append(timeStamp).append(',')
+          .append(elapsed).append(',');
+        appendText(sb, label).append(',');
+        appendText(sb, responseCode).append(',');
+        appendText(sb, responseMessage).append(',');
+        appendText(sb, threadName).append(',');
+        appendText(sb, dataType).append(',')
+          .append(success).append(',');
+        appendText(sb, responseMessage).append(',')
+          .append(bytes).append(',')
+          .append(sentBytes).append(',')
+          .append(grpThreads).append(',')
+          .append(allThreads).append(',');
+        appendText(sb, url).append(',')
+          .append(latency).append(',')
+          .append(idleTime).append(',')
+          .append(connectTime).append('\n');
+    }
+
+    private static StringBuilder appendText(StringBuilder sb, String value) {
+        if (value == null || (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0)) {
+            return sb.append(value);
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        return sb.append('"');
+    }
+
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getResponseCode() {
+        return responseCode;
+    }
+
+    public String getResponseMessage() {
+        return responseMessage;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public String getDataType() {
+        return dataType;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    public int getGrpThreads() {
+        return grpThreads;
+    }
+
+    public int getAllThreads() {
+        return allThreads;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public long getIdleTime() {
+        return idleTime;
+    }
+
+    public long getConnectTime() {
+        return connectTime;
+    }
+}
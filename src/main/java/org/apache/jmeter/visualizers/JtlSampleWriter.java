@@ -0,0 +1,35 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.IOException;
+
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Destination for samples written to the live JTL file
+ */
+public interface JtlSampleWriter {
+
+    /**
+     * Writes one sample result. Called from JMeter sampler threads.
+     * @param result Sample result to write
+     */
+    void write(SampleResult result);
+
+    /**
+     * Writes all pending samples and closes the underlying file
+     * @throws IOException if the file cannot be flushed or closed
+     */
+    void close() throws IOException;
+
+    /**
+     * Number of samples discarded instead of being written
+     * @return Dropped sample count
+     */
+    long getDroppedCount();
+
+    /**
+     * Sparse timestamp index of the lines written so far
+     * @return Index of the JTL file
+     */
+    JtlIndex getIndex();
+}
@@ -0,0 +1,323 @@
+package org.apache.jmeter.visualizers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Label dictionary of a {@link SampleAggregator}, bounding the number of labels it aggregates whatever the
+ * samplers are named, e.g. one label per URL with ids in it.
+ * <p>
+ * Labels are first normalized by the rules live.dashboard.labels.normalize.1, .2, ... ("regex=>template",
+ * applied in order with {@link Matcher#replaceAll}, e.g. "/[0-9]+=>/{id}"). At most live.dashboard.labels.max
+ * normalized labels are then aggregated on their own, the samples of all others under {@link #OTHER_LABEL}.
+ * Three quarters of the labels are admitted as they first appear, so plans with fewer labels than the limit
+ * aggregate exactly as without it. The last quarter is kept for heavy hitters: the labels that did not fit are
+ * counted with the Space-Saving algorithm (a fixed number of counters, each with the most it may overcount),
+ * and one is admitted once it has provably more samples than the least used admitted label and than its share
+ * of the overflow. A label admitted that way counts exactly from then on; the samples it had before stay in
+ * {@link #OTHER_LABEL} and are reported by {@link #toJson}.
+ * <p>
+ * Admitted labels are resolved without locking; labels that did not fit are counted under a lock.
+ */
+final class LabelDictionary {
+
+    private static final Logger log = LoggerFactory.getLogger(LabelDictionary.class);
+
+    static final String OTHER_LABEL = "(other labels)";
+
+    private static final String MAX_LABELS_PROPERTY = "live.dashboard.labels.max";
+    private static final String NORMALIZE_PROPERTY = "live.dashboard.labels.normalize.";
+    private static final int DEFAULT_MAX_LABELS = 200;
+    private static final String RULE_SEPARATOR = "=>";
+    // Raw labels remembered with the admitted label they resolve to; beyond that they are normalized every time
+    private static final int MAX_CACHED_LABELS = 16384;
+    // Space-Saving counters per label of the limit: an estimate is off by at most the overflow samples / counters
+    private static final int CANDIDATES_PER_LABEL = 4;
+    // Heavy hitters listed by toJson
+    private static final int REPORTED_CANDIDATES = 20;
+
+    private static final class Rule {
+        private final Pattern pattern;
+        private final String template;
+
+        Rule(Pattern pattern, String template) {
+            this.pattern = pattern;
+            this.template = template;
+        }
+    }
+
+    private static final class Admitted {
+        private final String label;
+        private final LongAdder samples = new LongAdder();
+        // Samples counted under OTHER_LABEL before the label was admitted (at most)
+        private final long missedSamples;
+
+        Admitted(String label, long missedSamples) {
+            this.label = label;
+            this.missedSamples = missedSamples;
+        }
+    }
+
+    // Space-Saving counter of a label that did not fit: count may exceed its samples by at most error
+    private static final class Candidate implements Comparable<Candidate> {
+        private final String label;
+        private long count;
+        private final long error;
+
+        Candidate(String label, long count, long error) {
+            this.label = label;
+            this.count = count;
+            this.error = error;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int byCount = Long.compare(count, other.count);
+            return byCount != 0 ? byCount : label.compareTo(other.label);
+        }
+    }
+
+    private final List<Rule> rules;
+    private final int maxLabels;
+    // Labels admitted as they appear; the others are admitted as heavy hitters
+    private final int firstComeLabels;
+    private final int maxCandidates;
+
+    private final Map<String, Admitted> admitted = new ConcurrentHashMap<>();
+    private final Map<String, Admitted> byRawLabel = new ConcurrentHashMap<>();
+
+    // Space-Saving summary of the labels that did not fit (guarded by this)
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    private final TreeSet<Candidate> candidatesByCount = new TreeSet<>();
+    private long otherSamples;
+    private int promoted;
+    private long minAdmittedSamples;
+    private long minAdmittedCheckedAt = -1;
+
+    /**
+     * Creates a dictionary
+     * @param maxLabels Most labels aggregated on their own (at least 1)
+     * @param rules Normalization rules, "regex=>template"; invalid ones are logged and ignored
+     */
+    LabelDictionary(int maxLabels, List<String> rules) {
+        this.maxLabels = Math.max(1, maxLabels);
+        this.firstComeLabels = this.maxLabels - Math.max(1, this.maxLabels / 4);
+        this.maxCandidates = this.maxLabels * CANDIDATES_PER_LABEL;
+        List<Rule> compiled = new ArrayList<>();
+        for (String rule : rules) {
+            int separator = rule.lastIndexOf(RULE_SEPARATOR);
+            if (separator <= 0) {
+                log.warn("Ignoring label normalization rule without {}: {}", RULE_SEPARATOR, rule);
+                continue;
+            }
+            try {
+                compiled.add(new Rule(Pattern.compile(rule.substring(0, separator).trim()),
+                    rule.substring(separator + RULE_SEPARATOR.length()).trim()));
+            } catch (PatternSyntaxException e) {
+                log.warn("Ignoring invalid label normalization rule {}: {}", rule, e.getDescription());
+            }
+        }
+        this.rules = Collections.unmodifiableList(compiled);
+    }
+
+    /**
+     * Dictionary configured by the live.dashboard.labels.* properties
+     */
+    static LabelDictionary fromProperties() {
+        List<String> rules = new ArrayList<>();
+        for (int i = 1; ; i++) {
+            String rule = JMeterUtils.getProperty(NORMALIZE_PROPERTY + i);
+            if (rule == null) {
+                break;
+            }
+            rules.add(rule);
+        }
+        return new LabelDictionary(JMeterUtils.getPropDefault(MAX_LABELS_PROPERTY, DEFAULT_MAX_LABELS), rules);
+    }
+
+    /**
+     * Label under which samples of a label are aggregated: its normalized form if admitted, else
+     * {@link #OTHER_LABEL}. Called concurrently from sampler threads.
+     * @param samples Number of samples, 1 for a sample, more for merged aggregates
+     */
+    String resolve(String label, long samples) {
+        Admitted entry = byRawLabel.get(label);
+        if (entry != null) {
+            entry.samples.add(samples);
+            return entry.label;
+        }
+        if (label.equals(OTHER_LABEL)) {
+            // Already folded, e.g. by a remote engine
+            synchronized (this) {
+                otherSamples += samples;
+            }
+            return OTHER_LABEL;
+        }
+        String normalized = normalize(label);
+        entry = admitted.get(normalized);
+        if (entry == null) {
+            entry = admit(normalized, samples);
+            if (entry == null) {
+                return OTHER_LABEL;
+            }
+        }
+        if (byRawLabel.size() < MAX_CACHED_LABELS) {
+            byRawLabel.putIfAbsent(label, entry);
+        }
+        entry.samples.add(samples);
+        return entry.label;
+    }
+
+    private String normalize(String label) {
+        String normalized = label;
+        for (Rule rule : rules) {
+            normalized = rule.pattern.matcher(normalized).replaceAll(rule.template);
+        }
+        return normalized;
+    }
+
+    /**
+     * Admits a label while there is room for it, else counts it as a candidate
+     * @return The admitted label, or null if its samples go to {@link #OTHER_LABEL}
+     */
+    private synchronized Admitted admit(String label, long samples) {
+        Admitted entry = admitted.get(label);
+        if (entry != null) {
+            return entry;
+        }
+        if (admitted.size() < firstComeLabels) {
+            return add(new Admitted(label, 0));
+        }
+        otherSamples += samples;
+        Candidate candidate = count(label, samples);
+        if (admitted.size() < maxLabels && isHeavyHitter(candidate)) {
+            candidates.remove(label);
+            candidatesByCount.remove(candidate);
+            promoted++;
+            log.info("Label {} is aggregated on its own from now on, after {} samples under {}", label,
+                candidate.count, OTHER_LABEL);
+            // The caller counts the current sample again
+            otherSamples -= samples;
+            return add(new Admitted(label, candidate.count - samples));
+        }
+        return null;
+    }
+
+    private Admitted add(Admitted entry) {
+        admitted.put(entry.label, entry);
+        if (admitted.size() == maxLabels) {
+            log.info("{} labels aggregated, samples of further labels are aggregated under {}", maxLabels,
+                OTHER_LABEL);
+        }
+        return entry;
+    }
+
+    /**
+     * Space-Saving update: a label without a counter takes over the one with the lowest count when all are in
+     * use, inheriting that count as its possible overcount
+     */
+    private Candidate count(String label, long samples) {
+        Candidate candidate = candidates.get(label);
+        if (candidate != null) {
+            candidatesByCount.remove(candidate);
+            candidate.count += samples;
+        } else if (candidates.size() < maxCandidates) {
+            candidate = new Candidate(label, samples, 0);
+            candidates.put(label, candidate);
+        } else {
+            Candidate evicted = candidatesByCount.pollFirst();
+            candidates.remove(evicted.label);
+            candidate = new Candidate(label, evicted.count + samples, evicted.count);
+            candidates.put(label, candidate);
+        }
+        candidatesByCount.add(candidate);
+        return candidate;
+    }
+
+    /**
+     * True if the candidate certainly has more samples than the least used admitted label and than an even
+     * share of the overflow (the Space-Saving bound, which one-off labels never exceed)
+     */
+    private boolean isHeavyHitter(Candidate candidate) {
+        long guaranteed = candidate.count - candidate.error;
+        if (guaranteed < 2 || guaranteed <= otherSamples / maxCandidates) {
+            return false;
+        }
+        // Admitted counts only grow, so the minimum is refreshed once per round of counters
+        if (minAdmittedCheckedAt < 0 || otherSamples - minAdmittedCheckedAt >= maxCandidates) {
+            long min = Long.MAX_VALUE;
+            for (Admitted entry : admitted.values()) {
+                min = Math.min(min, entry.samples.sum());
+            }
+            minAdmittedSamples = min;
+            minAdmittedCheckedAt = otherSamples;
+        }
+        return guaranteed > minAdmittedSamples;
+    }
+
+    /**
+     * Limits, admitted labels with their samples, samples under {@link #OTHER_LABEL} and the labels with the
+     * highest counts among those, as JSON
+     */
+    synchronized String toJson() {
+        List<Admitted> entries = new ArrayList<>(admitted.values());
+        entries.sort((a, b) -> Long.compare(b.samples.sum(), a.samples.sum()));
+        StringBuilder json = new StringBuilder(256 + entries.size() * 64);
+        json.append("{\"maxLabels\":").append(maxLabels)
+            .append(",\"firstComeLabels\":").append(firstComeLabels)
+            .append(",\"promoted\":").append(promoted)
+            .append(",\"otherLabel\":");
+        SampleAggregator.appendJsonString(json, OTHER_LABEL);
+        json.append(",\"otherSamples\":").append(otherSamples)
+            .append(",\"rules\":[");
+        for (int i = 0; i < rules.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"pattern\":");
+            SampleAggregator.appendJsonString(json, rules.get(i).pattern.pattern());
+            json.append(",\"template\":");
+            SampleAggregator.appendJsonString(json, rules.get(i).template);
+            json.append('}');
+        }
+        json.append("],\"labels\":[");
+        for (int i = 0; i < entries.size(); i++) {
+            Admitted entry = entries.get(i);
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"label\":");
+            SampleAggregator.appendJsonString(json, entry.label);
+            json.append(",\"samples\":").append(entry.samples.sum())
+                .append(",\"missedSamples\":").append(entry.missedSamples).append('}');
+        }
+        json.append("],\"candidates\":[");
+        int reported = 0;
+        for (Candidate candidate : candidatesByCount.descendingSet()) {
+            if (reported == REPORTED_CANDIDATES) {
+                break;
+            }
+            if (reported++ > 0) {
+                json.append(',');
+            }
+            json.append("{\"label\":");
+            SampleAggregator.appendJsonString(json, candidate.label);
+            json.append(",\"count\":").append(candidate.count)
+                .append(",\"error\":").append(candidate.error).append('}');
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,258 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Log-bucketed latency histogram with a configurable relative error.
+ * Bucket i covers (gamma^(i-1), gamma^i] with gamma = (1 + e) / (1 - e), so any percentile is answered within
+ * relative error e. Memory is bounded by the covered value range (a few hundred buckets for millisecond
+ * latencies at 1%), independent of the number of recorded values. Histograms with the same relative error
+ * can be merged, e.g. across time buckets or labels.
+ * Not thread-safe; callers synchronize.
+ */
+public class LatencyHistogram {
+
+    private static final int INITIAL_BUCKETS = 16;
+
+    private final double relativeError;
+    private final double logGamma;
+    private final double gamma;
+
+    // counts[i] holds bucket (offset + i)
+    private long[] counts = new long[0];
+    private int offset = 0;
+    private long zeroCount = 0;
+    private long totalCount = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * Creates an empty histogram
+     * @param relativeError Maximum relative error of reported percentiles, e.g. 0.01 for 1%
+     */
+    public LatencyHistogram(double relativeError) {
+        if (!(relativeError > 0 && relativeError < 1)) {
+            throw new IllegalArgumentException("Relative error must be between 0 and 1: " + relativeError);
+        }
+        this.relativeError = relativeError;
+        this.gamma = (1 + relativeError) / (1 - relativeError);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public double getRelativeError() {
+        return relativeError;
+    }
+
+    /**
+     * Records one value
+     */
+    public void add(long value) {
+        add(value, 1);
+    }
+
+    /**
+     * Records a value count times
+     */
+    public void add(long value, long count) {
+        if (count <= 0) {
+            return;
+        }
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        totalCount += count;
+        if (value <= 0) {
+            zeroCount += count;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        // slotFor may replace the array, so resolve the slot before indexing
+        int slot = slotFor(index);
+        counts[slot] += count;
+    }
+
+    private int slotFor(int index) {
+        if (counts.length == 0) {
+            counts = new long[INITIAL_BUCKETS];
+            offset = index - INITIAL_BUCKETS / 2;
+        } else if (index < offset) {
+            int shift = offset - index + INITIAL_BUCKETS / 2;
+            long[] grown = new long[counts.length + shift];
+            System.arraycopy(counts, 0, grown, shift, counts.length);
+            counts = grown;
+            offset -= shift;
+        } else if (index - offset >= counts.length) {
+            long[] grown = new long[Math.max(counts.length * 2, index - offset + INITIAL_BUCKETS / 2)];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        return index - offset;
+    }
+
+    /**
+     * Adds all values recorded by another histogram with the same relative error
+     */
+    public void merge(LatencyHistogram other) {
+        if (other == null || other.totalCount == 0) {
+            return;
+        }
+        if (other.relativeError != relativeError) {
+            throw new IllegalArgumentException("Cannot merge histograms with different relative errors");
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        totalCount += other.totalCount;
+        zeroCount += other.zeroCount;
+        if (other.counts.length > 0) {
+            // Make sure both ends of the other histogram's range are allocated before copying
+            slotFor(other.offset);
+            slotFor(other.offset + other.counts.length - 1);
+            int base = other.offset - offset;
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[base + i] += other.counts[i];
+            }
+        }
+    }
+
+    /**
+     * Writes the histogram compactly: the range of non-empty buckets as variable-length integers, so the size is
+     * bounded by the range of the recorded values, not their number. The relative error is not written.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        VarInts.writeLong(out, totalCount);
+        if (totalCount == 0) {
+            return;
+        }
+        int first = 0;
+        int last = counts.length - 1;
+        while (first <= last && counts[first] == 0) {
+            first++;
+        }
+        while (last >= first && counts[last] == 0) {
+            last--;
+        }
+        VarInts.writeLong(out, zeroCount);
+        VarInts.writeSignedLong(out, min);
+        VarInts.writeSignedLong(out, max);
+        VarInts.writeSignedLong(out, offset + first);
+        VarInts.writeLong(out, last - first + 1);
+        for (int i = first; i <= last; i++) {
+            VarInts.writeLong(out, counts[i]);
+        }
+    }
+
+    /**
+     * Reads a histogram written by {@link #writeTo}
+     */
+    static LatencyHistogram readFrom(DataInput in, double relativeError) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram(relativeError);
+        long total = VarInts.readLong(in);
+        if (total == 0) {
+            return histogram;
+        }
+        histogram.totalCount = total;
+        histogram.zeroCount = VarInts.readLong(in);
+        histogram.min = VarInts.readSignedLong(in);
+        histogram.max = VarInts.readSignedLong(in);
+        int first = (int) VarInts.readSignedLong(in);
+        int length = VarInts.readCount(in, 1 << 20);
+        if (length > 0) {
+            histogram.offset = first;
+            histogram.counts = new long[length];
+            for (int i = 0; i < length; i++) {
+                histogram.counts[i] = VarInts.readLong(in);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Number of recorded values
+     */
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount > 0 ? min : 0;
+    }
+
+    public long getMax() {
+        return totalCount > 0 ? max : 0;
+    }
+
+    /**
+     * Value at the given percentile (nearest rank), within the configured relative error
+     * @param percentile Percentile between 0 and 100
+     * @return Estimated value, 0 if the histogram is empty
+     */
+    public double getPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * totalCount);
+        if (rank <= 0) {
+            return min;
+        }
+        if (rank >= totalCount) {
+            return max;
+        }
+        long seen = zeroCount;
+        if (seen >= rank) {
+            return Math.max(0, min);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                double estimate = 2 * Math.pow(gamma, offset + i) / (gamma + 1);
+                return Math.max(min, Math.min(max, estimate));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Cumulative counts of the values at or below each bound, within the configured relative error: the values of
+     * a bucket count as the estimate {@link #getPercentile} reports for it. One pass over the buckets, no allocation.
+     * @param bounds Increasing upper bounds
+     * @param cumulative Receives the count of each bound, at least as long as bounds
+     */
+    public void getCumulativeCounts(double[] bounds, long[] cumulative) {
+        long seen = zeroCount;
+        int i = 0;
+        for (int b = 0; b < bounds.length; b++) {
+            double bound = bounds[b];
+            if (totalCount == 0 || bound < min) {
+                cumulative[b] = 0;
+                continue;
+            }
+            if (bound >= max) {
+                cumulative[b] = totalCount;
+                continue;
+            }
+            // Buckets up to this one have an estimate 2 * gamma^index / (gamma + 1) <= bound
+            long last = bound > 0 ? (long) Math.floor(Math.log(bound * (gamma + 1) / 2) / logGamma) - offset : -1;
+            while (i < counts.length && i <= last) {
+                seen += counts[i++];
+            }
+            cumulative[b] = seen;
+        }
+    }
+
+    /**
+     * Removes all recorded values
+     */
+    public void reset() {
+        counts = new long[0];
+        offset = 0;
+        zeroCount = 0;
+        totalCount = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+}
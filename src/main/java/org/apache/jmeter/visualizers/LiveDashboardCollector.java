@@ -0,0 +1,119 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.IOException;
+
+import org.apache.jmeter.JMeter;
+import org.apache.jmeter.reporters.ResultCollector;
+import org.apache.jmeter.samplers.SampleEvent;
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test element of the live dashboard, saved in the test plan by {@link LiveDashboardListener}.
+ * Unlike the GUI it also exists in non-GUI runs (jmeter -n): it feeds samples to its own run
+ * ({@link LiveDashboardEngine}) of the {@link LiveDashboardServer}, starts collection when the test starts and,
+ * without a GUI, keeps the dashboard server running for the duration of the test.
+ */
+public class LiveDashboardCollector extends ResultCollector {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = LoggerFactory.getLogger(LiveDashboardCollector.class);
+
+    static final String PORT_PROPERTY = "PORT";
+    // Overrides the port saved in the test plan, e.g. -Jlive.dashboard.port=9191 on CI agents
+    private static final String PORT_OVERRIDE_PROPERTY = "live.dashboard.port";
+
+    // Number of started hosts in distributed runs; collection starts with the first and ends with the last
+    private transient int runningHosts;
+    // Run recording this element's samples, from test start to test end
+    private transient volatile LiveDashboardEngine engine;
+    private transient boolean serverRetainedByTest;
+
+    public LiveDashboardCollector() {
+        super();
+    }
+
+    @Override
+    public void testStarted(String host) {
+        super.testStarted(host);
+        synchronized (this) {
+            if (runningHosts++ > 0) {
+                return;
+            }
+        }
+        LiveDashboardServer server = LiveDashboardServer.getInstance();
+        LiveDashboardEngine run = server.acquireRun(getName());
+        try {
+            float[] scores = QualityGateManager.readTargetScores(this);
+            run.setQualityGateConfiguration(QualityGateManager.readQualityGateMetrics(this), scores[0], scores[1]);
+        } catch (NumberFormatException e) {
+            log.warn("Invalid quality gate configuration, gates will not be evaluated: {}", e.toString());
+        }
+        run.testStarted();
+        engine = run;
+        log.info("Live dashboard of {} is served at the root and under {}/{}/", getName(),
+            LiveDashboardServer.RUNS_PATH, run.getId());
+
+        // With a GUI the server is started on demand from the listener
+        if (JMeter.isNonGUI()) {
+            int port = getPort();
+            try {
+                server.retainServer(port);
+                serverRetainedByTest = true;
+            } catch (IOException e) {
+                log.error("Could not start live dashboard server on port {}", port, e);
+            }
+        }
+    }
+
+    /**
+     * Records the sample in the run and in the inherited "Filename" output, both subject to the
+     * Errors / Successes only filter
+     */
+    @Override
+    public void sampleOccurred(SampleEvent event) {
+        LiveDashboardEngine run = engine;
+        if (run != null && isSampleWanted(event.getResult().isSuccessful())) {
+            run.sampleOccurred(event.getResult());
+        }
+        super.sampleOccurred(event);
+    }
+
+    /**
+     * Keeps the GUI detached: this element hands its samples to the run itself, through the GUI they would be
+     * recorded twice
+     */
+    @Override
+    public void setListener(Visualizer vis) {
+        // Samples are not sent to the GUI
+    }
+
+    @Override
+    public void testEnded(String host) {
+        synchronized (this) {
+            if (--runningHosts > 0) {
+                super.testEnded(host);
+                return;
+            }
+            runningHosts = 0;
+        }
+        LiveDashboardServer server = LiveDashboardServer.getInstance();
+        LiveDashboardEngine run = engine;
+        if (run != null) {
+            engine = null;
+            run.testEnded();
+            server.releaseRun(run);
+        }
+        if (serverRetainedByTest) {
+            server.releaseServer();
+            serverRetainedByTest = false;
+        }
+        super.testEnded(host);
+    }
+
+    private int getPort() {
+        int port = getPropertyAsInt(PORT_PROPERTY, LiveDashboardEngine.DEFAULT_PORT);
+        return JMeterUtils.getPropDefault(PORT_OVERRIDE_PROPERTY, port);
+    }
+}
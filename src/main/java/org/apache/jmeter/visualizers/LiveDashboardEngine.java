@@ -0,0 +1,1598 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One run of the live dashboard, without any Swing dependency: JTL and system metrics files, server-side
+ * aggregation, quality gate evaluation and the HTTP endpoints serving them.
+ * Runs are handed out by {@link LiveDashboardServer}, which serves them over its single HTTP server: every
+ * live dashboard element ({@link LiveDashboardCollector}, or {@link LiveDashboardListener} for plain result
+ * collectors) records into its own run, so several elements or test plans never share files or aggregates.
+ * Each test of an element gets a new run with a directory of its own; only the default run, which plans with a
+ * plain result collector record into, starts over with fresh files in bin/ at every {@link #testStarted}.
+ */
+public class LiveDashboardEngine {
+    
+    private static final Logger log = LoggerFactory.getLogger(LiveDashboardEngine.class);
+    
+    // Constants
+    static final String JTL_FILENAME = "live-dashboard.jtl";
+    // Written instead of the JTL file with live.dashboard.jtl.compress=true
+    static final String COMPRESSED_JTL_FILENAME = JTL_FILENAME + ".gz";
+    static final String HTML_FILENAME = "jmeter-dashboard.html";
+    static final String SYSTEM_METRICS_FILENAME = ".jmeter-system-metrics.csv";
+    // Segments of the binary sample log are named live-dashboard-00000.jtlb, live-dashboard-00001.jtlb, ...
+    static final String BINARY_LOG_NAME = "live-dashboard";
+    static final int DEFAULT_PORT = 9090;
+    
+    // JTL writer settings (JMeter properties, e.g. -Jlive.dashboard.jtl.writer=direct)
+    private static final String JTL_WRITER_PROPERTY = "live.dashboard.jtl.writer";
+    private static final String JTL_QUEUE_CAPACITY_PROPERTY = "live.dashboard.jtl.queue.capacity";
+    private static final String JTL_QUEUE_STRIPES_PROPERTY = "live.dashboard.jtl.queue.stripes";
+    private static final String JTL_OVERFLOW_POLICY_PROPERTY = "live.dashboard.jtl.queue.overflow";
+    private static final String JTL_OVERFLOW_SAMPLE_RATE_PROPERTY = "live.dashboard.jtl.queue.sample_rate";
+    private static final String JTL_FLUSH_BYTES_PROPERTY = "live.dashboard.jtl.flush.bytes";
+    private static final String JTL_FLUSH_INTERVAL_PROPERTY = "live.dashboard.jtl.flush.interval_ms";
+    private static final String JTL_TAIL_MAX_BYTES_PROPERTY = "live.dashboard.jtl.tail.max_bytes";
+    private static final String JTL_BINARY_PROPERTY = "live.dashboard.jtl.binary";
+    private static final String JTL_BINARY_SEGMENT_PROPERTY = "live.dashboard.jtl.binary.segment_mb";
+    private static final String JTL_COMPRESS_PROPERTY = "live.dashboard.jtl.compress";
+    private static final String AGGREGATE_BUCKET_PROPERTY = "live.dashboard.aggregate.bucket_ms";
+    private static final String HISTOGRAM_ERROR_PROPERTY = "live.dashboard.histogram.relative_error";
+    private static final double[] DEFAULT_PERCENTILES = {50, 90, 95, 99};
+    private static final double[] ROLLING_PERCENTILES = {90, 95, 99};
+    private static final String SYSTEM_METRICS_PERSIST_PROPERTY = "live.dashboard.system_metrics.persist";
+    private static final String SYSTEM_METRICS_PERSIST_INTERVAL_PROPERTY = "live.dashboard.system_metrics.persist.interval_ms";
+    
+    // Largest delta accepted from a remote engine (live.dashboard.cluster.*, see DistributedSampleSender)
+    private static final String CLUSTER_MAX_DELTA_PROPERTY = "live.dashboard.cluster.max_delta_mb";
+    private static final String METRICS_BUCKETS_PROPERTY = "live.dashboard.metrics.buckets_ms";
+    private static final String DEFAULT_METRICS_BUCKETS = "5,10,25,50,100,250,500,1000,2500,5000,10000";
+    private static final String METRICS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    // Series name and HELP/TYPE lines of each system metric gauge of /metrics, by Metric.ordinal()
+    private static final SystemMetricsSnapshot.Metric[] SYSTEM_METRICS = SystemMetricsSnapshot.Metric.values();
+    private static final String[] SYSTEM_METRIC_NAMES = new String[SYSTEM_METRICS.length];
+    private static final String[] SYSTEM_METRIC_HEADERS = new String[SYSTEM_METRICS.length];
+    static {
+        for (SystemMetricsSnapshot.Metric metric : SYSTEM_METRICS) {
+            String name = "jmeter_system_" + metric.getColumnName();
+            StringBuilder header = new StringBuilder();
+            SampleAggregator.appendMetricHeader(header, name, "gauge",
+                "Latest " + metric.getColumnName() + " of the system metrics of the JMeter host");
+            SYSTEM_METRIC_NAMES[metric.ordinal()] = name;
+            SYSTEM_METRIC_HEADERS[metric.ordinal()] = header.toString();
+        }
+    }
+    
+    // Endpoints of a run, served at the root for the test started last and under /runs/{id}/ for every run;
+    // "/" also serves the dashboard and the JTL and system metrics files
+    static final String[] ENDPOINTS = {"/", "/jtl/tail", "/samples", "/aggregates", "/percentiles", "/labels",
+        "/rolling", "/system-metrics", "/system-metrics/range", "/metrics", "/quality-gate", "/quality-gate/status", "/target-scores",
+        "/stream", ClusterDeltaReporter.DELTA_PATH, "/cluster"};
+    
+    private final LiveDashboardServer server;
+    private final String id;
+    private final File directory;
+    private final Map<String, HttpHandler> handlers = new HashMap<>();
+    // Name of the element recording into this run (or that recorded last), and whether it currently does
+    private volatile String owner;
+    private boolean acquired;
+    
+    // File management
+    private final File jtlFile;
+    private final File compressedJtlFile;
+    private final File htmlFile;
+    private final File systemMetricsFile;
+    private final File failFastSummaryFile;
+    private volatile JtlSampleWriter jtlWriter;
+    private final Object jtlWriterLock = new Object();
+    private volatile int jtlGeneration = 0; // Incremented whenever the JTL file is recreated
+    // Incremented whenever the system metrics file is recreated, so its cached gzip blocks are not reused
+    private volatile int systemMetricsGeneration = 0;
+    private volatile long testStartedAt;
+    // Index of the current (or last) JTL file, kept after the test ended for /samples
+    private volatile JtlIndex jtlIndex;
+    // Block-compressed JTL of the current (or last) test when live.dashboard.jtl.compress=true, else null
+    private volatile BlockCompressedOutputStream jtlCompressed;
+    
+    // Compressed HTTP responses, settings and block cache of the server
+    private final int gzipMinBytes;
+    private final GzipBlockCache gzipCache;
+    // Compressed HTML dashboard, rebuilt when the file changes
+    private volatile CompressedFile compressedHtml;
+    
+    // Per-label, per-time-bucket aggregates served to the dashboard
+    private volatile SampleAggregator sampleAggregator;
+    // Quality gates compiled when the test starts, updated with every sample
+    private volatile QualityGateEvaluator qualityGateEvaluator;
+    // Stops the test when the gates stay breached (live.dashboard.failfast), null if disabled
+    private volatile QualityGateFailFast qualityGateFailFast;
+    private BufferedWriter systemMetricsWriter;
+    private final Object systemMetricsLock = new Object();
+    // Samples are appended to the system metrics file from the history in batches (guarded by systemMetricsLock)
+    private final StringBuilder systemMetricsBuffer = new StringBuilder(8192);
+    private long systemMetricsPersisted;
+    private long systemMetricsPersistedAt;
+    // Time the current (or last) test started recording system metrics, 0 before the first test
+    private volatile long systemMetricsTestStart;
+    
+    // Engines of a distributed test reporting their aggregates to this dashboard
+    private final ClusterCoordinator clusterCoordinator = new ClusterCoordinator();
+    private final int clusterMaxDeltaBytes;
+    // Token deltas must carry (live.dashboard.cluster.token), null if any delta is accepted
+    private final byte[] clusterToken;
+    
+    // Upper bounds of the response time buckets of /metrics
+    private final double[] metricsBucketMillis;
+    
+    // Quality gate configuration served to the dashboard and compiled for evaluation
+    private volatile List<QualityGateMetric> qualityGateMetrics = Collections.emptyList();
+    private volatile float passScore = 80;
+    private volatile float warningScore = 60;
+    
+    // System metrics collector of the server, sampling on its own thread while a test or the server runs
+    private final SystemMetricsCollector systemMetricsCollector;
+    private final long systemMetricsInterval;
+    private final boolean persistSystemMetrics;
+    private final long systemMetricsPersistInterval;
+    
+    /**
+     * Creates a run; see {@link LiveDashboardServer#acquireRun}
+     * @param directory Directory of the run's files
+     */
+    LiveDashboardEngine(LiveDashboardServer server, String id, File directory) {
+        this.server = server;
+        this.id = id;
+        this.directory = directory;
+        
+        // Initialize JTL file
+        jtlFile = new File(directory, JTL_FILENAME);
+        compressedJtlFile = new File(directory, COMPRESSED_JTL_FILENAME);
+        systemMetricsFile = new File(directory, SYSTEM_METRICS_FILENAME);
+        failFastSummaryFile = new File(directory, QualityGateFailFast.SUMMARY_FILENAME);
+        
+        // The dashboard is the one of the bin directory for all runs
+        htmlFile = new File(JMeterUtils.getJMeterBinDir(), HTML_FILENAME);
+        
+        // System metrics are collected by the server for all runs
+        systemMetricsCollector = server.getSystemMetricsCollector();
+        systemMetricsInterval = server.getSystemMetricsInterval();
+        persistSystemMetrics = JMeterUtils.getPropDefault(SYSTEM_METRICS_PERSIST_PROPERTY, true);
+        systemMetricsPersistInterval = JMeterUtils.getPropDefault(SYSTEM_METRICS_PERSIST_INTERVAL_PROPERTY, 10000L);
+        
+        clusterMaxDeltaBytes = JMeterUtils.getPropDefault(CLUSTER_MAX_DELTA_PROPERTY, 16) * 1024 * 1024;
+        String token = JMeterUtils.getProperty(DistributedSampleSender.TOKEN_PROPERTY);
+        clusterToken = token != null && !token.isEmpty() ? token.getBytes(StandardCharsets.UTF_8) : null;
+        metricsBucketMillis = metricsBucketMillis();
+        
+        gzipMinBytes = server.getGzipMinBytes();
+        gzipCache = server.getGzipCache();
+        
+        handlers.put("/", new FileHandler());
+        // Incremental JTL handler (only the lines written since a given offset)
+        handlers.put("/jtl/tail", new JtlTailHandler());
+        // JTL lines of a time range, read through the sparse index
+        handlers.put("/samples", new SamplesHandler());
+        // Pre-computed per-label time buckets (only buckets changed since the given version)
+        handlers.put("/aggregates", new AggregatesHandler());
+        // Percentiles from the mergeable latency histograms
+        handlers.put("/percentiles", new PercentilesHandler());
+        // Label normalization and cardinality limit: aggregated labels, overflow and its heavy hitters
+        handlers.put("/labels", new LabelsHandler());
+        // Aggregates of the last 10 seconds, minute and 5 minutes (and of the scopes of the gates)
+        handlers.put("/rolling", new RollingHandler());
+        // Latest system metrics, and those of a time range from the in-memory history
+        handlers.put("/system-metrics", new SystemMetricsHandler());
+        handlers.put("/system-metrics/range", new SystemMetricsRangeHandler());
+        // Counters, response time histograms, threads and system metrics for Prometheus scrapers
+        handlers.put("/metrics", new MetricsHandler());
+        // Quality gate configuration, and the evaluation computed on the server
+        handlers.put("/quality-gate", new QualityGateHandler());
+        handlers.put("/quality-gate/status", new QualityGateStatusHandler());
+        handlers.put("/target-scores", new TargetScoresHandler());
+        // Server-Sent Events pushing aggregate deltas, system metrics and gate status changes
+        handlers.put("/stream", new StreamHandler());
+        // Aggregates of remote engines in distributed tests, and the engines that reported
+        handlers.put(ClusterDeltaReporter.DELTA_PATH, new ClusterDeltaHandler());
+        handlers.put("/cluster", new ClusterHandler());
+    }
+    
+    /**
+     * Id of the run in /runs/{id}/
+     */
+    public String getId() {
+        return id;
+    }
+    
+    /**
+     * Directory of the run's JTL and system metrics files
+     */
+    public File getDirectory() {
+        return directory;
+    }
+    
+    String getOwner() {
+        return owner;
+    }
+    
+    // Called by the server, which guards the acquired flag
+    boolean isAcquired() {
+        return acquired;
+    }
+    
+    void acquire(String name) {
+        owner = name;
+        acquired = true;
+    }
+    
+    void release() {
+        acquired = false;
+    }
+    
+    /**
+     * Endpoint of {@link #ENDPOINTS} serving a path: the longest one the path starts with, as the HTTP server
+     * matches contexts
+     */
+    static String endpointOf(String path) {
+        String endpoint = "/";
+        for (String candidate : ENDPOINTS) {
+            if (path.startsWith(candidate) && candidate.length() > endpoint.length()) {
+                endpoint = candidate;
+            }
+        }
+        return endpoint;
+    }
+    
+    /**
+     * Handles a request of one of the {@link #ENDPOINTS}
+     */
+    void handle(String endpoint, HttpExchange exchange) throws IOException {
+        handlers.get(endpoint).handle(exchange);
+    }
+    
+    /**
+     * Appends the run's id, element, state and files as a JSON object, for /runs
+     */
+    void appendJson(StringBuilder json, boolean isDefault) {
+        json.append("{\"id\":");
+        SampleAggregator.appendJsonString(json, id);
+        json.append(",\"path\":");
+        SampleAggregator.appendJsonString(json, LiveDashboardServer.RUNS_PATH + "/" + id + "/");
+        json.append(",\"element\":");
+        if (owner != null) {
+            SampleAggregator.appendJsonString(json, owner);
+        } else {
+            json.append("null");
+        }
+        json.append(",\"default\":").append(isDefault)
+            .append(",\"collecting\":").append(isCollecting())
+            .append(",\"generation\":").append(jtlGeneration)
+            .append(",\"testStarted\":").append(testStartedAt)
+            .append(",\"directory\":");
+        SampleAggregator.appendJsonString(json, directory.getAbsolutePath());
+        json.append('}');
+    }
+    
+    /**
+     * Sets the quality gate configuration; it is compiled for evaluation when the next test starts
+     */
+    public void setQualityGateConfiguration(List<QualityGateMetric> metrics, float passScore, float warningScore) {
+        this.qualityGateMetrics = Collections.unmodifiableList(new ArrayList<>(metrics));
+        this.passScore = passScore;
+        this.warningScore = warningScore;
+    }
+    
+    /**
+     * Starts collecting for a new test: recreates the JTL and system metrics files and resets the aggregates
+     */
+    public void testStarted() {
+        synchronized (jtlWriterLock) {
+            closeJtlWriter();
+            initializeJtlWriter();
+        }
+        clusterCoordinator.reset();
+    }
+    
+    /**
+     * Stops collecting and closes the output files; samples still queued by the async writer are written first
+     */
+    public void testEnded() {
+        try {
+            // Close writers (drains samples still queued by the async writer)
+            synchronized (jtlWriterLock) {
+                closeJtlWriter();
+            }
+            
+            // Stop system metrics collection unless the server or another run still needs them
+            server.updateSystemMetricsCollection();
+            synchronized (systemMetricsLock) {
+                if (systemMetricsWriter != null) {
+                    persistSystemMetrics();
+                    systemMetricsWriter.close();
+                    systemMetricsWriter = null;
+                }
+            }
+            
+        } catch (IOException e) {
+            log.error("Error closing files after test end", e);
+        }
+    }
+    
+    private void closeJtlWriter() {
+        if (jtlWriter != null) {
+            try {
+                jtlWriter.close();
+            } catch (IOException e) {
+                log.error("Error closing JTL file", e);
+            }
+            jtlWriter = null;
+        }
+    }
+    
+    /**
+     * True while samples are being recorded, i.e. between the first sample (or test start) and test end
+     */
+    public boolean isCollecting() {
+        return jtlWriter != null;
+    }
+    
+    SampleAggregator getSampleAggregator() {
+        return sampleAggregator;
+    }
+    
+    int getJtlGeneration() {
+        return jtlGeneration;
+    }
+    
+    QualityGateEvaluator getQualityGateEvaluator() {
+        return qualityGateEvaluator;
+    }
+    
+    SystemMetricsSnapshot getLatestSystemMetrics() {
+        return systemMetricsCollector.getLatest();
+    }
+    
+    /**
+     * Starts a fresh system metrics file (unless persistence is disabled) and makes sure metrics are being collected
+     */
+    private void initializeSystemMetricsCollection() {
+        systemMetricsTestStart = System.currentTimeMillis();
+        if (persistSystemMetrics) {
+            synchronized (systemMetricsLock) {
+                createFreshSystemMetricsFile();
+            }
+        }
+        
+        server.updateSystemMetricsCollection();
+    }
+    
+    private void createFreshSystemMetricsFile() {
+        try {
+            // Delete existing file if it exists
+            if (systemMetricsFile.exists()) {
+                systemMetricsFile.delete();
+            }
+            systemMetricsGeneration++;
+            gzipCache.invalidate(systemMetricsFile);
+            
+            // Create new file with header
+            systemMetricsWriter = new BufferedWriter(new FileWriter(systemMetricsFile, false));
+            systemMetricsWriter.write(SystemMetricsSnapshot.CSV_HEADER);
+            systemMetricsWriter.flush();
+            systemMetricsPersisted = systemMetricsCollector.getMetricsHistory().getRecordedCount();
+            systemMetricsPersistedAt = System.currentTimeMillis();
+            
+        } catch (IOException e) {
+            log.error("Error creating system metrics file", e);
+        }
+    }
+    
+    /**
+     * Called on the server's collector thread with every new sample; only samples taken during a test are
+     * evaluated and persisted (every persist interval, from the history)
+     */
+    void systemMetricsCollected(SystemMetricsSnapshot metrics) {
+        if (!isCollecting()) {
+            return;
+        }
+        QualityGateEvaluator evaluator = qualityGateEvaluator;
+        if (evaluator != null) {
+            evaluator.addSystemMetrics(metrics);
+        }
+        QualityGateFailFast failFast = qualityGateFailFast;
+        if (failFast != null) {
+            failFast.check(evaluator, System.currentTimeMillis());
+        }
+        if (persistSystemMetrics) {
+            synchronized (systemMetricsLock) {
+                if (systemMetricsWriter != null
+                        && metrics.getTimestamp() - systemMetricsPersistedAt >= systemMetricsPersistInterval) {
+                    persistSystemMetrics();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Appends the samples recorded since the last call to the system metrics file. Called with systemMetricsLock held.
+     */
+    private void persistSystemMetrics() {
+        try {
+            systemMetricsBuffer.setLength(0);
+            systemMetricsPersisted = systemMetricsCollector.getMetricsHistory().appendCsv(systemMetricsBuffer, systemMetricsPersisted);
+            systemMetricsPersistedAt = System.currentTimeMillis();
+            if (systemMetricsBuffer.length() > 0) {
+                systemMetricsWriter.append(systemMetricsBuffer);
+                systemMetricsWriter.flush();
+            }
+        } catch (IOException e) {
+            log.error("Error writing system metrics", e);
+        }
+    }
+    
+    /**
+     * Records one sample. Called concurrently from sampler threads.
+     */
+    public void sampleOccurred(SampleResult result) {
+        JtlSampleWriter writer = jtlWriter;
+        if (writer == null) {
+            writer = initializeJtlWriter();
+            if (writer == null) {
+                return;
+            }
+        }
+        
+        writer.write(result);
+        sampleAggregator.add(result);
+        qualityGateEvaluator.add(result);
+    }
+    
+    /**
+     * Creates the JTL writer exactly once, even when many sampler threads deliver their first sample at the same time.
+     * The writer creates the file with its header.
+     */
+    private JtlSampleWriter initializeJtlWriter() {
+        synchronized (jtlWriterLock) {
+            if (jtlWriter == null) {
+                try {
+                    JtlSampleWriter writer = createJtlWriter();
+                    jtlGeneration++;
+                    testStartedAt = System.currentTimeMillis();
+                    double relativeError = histogramRelativeError();
+                    sampleAggregator = new SampleAggregator(aggregateBucketMillis(), relativeError,
+                        LabelDictionary.fromProperties());
+                    // The summary of an earlier stop would be served as the one of this test
+                    Files.deleteIfExists(failFastSummaryFile.toPath());
+                    QualityGateFailFast failFast = QualityGateFailFast.fromProperties(qualityGateMetrics,
+                        warningScore, directory);
+                    qualityGateEvaluator = createQualityGateEvaluator(relativeError, failFast);
+                    qualityGateFailFast = failFast;
+                    jtlIndex = writer.getIndex();
+                    jtlWriter = writer;
+                    
+                    // After the writer is set, so the first sample already counts as taken during the test
+                    initializeSystemMetricsCollection();
+                } catch (IOException e) {
+                    log.error("Error initializing JTL file", e);
+                }
+            }
+            return jtlWriter;
+        }
+    }
+    
+    /**
+     * Width of the aggregation time buckets (live.dashboard.aggregate.bucket_ms)
+     */
+    static long aggregateBucketMillis() {
+        return JMeterUtils.getPropDefault(AGGREGATE_BUCKET_PROPERTY, 5000L);
+    }
+    
+    /**
+     * Upper bounds of the response time buckets of /metrics in milliseconds (live.dashboard.metrics.buckets_ms,
+     * comma separated), sorted; invalid values are logged and ignored
+     */
+    static double[] metricsBucketMillis() {
+        String value = JMeterUtils.getPropDefault(METRICS_BUCKETS_PROPERTY, DEFAULT_METRICS_BUCKETS);
+        String[] parts = value.split(",");
+        double[] bounds = new double[parts.length];
+        int count = 0;
+        for (String part : parts) {
+            try {
+                double bound = Double.parseDouble(part.trim());
+                if (bound > 0 && !Double.isInfinite(bound)) {
+                    bounds[count++] = bound;
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // logged below
+            }
+            log.warn("Ignoring invalid bucket in {}: {}", METRICS_BUCKETS_PROPERTY, part);
+        }
+        bounds = Arrays.copyOf(bounds, count);
+        Arrays.sort(bounds);
+        return bounds;
+    }
+    
+    /**
+     * Relative error of the latency histograms (live.dashboard.histogram.relative_error). Parsed here because
+     * JMeterUtils parses double properties as floats: histograms only merge with the exact same error, e.g. the
+     * ones remote engines send.
+     */
+    static double histogramRelativeError() {
+        String value = JMeterUtils.getPropDefault(HISTOGRAM_ERROR_PROPERTY, "0.01");
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid {}: {}, using 0.01", HISTOGRAM_ERROR_PROPERTY, value);
+            return 0.01;
+        }
+    }
+    
+    /**
+     * Compiles the current quality gate configuration, with the rolling windows of /rolling and of fail-fast
+     * @param failFast Fail-fast of the test, or null
+     */
+    private QualityGateEvaluator createQualityGateEvaluator(double relativeError, QualityGateFailFast failFast) {
+        long[] windowMillis = RollingWindows.DEFAULT_WINDOW_MILLIS;
+        if (failFast != null) {
+            windowMillis = Arrays.copyOf(windowMillis, windowMillis.length + 1);
+            windowMillis[windowMillis.length - 1] = failFast.getWindowMillis();
+        }
+        return new QualityGateEvaluator(qualityGateMetrics, passScore, warningScore, relativeError, windowMillis);
+    }
+    
+    /**
+     * Creates the JTL writer selected by the live.dashboard.jtl.writer property:
+     * "async" (default) batches samples on a background thread, "direct" writes and flushes on the sampler thread.
+     * With live.dashboard.jtl.binary=true the writer also writes a binary sample log next to the JTL file.
+     * With live.dashboard.jtl.compress=true the JTL is written block-compressed to live-dashboard.jtl.gz instead:
+     * every flush of the writer appends one gzip member, so the async writer (one member per batch) compresses
+     * much better than the direct one (one member per sample).
+     */
+    private JtlSampleWriter createJtlWriter() throws IOException {
+        String mode = JMeterUtils.getPropDefault(JTL_WRITER_PROPERTY, "async");
+        boolean compress = JMeterUtils.getPropDefault(JTL_COMPRESS_PROPERTY, false);
+        Files.createDirectories(directory.toPath());
+        BinarySampleLogWriter binaryLog = null;
+        if (JMeterUtils.getPropDefault(JTL_BINARY_PROPERTY, false)) {
+            binaryLog = new BinarySampleLogWriter(directory, BINARY_LOG_NAME,
+                JMeterUtils.getPropDefault(JTL_BINARY_SEGMENT_PROPERTY, 64L) * 1024 * 1024);
+        }
+        OutputStream out = null;
+        try {
+            // The file of the other mode is from an earlier test and would be served as the current one
+            Files.deleteIfExists((compress ? jtlFile : compressedJtlFile).toPath());
+            gzipCache.invalidate(jtlFile);
+            BlockCompressedOutputStream compressed = compress
+                ? new BlockCompressedOutputStream(compressedJtlFile, Deflater.BEST_SPEED) : null;
+            out = compressed != null ? compressed : new FileOutputStream(jtlFile);
+            jtlCompressed = compressed;
+            if ("direct".equalsIgnoreCase(mode.trim())) {
+                if (compress) {
+                    log.warn("The direct JTL writer compresses every sample on its own, use the async writer with {}",
+                        JTL_COMPRESS_PROPERTY);
+                }
+                return new DirectJtlWriter(out, binaryLog);
+            }
+            return new AsyncJtlWriter(out, binaryLog,
+                JMeterUtils.getPropDefault(JTL_QUEUE_CAPACITY_PROPERTY, 65536),
+                JMeterUtils.getPropDefault(JTL_QUEUE_STRIPES_PROPERTY, Runtime.getRuntime().availableProcessors()),
+                AsyncJtlWriter.OverflowPolicy.fromString(JMeterUtils.getPropDefault(JTL_OVERFLOW_POLICY_PROPERTY, "block")),
+                JMeterUtils.getPropDefault(JTL_OVERFLOW_SAMPLE_RATE_PROPERTY, 10),
+                JMeterUtils.getPropDefault(JTL_FLUSH_BYTES_PROPERTY, 65536),
+                JMeterUtils.getPropDefault(JTL_FLUSH_INTERVAL_PROPERTY, 250L));
+        } catch (IOException e) {
+            if (out != null) {
+                out.close();
+            }
+            if (binaryLog != null) {
+                binaryLog.close();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Parses the query string of a request into a name/value map
+     */
+    static Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            String name = separator >= 0 ? pair.substring(0, separator) : pair;
+            String value = separator >= 0 ? pair.substring(separator + 1) : "";
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+    
+    static long parseLongParam(Map<String, String> params, String name, long defaultValue) {
+        try {
+            String value = params.get(name);
+            return value != null && !value.isEmpty() ? Long.parseLong(value) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+    
+    private boolean acceptsGzip(HttpExchange exchange) {
+        return server.acceptsGzip(exchange);
+    }
+    
+    /**
+     * Sends a complete response body with the given status and content type
+     */
+    private void sendResponse(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        sendBytes(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Sends a complete response body, gzip compressed if the client accepts it and it is at least
+     * live.dashboard.http.gzip.min_bytes long
+     */
+    private void sendBytes(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        if (bytes.length >= gzipMinBytes && acceptsGzip(exchange)) {
+            bytes = GzipMembers.compress(bytes, Deflater.DEFAULT_COMPRESSION);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+    
+    /**
+     * True if there is a JTL file of this JMeter run to read, plain or compressed
+     */
+    private boolean jtlContentExists() {
+        return jtlCompressed != null || jtlFile.exists();
+    }
+    
+    /**
+     * Reads the uncompressed content of the current JTL file, whether it is written plain or block-compressed.
+     * Gzip copies reuse compressed blocks: the stored members of a compressed file, or the members of a plain file
+     * cached by {@link GzipBlockCache} once its blocks are complete.
+     */
+    private final class JtlContent implements AutoCloseable {
+        private final int generation = jtlGeneration;
+        private final JtlIndex index = jtlIndex;
+        private final BlockCompressedOutputStream compressed = jtlCompressed;
+        private final BlockCompressedOutputStream.Reader compressedReader;
+        private final FileChannel channel;
+        
+        JtlContent() throws IOException {
+            if (compressed != null) {
+                compressedReader = compressed.openReader();
+                channel = null;
+            } else {
+                compressedReader = null;
+                channel = FileChannel.open(jtlFile.toPath(), StandardOpenOption.READ);
+            }
+        }
+        
+        /**
+         * Uncompressed length of the content written so far
+         */
+        long size() throws IOException {
+            return compressed != null ? compressed.getPlainLength() : channel.size();
+        }
+        
+        /**
+         * Reads bytes at a position
+         * @return Number of bytes read, possibly fewer than the room in the buffer; -1 at the end
+         */
+        int read(ByteBuffer buffer, long position) throws IOException {
+            return compressedReader != null ? compressedReader.read(buffer, position) : channel.read(buffer, position);
+        }
+        
+        /**
+         * Writes the bytes [start, end)
+         */
+        void copy(long start, long end, OutputStream out) throws IOException {
+            copy(start, end, out, ByteBuffer.allocate(64 * 1024));
+        }
+        
+        /**
+         * Writes the bytes [start, end) through a heap buffer of the caller
+         */
+        void copy(long start, long end, OutputStream out, ByteBuffer buffer) throws IOException {
+            while (start < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - start));
+                int count = read(buffer, start);
+                if (count <= 0) {
+                    break;
+                }
+                out.write(buffer.array(), 0, count);
+                start += count;
+            }
+        }
+        
+        /**
+         * Fills the buffer (up to its limit) with the bytes at a position, fewer only at the end of the content
+         */
+        void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (read(buffer, position + buffer.position()) <= 0) {
+                    break;
+                }
+            }
+        }
+        
+        /**
+         * Writes the bytes [start, end) as a gzip stream (nothing if the range is empty)
+         */
+        void copyGzip(long start, long end, OutputStream out) throws IOException {
+            if (compressedReader != null) {
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                try {
+                    compressedReader.copyGzip(start, end, out, deflater);
+                } finally {
+                    deflater.end();
+                }
+            } else {
+                // While samples are written, only the flushed part of the file is final
+                long complete = index != null && isCollecting() ? index.getCommittedBytes() : channel.size();
+                gzipCache.copyGzip(GzipBlockCache.fileKey(jtlFile, generation), channel, start, end, complete, out);
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (compressedReader != null) {
+                compressedReader.close();
+            } else {
+                channel.close();
+            }
+        }
+    }
+    
+    /**
+     * Compressed copy of a static file, valid while the file keeps its modification time and length
+     */
+    private static final class CompressedFile {
+        private final long lastModified;
+        private final long length;
+        private final byte[] bytes;
+        
+        CompressedFile(File file) throws IOException {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+            this.bytes = GzipMembers.compress(Files.readAllBytes(file.toPath()), Deflater.BEST_COMPRESSION);
+        }
+        
+        boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+    
+    // HTTP Handlers
+    private class FileHandler implements HttpHandler {
+        // Buffer of a file download, and gzip buffer when compressing one
+        private static final int FILE_CHUNK_BYTES = 64 * 1024;
+        
+    @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            
+            if (path.equals("/") || path.equals("/jmeter-dashboard.html")) {
+                // Serve the HTML dashboard
+                serveHtml(exchange);
+            } else if (path.equals("/" + JTL_FILENAME)) {
+                // Serve the JTL file
+                serveJtl(exchange);
+            } else if (path.equals("/.jmeter-system-metrics.csv")) {
+                // Serve the system metrics file, only appended to until it is recreated
+                serveFile(exchange, systemMetricsFile, "text/plain",
+                    GzipBlockCache.fileKey(systemMetricsFile, systemMetricsGeneration));
+            } else if (path.equals("/" + QualityGateFailFast.SUMMARY_FILENAME)) {
+                // Serve the summary of a test stopped by its quality gates
+                serveFile(exchange, failFastSummaryFile, "application/json", null);
+            } else {
+                // 404 Not Found
+                String response = "404 Not Found";
+                exchange.sendResponseHeaders(404, response.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response.getBytes());
+                }
+            }
+        }
+        
+        /**
+         * Streams a file in chunks, so a download needs the same memory whatever the file size: with its length
+         * as read when the request arrived, or chunked and gzip compressed if the client accepts it. The gzip
+         * blocks of an append-only file are compressed once and then served from the block cache.
+         * @param gzipKey Key of the file content in the block cache (taken before opening the file), or null to
+         * compress on the fly, e.g. for a file that is rewritten in place
+         */
+        private void serveFile(HttpExchange exchange, File file, String contentType, String gzipKey)
+                throws IOException {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                sendNotFound(exchange);
+                return;
+            }
+            try (channel) {
+                long size = channel.size();
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+                if (size >= gzipMinBytes && acceptsGzip(exchange)) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    if (gzipKey != null) {
+                        try (OutputStream os = new BufferedOutputStream(exchange.getResponseBody(), FILE_CHUNK_BYTES)) {
+                            gzipCache.copyGzip(gzipKey, channel, 0, size, size, os);
+                        }
+                        return;
+                    }
+                    try (OutputStream os = new GZIPOutputStream(exchange.getResponseBody(), FILE_CHUNK_BYTES)) {
+                        copyFile(channel, size, os);
+                    }
+                    return;
+                }
+                exchange.sendResponseHeaders(200, size > 0 ? size : -1);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    copyFile(channel, size, os);
+                }
+            }
+        }
+
+        /**
+         * Writes the first size bytes of a file through one reused buffer. The HTTP server only exposes a stream,
+         * so the bytes cannot be transferred from the file to the socket directly.
+         */
+        private void copyFile(FileChannel channel, long size, OutputStream out) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(FILE_CHUNK_BYTES, Math.max(1, size)));
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - position));
+                int count = channel.read(buffer, position);
+                if (count < 0) {
+                    // Truncated meanwhile (recreated by a new test): the announced length cannot be sent
+                    throw new EOFException("File shrank while being sent");
+                }
+                out.write(buffer.array(), 0, count);
+                position += count;
+            }
+        }
+        
+        private void sendNotFound(HttpExchange exchange) throws IOException {
+            String response = "File not found";
+            exchange.sendResponseHeaders(404, response.length());
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response.getBytes());
+            }
+        }
+        
+        /**
+         * Serves the dashboard, compressed once per version of the file
+         */
+        private void serveHtml(HttpExchange exchange) throws IOException {
+            if (!htmlFile.exists() || !acceptsGzip(exchange)) {
+                serveFile(exchange, htmlFile, "text/html", null);
+                return;
+            }
+            CompressedFile html = compressedHtml;
+            if (html == null || !html.isCurrent(htmlFile)) {
+                html = new CompressedFile(htmlFile);
+                compressedHtml = html;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/html");
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, html.bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(html.bytes);
+            }
+        }
+        
+        /**
+         * Serves the whole JTL file, gzip compressed from cached or stored blocks when the client accepts it
+         */
+        private void serveJtl(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            if (!jtlContentExists()) {
+                serveStoredGzip(exchange, compressedJtlFile);
+                return;
+            }
+            try (JtlContent content = new JtlContent()) {
+                long size = content.size();
+                boolean gzip = size >= gzipMinBytes && acceptsGzip(exchange);
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                // Chunked: the file may grow (or be recreated) while it is sent
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream os = new BufferedOutputStream(exchange.getResponseBody(), 64 * 1024)) {
+                    if (gzip) {
+                        content.copyGzip(0, size, os);
+                    } else {
+                        content.copy(0, size, os);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Serves a gzip file, e.g. the compressed JTL of an earlier JMeter run, as stored or decompressed
+         */
+        private void serveStoredGzip(HttpExchange exchange, File file) throws IOException {
+            if (!file.exists()) {
+                sendNotFound(exchange);
+            } else if (acceptsGzip(exchange)) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, file.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    Files.copy(file.toPath(), os);
+                }
+            } else {
+                exchange.sendResponseHeaders(200, 0);
+                try (InputStream in = new GZIPInputStream(new FileInputStream(file), 64 * 1024);
+                     OutputStream os = exchange.getResponseBody()) {
+                    in.transferTo(os);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Serves the complete lines appended to the JTL file since byte offset "offset".
+     * The offset to request next is returned in the X-JTL-Offset header. When the file was recreated
+     * (generation mismatch) or the offset is beyond its end, reading restarts at 0 and X-JTL-Reset is set,
+     * so the client knows the body starts with the CSV header again.
+     * A line longer than live.dashboard.jtl.tail.max_bytes is skipped once it is complete: the body is empty,
+     * the offset moves past it and X-JTL-Skipped tells how many bytes were skipped.
+     * Offsets are uncompressed, also when the JTL is written compressed.
+     */
+    private class JtlTailHandler implements HttpHandler {
+        private static final int TAIL_CHUNK_BYTES = 64 * 1024;
+        
+        // Scan and copy buffer, reused by the requests of each server thread
+        private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(TAIL_CHUNK_BYTES));
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            Map<String, String> params = parseQuery(exchange);
+            long offset = parseLongParam(params, "offset", 0);
+            long generation = parseLongParam(params, "generation", -1);
+            int currentGeneration = jtlGeneration;
+            
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Access-Control-Expose-Headers", "X-JTL-Offset, X-JTL-Reset, X-JTL-Generation, X-JTL-Skipped");
+            
+            if (!jtlContentExists()) {
+                String response = "File not found";
+                exchange.sendResponseHeaders(404, response.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response.getBytes());
+                }
+                return;
+            }
+            
+            try (JtlContent content = new JtlContent()) {
+                long size = content.size();
+                boolean reset = offset <= 0 || offset > size || (generation >= 0 && generation != currentGeneration);
+                if (reset) {
+                    offset = 0;
+                }
+                
+                ByteBuffer buffer = buffers.get();
+                int maxBytes = Math.max(1, JMeterUtils.getPropDefault(JTL_TAIL_MAX_BYTES_PROPERTY, 4 * 1024 * 1024));
+                long limit = Math.min(size, offset + maxBytes);
+                // Only hand out complete lines; a partially flushed line is returned by the next request
+                long end = Math.max(offset, recordEnd(content, buffer, offset, limit, false));
+                long next = end;
+                if (end == offset && limit - offset == maxBytes) {
+                    // One line fills the whole window: skip it once it is complete, it never fits in a response
+                    long lineEnd = recordEnd(content, buffer, offset, size, true);
+                    if (lineEnd > 0) {
+                        log.warn("Skipping a JTL line of {} bytes at offset {}, longer than {}", lineEnd - offset,
+                            offset, JTL_TAIL_MAX_BYTES_PROPERTY);
+                        exchange.getResponseHeaders().set("X-JTL-Skipped", String.valueOf(lineEnd - offset));
+                        next = lineEnd;
+                    }
+                }
+                long length = end - offset;
+                
+                exchange.getResponseHeaders().set("X-JTL-Offset", String.valueOf(next));
+                exchange.getResponseHeaders().set("X-JTL-Reset", String.valueOf(reset));
+                exchange.getResponseHeaders().set("X-JTL-Generation", String.valueOf(currentGeneration));
+                if (length >= gzipMinBytes && acceptsGzip(exchange)) {
+                    // Blocks the range covers completely come from the cache (or the compressed file)
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    try (OutputStream os = new BufferedOutputStream(exchange.getResponseBody(), 64 * 1024)) {
+                        content.copyGzip(offset, end, os);
+                    }
+                    return;
+                }
+                exchange.sendResponseHeaders(200, length > 0 ? length : -1);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    if (length > 0) {
+                        content.copy(offset, end, os, buffer);
+                    }
+                }
+            }
+        }
+        
+        /**
+         * Position after the newline ending the last line (or the first one) in [start, end), scanning forwards
+         * chunk by chunk from start, the start of a line. A newline within quotes, in a response message, belongs
+         * to the line; offsets handed out are line ends, so the quotes are balanced at start.
+         * @return -1 if no line ends in the range
+         */
+        private long recordEnd(JtlContent content, ByteBuffer buffer, long start, long end, boolean first)
+                throws IOException {
+            long found = -1;
+            boolean inQuotes = false;
+            long chunkStart = start;
+            while (chunkStart < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - chunkStart));
+                content.readFully(buffer, chunkStart);
+                int count = buffer.position();
+                if (count == 0) {
+                    break;
+                }
+                for (int i = 0; i < count; i++) {
+                    byte b = buffer.get(i);
+                    if (b == '"') {
+                        inQuotes = !inQuotes;
+                    } else if (b == '\n' && !inQuotes) {
+                        found = chunkStart + i + 1;
+                        if (first) {
+                            return found;
+                        }
+                    }
+                }
+                chunkStart += count;
+            }
+            return found;
+        }
+    }
+    
+    /**
+     * Serves the JTL lines (with the JTL header) of the samples started between "from" and "to" (epoch ms,
+     * inclusive), optionally only those with label "label", in file order. Only the blocks the {@link JtlIndex}
+     * maps to the time range are read, so the cost depends on the window and not on the file size.
+     * X-Samples-Scanned-Bytes tells how much of the file was read.
+     */
+    private class SamplesHandler implements HttpHandler {
+        private static final int CHUNK_BYTES = 64 * 1024;
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            JtlIndex index = jtlIndex;
+            if (index == null || !jtlContentExists()) {
+                sendResponse(exchange, 404, "text/plain", "No samples recorded yet");
+                return;
+            }
+            Map<String, String> params = parseQuery(exchange);
+            long from = parseLongParam(params, "from", Long.MIN_VALUE);
+            long to = parseLongParam(params, "to", Long.MAX_VALUE);
+            String label = params.get("label");
+            byte[] labelField = label != null && !label.isEmpty() ? label.getBytes(StandardCharsets.UTF_8) : null;
+            
+            List<long[]> ranges = index.ranges(from, to);
+            long scanned = 0;
+            for (long[] range : ranges) {
+                scanned += range[1] - range[0];
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().set("Access-Control-Expose-Headers", "X-Samples-Scanned-Bytes");
+            exchange.getResponseHeaders().set("X-Samples-Scanned-Bytes", String.valueOf(scanned));
+            boolean gzip = acceptsGzip(exchange);
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream body = exchange.getResponseBody();
+            try (JtlContent content = new JtlContent();
+                 OutputStream os = new BufferedOutputStream(gzip ? new GZIPOutputStream(body, CHUNK_BYTES) : body,
+                     CHUNK_BYTES)) {
+                os.write(JtlRecord.HEADER.getBytes(StandardCharsets.UTF_8));
+                ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+                for (long[] range : ranges) {
+                    long position = range[0];
+                    while (position < range[1]) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), range[1] - position));
+                        // A compressed file is read block by block, a chunk may need several reads
+                        while (buffer.hasRemaining()) {
+                            if (content.read(buffer, position + buffer.position()) <= 0) {
+                                break;
+                            }
+                        }
+                        if (buffer.position() == 0) {
+                            break;
+                        }
+                        // Ranges end with a line; a chunk is processed up to its last complete line, whose
+                        // quoted fields may hold newlines
+                        int end = 0;
+                        int recordEnd;
+                        while ((recordEnd = JtlCsvParser.recordEnd(buffer.array(), end, buffer.position())) >= 0) {
+                            end = recordEnd + 1;
+                        }
+                        if (end == 0) {
+                            if (buffer.hasRemaining()) {
+                                // The file ended within the line, it was recreated meanwhile
+                                break;
+                            }
+                            // A line longer than the buffer
+                            buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                            continue;
+                        }
+                        writeMatchingLines(buffer.array(), end, from, to, labelField, os);
+                        position += end;
+                    }
+                }
+            }
+        }
+        
+        private void writeMatchingLines(byte[] bytes, int length, long from, long to, byte[] labelField,
+                                        OutputStream os) throws IOException {
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = JtlCsvParser.recordEnd(bytes, lineStart, length);
+                if (matches(bytes, lineStart, lineEnd, from, to, labelField)) {
+                    os.write(bytes, lineStart, lineEnd + 1 - lineStart);
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+        
+        /**
+         * Checks the timeStamp column and, if requested, the label column (third, read as
+         * {@link JtlCsvParser} reads it) of a JTL line
+         */
+        private boolean matches(byte[] bytes, int start, int end, long from, long to, byte[] labelField) {
+            long timeStamp = 0;
+            int i = start;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+                timeStamp = timeStamp * 10 + (bytes[i++] - '0');
+            }
+            if (i == start || timeStamp < from || timeStamp > to) {
+                return false;
+            }
+            if (labelField == null) {
+                return true;
+            }
+            // Skip the elapsed column
+            i = JtlCsvParser.fieldEnd(bytes, i + 1, end) + 1;
+            return i <= end && JtlCsvParser.fieldEquals(bytes, i, end, labelField);
+        }
+    }
+    
+    /**
+     * Serves the aggregated time buckets changed since version "since" (see {@link SampleAggregator#toJson})
+     */
+    private class AggregatesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                SampleAggregator aggregator = sampleAggregator;
+                if (aggregator == null) {
+                    sendResponse(exchange, 404, "application/json", "{\"error\":\"No samples recorded yet\"}");
+                    return;
+                }
+                long since = parseLongParam(parseQuery(exchange), "since", 0);
+                sendResponse(exchange, 200, "application/json", aggregator.toJson(since, jtlGeneration));
+            } catch (Exception e) {
+                log.error("Error handling aggregates request", e);
+                sendResponse(exchange, 500, "application/json", "{\"error\":\"Failed to get aggregates\"}");
+            }
+        }
+    }
+    
+    /**
+     * Serves percentiles (query "p", default 50,90,95,99) overall, per label and per period of "period" ms
+     * starting at "from", computed from the latency histograms of {@link SampleAggregator}
+     */
+    private class PercentilesHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                SampleAggregator aggregator = sampleAggregator;
+                if (aggregator == null) {
+                    sendResponse(exchange, 404, "application/json", "{\"error\":\"No samples recorded yet\"}");
+                    return;
+                }
+                Map<String, String> params = parseQuery(exchange);
+                double[] percentiles = DEFAULT_PERCENTILES;
+                String requested = params.get("p");
+                if (requested != null && !requested.isEmpty()) {
+                    String[] parts = requested.split(",");
+                    percentiles = new double[parts.length];
+                    for (int i = 0; i < parts.length; i++) {
+                        percentiles[i] = Math.max(0, Math.min(100, Double.parseDouble(parts[i].trim())));
+                    }
+                }
+                long period = parseLongParam(params, "period", aggregator.getBucketMillis());
+                long from = parseLongParam(params, "from", Long.MIN_VALUE);
+                sendResponse(exchange, 200, "application/json", aggregator.percentilesToJson(percentiles, period, from));
+            } catch (NumberFormatException e) {
+                sendResponse(exchange, 400, "application/json", "{\"error\":\"Invalid percentile\"}");
+            } catch (Exception e) {
+                log.error("Error handling percentiles request", e);
+                sendResponse(exchange, 500, "application/json", "{\"error\":\"Failed to get percentiles\"}");
+            }
+        }
+    }
+    
+    /**
+     * Serves the state of the label dictionary of the aggregates (see {@link LabelDictionary#toJson})
+     */
+    private class LabelsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            SampleAggregator aggregator = sampleAggregator;
+            if (aggregator == null) {
+                sendResponse(exchange, 404, "application/json", "{\"error\":\"No samples recorded yet\"}");
+                return;
+            }
+            sendResponse(exchange, 200, "application/json", aggregator.getLabelDictionary().toJson());
+        }
+    }
+    
+    /**
+     * Serves the aggregates of the rolling windows ending now (see {@link RollingWindows#toJson}), with the
+     * percentiles of query "p" (default 90,95,99)
+     */
+    private class RollingHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                QualityGateEvaluator evaluator = qualityGateEvaluator;
+                RollingWindows windows = evaluator != null ? evaluator.getRollingWindows() : null;
+                if (windows == null) {
+                    sendResponse(exchange, 404, "application/json", "{\"error\":\"No samples recorded yet\"}");
+                    return;
+                }
+                double[] percentiles = ROLLING_PERCENTILES;
+                String requested = parseQuery(exchange).get("p");
+                if (requested != null && !requested.isEmpty()) {
+                    String[] parts = requested.split(",");
+                    percentiles = new double[parts.length];
+                    for (int i = 0; i < parts.length; i++) {
+                        percentiles[i] = Math.max(0, Math.min(100, Double.parseDouble(parts[i].trim())));
+                    }
+                }
+                sendResponse(exchange, 200, "application/json", windows.toJson(System.currentTimeMillis(), percentiles));
+            } catch (NumberFormatException e) {
+                sendResponse(exchange, 400, "application/json", "{\"error\":\"Invalid percentile\"}");
+            } catch (Exception e) {
+                log.error("Error handling rolling windows request", e);
+                sendResponse(exchange, 500, "application/json", "{\"error\":\"Failed to get rolling windows\"}");
+            }
+        }
+    }
+    
+    /**
+     * Serves the latest system metrics sample without collecting on the request thread,
+     * or with ?last=N the last N samples as an array (oldest first)
+     */
+    private class SystemMetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                long last = parseLongParam(parseQuery(exchange), "last", 0);
+                if (last > 0) {
+                    StringBuilder json = new StringBuilder(256).append('[');
+                    List<SystemMetricsSnapshot> history = systemMetricsCollector.getHistory((int) Math.min(last, Integer.MAX_VALUE));
+                    for (int i = 0; i < history.size(); i++) {
+                        if (i > 0) json.append(',');
+                        history.get(i).appendJson(json, false);
+                    }
+                    sendResponse(exchange, 200, "application/json", json.append(']').toString());
+                    return;
+                }
+                SystemMetricsSnapshot metrics = systemMetricsCollector.getLatest();
+                if (metrics == null) {
+                    sendResponse(exchange, 503, "application/json", "{\"error\":\"No system metrics collected yet\"}");
+                    return;
+                }
+                StringBuilder json = new StringBuilder(256);
+                metrics.appendJson(json, false);
+                sendResponse(exchange, 200, "application/json", json.toString());
+            } catch (Exception e) {
+                log.error("Error handling system metrics request", e);
+                sendResponse(exchange, 500, "application/json", "{\"error\":\"Failed to get system metrics\"}");
+            }
+        }
+    }
+    
+    /**
+     * Serves the system metrics between "from" and "to" (epoch ms, inclusive; "from=test" for the start of the
+     * current or last test) from {@link SystemMetricsHistory}, averaged over "step" ms if given
+     */
+    private class SystemMetricsRangeHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                Map<String, String> params = parseQuery(exchange);
+                long testStart = systemMetricsTestStart;
+                long from = "test".equals(params.get("from")) ? testStart : parseLongParam(params, "from", 0);
+                long to = parseLongParam(params, "to", Long.MAX_VALUE);
+                long step = parseLongParam(params, "step", 0);
+                StringBuilder json = new StringBuilder(64 * 1024);
+                json.append("{\"testStart\":").append(testStart)
+                    .append(",\"interval\":").append(systemMetricsInterval).append(',');
+                systemMetricsCollector.getMetricsHistory().appendRangeJson(json, from, to, step);
+                sendResponse(exchange, 200, "application/json", json.append('}').toString());
+            } catch (Exception e) {
+                log.error("Error handling system metrics range request", e);
+                sendResponse(exchange, 500, "application/json", "{\"error\":\"Failed to get system metrics\"}");
+            }
+        }
+    }
+    
+    /**
+     * Serves the counters of the run in the Prometheus text exposition format: per-label samples, errors, received
+     * bytes and response time histograms (whole test), the threads reported by the latest samples and the latest
+     * system metrics. Every scrape encodes the live counters, so it costs about as much as an /aggregates request.
+     */
+    private class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                SampleAggregator aggregator = sampleAggregator;
+                StringBuilder out = new StringBuilder(16 * 1024);
+                if (aggregator != null) {
+                    aggregator.appendMetrics(out, id, metricsBucketMillis);
+                }
+                SampleAggregator.appendMetricHeader(out, "jmeter_active_threads", "gauge",
+                    "Threads of all thread groups reported by the latest samples, 0 when no test is running");
+                out.append("jmeter_active_threads{");
+                SampleAggregator.appendMetricLabel(out, "run", id);
+                out.append("} ").append(aggregator != null && isCollecting() ? aggregator.getLatestThreads() : 0)
+                    .append('\n');
+                SystemMetricsSnapshot metrics = systemMetricsCollector.getLatest();
+                if (metrics != null) {
+                    for (SystemMetricsSnapshot.Metric metric : SYSTEM_METRICS) {
+                        double value = metrics.getValue(metric);
+                        if (value < 0) {
+                            continue;
+                        }
+                        out.append(SYSTEM_METRIC_HEADERS[metric.ordinal()]);
+                        out.append(SYSTEM_METRIC_NAMES[metric.ordinal()]).append('{');
+                        SampleAggregator.appendMetricLabel(out, "run", id);
+                        out.append("} ").append(value).append('\n');
+                    }
+                }
+                sendResponse(exchange, 200, METRICS_CONTENT_TYPE, out.toString());
+            } catch (Exception e) {
+                log.error("Error handling metrics request", e);
+                sendResponse(exchange, 500, "text/plain", "Failed to get metrics");
+            }
+        }
+    }
+    
+    private class QualityGateHandler implements HttpHandler {
+    @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                List<QualityGateMetric> metrics = qualityGateMetrics;
+                StringBuilder response = new StringBuilder();
+                response.append("{\"metrics\":[");
+                
+                for (int i = 0; i < metrics.size(); i++) {
+                    QualityGateMetric metric = metrics.get(i);
+                    if (i > 0) response.append(",");
+                    response.append(String.format(
+                        "{\"enabled\":%s,\"metric\":\"%s\",\"aggregate\":\"%s\",\"operator\":\"%s\",\"passValue\":%s,\"warningValue\":%s,\"weightage\":%s,\"scope\":%d}",
+                        metric.isEnabled(),
+                        metric.getMetric(),
+                        metric.getAggregate(),
+                        metric.getOperator(),
+                        metric.getPassValue() != null ? metric.getPassValue() : "null",
+                        metric.getWarningValue() != null ? metric.getWarningValue() : "null",
+                        metric.getWeightage() != null ? metric.getWeightage() : "1.0",
+                        metric.getScopeSeconds()
+                    ));
+                }
+                
+                response.append("]}");
+                
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                exchange.sendResponseHeaders(200, response.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response.toString().getBytes());
+                }
+            } catch (Exception e) {
+                log.error("Error handling quality gate request", e);
+                String response = "{\"error\":\"Failed to get quality gate configuration\"}";
+                exchange.sendResponseHeaders(500, response.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response.getBytes());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Serves the current evaluation of the quality gates: overall score and status plus the value and status of each gate
+     */
+    private class QualityGateStatusHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                QualityGateEvaluator evaluator = qualityGateEvaluator;
+                if (evaluator == null) {
+                    sendResponse(exchange, 404, "application/json", "{\"error\":\"No samples recorded yet\"}");
+                    return;
+                }
+                sendResponse(exchange, 200, "application/json", evaluator.toJson(evaluator.evaluate()));
+            } catch (Exception e) {
+                log.error("Error handling quality gate status request", e);
+                sendResponse(exchange, 500, "application/json", "{\"error\":\"Failed to evaluate quality gates\"}");
+            }
+        }
+    }
+    
+    /**
+     * Receives the aggregates a remote engine collected during an interval ({@link ClusterDeltaReporter}) and
+     * merges them into the dashboard's aggregates and quality gates, as if the samples had been recorded here.
+     * A delta resent by an engine after a lost response is acknowledged without being applied again.
+     * Deltas are only accepted while a test runs here (503 otherwise, the engine resends them) and, with
+     * live.dashboard.cluster.token, only with that token (403 otherwise). The CPU and memory usage an engine
+     * reports is kept for /cluster and does not count towards the gates, which judge the controller's own.
+     */
+    private class ClusterDeltaHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendResponse(exchange, 405, "application/json", "{\"error\":\"POST a delta\"}");
+                return;
+            }
+            if (clusterToken != null) {
+                String token = exchange.getRequestHeaders().getFirst(ClusterDeltaReporter.TOKEN_HEADER);
+                if (token == null || !MessageDigest.isEqual(clusterToken, token.getBytes(StandardCharsets.UTF_8))) {
+                    log.warn("Rejected a cluster delta without a valid token from {}", exchange.getRemoteAddress());
+                    sendResponse(exchange, 403, "application/json", "{\"error\":\"Invalid cluster token\"}");
+                    return;
+                }
+            }
+            if (!isCollecting()) {
+                sendResponse(exchange, 503, "application/json", "{\"error\":\"Dashboard is not recording\"}");
+                return;
+            }
+            byte[] payload;
+            try (InputStream in = exchange.getRequestBody()) {
+                payload = in.readNBytes(clusterMaxDeltaBytes + 1);
+            }
+            if (payload.length > clusterMaxDeltaBytes) {
+                sendResponse(exchange, 413, "application/json", "{\"error\":\"Delta too large\"}");
+                return;
+            }
+            ClusterDeltaReporter.DeltaHeader header;
+            SampleAggregator delta;
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+                header = ClusterDeltaReporter.DeltaHeader.readFrom(in);
+                delta = SampleAggregator.readFrom(in);
+            } catch (IOException e) {
+                log.warn("Invalid cluster delta from {}: {}", exchange.getRemoteAddress(), e.toString());
+                sendResponse(exchange, 400, "application/json", "{\"error\":\"Invalid delta\"}");
+                return;
+            }
+            synchronized (clusterCoordinator) {
+                if (clusterCoordinator.isNew(header)) {
+                    SampleAggregator aggregator = sampleAggregator;
+                    if (aggregator == null) {
+                        sendResponse(exchange, 503, "application/json", "{\"error\":\"Dashboard is not recording\"}");
+                        return;
+                    }
+                    if (!aggregator.canMerge(delta)) {
+                        log.warn("Delta of {} does not match the bucket width or histogram error of this dashboard",
+                            header.engineId);
+                        sendResponse(exchange, 409, "application/json",
+                            "{\"error\":\"Bucket width or histogram error differs from the dashboard\"}");
+                        return;
+                    }
+                    QualityGateEvaluator evaluator = qualityGateEvaluator;
+                    // Before merging, which moves the delta's histograms
+                    long samples = delta.addTo(evaluator);
+                    aggregator.merge(delta);
+                    clusterCoordinator.applied(header, payload.length, samples);
+                }
+            }
+            sendResponse(exchange, 200, "application/json", "{\"sequence\":" + header.sequence + "}");
+        }
+    }
+    
+    /**
+     * Serves the engines reporting to this dashboard in a distributed test
+     */
+    private class ClusterHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            sendResponse(exchange, 200, "application/json", clusterCoordinator.toJson());
+        }
+    }
+    
+    /**
+     * Connects a client to the Server-Sent Events of this run
+     */
+    private class StreamHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            LiveUpdateStream stream = server.getLiveUpdateStream();
+            if (stream == null) {
+                sendResponse(exchange, 503, "application/json", "{\"error\":\"Server stopped\"}");
+                return;
+            }
+            stream.connect(LiveDashboardEngine.this, exchange);
+        }
+    }
+    
+    private class TargetScoresHandler implements HttpHandler {
+    @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String response = String.format("{\"passScore\":%.2f,\"warningScore\":%.2f}",
+                    passScore, warningScore);
+                
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                exchange.sendResponseHeaders(200, response.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response.getBytes());
+                }
+            } catch (Exception e) {
+                log.error("Error handling target scores request", e);
+                String response = "{\"error\":\"Failed to get target scores\"}";
+                exchange.sendResponseHeaders(500, response.length());
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response.getBytes());
+                }
+            }
+        }
+    }
+}
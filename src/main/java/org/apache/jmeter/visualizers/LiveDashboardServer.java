@@ -0,0 +1,679 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the live dashboard runs of this JVM and the single HTTP server they share.
+ * Every live dashboard element of a test plan records into its own run ({@link LiveDashboardEngine}) with its
+ * own files, aggregates and quality gates. The run of the first element uses the files of the bin directory and
+ * is served at the root ("/jmeter-dashboard.html", "/aggregates", ...); every run is also served under
+ * "/runs/{id}/", and "/runs" lists them.
+ * <p>
+ * Every test of an element records into a new run with a new directory, and the root serves the run started
+ * last. Ended runs beyond live.dashboard.runs.retain are forgotten and their directories deleted, so repeated
+ * GUI runs keep memory and disk use bounded. The server runs while the GUI opened the dashboard or a non-GUI
+ * test uses it, and the system metrics of the machine are collected once for all runs while the server runs
+ * or a run records.
+ */
+public final class LiveDashboardServer {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveDashboardServer.class);
+
+    static final String DEFAULT_RUN_ID = "default";
+    static final String RUNS_PATH = "/runs";
+    // The run of every test writes its files to bin/live-dashboard-runs/{id}
+    static final String RUNS_DIRECTORY = "live-dashboard-runs";
+
+    private static final String RUNS_RETAIN_PROPERTY = "live.dashboard.runs.retain";
+    // Address the server listens on, all interfaces if unset
+    private static final String BIND_ADDRESS_PROPERTY = "live.dashboard.bind_address";
+
+    // HTTP server settings
+    private static final String HTTP_EXECUTOR_PROPERTY = "live.dashboard.http.executor";
+    private static final String HTTP_THREADS_PROPERTY = "live.dashboard.http.threads";
+    private static final String HTTP_QUEUE_PROPERTY = "live.dashboard.http.queue";
+    private static final String HTTP_MAX_IN_FLIGHT_PROPERTY = "live.dashboard.http.max_in_flight";
+    private static final String HTTP_GZIP_PROPERTY = "live.dashboard.http.gzip";
+    private static final String HTTP_GZIP_MIN_BYTES_PROPERTY = "live.dashboard.http.gzip.min_bytes";
+    private static final String HTTP_GZIP_CACHE_PROPERTY = "live.dashboard.http.gzip.cache_mb";
+
+    // Server-Sent Events stream settings
+    private static final String STREAM_INTERVAL_PROPERTY = "live.dashboard.stream.interval_ms";
+    private static final String STREAM_MAX_LAG_PROPERTY = "live.dashboard.stream.max_lag_ms";
+    private static final String STREAM_MAX_CLIENTS_PROPERTY = "live.dashboard.stream.max_clients";
+
+    // System metrics settings
+    private static final String SYSTEM_METRICS_INTERVAL_PROPERTY = "live.dashboard.system_metrics.interval_ms";
+    private static final String SYSTEM_METRICS_HISTORY_SIZE_PROPERTY = "live.dashboard.system_metrics.history.size";
+    private static final String SYSTEM_METRICS_DOWNSAMPLE_PROPERTY = "live.dashboard.system_metrics.history.downsample_ms";
+    private static final String SYSTEM_METRICS_DOWNSAMPLED_SIZE_PROPERTY = "live.dashboard.system_metrics.history.downsampled_size";
+
+    private final File jmeterBin;
+    private final int retainRuns;
+
+    // Runs by id, in creation order; the default run is created on first use (guarded by this)
+    private final Map<String, LiveDashboardEngine> runs = new LinkedHashMap<>();
+    private LiveDashboardEngine defaultRun;
+    // Run served at the root: the one of the test started last, else the default run (guarded by this)
+    private LiveDashboardEngine rootRun;
+    // Copy of the runs for the system metrics thread
+    private volatile LiveDashboardEngine[] runSnapshot = new LiveDashboardEngine[0];
+
+    private HttpServer httpServer;
+    private DashboardHttpExecutor httpExecutor;
+    private volatile ServerStats serverStats;
+    private volatile LiveUpdateStream liveUpdateStream;
+    private int serverPort;
+    // The GUI keeps the server running once the dashboard was opened; non-GUI tests hold it while they run
+    private boolean serverPinned;
+    private int serverUsers;
+
+    // Compressed HTTP responses: gzip members of finished JTL blocks are cached so later polls reuse them
+    private final boolean gzipResponses;
+    private final int gzipMinBytes;
+    private final GzipBlockCache gzipCache;
+
+    // System metrics of the machine, shared by all runs
+    private final SystemMetricsCollector systemMetricsCollector;
+    private final long systemMetricsInterval;
+
+    /**
+     * Registry shared by all live dashboard elements of this JVM
+     */
+    public static LiveDashboardServer getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Created on first use, once JMeter properties and the bin directory are known
+    private static final class Holder {
+        static final LiveDashboardServer INSTANCE = new LiveDashboardServer();
+    }
+
+    private LiveDashboardServer() {
+        jmeterBin = new File(JMeterUtils.getJMeterBinDir());
+        retainRuns = Math.max(0, JMeterUtils.getPropDefault(RUNS_RETAIN_PROPERTY, 4));
+
+        systemMetricsInterval = Math.max(100, JMeterUtils.getPropDefault(SYSTEM_METRICS_INTERVAL_PROPERTY, 5000L));
+        systemMetricsCollector = new SystemMetricsCollector(systemMetricsInterval, new SystemMetricsHistory(
+            JMeterUtils.getPropDefault(SYSTEM_METRICS_HISTORY_SIZE_PROPERTY, SystemMetricsHistory.DEFAULT_SIZE),
+            JMeterUtils.getPropDefault(SYSTEM_METRICS_DOWNSAMPLE_PROPERTY, SystemMetricsHistory.DEFAULT_DOWNSAMPLE_MILLIS),
+            JMeterUtils.getPropDefault(SYSTEM_METRICS_DOWNSAMPLED_SIZE_PROPERTY, SystemMetricsHistory.DEFAULT_DOWNSAMPLED_SIZE)));
+
+        gzipResponses = JMeterUtils.getPropDefault(HTTP_GZIP_PROPERTY, true);
+        gzipMinBytes = JMeterUtils.getPropDefault(HTTP_GZIP_MIN_BYTES_PROPERTY, 1024);
+        gzipCache = new GzipBlockCache(JMeterUtils.getPropDefault(HTTP_GZIP_CACHE_PROPERTY, 64L) * 1024 * 1024,
+            Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Run of plans whose element is still a plain ResultCollector (see {@link #getRunOf}), recording to the files
+     * of the bin directory, and served at the root until a test starts
+     */
+    public synchronized LiveDashboardEngine getDefaultRun() {
+        if (defaultRun == null) {
+            defaultRun = new LiveDashboardEngine(this, DEFAULT_RUN_ID, jmeterBin);
+            runs.put(DEFAULT_RUN_ID, defaultRun);
+            runSnapshot = runs.values().toArray(new LiveDashboardEngine[0]);
+        }
+        return defaultRun;
+    }
+
+    /**
+     * Run served at the root: the run of the test started last, else the default run
+     */
+    public synchronized LiveDashboardEngine getRootRun() {
+        return rootRun != null ? rootRun : getDefaultRun();
+    }
+
+    /**
+     * Run with the given id, or null
+     */
+    public synchronized LiveDashboardEngine getRun(String id) {
+        return runs.get(id);
+    }
+
+    /**
+     * Run an element records into (or recorded into last), else the default run
+     * @param name Name of the element
+     */
+    public synchronized LiveDashboardEngine getRunOf(String name) {
+        LiveDashboardEngine latest = null;
+        // Runs are kept in creation order, the element's last test is the last match
+        for (LiveDashboardEngine run : runs.values()) {
+            if (name.equals(run.getOwner())) {
+                latest = run;
+            }
+        }
+        return latest != null ? latest : getDefaultRun();
+    }
+
+    /**
+     * Creates the run of an element starting a test, held until {@link #releaseRun}: a new run named after the
+     * element, with a new directory. Neither concurrent elements (two listeners of a plan, or two plans) nor
+     * consecutive tests share files, and the root serves the run started last.
+     * @param name Name of the element
+     */
+    public synchronized LiveDashboardEngine acquireRun(String name) {
+        String id = uniqueRunId(name);
+        LiveDashboardEngine run = new LiveDashboardEngine(this, id, runDirectory(id));
+        run.acquire(name);
+        runs.put(id, run);
+        rootRun = run;
+        evictRuns();
+        runSnapshot = runs.values().toArray(new LiveDashboardEngine[0]);
+        return run;
+    }
+
+    /**
+     * Marks a run as ended; its results stay served until it is evicted
+     */
+    public synchronized void releaseRun(LiveDashboardEngine run) {
+        run.release();
+        evictRuns();
+        runSnapshot = runs.values().toArray(new LiveDashboardEngine[0]);
+    }
+
+    /**
+     * Forgets the ended runs (other than the default one and the one served at the root) beyond
+     * live.dashboard.runs.retain, oldest first, and deletes their directories
+     */
+    private void evictRuns() {
+        int free = 0;
+        for (LiveDashboardEngine run : runs.values()) {
+            if (run != defaultRun && run != rootRun && !run.isAcquired()) {
+                free++;
+            }
+        }
+        Iterator<LiveDashboardEngine> iterator = runs.values().iterator();
+        while (free > retainRuns && iterator.hasNext()) {
+            LiveDashboardEngine run = iterator.next();
+            if (run != defaultRun && run != rootRun && !run.isAcquired()) {
+                iterator.remove();
+                free--;
+                LiveUpdateStream stream = liveUpdateStream;
+                if (stream != null) {
+                    stream.disconnect(run);
+                }
+                deleteDirectory(run.getDirectory());
+            }
+        }
+    }
+
+    /**
+     * Deletes the directory of an evicted run with its files. Only directories of runs under
+     * bin/live-dashboard-runs are deleted, never the bin directory of the default run.
+     */
+    private void deleteDirectory(File directory) {
+        Path path = directory.toPath();
+        if (!path.startsWith(new File(jmeterBin, RUNS_DIRECTORY).toPath()) || !Files.isDirectory(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            // Children before their directory
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    log.warn("Could not delete {} of an evicted live dashboard run: {}", file, e.toString());
+                }
+            });
+            log.info("Deleted the evicted live dashboard run in {}", directory);
+        } catch (IOException e) {
+            log.warn("Could not delete the evicted live dashboard run in {}: {}", directory, e.toString());
+        }
+    }
+
+    /**
+     * Run id derived from an element name: lower case letters, digits and dashes, unique among the runs and the
+     * directories of earlier runs, so a run never overwrites the files of another
+     */
+    private String uniqueRunId(String name) {
+        String base = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-").replaceAll("^-+|-+$", "");
+        if (base.isEmpty()) {
+            base = "run";
+        }
+        String id = base;
+        for (int i = 2; id.equals(DEFAULT_RUN_ID) || runs.containsKey(id) || runDirectory(id).exists(); i++) {
+            id = base + "-" + i;
+        }
+        return id;
+    }
+
+    private File runDirectory(String id) {
+        return new File(new File(jmeterBin, RUNS_DIRECTORY), id);
+    }
+
+    /**
+     * Starts the HTTP server unless it is already running and keeps it running until {@link #stopServer},
+     * e.g. once the dashboard was opened from the GUI
+     * @param port Port to listen on
+     */
+    public synchronized void startServer(int port) throws IOException {
+        ensureServer(port);
+        serverPinned = true;
+    }
+
+    /**
+     * Starts the HTTP server unless it is already running, for a test that needs it until {@link #releaseServer}.
+     * A server already running on another port is shared.
+     * @param port Port to listen on
+     */
+    public synchronized void retainServer(int port) throws IOException {
+        ensureServer(port);
+        serverUsers++;
+    }
+
+    /**
+     * Stops the HTTP server when the last test using it ended, unless it was started from the GUI
+     */
+    public synchronized void releaseServer() {
+        if (serverUsers > 0 && --serverUsers == 0 && !serverPinned) {
+            stopServer();
+        }
+    }
+
+    private void ensureServer(int port) throws IOException {
+        if (httpServer != null) {
+            if (port != serverPort) {
+                log.warn("Live dashboard server already runs on port {}, not starting another one on port {}",
+                    serverPort, port);
+            }
+            return;
+        }
+        String bindAddress = JMeterUtils.getPropDefault(BIND_ADDRESS_PROPERTY, "").trim();
+        HttpServer server = HttpServer.create(bindAddress.isEmpty()
+            ? new InetSocketAddress(port) : new InetSocketAddress(bindAddress, port), 0);
+        ServerStats stats = new ServerStats();
+
+        // Endpoints of the root run (the test started last) at the root
+        for (String path : LiveDashboardEngine.ENDPOINTS) {
+            createContext(server, stats, path, new RootRunHandler(path));
+        }
+
+        // List of runs, and every run under /runs/{id}/, counted per run endpoint (/runs/*/aggregates, ...)
+        server.createContext(RUNS_PATH, stats.wrap(exchange -> runsEndpointOf(exchange.getRequestURI().getRawPath()),
+            new RunsHandler()));
+
+        // Request statistics of all endpoints and the executor
+        createContext(server, stats, "/server-stats", new ServerStatsHandler());
+
+        // Server-Sent Events pushing aggregate deltas, system metrics and gate status changes, for all runs
+        LiveUpdateStream stream = new LiveUpdateStream(this,
+            JMeterUtils.getPropDefault(STREAM_INTERVAL_PROPERTY, 500L),
+            JMeterUtils.getPropDefault(STREAM_MAX_LAG_PROPERTY, 10000L),
+            JMeterUtils.getPropDefault(STREAM_MAX_CLIENTS_PROPERTY, 32));
+
+        DashboardHttpExecutor executor = createHttpExecutor();
+        server.setExecutor(executor.isDispatcherOnly() ? null : executor);
+        server.start();
+        this.httpServer = server;
+        this.httpExecutor = executor;
+        this.serverStats = stats;
+        this.liveUpdateStream = stream;
+        this.serverPort = port;
+        // /system-metrics serves the latest sample, so keep sampling while the server runs
+        updateSystemMetricsCollection();
+        log.info("Live dashboard available at http://localhost:{}/jmeter-dashboard.html", port);
+    }
+
+    private static void createContext(HttpServer server, ServerStats stats, String path, HttpHandler handler) {
+        server.createContext(path, stats.wrap(path, handler));
+    }
+
+    /**
+     * Name of a request under {@link #RUNS_PATH} in the server statistics: the run's endpoint with its id replaced
+     * by "*", e.g. /runs/*&#47;aggregates
+     */
+    static String runsEndpointOf(String path) {
+        if (!path.startsWith(RUNS_PATH + "/") || path.length() == RUNS_PATH.length() + 1) {
+            return RUNS_PATH;
+        }
+        int idEnd = path.indexOf('/', RUNS_PATH.length() + 1);
+        return idEnd < 0 ? RUNS_PATH + "/*" : RUNS_PATH + "/*" + LiveDashboardEngine.endpointOf(path.substring(idEnd));
+    }
+
+    /**
+     * Creates the request executor configured by the live.dashboard.http.* properties
+     */
+    private static DashboardHttpExecutor createHttpExecutor() {
+        return new DashboardHttpExecutor(
+            DashboardHttpExecutor.Mode.fromString(JMeterUtils.getPropDefault(HTTP_EXECUTOR_PROPERTY, "pool")),
+            JMeterUtils.getPropDefault(HTTP_THREADS_PROPERTY, Math.max(4, Runtime.getRuntime().availableProcessors())),
+            JMeterUtils.getPropDefault(HTTP_QUEUE_PROPERTY, 128),
+            JMeterUtils.getPropDefault(HTTP_MAX_IN_FLIGHT_PROPERTY, 256));
+    }
+
+    /**
+     * Stops the HTTP server, giving requests in progress up to a second to complete
+     */
+    public synchronized void stopServer() {
+        serverPinned = false;
+        serverUsers = 0;
+        if (httpServer != null) {
+            // Stream connections never complete on their own; also stops the stream's watchdog timer
+            liveUpdateStream.shutdown();
+            liveUpdateStream = null;
+            httpServer.stop(1);
+            httpServer = null;
+            httpExecutor.shutdown();
+            httpExecutor = null;
+            updateSystemMetricsCollection();
+            log.info("Live dashboard server stopped");
+        }
+    }
+
+    public synchronized boolean isServerRunning() {
+        return httpServer != null;
+    }
+
+    /**
+     * Collects system metrics while the server runs or a run records, and stops the collecting thread otherwise
+     */
+    synchronized void updateSystemMetricsCollection() {
+        boolean needed = httpServer != null;
+        for (LiveDashboardEngine run : runs.values()) {
+            needed |= run.isCollecting();
+        }
+        if (needed) {
+            systemMetricsCollector.start(systemMetricsInterval, this::systemMetricsCollected);
+        } else {
+            systemMetricsCollector.stop();
+        }
+    }
+
+    /**
+     * Called on the collector thread with every new sample, handed to every run
+     */
+    private void systemMetricsCollected(SystemMetricsSnapshot metrics) {
+        for (LiveDashboardEngine run : runSnapshot) {
+            run.systemMetricsCollected(metrics);
+        }
+    }
+
+    SystemMetricsCollector getSystemMetricsCollector() {
+        return systemMetricsCollector;
+    }
+
+    long getSystemMetricsInterval() {
+        return systemMetricsInterval;
+    }
+
+    GzipBlockCache getGzipCache() {
+        return gzipCache;
+    }
+
+    int getGzipMinBytes() {
+        return gzipMinBytes;
+    }
+
+    /**
+     * Stream of the running server, or null
+     */
+    LiveUpdateStream getLiveUpdateStream() {
+        return liveUpdateStream;
+    }
+
+    /**
+     * True if the client accepts a gzip compressed response and compression is enabled (live.dashboard.http.gzip).
+     * Also marks the response as depending on Accept-Encoding, so caches keep both variants apart.
+     */
+    boolean acceptsGzip(HttpExchange exchange) {
+        if (!gzipResponses) {
+            return false;
+        }
+        exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+        List<String> values = exchange.getRequestHeaders().get("Accept-Encoding");
+        if (values == null) {
+            return false;
+        }
+        for (String value : values) {
+            for (String coding : value.split(",")) {
+                String[] parts = coding.split(";");
+                String name = parts[0].trim();
+                if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                    // "gzip;q=0" explicitly refuses it
+                    for (int i = 1; i < parts.length; i++) {
+                        String parameter = parts[i].trim();
+                        if (parameter.startsWith("q=") && parseQuality(parameter.substring(2)) <= 0) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static double parseQuality(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    /**
+     * Serves an endpoint of the root run at the root
+     */
+    private final class RootRunHandler implements HttpHandler {
+        private final String path;
+
+        RootRunHandler(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            getRootRun().handle(path, exchange);
+        }
+    }
+
+    /**
+     * Serves the list of runs at /runs, and the endpoints of a run under /runs/{id}/ with the prefix removed,
+     * e.g. /runs/checkout/aggregates?since=0 as /aggregates?since=0 of run "checkout"
+     */
+    private final class RunsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            URI uri = exchange.getRequestURI();
+            String path = uri.getRawPath();
+            if (path.equals(RUNS_PATH) || path.equals(RUNS_PATH + "/")) {
+                sendJson(exchange, 200, runsToJson());
+                return;
+            }
+            if (!path.startsWith(RUNS_PATH + "/")) {
+                sendJson(exchange, 404, "{\"error\":\"Not found\"}");
+                return;
+            }
+            int idEnd = path.indexOf('/', RUNS_PATH.length() + 1);
+            String id = path.substring(RUNS_PATH.length() + 1, idEnd >= 0 ? idEnd : path.length());
+            LiveDashboardEngine run = getRun(id);
+            if (run == null) {
+                sendJson(exchange, 404, "{\"error\":\"No such run\"}");
+                return;
+            }
+            if (idEnd < 0) {
+                // The dashboard's requests are relative to the run's directory
+                exchange.getResponseHeaders().set("Location", path + "/");
+                exchange.sendResponseHeaders(301, -1);
+                exchange.close();
+                return;
+            }
+            // Both parts are taken from a valid URI, still encoded
+            String runPath = path.substring(idEnd);
+            URI runUri = URI.create(uri.getRawQuery() != null ? runPath + "?" + uri.getRawQuery() : runPath);
+            run.handle(LiveDashboardEngine.endpointOf(runPath), new RunExchange(exchange, runUri));
+        }
+    }
+
+    private synchronized String runsToJson() {
+        StringBuilder json = new StringBuilder(256 + runs.size() * 256);
+        json.append("{\"runs\":[");
+        // Run served at the root first, then the others from the oldest
+        LiveDashboardEngine root = getRootRun();
+        root.appendJson(json, true);
+        for (LiveDashboardEngine run : runs.values()) {
+            if (run != root) {
+                run.appendJson(json.append(','), false);
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Exchange of a request under /runs/{id}/ as seen by the run: the request URI without the prefix
+     */
+    private static final class RunExchange extends HttpExchange {
+        private final HttpExchange exchange;
+        private final URI uri;
+
+        RunExchange(HttpExchange exchange, URI uri) {
+            this.exchange = exchange;
+            this.uri = uri;
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return uri;
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return exchange.getRequestHeaders();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return exchange.getResponseHeaders();
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return exchange.getRequestMethod();
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return exchange.getHttpContext();
+        }
+
+        @Override
+        public void close() {
+            exchange.close();
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return exchange.getRequestBody();
+        }
+
+        @Override
+        public OutputStream getResponseBody() {
+            return exchange.getResponseBody();
+        }
+
+        @Override
+        public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+            exchange.sendResponseHeaders(rCode, responseLength);
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return exchange.getRemoteAddress();
+        }
+
+        @Override
+        public int getResponseCode() {
+            return exchange.getResponseCode();
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return exchange.getLocalAddress();
+        }
+
+        @Override
+        public String getProtocol() {
+            return exchange.getProtocol();
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return exchange.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            exchange.setAttribute(name, value);
+        }
+
+        @Override
+        public void setStreams(InputStream i, OutputStream o) {
+            exchange.setStreams(i, o);
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return exchange.getPrincipal();
+        }
+    }
+
+    /**
+     * Serves request statistics per endpoint and the state of the request executor
+     */
+    private final class ServerStatsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            DashboardHttpExecutor executor;
+            ServerStats stats;
+            synchronized (LiveDashboardServer.this) {
+                executor = httpExecutor;
+                stats = serverStats;
+            }
+            if (executor == null) {
+                sendJson(exchange, 503, "{\"error\":\"Server stopped\"}");
+                return;
+            }
+            String json = stats.toJson(executor);
+            sendJson(exchange, 200, json.substring(0, json.length() - 1) + ",\"gzipCache\":" + gzipCache.toJson() + "}");
+        }
+    }
+}
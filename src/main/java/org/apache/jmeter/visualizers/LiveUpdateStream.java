@@ -0,0 +1,326 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-Sent Events channel of the live dashboard ("/stream"), shared by the runs of {@link LiveDashboardServer}:
+ * each client follows the run it connected to.
+ * Every client has its own daemon thread that, once per interval, sends what changed since its previous event:
+ * aggregate bucket deltas ("aggregates"), recent percentiles ("percentiles"), the latest system metrics
+ * ("system") and the quality gate evaluation when a status changes ("gates").
+ * Updates are coalesced per client because each delta is computed from that client's last sent state, so a
+ * slow client gets fewer, larger events. A client whose write stays blocked longer than the allowed lag is
+ * disconnected by interrupting its thread, which closes the socket channel.
+ * Clients accepting gzip get a compressed stream (see {@link LiveDashboardServer#acceptsGzip}).
+ */
+public class LiveUpdateStream {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveUpdateStream.class);
+
+    private static final double[] PERCENTILES = {50, 90, 95, 99};
+    // Percentiles and gate values are refreshed less often than bucket deltas, they cost more to compute
+    private static final long SLOW_REFRESH_MS = 2000;
+    private static final long HEARTBEAT_MS = 15000;
+    // Samples are stamped with their start time, so long requests still change periods this far back
+    private static final long PERCENTILE_LOOKBACK_MS = 60000;
+
+    private final LiveDashboardServer server;
+    private final long intervalMillis;
+    private final long maxLagNanos;
+    // One permit per client that may connect, taken before the client is accepted and returned when it leaves
+    private final Semaphore clientSlots;
+    private final Set<StreamClient> clients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger clientNumber = new AtomicInteger();
+    private final java.util.Timer watchdog;
+
+    /**
+     * Creates the stream
+     * @param server Server whose compression settings apply
+     * @param intervalMillis How often each client checks for changes
+     * @param maxLagMillis Maximum time a write to a client may stay blocked before the client is dropped
+     * @param maxClients Maximum number of connected clients
+     */
+    public LiveUpdateStream(LiveDashboardServer server, long intervalMillis, long maxLagMillis, int maxClients) {
+        this.server = server;
+        this.intervalMillis = Math.max(50, intervalMillis);
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, maxLagMillis));
+        this.clientSlots = new Semaphore(Math.max(1, maxClients));
+        this.watchdog = new java.util.Timer("LiveDashboardStreamWatchdog", true);
+        watchdog.scheduleAtFixedRate(new java.util.TimerTask() {
+            @Override
+            public void run() {
+                dropLaggingClients();
+            }
+        }, 1000, 1000);
+    }
+
+    /**
+     * Starts streaming a run to a client; the exchange stays open until the client disconnects
+     * @param engine Run whose aggregates, system metrics and quality gate evaluation are sent
+     */
+    public void connect(LiveDashboardEngine engine, HttpExchange exchange) throws IOException {
+        if (!clientSlots.tryAcquire()) {
+            byte[] body = "{\"error\":\"Too many stream clients\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            exchange.sendResponseHeaders(503, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+            return;
+        }
+        StreamClient client;
+        try {
+            Map<String, String> params = LiveDashboardEngine.parseQuery(exchange);
+            boolean gzip = server.acceptsGzip(exchange);
+
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.sendResponseHeaders(200, 0);
+            client = new StreamClient(engine, exchange, gzip,
+                LiveDashboardEngine.parseLongParam(params, "since", 0),
+                LiveDashboardEngine.parseLongParam(params, "generation", -1),
+                LiveDashboardEngine.parseLongParam(params, "period", 5000));
+        } catch (IOException | RuntimeException e) {
+            clientSlots.release();
+            throw e;
+        }
+
+        // The exchange stays open after this handler returns; the client thread owns it from now on
+        clients.add(client);
+        Thread thread = new Thread(client, "LiveDashboardStream-" + clientNumber.incrementAndGet());
+        thread.setDaemon(true);
+        client.thread = thread;
+        thread.start();
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    private void dropLaggingClients() {
+        long now = System.nanoTime();
+        for (StreamClient client : clients) {
+            long writeStarted = client.writeStartedNanos;
+            if (writeStarted != 0 && now - writeStarted > maxLagNanos) {
+                log.info("Disconnecting live dashboard stream client {} that fell behind", client.remoteAddress);
+                client.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Disconnects the clients of a run, e.g. one the server no longer serves
+     */
+    public void disconnect(LiveDashboardEngine engine) {
+        for (StreamClient client : clients) {
+            if (client.engine == engine) {
+                client.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Disconnects all clients and stops the watchdog; the stream cannot be used afterwards
+     */
+    public void shutdown() {
+        watchdog.cancel();
+        for (StreamClient client : clients) {
+            client.disconnect();
+        }
+    }
+
+    private final class StreamClient implements Runnable {
+        private final LiveDashboardEngine engine;
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final String remoteAddress;
+        private final long periodMillis;
+        private volatile Thread thread;
+        private volatile boolean connected = true;
+        // System.nanoTime() when the pending write started, 0 when not writing
+        private volatile long writeStartedNanos;
+
+        // State last sent to this client; only touched by the client thread
+        private long since;
+        private long generation;
+        private long percentilesFrom = Long.MIN_VALUE;
+        private boolean percentilesPending;
+        private long lastSlowRefresh;
+        private long lastSystemTimestamp;
+        private String lastGateKey;
+        private long lastSentAt;
+
+        /**
+         * @param gzip Compress the stream; every event is sync-flushed, and the events share one compression
+         *             window, so repeated keys of later events cost almost nothing
+         */
+        StreamClient(LiveDashboardEngine engine, HttpExchange exchange, boolean gzip, long since, long generation,
+                     long periodMillis) throws IOException {
+            this.engine = engine;
+            this.exchange = exchange;
+            this.out = gzip ? new GZIPOutputStream(exchange.getResponseBody(), 8192, true) : exchange.getResponseBody();
+            this.remoteAddress = String.valueOf(exchange.getRemoteAddress());
+            this.since = since;
+            this.generation = generation;
+            this.periodMillis = Math.max(1, periodMillis);
+        }
+
+        @Override
+        public void run() {
+            try {
+                send(": connected\n\n");
+                while (connected) {
+                    sendChanges();
+                    long now = System.currentTimeMillis();
+                    if (now - lastSentAt >= HEARTBEAT_MS) {
+                        send(": ping\n\n");
+                    }
+                    Thread.sleep(intervalMillis);
+                }
+            } catch (IOException | InterruptedException e) {
+                log.debug("Live dashboard stream client {} disconnected: {}", remoteAddress, e.toString());
+            } catch (RuntimeException e) {
+                log.error("Error sending live dashboard stream to {}", remoteAddress, e);
+            } finally {
+                clients.remove(this);
+                clientSlots.release();
+                if (out instanceof GZIPOutputStream) {
+                    // Releases the deflater; the trailer only reaches clients that are still connected
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        log.debug("Live dashboard stream client {} closed before the end of the stream", remoteAddress);
+                    }
+                }
+                try {
+                    exchange.close();
+                } catch (RuntimeException e) {
+                    // Already closed by the interrupt
+                }
+            }
+        }
+
+        private void sendChanges() throws IOException {
+            long now = System.currentTimeMillis();
+            boolean slowRefresh = now - lastSlowRefresh >= SLOW_REFRESH_MS;
+            boolean changed = false;
+
+            SampleAggregator aggregator = engine.getSampleAggregator();
+            if (aggregator != null) {
+                int currentGeneration = engine.getJtlGeneration();
+                boolean newGeneration = currentGeneration != generation;
+                if (newGeneration) {
+                    // New test run: send it from the beginning
+                    generation = currentGeneration;
+                    since = 0;
+                    percentilesFrom = Long.MIN_VALUE;
+                }
+                // Without samples there is nothing to send, except the reset of a new test run
+                boolean hasSamples = aggregator.getLastTimestamp() != Long.MIN_VALUE;
+                if (newGeneration || (hasSamples && (since == 0 || aggregator.hasChangesSince(since)))) {
+                    StringBuilder data = new StringBuilder(4096);
+                    since = aggregator.appendJson(data, since, generation);
+                    sendEvent("aggregates", data);
+                    percentilesPending = true;
+                    changed = true;
+                }
+                if (percentilesPending && (slowRefresh || percentilesFrom == Long.MIN_VALUE)) {
+                    sendPercentiles(aggregator);
+                }
+            }
+
+            SystemMetricsSnapshot metrics = engine.getLatestSystemMetrics();
+            if (metrics != null && metrics.getTimestamp() > lastSystemTimestamp) {
+                lastSystemTimestamp = metrics.getTimestamp();
+                // Same keys as the columns of the system metrics CSV
+                StringBuilder data = new StringBuilder(512);
+                metrics.appendJson(data, true);
+                sendEvent("system", data);
+                changed = true;
+            }
+
+            QualityGateEvaluator evaluator = engine.getQualityGateEvaluator();
+            if (evaluator != null && evaluator.hasGates() && (changed || lastGateKey == null)) {
+                QualityGateEvaluator.Evaluation evaluation = evaluator.evaluate();
+                String key = gateKey(evaluation);
+                // Status changes go out right away, changed values with the slow refresh
+                if (!key.equals(lastGateKey) || slowRefresh) {
+                    lastGateKey = key;
+                    sendEvent("gates", new StringBuilder(evaluator.toJson(evaluation)));
+                }
+            }
+            if (slowRefresh) {
+                lastSlowRefresh = now;
+            }
+        }
+
+        private void sendPercentiles(SampleAggregator aggregator) throws IOException {
+            long period = aggregator.alignPeriod(periodMillis);
+            String json = aggregator.percentilesToJson(PERCENTILES, period, percentilesFrom);
+            StringBuilder data = new StringBuilder(json.length() + 32);
+            if (percentilesFrom != Long.MIN_VALUE) {
+                // Periods before "from" did not change, the client keeps its copy
+                data.append("{\"from\":").append(percentilesFrom).append(',').append(json, 1, json.length());
+            } else {
+                data.append(json);
+            }
+            sendEvent("percentiles", data);
+            percentilesPending = false;
+            long last = aggregator.getLastTimestamp();
+            if (last != Long.MIN_VALUE) {
+                percentilesFrom = Math.floorDiv(last - PERCENTILE_LOOKBACK_MS, period) * period;
+            }
+        }
+
+        private String gateKey(QualityGateEvaluator.Evaluation evaluation) {
+            StringBuilder key = new StringBuilder(evaluation.getStatus());
+            for (QualityGateEvaluator.GateResult result : evaluation.getGates()) {
+                key.append(',').append(result.getStatus());
+            }
+            return key.toString();
+        }
+
+        private void sendEvent(String event, StringBuilder data) throws IOException {
+            send("event: " + event + "\ndata: " + data + "\n\n");
+        }
+
+        private void send(String message) throws IOException {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            writeStartedNanos = System.nanoTime();
+            try {
+                out.write(bytes);
+                out.flush();
+            } finally {
+                writeStartedNanos = 0;
+            }
+            lastSentAt = System.currentTimeMillis();
+        }
+
+        void disconnect() {
+            connected = false;
+            Thread clientThread = thread;
+            if (clientThread != null) {
+                clientThread.interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Reads a JTL file on all workers of a {@link ForkJoinPool}: the file is split in halves at line starts
+ * ({@link JtlCsvParser#nextRecordStart}) down to ranges of a few megabytes, each range is parsed into its own
+ * partial aggregate, and the partials are merged pairwise in file order. Workers share nothing but the read-only
+ * file channel and column layout, so throughput grows with the number of cores until the disk is the limit.
+ * @param <P> Partial aggregate, e.g. a {@link SampleAggregator} fed by the sink
+ */
+public class ParallelJtlReader<P extends JtlCsvParser.SampleSink> {
+
+    static final long MIN_RANGE_BYTES = 4L * 1024 * 1024;
+
+    private final ForkJoinPool pool;
+    private final Supplier<P> partials;
+    private final BiConsumer<P, P> merger;
+    private long samples;
+    private long skippedLines;
+
+    /**
+     * @param pool Pool parsing the ranges
+     * @param partials Creates an empty partial aggregate per range
+     * @param merger Adds the second partial (a later part of the file) to the first one
+     */
+    public ParallelJtlReader(ForkJoinPool pool, Supplier<P> partials, BiConsumer<P, P> merger) {
+        this.pool = pool;
+        this.partials = partials;
+        this.merger = merger;
+    }
+
+    /**
+     * Number of samples read by the last {@link #read}
+     */
+    public long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Number of lines of the last {@link #read} that were not samples
+     */
+    public long getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * Parses a whole JTL file into a new aggregate
+     * @return The merged aggregate of all its samples
+     */
+    public P read(File file) throws IOException {
+        return read(file, partials.get());
+    }
+
+    /**
+     * Parses a whole JTL file into an aggregate: the partials of the other ranges are merged into the one of the
+     * first range, which is the given aggregate, so the result needs no further copy
+     * @return The aggregate, with the samples of the file added
+     */
+    public P read(File file, P aggregate) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            JtlCsvParser layout = new JtlCsvParser(null);
+            long start = layout.readHeader(channel);
+            long size = channel.size();
+            // A few ranges per worker balance uneven ranges; a single worker gains nothing from splitting
+            long rangeBytes = pool.getParallelism() > 1
+                ? Math.max(MIN_RANGE_BYTES, (size - start) / (pool.getParallelism() * 4L)) : Long.MAX_VALUE;
+            Part part = pool.invoke(new RangeTask(channel, layout, aggregate, start, size, rangeBytes));
+            samples = part.samples;
+            skippedLines = part.skippedLines;
+            return part.aggregate;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private final class Part {
+        private final P aggregate;
+        private long samples;
+        private long skippedLines;
+
+        Part(P aggregate) {
+            this.aggregate = aggregate;
+        }
+
+        void merge(Part later) {
+            merger.accept(aggregate, later.aggregate);
+            samples += later.samples;
+            skippedLines += later.skippedLines;
+        }
+    }
+
+    private final class RangeTask extends RecursiveTask<Part> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final JtlCsvParser layout;
+        // Aggregate of the first range of the file, null for the others
+        private final P first;
+        private final long start;
+        private final long end;
+        private final long rangeBytes;
+
+        RangeTask(FileChannel channel, JtlCsvParser layout, P first, long start, long end, long rangeBytes) {
+            this.channel = channel;
+            this.layout = layout;
+            this.first = first;
+            this.start = start;
+            this.end = end;
+            this.rangeBytes = rangeBytes;
+        }
+
+        @Override
+        protected Part compute() {
+            try {
+                if (end - start > rangeBytes) {
+                    long middle = layout.nextRecordStart(channel, start + (end - start) / 2, end);
+                    if (middle > start && middle < end) {
+                        RangeTask firstHalf = new RangeTask(channel, layout, first, start, middle, rangeBytes);
+                        firstHalf.fork();
+                        Part secondHalf = new RangeTask(channel, layout, null, middle, end, rangeBytes).compute();
+                        Part part = firstHalf.join();
+                        part.merge(secondHalf);
+                        return part;
+                    }
+                }
+                Part part = new Part(first != null ? first : partials.get());
+                JtlCsvParser parser = layout.copy(part.aggregate);
+                part.samples = parser.parse(channel, start, end);
+                part.skippedLines = parser.getSkippedLines();
+                return part;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
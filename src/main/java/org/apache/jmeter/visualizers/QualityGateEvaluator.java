@@ -0,0 +1,671 @@
+package org.apache.jmeter.visualizers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.jmeter.samplers.SampleResult;
+
+/**
+ * Server-side quality gate evaluation.
+ * The configured {@link QualityGateMetric} rows are compiled once into gates reading from running aggregates,
+ * which are updated as samples and system metrics arrive. Evaluating the gates therefore costs the same no
+ * matter how long the test runs. Scoring follows the dashboard: PASS scores the pass score, WARNING the
+ * warning score, FAIL zero, weighted by the gate weightage.
+ * <p>
+ * Gates scoped to a rolling window (see {@link QualityGateMetric#getScopeSeconds}) read the aggregates of the
+ * last seconds from {@link RollingWindows} instead, updated in constant time with every sample as well.
+ * {@link #evaluateWindow} judges the other gates over such a window too, e.g. for fail-fast.
+ */
+public class QualityGateEvaluator {
+
+    public static final String PASS = "PASS";
+    public static final String WARNING = "WARNING";
+    public static final String FAIL = "FAIL";
+    public static final String NOT_AVAILABLE = "N/A";
+
+    // System metrics are recorded in hundredths of a percent so they fit the histogram
+    private static final double SYSTEM_METRIC_SCALE = 100.0;
+
+    enum Source {
+        RESPONSE_TIME, THROUGHPUT, ERROR_RATE, CPU_USAGE, MEMORY_USAGE, UNKNOWN;
+
+        static Source fromMetric(String metric) {
+            if (metric == null) {
+                return UNKNOWN;
+            }
+            switch (metric) {
+                case "Response Time": return RESPONSE_TIME;
+                case "Throughput": return THROUGHPUT;
+                case "Error Rate": return ERROR_RATE;
+                case "CPU Usage": return CPU_USAGE;
+                case "Memory Usage": return MEMORY_USAGE;
+                default: return UNKNOWN;
+            }
+        }
+    }
+
+    enum Aggregate {
+        AVG(-1), MAX(-1), MIN(-1), P90(90), P95(95), P99(99);
+
+        final double percentile;
+
+        Aggregate(double percentile) {
+            this.percentile = percentile;
+        }
+
+        boolean isPercentile() {
+            return percentile >= 0;
+        }
+
+        /**
+         * Parses the aggregate names of the configuration table; unknown names average like the dashboard
+         */
+        static Aggregate fromString(String aggregate) {
+            if (aggregate == null) {
+                return AVG;
+            }
+            switch (aggregate) {
+                case "Max": return MAX;
+                case "Min": return MIN;
+                case "90Pct": return P90;
+                case "95Pct": return P95;
+                case "99Pct": return P99;
+                default: return AVG;
+            }
+        }
+    }
+
+    /**
+     * One compiled quality gate row
+     */
+    static final class Gate {
+        final QualityGateMetric config;
+        final Source source;
+        final Aggregate aggregate;
+        final String operator;
+        final Double passValue;
+        final Double warningValue;
+        final double weightage;
+        // Rolling window the gate reads, 0 for the whole test
+        final long scopeSeconds;
+
+        Gate(QualityGateMetric config) {
+            this.config = config;
+            this.source = Source.fromMetric(config.getMetric());
+            this.aggregate = Aggregate.fromString(config.getAggregate());
+            this.operator = config.getOperator() != null ? config.getOperator().trim() : "";
+            this.passValue = config.getPassValue() != null ? config.getPassValue().doubleValue() : null;
+            this.warningValue = config.getWarningValue() != null ? config.getWarningValue().doubleValue() : null;
+            // The dashboard treats a missing or zero weightage as 0.5
+            float weight = config.getWeightage() != null ? config.getWeightage() : 0f;
+            this.weightage = weight != 0f ? weight : 0.5;
+            this.scopeSeconds = config.getScopeSeconds();
+        }
+
+        /**
+         * Status of an actual value; a missing value fails
+         */
+        String status(Double actual) {
+            if (actual == null || passValue == null) {
+                return FAIL;
+            }
+            double value = actual;
+            if ("=".equals(operator)) {
+                return value == passValue ? PASS : FAIL;
+            }
+            if (compare(value, passValue)) {
+                return PASS;
+            }
+            if (warningValue != null && compare(value, warningValue)) {
+                return WARNING;
+            }
+            return FAIL;
+        }
+
+        private boolean compare(double value, double threshold) {
+            switch (operator) {
+                case ">": return value > threshold;
+                case ">=": return value >= threshold;
+                case "<": return value < threshold;
+                case "<=": return value <= threshold;
+                default: return false;
+            }
+        }
+    }
+
+    /**
+     * Result of one gate
+     */
+    public static final class GateResult {
+        private final QualityGateMetric metric;
+        private final Double actualValue;
+        private final String status;
+
+        GateResult(QualityGateMetric metric, Double actualValue, String status) {
+            this.metric = metric;
+            this.actualValue = actualValue;
+            this.status = status;
+        }
+
+        public QualityGateMetric getMetric() {
+            return metric;
+        }
+
+        /**
+         * Current value of the metric, null if not available yet
+         */
+        public Double getActualValue() {
+            return actualValue;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Result of evaluating all gates
+     */
+    public static final class Evaluation {
+        private final double score;
+        private final String status;
+        private final long sampleCount;
+        private final List<GateResult> gates;
+
+        Evaluation(double score, String status, long sampleCount, List<GateResult> gates) {
+            this.score = score;
+            this.status = status;
+            this.sampleCount = sampleCount;
+            this.gates = gates;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * PASS, WARNING, FAIL, or N/A when no gate is configured
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        public List<GateResult> getGates() {
+            return gates;
+        }
+    }
+
+    /**
+     * Count, sum, min, max and an optional histogram of a stream of values. Thread-safe.
+     */
+    static final class RunningStats {
+        private long count;
+        private double sum;
+        private double min = Double.MAX_VALUE;
+        private double max = -Double.MAX_VALUE;
+        private final LatencyHistogram histogram;
+
+        RunningStats(LatencyHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        synchronized void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            if (histogram != null) {
+                histogram.add(Math.round(value * SYSTEM_METRIC_SCALE));
+            }
+        }
+
+        void merge(RunningStats other) {
+            long otherCount;
+            double otherSum;
+            double otherMin;
+            double otherMax;
+            LatencyHistogram otherHistogram = null;
+            synchronized (other) {
+                otherCount = other.count;
+                otherSum = other.sum;
+                otherMin = other.min;
+                otherMax = other.max;
+                if (histogram != null && other.histogram != null) {
+                    otherHistogram = new LatencyHistogram(other.histogram.getRelativeError());
+                    otherHistogram.merge(other.histogram);
+                }
+            }
+            synchronized (this) {
+                count += otherCount;
+                sum += otherSum;
+                min = Math.min(min, otherMin);
+                max = Math.max(max, otherMax);
+                if (otherHistogram != null) {
+                    histogram.merge(otherHistogram);
+                }
+            }
+        }
+
+        synchronized void reset() {
+            count = 0;
+            sum = 0;
+            min = Double.MAX_VALUE;
+            max = -Double.MAX_VALUE;
+            if (histogram != null) {
+                histogram.reset();
+            }
+        }
+
+        synchronized Double get(Aggregate aggregate) {
+            if (count == 0) {
+                return null;
+            }
+            switch (aggregate) {
+                case MAX: return max;
+                case MIN: return min;
+                case AVG: return sum / count;
+                default:
+                    return histogram != null ? histogram.getPercentile(aggregate.percentile) / SYSTEM_METRIC_SCALE : null;
+            }
+        }
+    }
+
+    private final List<Gate> gates;
+    private final double passScore;
+    private final double warningScore;
+    private final double relativeError;
+
+    // Sample aggregates, updated concurrently by sampler threads
+    private final LongAdder sampleCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder elapsedSum = new LongAdder();
+    private final AtomicLong elapsedMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong elapsedMax = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong firstTimestamp = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastTimestamp = new AtomicLong(Long.MIN_VALUE);
+    // Only allocated when a gate needs response time percentiles; striped by thread to avoid a global lock
+    private final LatencyHistogram[] latencyStripes;
+
+    private final RunningStats cpuStats;
+    private final RunningStats memoryStats;
+    // Windows of the scoped gates and the extra ones requested, null if there are none
+    private final RollingWindows windows;
+
+    /**
+     * Compiles the enabled quality gate rows into an evaluation plan
+     * @param metrics Configured quality gate rows
+     * @param passScore Score reached by passing gates and required for an overall PASS
+     * @param warningScore Score reached by gates in warning and required for an overall WARNING
+     * @param relativeError Relative error of the percentile histograms
+     */
+    public QualityGateEvaluator(List<QualityGateMetric> metrics, double passScore, double warningScore,
+                                double relativeError) {
+        this(metrics, passScore, warningScore, relativeError, new long[0]);
+    }
+
+    /**
+     * Compiles the enabled quality gate rows into an evaluation plan that also keeps rolling windows of the
+     * given lengths, e.g. for /rolling or {@link #evaluateWindow}
+     * @param windowMillis Window lengths in milliseconds, in addition to the scopes of the gates
+     */
+    public QualityGateEvaluator(List<QualityGateMetric> metrics, double passScore, double warningScore,
+                                double relativeError, long[] windowMillis) {
+        List<Gate> compiled = new ArrayList<>();
+        for (QualityGateMetric metric : metrics) {
+            if (metric.isEnabled()) {
+                compiled.add(new Gate(metric));
+            }
+        }
+        this.gates = Collections.unmodifiableList(compiled);
+        this.passScore = passScore;
+        this.warningScore = warningScore;
+        this.relativeError = relativeError;
+
+        if (needsPercentiles(Source.RESPONSE_TIME)) {
+            latencyStripes = new LatencyHistogram[Integer.highestOneBit(
+                Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1)];
+            for (int i = 0; i < latencyStripes.length; i++) {
+                latencyStripes[i] = new LatencyHistogram(relativeError);
+            }
+        } else {
+            latencyStripes = null;
+        }
+        cpuStats = new RunningStats(needsPercentiles(Source.CPU_USAGE) ? new LatencyHistogram(relativeError) : null);
+        memoryStats = new RunningStats(needsPercentiles(Source.MEMORY_USAGE) ? new LatencyHistogram(relativeError) : null);
+        RollingWindows rolling = new RollingWindows(RollingWindows.windowMillis(metrics, windowMillis), relativeError,
+            needsPercentiles(Source.CPU_USAGE) || needsPercentiles(Source.MEMORY_USAGE));
+        windows = rolling.isEmpty() ? null : rolling;
+    }
+
+    private boolean needsPercentiles(Source source) {
+        for (Gate gate : gates) {
+            if (gate.source == source && gate.aggregate.isPercentile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean hasGates() {
+        return !gates.isEmpty();
+    }
+
+    /**
+     * Updates the sample aggregates. Called concurrently from sampler threads.
+     */
+    public void add(SampleResult result) {
+        add(result.getTimeStamp(), result.getTime(), result.isSuccessful());
+    }
+
+    /**
+     * Updates the sample aggregates from individual values
+     */
+    public void add(long timeStamp, long elapsed, boolean success) {
+        sampleCount.increment();
+        if (!success) {
+            errorCount.increment();
+        }
+        elapsedSum.add(elapsed);
+        elapsedMin.accumulateAndGet(elapsed, Math::min);
+        elapsedMax.accumulateAndGet(elapsed, Math::max);
+        firstTimestamp.accumulateAndGet(timeStamp, Math::min);
+        lastTimestamp.accumulateAndGet(timeStamp, Math::max);
+        if (latencyStripes != null) {
+            long id = Thread.currentThread().getId();
+            LatencyHistogram stripe = latencyStripes[(int) (id ^ (id >>> 32)) & (latencyStripes.length - 1)];
+            synchronized (stripe) {
+                stripe.add(elapsed);
+            }
+        }
+        if (windows != null) {
+            windows.add(timeStamp + elapsed, elapsed, success);
+        }
+    }
+
+    /**
+     * Adds the aggregates of samples taken elsewhere, e.g. the interval received from a remote engine
+     * @param latencies Response times of these samples, not modified
+     */
+    public void addAggregate(long count, long errors, long elapsedTotal, long minElapsed, long maxElapsed,
+                             long fromTimestamp, long toTimestamp, LatencyHistogram latencies) {
+        sampleCount.add(count);
+        errorCount.add(errors);
+        elapsedSum.add(elapsedTotal);
+        elapsedMin.accumulateAndGet(minElapsed, Math::min);
+        elapsedMax.accumulateAndGet(maxElapsed, Math::max);
+        firstTimestamp.accumulateAndGet(fromTimestamp, Math::min);
+        lastTimestamp.accumulateAndGet(toTimestamp, Math::max);
+        if (latencyStripes != null) {
+            synchronized (latencyStripes[0]) {
+                latencyStripes[0].merge(latencies);
+            }
+        }
+        if (windows != null) {
+            windows.addAggregate(toTimestamp, count, errors, elapsedTotal, minElapsed, maxElapsed, latencies);
+        }
+    }
+
+    /**
+     * Adds the aggregates of another evaluator of the same gates, e.g. the partial aggregate of one part of a file.
+     * The other evaluator must not change meanwhile.
+     */
+    public void merge(QualityGateEvaluator other) {
+        sampleCount.add(other.sampleCount.sum());
+        errorCount.add(other.errorCount.sum());
+        elapsedSum.add(other.elapsedSum.sum());
+        elapsedMin.accumulateAndGet(other.elapsedMin.get(), Math::min);
+        elapsedMax.accumulateAndGet(other.elapsedMax.get(), Math::max);
+        firstTimestamp.accumulateAndGet(other.firstTimestamp.get(), Math::min);
+        lastTimestamp.accumulateAndGet(other.lastTimestamp.get(), Math::max);
+        if (latencyStripes != null && other.latencyStripes != null) {
+            LatencyHistogram latencies = other.mergeLatencyStripes();
+            synchronized (latencyStripes[0]) {
+                latencyStripes[0].merge(latencies);
+            }
+        }
+        cpuStats.merge(other.cpuStats);
+        memoryStats.merge(other.memoryStats);
+        if (windows != null && other.windows != null) {
+            windows.merge(other.windows);
+        }
+    }
+
+    /**
+     * Updates the CPU and memory aggregates with a fresh system metrics snapshot
+     */
+    public void addSystemMetrics(SystemMetricsSnapshot snapshot) {
+        cpuStats.add(snapshot.getCpuUsage());
+        memoryStats.add(snapshot.getMemoryUsage());
+        if (windows != null) {
+            windows.addSystemMetrics(snapshot.getTimestamp(), snapshot.getCpuUsage(), snapshot.getMemoryUsage());
+        }
+    }
+
+    /**
+     * Updates the CPU and memory aggregates with values measured elsewhere at the given time, e.g. on a remote
+     * engine. Unavailable (negative or NaN) values are ignored.
+     */
+    public void addSystemMetrics(long timestamp, double cpuUsage, double memoryUsage) {
+        if (windows != null) {
+            windows.addSystemMetrics(timestamp, cpuUsage, memoryUsage);
+        }
+        addSystemMetrics(cpuUsage, memoryUsage);
+    }
+
+    /**
+     * Updates the whole-test CPU and memory aggregates with values measured elsewhere at an unknown time, which
+     * the rolling windows therefore leave out. Unavailable (negative or NaN) values are ignored.
+     */
+    public void addSystemMetrics(double cpuUsage, double memoryUsage) {
+        if (cpuUsage >= 0) {
+            cpuStats.add(cpuUsage);
+        }
+        if (memoryUsage >= 0) {
+            memoryStats.add(memoryUsage);
+        }
+    }
+
+    /**
+     * Evaluates all gates against the current aggregates and computes the weighted score; scoped gates read
+     * the windows ending now
+     */
+    public Evaluation evaluate() {
+        return evaluate(System.currentTimeMillis());
+    }
+
+    /**
+     * Evaluates all gates against the current aggregates and computes the weighted score; scoped gates read
+     * the windows ending at the given time, e.g. the end of the last sample of a file
+     */
+    public Evaluation evaluate(long now) {
+        return evaluate(now, null);
+    }
+
+    /**
+     * Evaluates all gates over the rolling window of the given length ending at the given time instead of the
+     * whole test, e.g. to judge only the latest samples; scoped gates read their own windows as in
+     * {@link #evaluate(long)}. Costs the same however long the test runs.
+     * @param windowMillis Length of a window this evaluator keeps (see the constructor)
+     * @throws IllegalArgumentException If this evaluator keeps no window of that length
+     */
+    public Evaluation evaluateWindow(long windowMillis, long now) {
+        RollingWindows.Totals window = windows != null ? windows.read(windowMillis, now) : null;
+        if (window == null) {
+            throw new IllegalArgumentException("No rolling window of " + windowMillis + " ms");
+        }
+        return evaluate(now, window);
+    }
+
+    /**
+     * @param window Totals the gates without scope read, null for the whole-test aggregates
+     */
+    private Evaluation evaluate(long now, RollingWindows.Totals window) {
+        long count = window != null ? window.getCount() : sampleCount.sum();
+        LatencyHistogram latencies = null;
+        // Window read for each scoped gate, reused by the later gates of the same scope
+        RollingWindows.Totals[] scopes = new RollingWindows.Totals[gates.size()];
+        List<GateResult> results = new ArrayList<>(gates.size());
+        double totalWeightedScore = 0;
+        double totalWeightage = 0;
+        for (int i = 0; i < gates.size(); i++) {
+            Gate gate = gates.get(i);
+            Double actual;
+            if (gate.scopeSeconds > 0) {
+                long scopeMillis = gate.scopeSeconds * 1000;
+                RollingWindows.Totals totals = window != null && window.getMillis() == scopeMillis ? window : null;
+                for (int j = 0; j < i && totals == null; j++) {
+                    if (scopes[j] != null && scopes[j].getMillis() == scopeMillis) {
+                        totals = scopes[j];
+                    }
+                }
+                if (totals == null) {
+                    totals = windows.read(scopeMillis, now);
+                }
+                scopes[i] = totals;
+                actual = actualValue(gate, totals);
+            } else if (window != null) {
+                actual = actualValue(gate, window);
+            } else {
+                if (gate.source == Source.RESPONSE_TIME && gate.aggregate.isPercentile() && latencies == null) {
+                    latencies = mergeLatencyStripes();
+                }
+                actual = actualValue(gate, count, latencies);
+            }
+            String status = gate.status(actual);
+            results.add(new GateResult(gate.config, actual, status));
+
+            double baseScore = PASS.equals(status) ? passScore : WARNING.equals(status) ? warningScore : 0;
+            totalWeightedScore += baseScore * gate.weightage;
+            totalWeightage += gate.weightage;
+        }
+        if (results.isEmpty()) {
+            return new Evaluation(0, NOT_AVAILABLE, count, results);
+        }
+        double score = totalWeightage > 0 ? totalWeightedScore / totalWeightage : 0;
+        String status = score >= passScore ? PASS : score >= warningScore ? WARNING : FAIL;
+        return new Evaluation(score, status, count, results);
+    }
+
+    /**
+     * Rolling windows of this evaluator, null if none was requested and no gate is scoped
+     */
+    RollingWindows getRollingWindows() {
+        return windows;
+    }
+
+    /**
+     * End of the latest sample in epoch milliseconds as seen by the rolling windows, Long.MIN_VALUE if there is
+     * no window or no sample yet
+     */
+    public long getLatestSampleEnd() {
+        return windows != null ? windows.getLastTime() : Long.MIN_VALUE;
+    }
+
+    private LatencyHistogram mergeLatencyStripes() {
+        LatencyHistogram merged = new LatencyHistogram(relativeError);
+        for (LatencyHistogram stripe : latencyStripes) {
+            synchronized (stripe) {
+                merged.merge(stripe);
+            }
+        }
+        return merged;
+    }
+
+    private Double actualValue(Gate gate, long count, LatencyHistogram latencies) {
+        switch (gate.source) {
+            case RESPONSE_TIME:
+                if (count == 0) {
+                    return null;
+                }
+                switch (gate.aggregate) {
+                    case MAX: return (double) elapsedMax.get();
+                    case MIN: return (double) elapsedMin.get();
+                    case AVG: return (double) elapsedSum.sum() / count;
+                    default: return latencies.getPercentile(gate.aggregate.percentile);
+                }
+            case THROUGHPUT: {
+                // Samples per second between the first and the last sample start, as in the dashboard
+                long durationMillis = lastTimestamp.get() - firstTimestamp.get();
+                return count > 0 && durationMillis > 0 ? count * 1000.0 / durationMillis : null;
+            }
+            case ERROR_RATE:
+                return count > 0 ? errorCount.sum() * 100.0 / count : null;
+            case CPU_USAGE:
+                return cpuStats.get(gate.aggregate);
+            case MEMORY_USAGE:
+                return memoryStats.get(gate.aggregate);
+            default:
+                return null;
+        }
+    }
+
+    private static Double actualValue(Gate gate, RollingWindows.Totals totals) {
+        long count = totals.getCount();
+        switch (gate.source) {
+            case RESPONSE_TIME:
+                if (count == 0) {
+                    return null;
+                }
+                switch (gate.aggregate) {
+                    case MAX: return (double) totals.getElapsedMax();
+                    case MIN: return (double) totals.getElapsedMin();
+                    case AVG: return (double) totals.getElapsedSum() / count;
+                    default: return totals.getLatencies().getPercentile(gate.aggregate.percentile);
+                }
+            case THROUGHPUT:
+                // Samples per second over the time the window covers
+                return count > 0 && totals.getDurationMillis() > 0 ? count * 1000.0 / totals.getDurationMillis() : null;
+            case ERROR_RATE:
+                return count > 0 ? totals.getErrors() * 100.0 / count : null;
+            case CPU_USAGE:
+                return totals.getCpu().get(gate.aggregate);
+            case MEMORY_USAGE:
+                return totals.getMemory().get(gate.aggregate);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Serializes an evaluation as JSON
+     */
+    public String toJson(Evaluation evaluation) {
+        StringBuilder json = new StringBuilder(256 + 160 * evaluation.getGates().size());
+        json.append("{\"status\":\"").append(evaluation.getStatus())
+            .append("\",\"score\":").append(round(evaluation.getScore()))
+            .append(",\"passScore\":").append(passScore)
+            .append(",\"warningScore\":").append(warningScore)
+            .append(",\"samples\":").append(evaluation.getSampleCount())
+            .append(",\"gates\":[");
+        for (int i = 0; i < evaluation.getGates().size(); i++) {
+            GateResult result = evaluation.getGates().get(i);
+            QualityGateMetric metric = result.getMetric();
+            if (i > 0) json.append(',');
+            json.append("{\"metric\":");
+            SampleAggregator.appendJsonString(json, metric.getMetric());
+            json.append(",\"aggregate\":");
+            SampleAggregator.appendJsonString(json, metric.getAggregate());
+            json.append(",\"operator\":");
+            SampleAggregator.appendJsonString(json, metric.getOperator());
+            json.append(",\"passValue\":").append(metric.getPassValue())
+                .append(",\"warningValue\":").append(metric.getWarningValue())
+                .append(",\"weightage\":").append(metric.getWeightage())
+                .append(",\"scope\":").append(metric.getScopeSeconds())
+                .append(",\"actualValue\":").append(result.getActualValue() != null ? round(result.getActualValue()) : "null")
+                .append(",\"status\":\"").append(result.getStatus()).append("\"}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
@@ -0,0 +1,221 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.jmeter.engine.StandardJMeterEngine;
+import org.apache.jmeter.util.JMeterUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops a test whose quality gates are irrecoverably breached, enabled with live.dashboard.failfast=true.
+ * <p>
+ * Every check evaluates the gates over the last live.dashboard.failfast.window_ms of samples and system metrics
+ * instead of the whole test, so an early breach is seen as soon as it happens and a recovery as soon as it lasts.
+ * The window is one of the rolling windows of the run's {@link QualityGateEvaluator}, kept up to date with every
+ * sample, so a check costs the same however long the test runs; gates scoped to a rolling window read their
+ * own window, which must not be longer. Once the weighted score stays below the warning score for
+ * live.dashboard.failfast.grace_ms, the test is stopped through {@link StandardJMeterEngine} (gracefully, or at
+ * once with live.dashboard.failfast.stop=now) and a summary of the gates that failed, with how long each failed,
+ * is logged and written to {@link #SUMMARY_FILENAME} in the run directory.
+ * <p>
+ * Checked on the system metrics thread, so at the system metrics interval. Windows with fewer than
+ * live.dashboard.failfast.min_samples samples are not judged.
+ */
+final class QualityGateFailFast {
+
+    private static final Logger log = LoggerFactory.getLogger(QualityGateFailFast.class);
+
+    static final String SUMMARY_FILENAME = "live-dashboard-failfast.json";
+
+    private static final String ENABLED_PROPERTY = "live.dashboard.failfast";
+    private static final String WINDOW_PROPERTY = "live.dashboard.failfast.window_ms";
+    private static final String GRACE_PROPERTY = "live.dashboard.failfast.grace_ms";
+    private static final String MIN_SAMPLES_PROPERTY = "live.dashboard.failfast.min_samples";
+    private static final String STOP_PROPERTY = "live.dashboard.failfast.stop";
+
+    private final double warningScore;
+    private final long windowMillis;
+    private final long graceMillis;
+    private final long minSamples;
+    private final boolean stopNow;
+    private final File summaryFile;
+    private final Runnable stopAction;
+
+    // Guarded by this: when the score fell below the warning score, and when each gate started failing (-1 if not)
+    private long breachedSince = -1;
+    private final long[] failingSince;
+    private boolean stopped;
+
+    /**
+     * @param metrics Configured quality gate rows; only the enabled ones are evaluated
+     * @param stopAction Stops the test
+     * @throws IllegalArgumentException If an enabled gate is scoped to a window longer than windowMillis
+     */
+    QualityGateFailFast(List<QualityGateMetric> metrics, double warningScore, long windowMillis, long graceMillis,
+                        long minSamples, boolean stopNow, File summaryFile, Runnable stopAction) {
+        List<QualityGateMetric> enabled = new ArrayList<>();
+        for (QualityGateMetric metric : metrics) {
+            if (metric.isEnabled()) {
+                if (metric.getScopeSeconds() * 1000L > windowMillis) {
+                    throw new IllegalArgumentException("Gate " + metric + " is scoped to a longer window than the "
+                        + windowMillis + " ms of fail-fast");
+                }
+                enabled.add(metric);
+            }
+        }
+        this.warningScore = warningScore;
+        this.windowMillis = Math.max(1, windowMillis);
+        this.graceMillis = Math.max(0, graceMillis);
+        this.minSamples = Math.max(1, minSamples);
+        this.stopNow = stopNow;
+        this.summaryFile = summaryFile;
+        this.stopAction = stopAction;
+        this.failingSince = new long[enabled.size()];
+        Arrays.fill(failingSince, -1);
+    }
+
+    /**
+     * Fail-fast configured by the live.dashboard.failfast.* properties for a run's gates, or null if it is
+     * disabled, there is no enabled gate or a gate is scoped to a longer window than fail-fast (logged)
+     * @param directory Directory the summary is written to
+     */
+    static QualityGateFailFast fromProperties(List<QualityGateMetric> metrics, double warningScore, File directory) {
+        if (!JMeterUtils.getPropDefault(ENABLED_PROPERTY, false)
+                || metrics.stream().noneMatch(QualityGateMetric::isEnabled)) {
+            return null;
+        }
+        boolean now = "now".equalsIgnoreCase(JMeterUtils.getPropDefault(STOP_PROPERTY, "graceful").trim());
+        QualityGateFailFast failFast;
+        try {
+            failFast = new QualityGateFailFast(metrics, warningScore,
+                JMeterUtils.getPropDefault(WINDOW_PROPERTY, 60000L), JMeterUtils.getPropDefault(GRACE_PROPERTY, 60000L),
+                JMeterUtils.getPropDefault(MIN_SAMPLES_PROPERTY, 100L), now, new File(directory, SUMMARY_FILENAME),
+                now ? StandardJMeterEngine::stopEngineNow : StandardJMeterEngine::stopEngine);
+        } catch (IllegalArgumentException e) {
+            log.error("Quality gates will not stop the test: {} (raise {})", e.getMessage(), WINDOW_PROPERTY);
+            return null;
+        }
+        log.info("Quality gates stop the test once the score of the last {} ms stays below {} for {} ms",
+            failFast.windowMillis, warningScore, failFast.graceMillis);
+        return failFast;
+    }
+
+    /**
+     * Length of the rolling window the gates are evaluated over, which the run's evaluator must keep
+     */
+    long getWindowMillis() {
+        return windowMillis;
+    }
+
+    /**
+     * Evaluates the gates over the window ending now and stops the test if the grace period is over
+     * @param evaluator Evaluator of the run's gates, keeping a rolling window of {@link #getWindowMillis}
+     */
+    synchronized void check(QualityGateEvaluator evaluator, long now) {
+        if (stopped || evaluator == null) {
+            return;
+        }
+        QualityGateEvaluator.Evaluation evaluation = evaluator.evaluateWindow(windowMillis, now);
+        if (evaluation.getSampleCount() < minSamples) {
+            // Too few samples to judge: the grace period starts over once there are enough
+            breachedSince = -1;
+            Arrays.fill(failingSince, -1);
+            return;
+        }
+        List<QualityGateEvaluator.GateResult> gates = evaluation.getGates();
+        for (int i = 0; i < gates.size(); i++) {
+            if (!QualityGateEvaluator.FAIL.equals(gates.get(i).getStatus())) {
+                failingSince[i] = -1;
+            } else if (failingSince[i] < 0) {
+                failingSince[i] = now;
+            }
+        }
+        if (evaluation.getScore() >= warningScore) {
+            if (breachedSince >= 0) {
+                log.info("Quality gate score of the last {} ms recovered to {}", windowMillis,
+                    format(evaluation.getScore()));
+            }
+            breachedSince = -1;
+            return;
+        }
+        if (breachedSince < 0) {
+            breachedSince = now;
+            log.warn("Quality gate score of the last {} ms is {}, below {}: the test stops in {} ms unless it recovers",
+                windowMillis, format(evaluation.getScore()), warningScore, graceMillis);
+        }
+        if (now - breachedSince >= graceMillis) {
+            stopped = true;
+            stop(evaluation, now);
+        }
+    }
+
+    private void stop(QualityGateEvaluator.Evaluation evaluation, long now) {
+        List<QualityGateEvaluator.GateResult> gates = evaluation.getGates();
+        log.error("Stopping the test: quality gate score of the last {} ms has been {} (below {}) for {} ms",
+            windowMillis, format(evaluation.getScore()), warningScore, now - breachedSince);
+        for (int i = 0; i < gates.size(); i++) {
+            if (failingSince[i] >= 0) {
+                QualityGateMetric metric = gates.get(i).getMetric();
+                Double actual = gates.get(i).getActualValue();
+                log.error("Failing for {} ms: {} {} {} {} (actual {}, weightage {})", now - failingSince[i],
+                    metric.getMetric(), metric.getAggregate(), metric.getOperator(), metric.getPassValue(),
+                    actual != null ? format(actual) : "n/a", metric.getWeightage());
+            }
+        }
+        try {
+            Files.write(summaryFile.toPath(), toJson(evaluation, now).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.error("Could not write the fail-fast summary {}", summaryFile, e);
+        }
+        stopAction.run();
+    }
+
+    /**
+     * Summary of a stop: window, grace period, score, and every gate with its value in the window and how long
+     * it had been failing (null if it was not)
+     */
+    private String toJson(QualityGateEvaluator.Evaluation evaluation, long now) {
+        List<QualityGateEvaluator.GateResult> gates = evaluation.getGates();
+        StringBuilder json = new StringBuilder(256 + 192 * gates.size());
+        json.append("{\"stoppedAt\":").append(now)
+            .append(",\"stop\":\"").append(stopNow ? "now" : "graceful")
+            .append("\",\"windowMs\":").append(windowMillis)
+            .append(",\"graceMs\":").append(graceMillis)
+            .append(",\"breachedSince\":").append(breachedSince)
+            .append(",\"score\":").append(format(evaluation.getScore()))
+            .append(",\"warningScore\":").append(warningScore)
+            .append(",\"samples\":").append(evaluation.getSampleCount())
+            .append(",\"gates\":[");
+        for (int i = 0; i < gates.size(); i++) {
+            QualityGateEvaluator.GateResult result = gates.get(i);
+            QualityGateMetric metric = result.getMetric();
+            if (i > 0) json.append(',');
+            json.append("{\"metric\":");
+            SampleAggregator.appendJsonString(json, metric.getMetric());
+            json.append(",\"aggregate\":");
+            SampleAggregator.appendJsonString(json, metric.getAggregate());
+            json.append(",\"operator\":");
+            SampleAggregator.appendJsonString(json, metric.getOperator());
+            json.append(",\"passValue\":").append(metric.getPassValue())
+                .append(",\"warningValue\":").append(metric.getWarningValue())
+                .append(",\"weightage\":").append(metric.getWeightage())
+                .append(",\"actualValue\":").append(result.getActualValue() != null ? format(result.getActualValue()) : "null")
+                .append(",\"status\":\"").append(result.getStatus())
+                .append("\",\"failingMs\":").append(failingSince[i] >= 0 ? String.valueOf(now - failingSince[i]) : "null")
+                .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
@@ -6,6 +6,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -22,9 +23,9 @@ public class QualityGateManager {
     private JTextField warningScoreField;
     
     // Constants for property names
-    private static final String QUALITY_GATE_PROPERTY = "QUALITY_GATE_CONFIG";
-    private static final String PASS_SCORE_PROPERTY = "PASS_SCORE";
-    private static final String WARNING_SCORE_PROPERTY = "WARNING_SCORE";
+    static final String QUALITY_GATE_PROPERTY = "QUALITY_GATE_CONFIG";
+    static final String PASS_SCORE_PROPERTY = "PASS_SCORE";
+    static final String WARNING_SCORE_PROPERTY = "WARNING_SCORE";
     
     // Validation patterns
     
@@ -199,6 +200,25 @@ public class QualityGateManager {
             }
         });
         qualityGateTable.getColumnModel().getColumn(6).setCellEditor(new DefaultCellEditor(weightageField));
+        
+        // Scope column - editable dropdown, other rolling windows can be typed (e.g. "Rolling 30s")
+        JComboBox<String> scopeCombo = new JComboBox<>(new String[]{
+            "Whole Test", "Rolling 10s", "Rolling 1m", "Rolling 5m"
+        });
+        scopeCombo.setEditable(true);
+        qualityGateTable.getColumnModel().getColumn(7).setCellEditor(new DefaultCellEditor(scopeCombo) {
+            @Override
+            public boolean stopCellEditing() {
+                try {
+                    QualityGateMetric.parseScope(String.valueOf(getCellEditorValue()));
+                } catch (NumberFormatException e) {
+                    JOptionPane.showMessageDialog(scopeCombo, "Scope must be Whole Test or Rolling N s / N m",
+                                                "Invalid Input", JOptionPane.ERROR_MESSAGE);
+                    scopeCombo.setSelectedItem("Whole Test");
+                }
+                return super.stopCellEditing();
+            }
+        });
     }
     
     /**
@@ -316,7 +336,8 @@ public class QualityGateManager {
                   .append(metric.getOperator()).append("|")
                   .append(metric.getPassValue() != null ? metric.getPassValue() : "null").append("|")
                   .append(metric.getWarningValue() != null ? metric.getWarningValue() : "null").append("|")
-                  .append(metric.getWeightage() != null ? metric.getWeightage() : "1.0").append("\n");
+                  .append(metric.getWeightage() != null ? metric.getWeightage() : "1.0").append("|")
+                  .append(metric.getScopeSeconds()).append("\n");
         }
         element.setProperty(QUALITY_GATE_PROPERTY, config.toString());
     }
@@ -337,24 +358,57 @@ public class QualityGateManager {
         String config = element.getPropertyAsString(QUALITY_GATE_PROPERTY, "");
         if (!config.isEmpty() && qualityGateTableModel != null) {
             qualityGateTableModel.clear();
-            String[] lines = config.split("\n");
-            for (String line : lines) {
-                if (!line.trim().isEmpty()) {
-                    String[] parts = line.split("\\|");
-                    if (parts.length >= 7) {
-                        Boolean enabled = Boolean.parseBoolean(parts[0]);
-                        String metric = parts[1];
-                        String aggregate = parts[2];
-                        String operator = parts[3];
-                        Float passValue = "null".equals(parts[4]) ? null : Float.parseFloat(parts[4]);
-                        Float warningValue = "null".equals(parts[5]) ? null : Float.parseFloat(parts[5]);
-                        Float weightage = Float.parseFloat(parts[6]);
-                        
-                        qualityGateTableModel.addRow(enabled, metric, aggregate, operator, passValue, warningValue, weightage);
+            for (QualityGateMetric metric : readQualityGateMetrics(element)) {
+                qualityGateTableModel.addRow(metric.isEnabled(), metric.getMetric(), metric.getAggregate(),
+                    metric.getOperator(), metric.getPassValue(), metric.getWarningValue(), metric.getWeightage(),
+                    metric.getScopeSeconds());
+            }
+        }
+    }
+    
+    /**
+     * Reads the quality gate metrics saved in a test element, without any GUI (used in non-GUI mode)
+     */
+    public static List<QualityGateMetric> readQualityGateMetrics(org.apache.jmeter.testelement.TestElement element) {
+        return parseQualityGateMetrics(element.getPropertyAsString(QUALITY_GATE_PROPERTY, ""));
+    }
+    
+    /**
+     * Parses the saved form of the quality gate metrics (one "enabled|metric|aggregate|operator|pass|warning|weightage|scope"
+     * row per line, the scope in seconds and absent in plans saved before it existed), e.g. as read from a .jmx file
+     */
+    public static List<QualityGateMetric> parseQualityGateMetrics(String config) {
+        List<QualityGateMetric> metrics = new ArrayList<>();
+        String[] lines = config.split("\n");
+        for (String line : lines) {
+            if (!line.trim().isEmpty()) {
+                String[] parts = line.split("\\|");
+                if (parts.length >= 7) {
+                    QualityGateMetric metric = new QualityGateMetric();
+                    metric.setEnabled(Boolean.parseBoolean(parts[0]));
+                    metric.setMetric(parts[1]);
+                    metric.setAggregate(parts[2]);
+                    metric.setOperator(parts[3]);
+                    metric.setPassValue("null".equals(parts[4]) ? null : Float.parseFloat(parts[4]));
+                    metric.setWarningValue("null".equals(parts[5]) ? null : Float.parseFloat(parts[5]));
+                    metric.setWeightage(Float.parseFloat(parts[6]));
+                    if (parts.length >= 8) {
+                        metric.setScopeSeconds(Integer.parseInt(parts[7].trim()));
                     }
+                    metrics.add(metric);
                 }
             }
         }
+        return metrics;
+    }
+    
+    /**
+     * Reads the target scores (pass, warning) saved in a test element, without any GUI (used in non-GUI mode)
+     */
+    public static float[] readTargetScores(org.apache.jmeter.testelement.TestElement element) {
+        float passScore = Float.parseFloat(element.getPropertyAsString(PASS_SCORE_PROPERTY, "80"));
+        float warningScore = Float.parseFloat(element.getPropertyAsString(WARNING_SCORE_PROPERTY, "60"));
+        return new float[]{passScore, warningScore};
     }
     
     /**
@@ -1,5 +1,7 @@
 package org.apache.jmeter.visualizers;
 
+import java.util.Locale;
+
 /**
  * Represents a quality gate metric configuration
  */
@@ -12,6 +14,8 @@ public class QualityGateMetric {
     private Float passValue;
     private Float warningValue;
     private Float weightage;
+    // 0 for the whole test, else the rolling window the gate is evaluated over, in seconds
+    private int scopeSeconds;
     
     public QualityGateMetric() {
         this.enabled = true;
@@ -79,9 +83,56 @@ public class QualityGateMetric {
         this.weightage = weightage;
     }
     
+    /**
+     * Rolling window the gate is evaluated over in seconds, 0 for the whole test
+     */
+    public int getScopeSeconds() {
+        return scopeSeconds;
+    }
+    
+    public void setScopeSeconds(int scopeSeconds) {
+        this.scopeSeconds = Math.max(0, scopeSeconds);
+    }
+    
+    /**
+     * Scope as shown in the configuration table: "Whole Test" or "Rolling 30s", "Rolling 5m"
+     */
+    public static String formatScope(int scopeSeconds) {
+        if (scopeSeconds <= 0) {
+            return "Whole Test";
+        }
+        return scopeSeconds % 60 == 0 ? "Rolling " + scopeSeconds / 60 + "m" : "Rolling " + scopeSeconds + "s";
+    }
+    
+    /**
+     * Parses a scope as shown by {@link #formatScope}; a bare number is in seconds
+     * @throws NumberFormatException if it is neither
+     */
+    public static int parseScope(String scope) {
+        String value = scope.trim().toLowerCase(Locale.ROOT);
+        if (value.isEmpty() || value.equals("whole test")) {
+            return 0;
+        }
+        if (value.startsWith("rolling")) {
+            value = value.substring("rolling".length()).trim();
+        }
+        int unit = 1;
+        if (value.endsWith("m")) {
+            unit = 60;
+            value = value.substring(0, value.length() - 1).trim();
+        } else if (value.endsWith("s")) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        int seconds = Integer.parseInt(value) * unit;
+        if (seconds < 0) {
+            throw new NumberFormatException("Negative scope: " + scope);
+        }
+        return seconds;
+    }
+    
     @Override
     public String toString() {
-        return String.format("QualityGateMetric{enabled=%s, metric='%s', aggregate='%s', operator='%s', passValue=%s, warningValue=%s, weightage=%s}",
-                           enabled, metric, aggregate, operator, passValue, warningValue, weightage);
+        return String.format("QualityGateMetric{enabled=%s, metric='%s', aggregate='%s', operator='%s', passValue=%s, warningValue=%s, weightage=%s, scope=%s}",
+                           enabled, metric, aggregate, operator, passValue, warningValue, weightage, formatScope(scopeSeconds));
     }
 }
@@ -11,7 +11,7 @@ public class QualityGateTableModel extends AbstractTableModel {
     
     private final List<QualityGateMetric> metrics;
     private final String[] columnNames = {
-        "Enabled", "Metric", "Aggregate", "Operator", "Pass Value", "Warning Value", "Weightage"
+        "Enabled", "Metric", "Aggregate", "Operator", "Pass Value", "Warning Value", "Weightage", "Scope"
     };
     
     public QualityGateTableModel() {
@@ -43,6 +43,7 @@ public class QualityGateTableModel extends AbstractTableModel {
             case 4: return String.class;   // Pass Value
             case 5: return String.class;   // Warning Value
             case 6: return String.class;   // Weightage
+            case 7: return String.class;   // Scope
             default: return Object.class;
         }
     }
@@ -67,6 +68,7 @@ public class QualityGateTableModel extends AbstractTableModel {
             case 4: return metric.getPassValue() != null ? metric.getPassValue().toString() : "";
             case 5: return metric.getWarningValue() != null ? metric.getWarningValue().toString() : "";
             case 6: return metric.getWeightage() != null ? metric.getWeightage().toString() : "1.0";
+            case 7: return QualityGateMetric.formatScope(metric.getScopeSeconds());
             default: return null;
         }
     }
@@ -103,6 +105,9 @@ public class QualityGateTableModel extends AbstractTableModel {
                 String weightageStr = (String) value;
                 metric.setWeightage(weightageStr.isEmpty() ? 1.0f : Float.parseFloat(weightageStr));
                 break;
+            case 7:
+                metric.setScopeSeconds(QualityGateMetric.parseScope((String) value));
+                break;
         }
         fireTableCellUpdated(rowIndex, columnIndex);
     }
@@ -129,6 +134,15 @@ public class QualityGateTableModel extends AbstractTableModel {
      */
     public void addRow(Boolean enabled, String metric, String aggregate, String operator, 
                       Float passValue, Float warningValue, Float weightage) {
+        addRow(enabled, metric, aggregate, operator, passValue, warningValue, weightage, 0);
+    }
+    
+    /**
+     * Adds a new row with specified values and scope
+     * @param scopeSeconds Rolling window of the gate in seconds, 0 for the whole test
+     */
+    public void addRow(Boolean enabled, String metric, String aggregate, String operator, 
+                      Float passValue, Float warningValue, Float weightage, int scopeSeconds) {
         QualityGateMetric qualityGateMetric = new QualityGateMetric();
         qualityGateMetric.setEnabled(enabled);
         qualityGateMetric.setMetric(metric);
@@ -137,6 +151,7 @@ public class QualityGateTableModel extends AbstractTableModel {
         qualityGateMetric.setPassValue(passValue);
         qualityGateMetric.setWarningValue(warningValue);
         qualityGateMetric.setWeightage(weightage);
+        qualityGateMetric.setScopeSeconds(scopeSeconds);
         
         metrics.add(qualityGateMetric);
         fireTableRowsInserted(metrics.size() - 1, metrics.size() - 1);
@@ -0,0 +1,412 @@
+package org.apache.jmeter.visualizers;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Aggregates of the latest samples and system metrics over rolling windows, e.g. the last 10 seconds, minute and
+ * 5 minutes, read by quality gates scoped to a window and by fail-fast, and served by /rolling.
+ * <p>
+ * Each window is a ring buffer of {@link #SLOTS} slots, each covering a tenth of the window with the counts,
+ * sums, extremes and latency histogram of its samples. A sample updates one slot per window in constant time:
+ * the slot of its sub-window, recycled first if it still holds an older one. Reading a window merges the slots of
+ * its last {@link #SLOTS} sub-windows, so it covers the window length give or take one slot, and costs the same
+ * however long the test runs. Samples are placed by their end time, when they are reported.
+ * <p>
+ * Thread-safe: every window has its own lock.
+ */
+final class RollingWindows {
+
+    /** Windows served by /rolling, in milliseconds */
+    static final long[] DEFAULT_WINDOW_MILLIS = {10000, 60000, 300000};
+    /** Slots of a window */
+    static final int SLOTS = 10;
+
+    /**
+     * Aggregates of one window when it was read
+     */
+    static final class Totals {
+        private final long millis;
+        private long count;
+        private long errors;
+        private long elapsedSum;
+        private long elapsedMin = Long.MAX_VALUE;
+        private long elapsedMax = Long.MIN_VALUE;
+        private long durationMillis;
+        private final LatencyHistogram latencies;
+        private final QualityGateEvaluator.RunningStats cpu;
+        private final QualityGateEvaluator.RunningStats memory;
+
+        Totals(long millis, double relativeError, boolean systemPercentiles) {
+            this.millis = millis;
+            this.latencies = new LatencyHistogram(relativeError);
+            this.cpu = new QualityGateEvaluator.RunningStats(systemPercentiles ? new LatencyHistogram(relativeError) : null);
+            this.memory = new QualityGateEvaluator.RunningStats(systemPercentiles ? new LatencyHistogram(relativeError) : null);
+        }
+
+        /**
+         * Length of the window in milliseconds
+         */
+        long getMillis() {
+            return millis;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getErrors() {
+            return errors;
+        }
+
+        long getElapsedSum() {
+            return elapsedSum;
+        }
+
+        long getElapsedMin() {
+            return elapsedMin;
+        }
+
+        long getElapsedMax() {
+            return elapsedMax;
+        }
+
+        /**
+         * Time the window covers: from the start of its oldest slot, or the first sample if later, to when it
+         * was read; what throughputs are measured over
+         */
+        long getDurationMillis() {
+            return durationMillis;
+        }
+
+        LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        QualityGateEvaluator.RunningStats getCpu() {
+            return cpu;
+        }
+
+        QualityGateEvaluator.RunningStats getMemory() {
+            return memory;
+        }
+    }
+
+    /**
+     * Ring buffer of one window
+     */
+    private final class Window {
+        private final long millis;
+        private final long slotMillis;
+        // Sub-window (time / slotMillis) held by each slot, Long.MIN_VALUE while unused
+        private final long[] slotIndex = new long[SLOTS];
+        private final long[] count = new long[SLOTS];
+        private final long[] errors = new long[SLOTS];
+        private final long[] elapsedSum = new long[SLOTS];
+        private final long[] elapsedMin = new long[SLOTS];
+        private final long[] elapsedMax = new long[SLOTS];
+        private final LatencyHistogram[] latencies = new LatencyHistogram[SLOTS];
+        private final QualityGateEvaluator.RunningStats[] cpu = new QualityGateEvaluator.RunningStats[SLOTS];
+        private final QualityGateEvaluator.RunningStats[] memory = new QualityGateEvaluator.RunningStats[SLOTS];
+
+        Window(long millis) {
+            this.millis = millis;
+            this.slotMillis = Math.max(1, millis / SLOTS);
+            Arrays.fill(slotIndex, Long.MIN_VALUE);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                latencies[slot] = new LatencyHistogram(relativeError);
+                cpu[slot] = new QualityGateEvaluator.RunningStats(systemPercentiles ? new LatencyHistogram(relativeError) : null);
+                memory[slot] = new QualityGateEvaluator.RunningStats(systemPercentiles ? new LatencyHistogram(relativeError) : null);
+            }
+        }
+
+        /**
+         * Slot of the sub-window of a time, emptied first if it holds an older sub-window
+         * @return The slot, or -1 if the time is older than the sub-window the slot holds now
+         */
+        private int slotFor(long time) {
+            long index = Math.floorDiv(time, slotMillis);
+            int slot = (int) Math.floorMod(index, (long) SLOTS);
+            if (slotIndex[slot] != index) {
+                if (slotIndex[slot] > index) {
+                    return -1;
+                }
+                slotIndex[slot] = index;
+                count[slot] = 0;
+                errors[slot] = 0;
+                elapsedSum[slot] = 0;
+                elapsedMin[slot] = Long.MAX_VALUE;
+                elapsedMax[slot] = Long.MIN_VALUE;
+                latencies[slot].reset();
+                cpu[slot].reset();
+                memory[slot].reset();
+            }
+            return slot;
+        }
+
+        synchronized void add(long time, long elapsed, boolean success) {
+            int slot = slotFor(time);
+            if (slot < 0) {
+                return;
+            }
+            count[slot]++;
+            if (!success) {
+                errors[slot]++;
+            }
+            elapsedSum[slot] += elapsed;
+            elapsedMin[slot] = Math.min(elapsedMin[slot], elapsed);
+            elapsedMax[slot] = Math.max(elapsedMax[slot], elapsed);
+            latencies[slot].add(elapsed);
+        }
+
+        synchronized void addAggregate(long time, long samples, long failures, long elapsedTotal, long minElapsed,
+                                       long maxElapsed, LatencyHistogram histogram) {
+            int slot = slotFor(time);
+            if (slot < 0) {
+                return;
+            }
+            count[slot] += samples;
+            errors[slot] += failures;
+            elapsedSum[slot] += elapsedTotal;
+            elapsedMin[slot] = Math.min(elapsedMin[slot], minElapsed);
+            elapsedMax[slot] = Math.max(elapsedMax[slot], maxElapsed);
+            if (histogram != null) {
+                latencies[slot].merge(histogram);
+            }
+        }
+
+        synchronized void addSystemMetrics(long time, double cpuUsage, double memoryUsage) {
+            int slot = slotFor(time);
+            if (slot < 0) {
+                return;
+            }
+            if (cpuUsage >= 0) {
+                cpu[slot].add(cpuUsage);
+            }
+            if (memoryUsage >= 0) {
+                memory[slot].add(memoryUsage);
+            }
+        }
+
+        /**
+         * Adds the slots of the same window of another instance, keeping the latest sub-window of every slot
+         */
+        synchronized void merge(Window other) {
+            synchronized (other) {
+                for (int slot = 0; slot < SLOTS; slot++) {
+                    long index = other.slotIndex[slot];
+                    if (index == Long.MIN_VALUE || slotFor(index * slotMillis) < 0) {
+                        continue;
+                    }
+                    count[slot] += other.count[slot];
+                    errors[slot] += other.errors[slot];
+                    elapsedSum[slot] += other.elapsedSum[slot];
+                    elapsedMin[slot] = Math.min(elapsedMin[slot], other.elapsedMin[slot]);
+                    elapsedMax[slot] = Math.max(elapsedMax[slot], other.elapsedMax[slot]);
+                    latencies[slot].merge(other.latencies[slot]);
+                    cpu[slot].merge(other.cpu[slot]);
+                    memory[slot].merge(other.memory[slot]);
+                }
+            }
+        }
+
+        /**
+         * Merges the slots of the last {@link #SLOTS} sub-windows up to now
+         */
+        synchronized Totals read(long now) {
+            Totals totals = new Totals(millis, relativeError, systemPercentiles);
+            long current = Math.floorDiv(now, slotMillis);
+            for (int slot = 0; slot < SLOTS; slot++) {
+                if (slotIndex[slot] > current - SLOTS && slotIndex[slot] <= current) {
+                    totals.count += count[slot];
+                    totals.errors += errors[slot];
+                    totals.elapsedSum += elapsedSum[slot];
+                    totals.elapsedMin = Math.min(totals.elapsedMin, elapsedMin[slot]);
+                    totals.elapsedMax = Math.max(totals.elapsedMax, elapsedMax[slot]);
+                    totals.latencies.merge(latencies[slot]);
+                    totals.cpu.merge(cpu[slot]);
+                    totals.memory.merge(memory[slot]);
+                }
+            }
+            totals.durationMillis = Math.max(0, now - Math.max((current - SLOTS + 1) * slotMillis, firstTime));
+            return totals;
+        }
+    }
+
+    private final double relativeError;
+    private final boolean systemPercentiles;
+    // Sorted by length
+    private final Window[] windows;
+    private volatile long firstTime = Long.MAX_VALUE;
+    private volatile long lastTime = Long.MIN_VALUE;
+
+    /**
+     * Creates empty windows
+     * @param windowMillis Window lengths in milliseconds; duplicates and lengths below 1 are ignored
+     * @param relativeError Relative error of the latency histograms
+     * @param systemPercentiles Whether CPU and memory percentiles are needed
+     */
+    RollingWindows(long[] windowMillis, double relativeError, boolean systemPercentiles) {
+        this.relativeError = relativeError;
+        this.systemPercentiles = systemPercentiles;
+        TreeSet<Long> lengths = new TreeSet<>();
+        for (long millis : windowMillis) {
+            if (millis > 0) {
+                lengths.add(millis);
+            }
+        }
+        windows = new Window[lengths.size()];
+        int i = 0;
+        for (long millis : lengths) {
+            windows[i++] = new Window(millis);
+        }
+    }
+
+    /**
+     * Window lengths in milliseconds needed by the scoped gates of a configuration, in addition to the given ones
+     */
+    static long[] windowMillis(List<QualityGateMetric> metrics, long... extraMillis) {
+        long[] millis = Arrays.copyOf(extraMillis, extraMillis.length + metrics.size());
+        int count = extraMillis.length;
+        for (QualityGateMetric metric : metrics) {
+            if (metric.isEnabled() && metric.getScopeSeconds() > 0) {
+                millis[count++] = metric.getScopeSeconds() * 1000L;
+            }
+        }
+        return Arrays.copyOf(millis, count);
+    }
+
+    boolean isEmpty() {
+        return windows.length == 0;
+    }
+
+    /**
+     * Adds a sample. Called concurrently from sampler threads.
+     * @param time End of the sample in epoch milliseconds
+     */
+    void add(long time, long elapsed, boolean success) {
+        updateTimes(time);
+        for (Window window : windows) {
+            window.add(time, elapsed, success);
+        }
+    }
+
+    /**
+     * Adds the aggregates of samples that ended around the given time, e.g. an interval of a remote engine
+     * @param latencies Response times of these samples, not modified
+     */
+    void addAggregate(long time, long count, long errors, long elapsedTotal, long minElapsed, long maxElapsed,
+                      LatencyHistogram latencies) {
+        updateTimes(time);
+        for (Window window : windows) {
+            window.addAggregate(time, count, errors, elapsedTotal, minElapsed, maxElapsed, latencies);
+        }
+    }
+
+    /**
+     * Adds CPU and memory usage measured at the given time; unavailable (negative) values are ignored
+     */
+    void addSystemMetrics(long time, double cpuUsage, double memoryUsage) {
+        for (Window window : windows) {
+            window.addSystemMetrics(time, cpuUsage, memoryUsage);
+        }
+    }
+
+    /**
+     * Adds the windows of another instance with the same window lengths, e.g. of an earlier part of a file.
+     * The other instance must not change meanwhile.
+     */
+    void merge(RollingWindows other) {
+        if (other.firstTime != Long.MAX_VALUE) {
+            updateTimes(other.firstTime);
+            updateTimes(other.lastTime);
+        }
+        for (int i = 0; i < windows.length && i < other.windows.length; i++) {
+            if (windows[i].millis == other.windows[i].millis) {
+                windows[i].merge(other.windows[i]);
+            }
+        }
+    }
+
+    private void updateTimes(long time) {
+        if (time < firstTime || time > lastTime) {
+            synchronized (this) {
+                if (time < firstTime) {
+                    firstTime = time;
+                }
+                if (time > lastTime) {
+                    lastTime = time;
+                }
+            }
+        }
+    }
+
+    /**
+     * End of the latest sample in epoch milliseconds, Long.MIN_VALUE before the first sample
+     */
+    long getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * Aggregates of the window of the given length in milliseconds ending now, or null if there is no such window
+     */
+    Totals read(long millis, long now) {
+        for (Window window : windows) {
+            if (window.millis == millis) {
+                return window.read(now);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serializes every window ending now as JSON: samples, errors, error rate (%), average, min and max response
+     * time, the requested percentiles, throughput (samples per second) and average CPU and memory usage
+     */
+    String toJson(long now, double[] percentiles) {
+        StringBuilder json = new StringBuilder(128 + windows.length * 256);
+        json.append("{\"time\":").append(now).append(",\"slots\":").append(SLOTS).append(",\"percentiles\":[");
+        for (int i = 0; i < percentiles.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(percentiles[i]);
+        }
+        json.append("],\"windows\":[");
+        for (int i = 0; i < windows.length; i++) {
+            Totals totals = windows[i].read(now);
+            long count = totals.count;
+            if (i > 0) json.append(',');
+            json.append("{\"seconds\":");
+            if (totals.millis % 1000 == 0) {
+                json.append(totals.millis / 1000);
+            } else {
+                json.append(totals.millis / 1000.0);
+            }
+            json.append(",\"durationMs\":").append(totals.durationMillis)
+                .append(",\"samples\":").append(count)
+                .append(",\"errors\":").append(totals.errors)
+                .append(",\"errorRate\":").append(count > 0 ? round(totals.errors * 100.0 / count) : 0)
+                .append(",\"avg\":").append(count > 0 ? round((double) totals.elapsedSum / count) : 0)
+                .append(",\"min\":").append(count > 0 ? totals.elapsedMin : 0)
+                .append(",\"max\":").append(count > 0 ? totals.elapsedMax : 0)
+                .append(",\"percentiles\":[");
+            for (int p = 0; p < percentiles.length; p++) {
+                if (p > 0) json.append(',');
+                json.append(Math.round(totals.latencies.getPercentile(percentiles[p])));
+            }
+            json.append("],\"throughput\":")
+                .append(totals.durationMillis > 0 ? round(count * 1000.0 / totals.durationMillis) : 0);
+            Double cpuUsage = totals.cpu.get(QualityGateEvaluator.Aggregate.AVG);
+            Double memoryUsage = totals.memory.get(QualityGateEvaluator.Aggregate.AVG);
+            json.append(",\"cpuUsage\":").append(cpuUsage != null ? String.valueOf(round(cpuUsage)) : "null")
+                .append(",\"memoryUsage\":").append(memoryUsage != null ? String.valueOf(round(memoryUsage)) : "null")
+                .append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
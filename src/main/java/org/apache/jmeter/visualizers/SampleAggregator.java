@@ -0,0 +1,1206 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming aggregation of samples into per-label, per-time-bucket counters.
+ * Counters live in primitive arrays (one slot per bucket), so memory grows with the number of labels and
+ * buckets, never with the number of samples. Every bucket remembers the version in which it was last changed,
+ * which lets clients fetch only the buckets modified since their previous request.
+ * Each bucket and each label also keeps a mergeable {@link LatencyHistogram} for percentiles.
+ * With a {@link LabelDictionary} the labels are normalized and their number is bounded.
+ */
+public class SampleAggregator {
+
+    private static final Logger log = LoggerFactory.getLogger(SampleAggregator.class);
+
+    private static final int INITIAL_BUCKETS = 64;
+    // Identifies the binary encoding of writeTo (and its version)
+    private static final int ENCODING_MAGIC = 0x4C444131;
+    // Longer labels and messages are truncated in the binary encoding (writeUTF is limited to 64 KB)
+    private static final int MAX_ENCODED_STRING = 4096;
+    // Time span of a label, far more than a test (60 days of 5 s buckets) or an interval of a remote engine
+    private static final long MAX_SPAN_BUCKETS = 1 << 20;
+
+    private final long bucketMillis;
+    private final double relativeError;
+    // Null when every label is aggregated as it is
+    private final LabelDictionary labels;
+    private final Map<String, LabelSeries> seriesByLabel = new ConcurrentHashMap<>();
+    private final List<LabelSeries> series = new ArrayList<>();
+    private final Map<String, Integer> codeIndex = new ConcurrentHashMap<>();
+    private final List<String> codes = new ArrayList<>();
+
+    // Incremented by every reader; writers stamp the buckets they touch with the current value
+    private final AtomicLong version = new AtomicLong(1);
+    // Highest version any bucket was stamped with, to tell cheaply whether anything changed
+    private final AtomicLong lastModifiedVersion = new AtomicLong();
+    private volatile long firstTimestamp = Long.MAX_VALUE;
+    private volatile long lastTimestamp = Long.MIN_VALUE;
+    // Samples too far in time from the others of their label, e.g. with a timestamp of 0
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Creates an aggregator
+     * @param bucketMillis Width of a time bucket in milliseconds
+     * @param relativeError Relative error of the latency histograms, e.g. 0.01 for 1%
+     */
+    public SampleAggregator(long bucketMillis, double relativeError) {
+        this(bucketMillis, relativeError, null);
+    }
+
+    /**
+     * Creates an aggregator whose labels go through a dictionary, for samples and merged aggregates
+     * @param labels Dictionary normalizing and bounding the labels, or null
+     */
+    SampleAggregator(long bucketMillis, double relativeError, LabelDictionary labels) {
+        this.labels = labels;
+        this.bucketMillis = Math.max(1, bucketMillis);
+        this.relativeError = relativeError;
+    }
+
+    /**
+     * Dictionary of the labels, or null if labels are aggregated as they are
+     */
+    LabelDictionary getLabelDictionary() {
+        return labels;
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+
+    /**
+     * Adds one sample. Called concurrently from sampler threads; only the series of the sample's label is locked.
+     */
+    public void add(SampleResult result) {
+        add(result.getSampleLabel(), result.getTimeStamp(), result.getTime(), result.isSuccessful(),
+            result.getResponseCode(), result.getResponseMessage(), result.getBytesAsLong(),
+            result.getConnectTime(), result.getLatency(), result.getAllThreads());
+    }
+
+    /**
+     * Adds one sample from its individual values
+     */
+    public void add(String label, long timeStamp, long elapsed, boolean success, String responseCode,
+                    String responseMessage, long bytes, long connectTime, long latency, int allThreads) {
+        String key = label != null ? label : "";
+        LabelSeries labelSeries = seriesFor(labels != null ? labels.resolve(key, 1) : key);
+        int code = codeIndexFor(responseCode != null ? responseCode : "");
+        if (!labelSeries.add(Math.floorDiv(timeStamp, bucketMillis), elapsed, success, code, responseMessage,
+                             bytes, connectTime, latency, allThreads)) {
+            if (droppedCount.getAndIncrement() == 0) {
+                log.warn("Dropping samples more than {} buckets away from the others of their label, first {} at {}",
+                    MAX_SPAN_BUCKETS, key, timeStamp);
+            }
+            return;
+        }
+        updateTimeline(timeStamp);
+        long current = version.get();
+        if (lastModifiedVersion.get() < current) {
+            lastModifiedVersion.accumulateAndGet(current, Math::max);
+        }
+    }
+
+    /**
+     * Number of samples dropped because their bucket was more than 2^20 buckets away from the others of their label
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * True if a bucket changed since the given version, i.e. {@link #toJson} would return buckets
+     */
+    public boolean hasChangesSince(long since) {
+        return lastModifiedVersion.get() >= since;
+    }
+
+    /**
+     * Start of the last sample in epoch milliseconds, Long.MIN_VALUE before the first sample
+     */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Rounds a period up to a whole number of buckets
+     */
+    public long alignPeriod(long periodMillis) {
+        return Math.max(1, (periodMillis + bucketMillis - 1) / bucketMillis) * bucketMillis;
+    }
+
+    private void updateTimeline(long timeStamp) {
+        if (timeStamp < firstTimestamp || timeStamp > lastTimestamp) {
+            synchronized (this) {
+                if (timeStamp < firstTimestamp) {
+                    firstTimestamp = timeStamp;
+                }
+                if (timeStamp > lastTimestamp) {
+                    lastTimestamp = timeStamp;
+                }
+            }
+        }
+    }
+
+    private LabelSeries seriesFor(String label) {
+        LabelSeries labelSeries = seriesByLabel.get(label);
+        if (labelSeries == null) {
+            synchronized (series) {
+                labelSeries = seriesByLabel.get(label);
+                if (labelSeries == null) {
+                    labelSeries = new LabelSeries(series.size(), label);
+                    series.add(labelSeries);
+                    seriesByLabel.put(label, labelSeries);
+                }
+            }
+        }
+        return labelSeries;
+    }
+
+    private int codeIndexFor(String code) {
+        Integer index = codeIndex.get(code);
+        if (index == null) {
+            synchronized (codes) {
+                index = codeIndex.get(code);
+                if (index == null) {
+                    index = codes.size();
+                    codes.add(code);
+                    codeIndex.put(code, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds everything another aggregator with the same bucket width collected, e.g. the partial aggregate of
+     * one part of a file. Labels and response codes new to this aggregator are appended in the other's order, so
+     * merging partials in file order gives the same result as adding their samples here. Bucket histograms are
+     * moved rather than copied where this aggregator has none yet, so the other aggregator must not change
+     * meanwhile and must not be used afterwards.
+     */
+    public void merge(SampleAggregator other) {
+        if (!canMerge(other)) {
+            throw new IllegalArgumentException("Cannot merge aggregators with different bucket widths or errors");
+        }
+        List<String> otherCodes;
+        synchronized (other.codes) {
+            otherCodes = new ArrayList<>(other.codes);
+        }
+        int[] codeMap = new int[otherCodes.size()];
+        for (int i = 0; i < codeMap.length; i++) {
+            codeMap[i] = codeIndexFor(otherCodes.get(i));
+        }
+        for (LabelSeries otherSeries : other.snapshotSeries()) {
+            String label = labels != null ? labels.resolve(otherSeries.label, otherSeries.totals()[0]) : otherSeries.label;
+            seriesFor(label).merge(otherSeries, codeMap);
+        }
+        if (other.firstTimestamp <= other.lastTimestamp) {
+            updateTimeline(other.firstTimestamp);
+            updateTimeline(other.lastTimestamp);
+        }
+        long current = version.get();
+        if (lastModifiedVersion.get() < current) {
+            lastModifiedVersion.accumulateAndGet(current, Math::max);
+        }
+    }
+
+    /**
+     * True if the other aggregator has the same bucket width and histogram error, so it can be merged
+     */
+    boolean canMerge(SampleAggregator other) {
+        return other.bucketMillis == bucketMillis && other.relativeError == relativeError;
+    }
+
+    /**
+     * True if no sample was added (or merged) yet
+     */
+    public boolean isEmpty() {
+        for (LabelSeries labelSeries : snapshotSeries()) {
+            if (!labelSeries.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves everything collected so far into a new aggregator and starts over empty, e.g. to ship the samples of
+     * an interval. Labels, response codes and the timeline are kept. Each label is moved under its lock, so a
+     * sample added concurrently is either in the returned aggregator or in this one, never lost.
+     */
+    public SampleAggregator drain() {
+        SampleAggregator drained = new SampleAggregator(bucketMillis, relativeError);
+        for (LabelSeries labelSeries : snapshotSeries()) {
+            labelSeries.moveTo(drained.seriesFor(labelSeries.label));
+        }
+        // After moving: the codes of all moved samples were registered before they were added
+        synchronized (codes) {
+            for (String code : codes) {
+                drained.codeIndexFor(code);
+            }
+        }
+        drained.firstTimestamp = firstTimestamp;
+        drained.lastTimestamp = lastTimestamp;
+        return drained;
+    }
+
+    /**
+     * Writes the aggregates compactly (see {@link #readFrom}): the non-empty buckets of every label with their
+     * histograms and response code counts, and the errors. The size grows with the number of labels and
+     * buckets and the range of the latencies, not with the number of samples. Meant for aggregators that no longer
+     * change, e.g. one returned by {@link #drain}: response codes first seen while writing are left out.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(ENCODING_MAGIC);
+        out.writeLong(bucketMillis);
+        out.writeDouble(relativeError);
+        out.writeLong(firstTimestamp);
+        out.writeLong(lastTimestamp);
+        List<String> codesSnapshot;
+        synchronized (codes) {
+            codesSnapshot = new ArrayList<>(codes);
+        }
+        VarInts.writeLong(out, codesSnapshot.size());
+        for (String code : codesSnapshot) {
+            out.writeUTF(truncate(code));
+        }
+        // Labels without samples (e.g. idle during the interval of a drained aggregator) are left out
+        List<LabelSeries> seriesSnapshot = new ArrayList<>();
+        for (LabelSeries labelSeries : snapshotSeries()) {
+            if (!labelSeries.isEmpty()) {
+                seriesSnapshot.add(labelSeries);
+            }
+        }
+        VarInts.writeLong(out, seriesSnapshot.size());
+        for (LabelSeries labelSeries : seriesSnapshot) {
+            labelSeries.writeTo(out, codesSnapshot.size());
+        }
+    }
+
+    /**
+     * Reads aggregates written by {@link #writeTo} into a new aggregator
+     * @throws IOException If the data is not such an encoding or is truncated
+     */
+    public static SampleAggregator readFrom(DataInput in) throws IOException {
+        if (in.readInt() != ENCODING_MAGIC) {
+            throw new IOException("Not an encoded sample aggregate");
+        }
+        long bucketMillis = in.readLong();
+        double relativeError = in.readDouble();
+        if (bucketMillis < 1 || !(relativeError > 0 && relativeError < 1)) {
+            throw new IOException("Invalid sample aggregate settings");
+        }
+        SampleAggregator aggregator = new SampleAggregator(bucketMillis, relativeError);
+        long first = in.readLong();
+        long last = in.readLong();
+        if (first <= last) {
+            aggregator.updateTimeline(first);
+            aggregator.updateTimeline(last);
+        }
+        int codeCount = VarInts.readCount(in, 1 << 20);
+        for (int i = 0; i < codeCount; i++) {
+            aggregator.codeIndexFor(in.readUTF());
+        }
+        int seriesCount = VarInts.readCount(in, 1 << 20);
+        for (int i = 0; i < seriesCount; i++) {
+            aggregator.seriesFor(in.readUTF()).readFrom(in, codeCount);
+        }
+        return aggregator;
+    }
+
+    private static String truncate(String value) {
+        return value.length() > MAX_ENCODED_STRING ? value.substring(0, MAX_ENCODED_STRING) : value;
+    }
+
+    /**
+     * Adds the whole-test totals of all labels to a quality gate evaluator, e.g. for aggregates received from
+     * another JVM instead of samples
+     * @return Number of samples added
+     */
+    public long addTo(QualityGateEvaluator evaluator) {
+        long[] overall = {0, 0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0};
+        LatencyHistogram latencies = new LatencyHistogram(relativeError);
+        for (LabelSeries labelSeries : snapshotSeries()) {
+            long[] totals = labelSeries.totals();
+            overall[0] += totals[0];
+            overall[1] += totals[1];
+            overall[2] += totals[2];
+            overall[3] = Math.min(overall[3], totals[3]);
+            overall[4] = Math.max(overall[4], totals[4]);
+            labelSeries.mergeHistogram(latencies, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+        if (overall[0] > 0) {
+            evaluator.addAggregate(overall[0], overall[1], overall[2], overall[3], overall[4], firstTimestamp,
+                lastTimestamp, latencies);
+        }
+        return overall[0];
+    }
+
+    /**
+     * Serializes all buckets changed since the given version as compact JSON.
+     * Each bucket is an array: [labelIndex, startMs, count, errors, elapsedSum, elapsedMin, elapsedMax,
+     * bytes, connectSum, latencySum, maxThreads, [codeIndex, count, ...]].
+     * Each error entry is [labelIndex, codeIndex, count, firstMessage] covering the whole test.
+     * The returned "version" is passed as "since" by the next request.
+     * @param since Version returned by the previous request, 0 for everything
+     * @param generation Identifier of the test run the aggregator belongs to
+     */
+    public String toJson(long since, long generation) {
+        StringBuilder json = new StringBuilder(4096);
+        appendJson(json, since, generation);
+        return json.toString();
+    }
+
+    /**
+     * Appends the JSON of {@link #toJson} to a builder
+     * @return The version to pass as "since" next time
+     */
+    public long appendJson(StringBuilder json, long since, long generation) {
+        long current = version.incrementAndGet();
+        List<LabelSeries> seriesSnapshot = snapshotSeries();
+
+        StringBuilder buckets = new StringBuilder(4096);
+        boolean first = true;
+        for (LabelSeries labelSeries : seriesSnapshot) {
+            first = labelSeries.appendBuckets(buckets, since, first);
+        }
+        StringBuilder errors = new StringBuilder();
+        first = true;
+        for (LabelSeries labelSeries : seriesSnapshot) {
+            first = labelSeries.appendErrors(errors, first);
+        }
+        // Codes only grow, so a snapshot taken now covers every code index referenced above
+        List<String> codesSnapshot;
+        synchronized (codes) {
+            codesSnapshot = new ArrayList<>(codes);
+        }
+
+        json.ensureCapacity(json.length() + buckets.length() + errors.length() + 1024);
+        json.append("{\"generation\":").append(generation)
+            .append(",\"version\":").append(current)
+            .append(",\"bucketMs\":").append(bucketMillis);
+        if (firstTimestamp != Long.MAX_VALUE) {
+            json.append(",\"start\":").append(firstTimestamp).append(",\"end\":").append(lastTimestamp);
+        }
+        json.append(",\"labels\":[");
+        for (int i = 0; i < seriesSnapshot.size(); i++) {
+            if (i > 0) json.append(',');
+            appendJsonString(json, seriesSnapshot.get(i).label);
+        }
+        json.append("],\"codes\":[");
+        for (int i = 0; i < codesSnapshot.size(); i++) {
+            if (i > 0) json.append(',');
+            appendJsonString(json, codesSnapshot.get(i));
+        }
+        json.append("],\"buckets\":[").append(buckets)
+            .append("],\"errors\":[").append(errors)
+            .append("]}");
+        return current;
+    }
+
+    /**
+     * Merges the latency histograms of a label (or of all labels if label is null) over the buckets
+     * starting in [from, to)
+     */
+    public LatencyHistogram getHistogram(String label, long from, long to) {
+        LatencyHistogram merged = new LatencyHistogram(relativeError);
+        for (LabelSeries labelSeries : snapshotSeries()) {
+            if (label == null || label.equals(labelSeries.label)) {
+                labelSeries.mergeHistogram(merged, from, to);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Serializes percentiles as JSON: whole-test values overall and per label, and overall values per time period
+     * for periods starting at or after "from". Values are [count, p1, p2, ...] in the order of the requested percentiles.
+     * Cost depends on the number of buckets and histogram width, not on the number of samples.
+     * @param percentiles Percentiles to report (0-100)
+     * @param periodMillis Width of the reported time periods (rounded up to a multiple of the bucket width)
+     * @param from Start of the first reported period in epoch milliseconds
+     */
+    public String percentilesToJson(double[] percentiles, long periodMillis, long from) {
+        long period = alignPeriod(periodMillis);
+        List<LabelSeries> seriesSnapshot = snapshotSeries();
+
+        LatencyHistogram overall = new LatencyHistogram(relativeError);
+        Map<Long, LatencyHistogram> periods = new TreeMap<>();
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\"relativeError\":").append(relativeError)
+            .append(",\"periodMs\":").append(period)
+            .append(",\"percentiles\":[");
+        for (int i = 0; i < percentiles.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(percentiles[i]);
+        }
+        json.append("],\"labels\":{");
+        for (int i = 0; i < seriesSnapshot.size(); i++) {
+            LabelSeries labelSeries = seriesSnapshot.get(i);
+            LatencyHistogram labelHistogram = labelSeries.mergeByPeriod(periods, period, from);
+            overall.merge(labelHistogram);
+            if (i > 0) json.append(',');
+            appendJsonString(json, labelSeries.label);
+            json.append(':');
+            appendPercentiles(json, labelHistogram, percentiles);
+        }
+        json.append("},\"overall\":");
+        appendPercentiles(json, overall, percentiles);
+        json.append(",\"periods\":[");
+        boolean first = true;
+        for (Map.Entry<Long, LatencyHistogram> entry : periods.entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            json.append('[').append(entry.getKey()).append(',');
+            appendPercentiles(json, entry.getValue(), percentiles);
+            json.append(']');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Serializes whole-test statistics per label and overall, as in the statistics table of the dashboard:
+     * samples, errors, error rate (%), average, min and max response time, the requested percentiles, throughput
+     * (samples per second between the first and the last sample start) and received KB/s.
+     * @param percentiles Percentiles to report (0-100), in the "percentiles" array of every entry
+     */
+    public String summaryToJson(double[] percentiles) {
+        List<LabelSeries> seriesSnapshot = snapshotSeries();
+        long start = firstTimestamp;
+        long durationMillis = start != Long.MAX_VALUE ? lastTimestamp - start : 0;
+        long[] overall = {0, 0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0};
+        LatencyHistogram overallHistogram = new LatencyHistogram(relativeError);
+
+        StringBuilder json = new StringBuilder(512 + seriesSnapshot.size() * 256);
+        json.append('{');
+        if (start != Long.MAX_VALUE) {
+            json.append("\"start\":").append(start).append(",\"end\":").append(lastTimestamp).append(',');
+        }
+        json.append("\"durationMs\":").append(durationMillis).append(",\"percentiles\":[");
+        for (int i = 0; i < percentiles.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(percentiles[i]);
+        }
+        json.append("],\"labels\":[");
+        for (int i = 0; i < seriesSnapshot.size(); i++) {
+            LabelSeries labelSeries = seriesSnapshot.get(i);
+            long[] totals = labelSeries.totals();
+            LatencyHistogram histogram = new LatencyHistogram(relativeError);
+            labelSeries.mergeHistogram(histogram, Long.MIN_VALUE, Long.MAX_VALUE);
+            overallHistogram.merge(histogram);
+            overall[0] += totals[0];
+            overall[1] += totals[1];
+            overall[2] += totals[2];
+            overall[3] = Math.min(overall[3], totals[3]);
+            overall[4] = Math.max(overall[4], totals[4]);
+            overall[5] += totals[5];
+            if (i > 0) json.append(',');
+            appendSummary(json, labelSeries.label, totals, histogram, percentiles, durationMillis);
+        }
+        json.append("],\"overall\":");
+        appendSummary(json, null, overall, overallHistogram, percentiles, durationMillis);
+        return json.append('}').toString();
+    }
+
+    /**
+     * @param totals {count, errors, elapsedSum, elapsedMin, elapsedMax, bytes}
+     */
+    private static void appendSummary(StringBuilder json, String label, long[] totals, LatencyHistogram histogram,
+                                      double[] percentiles, long durationMillis) {
+        long count = totals[0];
+        json.append('{');
+        if (label != null) {
+            json.append("\"label\":");
+            appendJsonString(json, label);
+            json.append(',');
+        }
+        json.append("\"samples\":").append(count)
+            .append(",\"errors\":").append(totals[1])
+            .append(",\"errorRate\":").append(count > 0 ? round(totals[1] * 100.0 / count) : 0)
+            .append(",\"avg\":").append(count > 0 ? round((double) totals[2] / count) : 0)
+            .append(",\"min\":").append(count > 0 ? totals[3] : 0)
+            .append(",\"max\":").append(count > 0 ? totals[4] : 0)
+            .append(",\"percentiles\":[");
+        for (int i = 0; i < percentiles.length; i++) {
+            if (i > 0) json.append(',');
+            json.append(Math.round(histogram.getPercentile(percentiles[i])));
+        }
+        json.append("],\"throughput\":").append(durationMillis > 0 ? round(count * 1000.0 / durationMillis) : 0)
+            .append(",\"receivedKBps\":").append(durationMillis > 0 ? round(totals[5] / 1.024 / durationMillis) : 0)
+            .append('}');
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    private static void appendPercentiles(StringBuilder json, LatencyHistogram histogram, double[] percentiles) {
+        json.append('[').append(histogram.getCount());
+        for (double percentile : percentiles) {
+            json.append(',').append(Math.round(histogram.getPercentile(percentile)));
+        }
+        json.append(']');
+    }
+
+    /**
+     * Appends the whole-test counters of every label in the Prometheus text exposition format: samples, errors
+     * and received bytes as counters and the response times as a histogram in seconds. Each label is locked
+     * once, to copy its running totals and the cumulative counts of its histogram; the text is formatted from
+     * the copies, so samples are not held up by a scrape and its cost does not grow with the test length.
+     * @param run Value of the "run" label of every series
+     * @param boundsMillis Increasing upper bounds of the histogram buckets in milliseconds, without +Inf
+     */
+    void appendMetrics(StringBuilder out, String run, double[] boundsMillis) {
+        String[] bounds = new String[boundsMillis.length];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = Double.toString(boundsMillis[i] / 1000);
+        }
+        LabelSeries[] snapshot;
+        synchronized (series) {
+            snapshot = series.toArray(new LabelSeries[0]);
+        }
+        // Per label: samples, errors, received bytes, elapsed sum, then the cumulative count of each bound
+        int stride = 4 + bounds.length;
+        long[] values = new long[snapshot.length * stride];
+        long[] cumulative = new long[bounds.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i].copyMetrics(values, i * stride, boundsMillis, cumulative);
+        }
+        String[] names = {"jmeter_samples_total", "jmeter_errors_total", "jmeter_received_bytes_total"};
+        String[] help = {"Samples of the label", "Failed samples of the label",
+            "Bytes received by the samples of the label"};
+        for (int counter = 0; counter < names.length; counter++) {
+            appendMetricHeader(out, names[counter], "counter", help[counter]);
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i].appendSeries(out, names[counter], run).append(values[i * stride + counter]).append('\n');
+            }
+        }
+        String histogram = "jmeter_response_time_seconds";
+        appendMetricHeader(out, histogram, "histogram", "Response times of the label");
+        for (int i = 0; i < snapshot.length; i++) {
+            int offset = i * stride;
+            for (int b = 0; b < bounds.length; b++) {
+                snapshot[i].appendSeries(out, histogram + "_bucket", run, bounds[b]).append(values[offset + 4 + b])
+                    .append('\n');
+            }
+            snapshot[i].appendSeries(out, histogram + "_bucket", run, "+Inf").append(values[offset]).append('\n');
+            snapshot[i].appendSeries(out, histogram + "_sum", run).append(values[offset + 3] / 1000.0).append('\n');
+            snapshot[i].appendSeries(out, histogram + "_count", run).append(values[offset]).append('\n');
+        }
+    }
+
+    /**
+     * Most threads of all thread groups reported by the samples of the latest bucket, 0 without samples
+     */
+    int getLatestThreads() {
+        long last = lastTimestamp;
+        if (last == Long.MIN_VALUE) {
+            return 0;
+        }
+        long bucket = Math.floorDiv(last, bucketMillis);
+        int threads = 0;
+        synchronized (series) {
+            for (int i = 0; i < series.size(); i++) {
+                threads = Math.max(threads, series.get(i).threadsAt(bucket));
+            }
+        }
+        return threads;
+    }
+
+    static void appendMetricHeader(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+            .append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Appends a label of a series, escaped as the exposition format requires
+     */
+    static void appendMetricLabel(StringBuilder out, String name, String value) {
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                default: out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static long[] newTotals() {
+        return new long[] {0, 0, 0, Long.MAX_VALUE, Long.MIN_VALUE, 0};
+    }
+
+    private List<LabelSeries> snapshotSeries() {
+        synchronized (series) {
+            return new ArrayList<>(series);
+        }
+    }
+
+    static void appendJsonString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': json.append("\\\""); break;
+                case '\\': json.append("\\\\"); break;
+                case '\n': json.append("\\n"); break;
+                case '\r': json.append("\\r"); break;
+                case '\t': json.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Counters of one label. Bucket arrays are indexed relative to baseBucket and grow in both directions,
+     * because samples from different threads do not arrive in timestamp order.
+     */
+    private final class LabelSeries {
+        private final int index;
+        private final String label;
+
+        private long baseBucket = Long.MIN_VALUE;
+        private int size = 0;
+        private long[] modified = new long[0];
+        private long[] count = new long[0];
+        private long[] errors = new long[0];
+        private long[] elapsedSum = new long[0];
+        private long[] elapsedMin = new long[0];
+        private long[] elapsedMax = new long[0];
+        private long[] bytes = new long[0];
+        private long[] connectSum = new long[0];
+        private long[] latencySum = new long[0];
+        private int[] maxThreads = new int[0];
+        private LatencyHistogram[] histograms = new LatencyHistogram[0];
+        private LatencyHistogram totalHistogram = new LatencyHistogram(relativeError);
+        // Running whole-test totals, in the order of totals()
+        private long[] wholeTest = newTotals();
+        // codeCounts[code][bucket], allocated when a code is first seen in this series
+        private long[][] codeCounts = new long[0][];
+        // Whole-test failures per response code: count and first failure message
+        private final Map<Integer, long[]> errorCounts = new LinkedHashMap<>();
+        private final Map<Integer, String> errorMessages = new LinkedHashMap<>();
+
+        LabelSeries(int index, String label) {
+            this.index = index;
+            this.label = label;
+        }
+
+        /**
+         * Adds one sample, unless its bucket would make the series span more than MAX_SPAN_BUCKETS
+         * @return False if the sample was left out
+         */
+        synchronized boolean add(long bucket, long elapsed, boolean success, int code, String message,
+                                 long sampleBytes, long connectTime, long latency, int allThreads) {
+            if (!fits(bucket)) {
+                return false;
+            }
+            int slot = slotFor(bucket);
+            modified[slot] = version.get();
+            if (count[slot] == 0 || elapsed < elapsedMin[slot]) {
+                elapsedMin[slot] = elapsed;
+            }
+            if (elapsed > elapsedMax[slot]) {
+                elapsedMax[slot] = elapsed;
+            }
+            count[slot]++;
+            elapsedSum[slot] += elapsed;
+            bytes[slot] += sampleBytes;
+            connectSum[slot] += connectTime;
+            latencySum[slot] += latency;
+            if (allThreads > maxThreads[slot]) {
+                maxThreads[slot] = allThreads;
+            }
+            if (histograms[slot] == null) {
+                histograms[slot] = new LatencyHistogram(relativeError);
+            }
+            histograms[slot].add(elapsed);
+            totalHistogram.add(elapsed);
+            addTotals(1, success ? 0 : 1, elapsed, elapsed, elapsed, sampleBytes);
+            codeCountsFor(code)[slot]++;
+            if (!success) {
+                errors[slot]++;
+                errorCounts.computeIfAbsent(code, k -> new long[1])[0]++;
+                errorMessages.putIfAbsent(code, message != null && !message.isEmpty() ? message : "No failure message");
+            }
+            return true;
+        }
+
+        /**
+         * Adds the buckets and errors of another aggregator's series of the same label, taking over its bucket
+         * histograms where this series has none
+         * @param codeMap Index in this aggregator of each response code index of the other one
+         */
+        synchronized void merge(LabelSeries other, int[] codeMap) {
+            synchronized (other) {
+                if (other.size > 0) {
+                    // Allocate both ends first, so the slots do not move while copying
+                    slotFor(other.baseBucket);
+                    slotFor(other.baseBucket + other.size - 1);
+                    int offset = (int) (other.baseBucket - baseBucket);
+                    int otherSlot = 0;
+                    while (otherSlot < other.size) {
+                        if (count[offset + otherSlot] != 0) {
+                            mergeSlot(other, otherSlot, offset + otherSlot, codeMap);
+                            otherSlot++;
+                        } else {
+                            // Runs of buckets this series has no samples in, usually all of them for the partials
+                            // of consecutive parts of a file, are copied as a whole
+                            int runEnd = otherSlot + 1;
+                            while (runEnd < other.size && count[offset + runEnd] == 0) {
+                                runEnd++;
+                            }
+                            copySlots(other, otherSlot, offset + otherSlot, runEnd - otherSlot, codeMap);
+                            otherSlot = runEnd;
+                        }
+                    }
+                }
+                totalHistogram.merge(other.totalHistogram);
+                long[] otherTotals = other.wholeTest;
+                if (otherTotals[0] > 0) {
+                    addTotals(otherTotals[0], otherTotals[1], otherTotals[2], otherTotals[3], otherTotals[4],
+                        otherTotals[5]);
+                }
+                for (Map.Entry<Integer, long[]> entry : other.errorCounts.entrySet()) {
+                    int code = codeMap[entry.getKey()];
+                    errorCounts.computeIfAbsent(code, k -> new long[1])[0] += entry.getValue()[0];
+                    errorMessages.putIfAbsent(code, other.errorMessages.get(entry.getKey()));
+                }
+            }
+        }
+
+        private void mergeSlot(LabelSeries other, int otherSlot, int slot, int[] codeMap) {
+            if (other.count[otherSlot] == 0) {
+                return;
+            }
+            modified[slot] = version.get();
+            elapsedMin[slot] = Math.min(elapsedMin[slot], other.elapsedMin[otherSlot]);
+            elapsedMax[slot] = Math.max(elapsedMax[slot], other.elapsedMax[otherSlot]);
+            count[slot] += other.count[otherSlot];
+            errors[slot] += other.errors[otherSlot];
+            elapsedSum[slot] += other.elapsedSum[otherSlot];
+            bytes[slot] += other.bytes[otherSlot];
+            connectSum[slot] += other.connectSum[otherSlot];
+            latencySum[slot] += other.latencySum[otherSlot];
+            maxThreads[slot] = Math.max(maxThreads[slot], other.maxThreads[otherSlot]);
+            if (histograms[slot] == null) {
+                histograms[slot] = other.histograms[otherSlot];
+                other.histograms[otherSlot] = null;
+            } else {
+                histograms[slot].merge(other.histograms[otherSlot]);
+            }
+            for (int otherCode = 0; otherCode < other.codeCounts.length; otherCode++) {
+                long[] otherCounts = other.codeCounts[otherCode];
+                if (otherCounts != null && otherCounts[otherSlot] != 0) {
+                    codeCountsFor(codeMap[otherCode])[slot] += otherCounts[otherSlot];
+                }
+            }
+        }
+
+        /**
+         * Copies buckets to empty slots of this series
+         */
+        private void copySlots(LabelSeries other, int otherSlot, int slot, int length, int[] codeMap) {
+            Arrays.fill(modified, slot, slot + length, version.get());
+            System.arraycopy(other.count, otherSlot, count, slot, length);
+            System.arraycopy(other.errors, otherSlot, errors, slot, length);
+            System.arraycopy(other.elapsedSum, otherSlot, elapsedSum, slot, length);
+            System.arraycopy(other.elapsedMin, otherSlot, elapsedMin, slot, length);
+            System.arraycopy(other.elapsedMax, otherSlot, elapsedMax, slot, length);
+            System.arraycopy(other.bytes, otherSlot, bytes, slot, length);
+            System.arraycopy(other.connectSum, otherSlot, connectSum, slot, length);
+            System.arraycopy(other.latencySum, otherSlot, latencySum, slot, length);
+            System.arraycopy(other.maxThreads, otherSlot, maxThreads, slot, length);
+            System.arraycopy(other.histograms, otherSlot, histograms, slot, length);
+            Arrays.fill(other.histograms, otherSlot, otherSlot + length, null);
+            for (int otherCode = 0; otherCode < other.codeCounts.length; otherCode++) {
+                if (other.codeCounts[otherCode] != null) {
+                    System.arraycopy(other.codeCounts[otherCode], otherSlot, codeCountsFor(codeMap[otherCode]), slot, length);
+                }
+            }
+        }
+
+        private long[] codeCountsFor(int code) {
+            if (code >= codeCounts.length) {
+                codeCounts = Arrays.copyOf(codeCounts, code + 1);
+            }
+            if (codeCounts[code] == null) {
+                codeCounts[code] = new long[modified.length];
+            }
+            return codeCounts[code];
+        }
+
+        synchronized boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * Moves all buckets and errors to an empty series of another aggregator, leaving this one empty
+         */
+        synchronized void moveTo(LabelSeries target) {
+            target.baseBucket = baseBucket;
+            target.size = size;
+            target.modified = modified;
+            target.count = count;
+            target.errors = errors;
+            target.elapsedSum = elapsedSum;
+            target.elapsedMin = elapsedMin;
+            target.elapsedMax = elapsedMax;
+            target.bytes = bytes;
+            target.connectSum = connectSum;
+            target.latencySum = latencySum;
+            target.maxThreads = maxThreads;
+            target.histograms = histograms;
+            target.totalHistogram = totalHistogram;
+            target.wholeTest = wholeTest;
+            target.codeCounts = codeCounts;
+            target.errorCounts.putAll(errorCounts);
+            target.errorMessages.putAll(errorMessages);
+            baseBucket = Long.MIN_VALUE;
+            size = 0;
+            modified = new long[0];
+            count = new long[0];
+            errors = new long[0];
+            elapsedSum = new long[0];
+            elapsedMin = new long[0];
+            elapsedMax = new long[0];
+            bytes = new long[0];
+            connectSum = new long[0];
+            latencySum = new long[0];
+            maxThreads = new int[0];
+            histograms = new LatencyHistogram[0];
+            totalHistogram = new LatencyHistogram(relativeError);
+            wholeTest = newTotals();
+            codeCounts = new long[0][];
+            errorCounts.clear();
+            errorMessages.clear();
+        }
+
+        synchronized void writeTo(DataOutput out, int codeCount) throws IOException {
+            out.writeUTF(truncate(label));
+            int buckets = 0;
+            for (int slot = 0; slot < size; slot++) {
+                if (count[slot] > 0) {
+                    buckets++;
+                }
+            }
+            VarInts.writeLong(out, buckets);
+            for (int slot = 0; slot < size; slot++) {
+                if (count[slot] == 0) {
+                    continue;
+                }
+                VarInts.writeSignedLong(out, baseBucket + slot);
+                VarInts.writeLong(out, count[slot]);
+                VarInts.writeLong(out, errors[slot]);
+                VarInts.writeLong(out, elapsedSum[slot]);
+                VarInts.writeSignedLong(out, elapsedMin[slot]);
+                VarInts.writeSignedLong(out, elapsedMax[slot]);
+                VarInts.writeLong(out, bytes[slot]);
+                VarInts.writeLong(out, connectSum[slot]);
+                VarInts.writeLong(out, latencySum[slot]);
+                VarInts.writeLong(out, maxThreads[slot]);
+                int codesInSlot = 0;
+                for (int code = 0; code < Math.min(codeCount, codeCounts.length); code++) {
+                    if (codeCounts[code] != null && codeCounts[code][slot] > 0) {
+                        codesInSlot++;
+                    }
+                }
+                VarInts.writeLong(out, codesInSlot);
+                for (int code = 0; code < Math.min(codeCount, codeCounts.length); code++) {
+                    if (codeCounts[code] != null && codeCounts[code][slot] > 0) {
+                        VarInts.writeLong(out, code);
+                        VarInts.writeLong(out, codeCounts[code][slot]);
+                    }
+                }
+                histograms[slot].writeTo(out);
+            }
+            // Codes registered after the caller's snapshot belong to samples added meanwhile, left out
+            int errorEntries = 0;
+            for (Integer code : errorCounts.keySet()) {
+                if (code < codeCount) {
+                    errorEntries++;
+                }
+            }
+            VarInts.writeLong(out, errorEntries);
+            for (Map.Entry<Integer, long[]> entry : errorCounts.entrySet()) {
+                if (entry.getKey() >= codeCount) {
+                    continue;
+                }
+                VarInts.writeLong(out, entry.getKey());
+                VarInts.writeLong(out, entry.getValue()[0]);
+                out.writeUTF(truncate(errorMessages.get(entry.getKey())));
+            }
+        }
+
+        /**
+         * Reads the buckets and errors written by {@link #writeTo} into this (empty) series
+         */
+        synchronized void readFrom(DataInput in, int codeCount) throws IOException {
+            int buckets = VarInts.readCount(in, Integer.MAX_VALUE);
+            for (int i = 0; i < buckets; i++) {
+                long bucket = VarInts.readSignedLong(in);
+                if (!fits(bucket)) {
+                    throw new IOException("Buckets of " + label + " span too long a time");
+                }
+                int slot = slotFor(bucket);
+                modified[slot] = version.get();
+                count[slot] = VarInts.readLong(in);
+                errors[slot] = VarInts.readLong(in);
+                elapsedSum[slot] = VarInts.readLong(in);
+                elapsedMin[slot] = VarInts.readSignedLong(in);
+                elapsedMax[slot] = VarInts.readSignedLong(in);
+                bytes[slot] = VarInts.readLong(in);
+                connectSum[slot] = VarInts.readLong(in);
+                latencySum[slot] = VarInts.readLong(in);
+                maxThreads[slot] = (int) VarInts.readLong(in);
+                int codesInSlot = VarInts.readCount(in, codeCount);
+                for (int j = 0; j < codesInSlot; j++) {
+                    int code = VarInts.readCount(in, codeCount - 1);
+                    codeCountsFor(code)[slot] = VarInts.readLong(in);
+                }
+                histograms[slot] = LatencyHistogram.readFrom(in, relativeError);
+                totalHistogram.merge(histograms[slot]);
+                if (count[slot] > 0) {
+                    addTotals(count[slot], errors[slot], elapsedSum[slot], elapsedMin[slot], elapsedMax[slot],
+                        bytes[slot]);
+                }
+            }
+            int errorEntries = VarInts.readCount(in, codeCount);
+            for (int i = 0; i < errorEntries; i++) {
+                int code = VarInts.readCount(in, codeCount - 1);
+                errorCounts.computeIfAbsent(code, k -> new long[1])[0] += VarInts.readLong(in);
+                errorMessages.putIfAbsent(code, in.readUTF());
+            }
+        }
+
+        /**
+         * True if the bucket arrays can take the bucket without spanning more than MAX_SPAN_BUCKETS,
+         * which also keeps the slot indexes within an int
+         */
+        private boolean fits(long bucket) {
+            return size == 0
+                || bucket >= baseBucket + size - MAX_SPAN_BUCKETS && bucket < baseBucket + MAX_SPAN_BUCKETS;
+        }
+
+        private int slotFor(long bucket) {
+            if (size == 0) {
+                baseBucket = bucket;
+                resize(INITIAL_BUCKETS, 0);
+                size = 1;
+                return 0;
+            }
+            if (bucket < baseBucket) {
+                int shift = (int) (baseBucket - bucket);
+                resize(Math.max(modified.length, size + shift) + INITIAL_BUCKETS, shift);
+                baseBucket = bucket;
+                size += shift;
+                return 0;
+            }
+            long slot = bucket - baseBucket;
+            if (slot >= modified.length) {
+                resize((int) Math.max(modified.length * 2L, slot + INITIAL_BUCKETS), 0);
+            }
+            if (slot >= size) {
+                size = (int) slot + 1;
+            }
+            return (int) slot;
+        }
+
+        /**
+         * Reallocates all bucket arrays to newLength, moving existing slots up by shift
+         */
+        private void resize(int newLength, int shift) {
+            modified = grow(modified, newLength, shift);
+            count = grow(count, newLength, shift);
+            errors = grow(errors, newLength, shift);
+            elapsedSum = grow(elapsedSum, newLength, shift);
+            elapsedMin = grow(elapsedMin, newLength, shift);
+            elapsedMax = grow(elapsedMax, newLength, shift);
+            bytes = grow(bytes, newLength, shift);
+            connectSum = grow(connectSum, newLength, shift);
+            latencySum = grow(latencySum, newLength, shift);
+            int[] threads = new int[newLength];
+            System.arraycopy(maxThreads, 0, threads, shift, Math.min(maxThreads.length, newLength - shift));
+            maxThreads = threads;
+            LatencyHistogram[] grownHistograms = new LatencyHistogram[newLength];
+            System.arraycopy(histograms, 0, grownHistograms, shift, Math.min(histograms.length, newLength - shift));
+            histograms = grownHistograms;
+            for (int i = 0; i < codeCounts.length; i++) {
+                if (codeCounts[i] != null) {
+                    codeCounts[i] = grow(codeCounts[i], newLength, shift);
+                }
+            }
+        }
+
+        private long[] grow(long[] array, int newLength, int shift) {
+            long[] grown = new long[newLength];
+            System.arraycopy(array, 0, grown, shift, Math.min(array.length, newLength - shift));
+            return grown;
+        }
+
+        synchronized boolean appendBuckets(StringBuilder json, long since, boolean first) {
+            for (int slot = 0; slot < size; slot++) {
+                if (count[slot] == 0 || modified[slot] < since) {
+                    continue;
+                }
+                if (!first) json.append(',');
+                first = false;
+                json.append('[').append(index)
+                    .append(',').append((baseBucket + slot) * bucketMillis)
+                    .append(',').append(count[slot])
+                    .append(',').append(errors[slot])
+                    .append(',').append(elapsedSum[slot])
+                    .append(',').append(elapsedMin[slot])
+                    .append(',').append(elapsedMax[slot])
+                    .append(',').append(bytes[slot])
+                    .append(',').append(connectSum[slot])
+                    .append(',').append(latencySum[slot])
+                    .append(',').append(maxThreads[slot])
+                    .append(",[");
+                boolean firstCode = true;
+                for (int code = 0; code < codeCounts.length; code++) {
+                    if (codeCounts[code] != null && codeCounts[code][slot] > 0) {
+                        if (!firstCode) json.append(',');
+                        firstCode = false;
+                        json.append(code).append(',').append(codeCounts[code][slot]);
+                    }
+                }
+                json.append("]]");
+            }
+            return first;
+        }
+
+        /**
+         * Whole-test totals: {count, errors, elapsedSum, elapsedMin, elapsedMax, bytes}
+         */
+        synchronized long[] totals() {
+            return wholeTest.clone();
+        }
+
+        private void addTotals(long samples, long failures, long sum, long min, long max, long received) {
+            wholeTest[0] += samples;
+            wholeTest[1] += failures;
+            wholeTest[2] += sum;
+            wholeTest[3] = Math.min(wholeTest[3], min);
+            wholeTest[4] = Math.max(wholeTest[4], max);
+            wholeTest[5] += received;
+        }
+
+        /**
+         * Copies what /metrics reports: samples, errors, received bytes, elapsed sum and the cumulative
+         * histogram count of each bound
+         * @param cumulative Buffer as long as boundsMillis
+         */
+        synchronized void copyMetrics(long[] values, int offset, double[] boundsMillis, long[] cumulative) {
+            values[offset] = wholeTest[0];
+            values[offset + 1] = wholeTest[1];
+            values[offset + 2] = wholeTest[5];
+            values[offset + 3] = wholeTest[2];
+            totalHistogram.getCumulativeCounts(boundsMillis, cumulative);
+            System.arraycopy(cumulative, 0, values, offset + 4, cumulative.length);
+        }
+
+        /**
+         * Appends the name and labels of a series of this label, up to its value
+         */
+        StringBuilder appendSeries(StringBuilder out, String name, String run) {
+            out.append(name).append('{');
+            appendMetricLabels(out, run);
+            return out.append("} ");
+        }
+
+        /**
+         * Appends the name and labels of a histogram bucket series of this label, up to its value
+         * @param bound Upper bound as written in the "le" label
+         */
+        StringBuilder appendSeries(StringBuilder out, String name, String run, String bound) {
+            out.append(name).append('{');
+            appendMetricLabels(out, run);
+            out.append(',');
+            appendMetricLabel(out, "le", bound);
+            return out.append("} ");
+        }
+
+        synchronized int threadsAt(long bucket) {
+            long slot = bucket - baseBucket;
+            return baseBucket != Long.MIN_VALUE && slot >= 0 && slot < size ? maxThreads[(int) slot] : 0;
+        }
+
+        private void appendMetricLabels(StringBuilder out, String run) {
+            appendMetricLabel(out, "run", run);
+            out.append(',');
+            appendMetricLabel(out, "label", label);
+        }
+
+        synchronized void mergeHistogram(LatencyHistogram target, long from, long to) {
+            if (from == Long.MIN_VALUE && to == Long.MAX_VALUE) {
+                target.merge(totalHistogram);
+                return;
+            }
+            for (int slot = 0; slot < size; slot++) {
+                long start = (baseBucket + slot) * bucketMillis;
+                if (start >= from && start < to) {
+                    target.merge(histograms[slot]);
+                }
+            }
+        }
+
+        /**
+         * Merges this label's bucket histograms into per-period histograms and returns a copy of its whole-test histogram
+         */
+        synchronized LatencyHistogram mergeByPeriod(Map<Long, LatencyHistogram> periods, long period, long from) {
+            for (int slot = 0; slot < size; slot++) {
+                long start = (baseBucket + slot) * bucketMillis;
+                if (histograms[slot] != null && start >= from) {
+                    periods.computeIfAbsent(Math.floorDiv(start, period) * period, k -> new LatencyHistogram(relativeError))
+                        .merge(histograms[slot]);
+                }
+            }
+            LatencyHistogram copy = new LatencyHistogram(relativeError);
+            copy.merge(totalHistogram);
+            return copy;
+        }
+
+        synchronized boolean appendErrors(StringBuilder json, boolean first) {
+            for (Map.Entry<Integer, long[]> entry : errorCounts.entrySet()) {
+                if (!first) json.append(',');
+                first = false;
+                json.append('[').append(index).append(',').append(entry.getKey())
+                    .append(',').append(entry.getValue()[0]).append(',');
+                appendJsonString(json, errorMessages.get(entry.getKey()));
+                json.append(']');
+            }
+            return first;
+        }
+    }
+}
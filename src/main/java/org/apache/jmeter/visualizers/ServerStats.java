@@ -0,0 +1,132 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Per-endpoint request statistics of the dashboard HTTP server: requests, requests in flight, server errors,
+ * rejected requests and handling latency (average, max and percentiles from a {@link LatencyHistogram}).
+ * Handlers are registered through {@link #wrap}, which also answers requests rejected by the
+ * {@link DashboardHttpExecutor} with 503.
+ */
+public class ServerStats {
+
+    private final Map<String, EndpointStats> endpoints = new ConcurrentSkipListMap<>();
+    private final long startedAt = System.currentTimeMillis();
+
+    private static final class EndpointStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final LongAdder totalMicros = new LongAdder();
+        final AtomicLong maxMicros = new AtomicLong();
+        final LatencyHistogram histogram = new LatencyHistogram(0.01);
+
+        void record(long micros, int status) {
+            count.increment();
+            if (status >= 500 || status < 0) {
+                errors.increment();
+            }
+            totalMicros.add(micros);
+            maxMicros.accumulateAndGet(micros, Math::max);
+            synchronized (histogram) {
+                histogram.add(micros);
+            }
+        }
+    }
+
+    /**
+     * Wraps a handler so its requests are counted and timed under the given endpoint name
+     */
+    public HttpHandler wrap(String endpoint, HttpHandler handler) {
+        EndpointStats stats = endpoints.computeIfAbsent(endpoint, k -> new EndpointStats());
+        return exchange -> handle(stats, handler, exchange);
+    }
+
+    /**
+     * Wraps a handler so its requests are counted and timed under a name derived from each request, e.g. the
+     * endpoint of a run under /runs/{id}/ with the id replaced by "*". The names must come from a small set.
+     */
+    public HttpHandler wrap(Function<HttpExchange, String> endpointOf, HttpHandler handler) {
+        return exchange -> handle(endpoints.computeIfAbsent(endpointOf.apply(exchange), k -> new EndpointStats()),
+            handler, exchange);
+    }
+
+    private static void handle(EndpointStats stats, HttpHandler handler, HttpExchange exchange) throws IOException {
+        if (DashboardHttpExecutor.isRejected()) {
+            stats.rejected.increment();
+            sendUnavailable(exchange);
+            return;
+        }
+        stats.inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            handler.handle(exchange);
+        } finally {
+            stats.inFlight.decrementAndGet();
+            stats.record((System.nanoTime() - start) / 1000, exchange.getResponseCode());
+        }
+    }
+
+    private static void sendUnavailable(HttpExchange exchange) throws IOException {
+        byte[] body = "{\"error\":\"Server busy, retry later\"}".getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        exchange.sendResponseHeaders(503, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    /**
+     * Serializes the statistics of all endpoints, plus the executor state, as JSON
+     */
+    public String toJson(DashboardHttpExecutor executor) {
+        StringBuilder json = new StringBuilder(256 + endpoints.size() * 192);
+        json.append("{\"uptimeMs\":").append(System.currentTimeMillis() - startedAt).append(",\"executor\":");
+        if (executor != null) {
+            executor.appendJson(json);
+        } else {
+            json.append("null");
+        }
+        json.append(",\"endpoints\":{");
+        boolean first = true;
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            EndpointStats stats = entry.getValue();
+            long count = stats.count.sum();
+            if (!first) json.append(',');
+            first = false;
+            SampleAggregator.appendJsonString(json, entry.getKey());
+            json.append(":{\"count\":").append(count)
+                .append(",\"inFlight\":").append(stats.inFlight.get())
+                .append(",\"errors\":").append(stats.errors.sum())
+                .append(",\"rejected\":").append(stats.rejected.sum())
+                .append(",\"avgMs\":").append(count > 0 ? millis(stats.totalMicros.sum() / (double) count) : 0)
+                .append(",\"maxMs\":").append(millis(stats.maxMicros.get()));
+            synchronized (stats.histogram) {
+                json.append(",\"p50Ms\":").append(millis(stats.histogram.getPercentile(50)))
+                    .append(",\"p95Ms\":").append(millis(stats.histogram.getPercentile(95)))
+                    .append(",\"p99Ms\":").append(millis(stats.histogram.getPercentile(99)));
+            }
+            json.append('}');
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    private static double millis(double micros) {
+        return Math.round(micros / 10.0) / 100.0;
+    }
+}
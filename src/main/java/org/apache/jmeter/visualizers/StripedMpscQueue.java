@@ -0,0 +1,78 @@
+package org.apache.jmeter.visualizers;
+
+import java.util.function.Consumer;
+
+/**
+ * Set of {@link BoundedMpscQueue} stripes drained by a single consumer.
+ * Each producer thread always offers to the same stripe (picked from its thread id), so sampler threads
+ * only compete for the queue tail with the few threads sharing their stripe.
+ * Order is preserved per producer thread, not across threads.
+ */
+public class StripedMpscQueue<E> {
+
+    private final BoundedMpscQueue<E>[] stripes;
+    private final int stripeMask;
+    private int drainStart = 0;
+
+    /**
+     * Creates a striped queue
+     * @param totalCapacity Capacity shared by all stripes
+     * @param requestedStripes Number of stripes, rounded up to the next power of two
+     */
+    @SuppressWarnings("unchecked")
+    public StripedMpscQueue(int totalCapacity, int requestedStripes) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, requestedStripes) * 2 - 1);
+        this.stripes = (BoundedMpscQueue<E>[]) new BoundedMpscQueue<?>[stripeCount];
+        this.stripeMask = stripeCount - 1;
+        int stripeCapacity = Math.max(64, totalCapacity / stripeCount);
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new BoundedMpscQueue<>(stripeCapacity);
+        }
+    }
+
+    /**
+     * Adds an element to the calling thread's stripe
+     * @return false if that stripe is full
+     */
+    public boolean offer(E element) {
+        return stripes[stripeIndex()].offer(element);
+    }
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        // Spread sequential thread ids so neighbouring sampler threads land in different stripes
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & stripeMask;
+    }
+
+    /**
+     * Drains up to maxElements elements, visiting the stripes round-robin so no stripe starves.
+     * Must only be called from the consumer thread.
+     * @return Number of drained elements
+     */
+    public int drain(Consumer<E> consumer, int maxElements) {
+        int perStripe = Math.max(1, maxElements / stripes.length);
+        int drained = 0;
+        for (int i = 0; i < stripes.length && drained < maxElements; i++) {
+            BoundedMpscQueue<E> stripe = stripes[(drainStart + i) & stripeMask];
+            drained += stripe.drain(consumer, Math.min(perStripe, maxElements - drained));
+        }
+        drainStart = (drainStart + 1) & stripeMask;
+        return drained;
+    }
+
+    /**
+     * Approximate number of queued elements over all stripes
+     */
+    public int size() {
+        int size = 0;
+        for (BoundedMpscQueue<E> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+}
@@ -1,16 +1,52 @@
 package org.apache.jmeter.visualizers;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import oshi.SystemInfo;
 import oshi.hardware.CentralProcessor;
 import oshi.hardware.GlobalMemory;
+import oshi.hardware.HWDiskStore;
 import oshi.hardware.HardwareAbstractionLayer;
+import oshi.hardware.NetworkIF;
+import oshi.software.os.OSProcess;
 
 /**
  * System metrics collector for monitoring CPU and memory usage using OSHI library
- * Provides cross-platform system information without requiring native libraries
+ * Provides cross-platform system information without requiring native libraries.
+ * Besides system CPU and memory it reports the JMeter process (CPU, resident set size, open file descriptors),
+ * the JVM (heap, non-heap, garbage collection from the platform MXBeans), network and disk throughput and the
+ * load average. Rates and CPU usage are deltas between two collections of counters; the network interfaces and
+ * disks are enumerated once, later collections only refresh their counters. On Linux the process RSS and the
+ * disk counters are read from /proc directly, which costs a fraction of OSHI's per-disk udev queries and keeps
+ * a collection well under a millisecond of CPU.
+ * CPU usage (overall and per core) is computed from the tick deltas between two collections, so collecting never
+ * waits. Once {@link #start} is called, a daemon thread collects on a fixed period and publishes each snapshot
+ * to {@link #getLatest()} and records its values in a {@link SystemMetricsHistory}, which readers access without
+ * blocking the collection.
  */
 public class SystemMetricsCollector {
     
+    private static final Logger log = LoggerFactory.getLogger(SystemMetricsCollector.class);
+    
     private final SystemInfo systemInfo;
     private final HardwareAbstractionLayer hal;
     private final CentralProcessor processor;
@@ -24,10 +60,35 @@ public class SystemMetricsCollector {
     private double lastMemoryUsage = 0.0;
     private long lastUsedMemoryMB = 0;
     private long lastAvailableMemoryMB = 0;
+    private double[] lastPerCoreUsage = new double[0];
+    // Values of the last collection, refilled by every collection
+    private final double[] values = emptyValues();
     
     // CPU tick tracking for accurate CPU usage calculation
     private long[] prevTicks = null;
-    private long prevTime = 0;
+    private long[][] prevProcessorTicks = null;
+    
+    // Process, JVM, network and disk counters of the previous collection (-1 if not available)
+    private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
+    private final OSProcess process;
+    private final List<NetworkIF> networkIFs;
+    private final List<HWDiskStore> diskStores;
+    // Kernel names (e.g. "sda") of the disks summed from /proc/diskstats
+    private final Set<String> diskNames = new HashSet<>();
+    private long prevCounterNanos;
+    private long prevProcessCpuNanos = -1;
+    private long prevGcCount = -1;
+    private long prevGcTimeMs = -1;
+    private final long[] prevNetworkCounters = {-1, -1, -1, -1};
+    private final long[] prevDiskCounters = {-1, -1};
+    
+    // Published samples; only the collecting thread records (collect is synchronized)
+    private final SystemMetricsHistory history;
+    private volatile SystemMetricsSnapshot latest;
+    
+    private ScheduledExecutorService sampler;
     
     /**
      * Default constructor with 5-second collection interval
@@ -41,112 +102,418 @@ public class SystemMetricsCollector {
      * @param collectionIntervalMs Collection interval in milliseconds
      */
     public SystemMetricsCollector(long collectionIntervalMs) {
+        this(collectionIntervalMs, SystemMetricsHistory.DEFAULT_SIZE);
+    }
+    
+    /**
+     * Constructor with custom collection interval and history size
+     * @param collectionIntervalMs Collection interval in milliseconds
+     * @param historySize Number of recent snapshots kept for {@link #getHistory(int)}
+     */
+    public SystemMetricsCollector(long collectionIntervalMs, int historySize) {
+        this(collectionIntervalMs, new SystemMetricsHistory(historySize));
+    }
+    
+    /**
+     * Constructor with custom collection interval and history
+     * @param collectionIntervalMs Collection interval in milliseconds
+     * @param history Where every fresh collection is recorded
+     */
+    public SystemMetricsCollector(long collectionIntervalMs, SystemMetricsHistory history) {
         this.collectionInterval = collectionIntervalMs;
         this.systemInfo = new SystemInfo();
         this.hal = systemInfo.getHardware();
         this.processor = hal.getProcessor();
         this.memory = hal.getMemory();
+        this.history = history;
+        
+        this.process = currentProcess();
+        this.networkIFs = networkInterfaces();
+        this.diskStores = diskStores();
+        for (HWDiskStore diskStore : diskStores) {
+            String name = diskStore.getName();
+            diskNames.add(name.substring(name.lastIndexOf('/') + 1));
+        }
+        
+        // Baseline for the first CPU usage and rates, which would otherwise need a blocking measurement
+        try {
+            prevTicks = processor.getSystemCpuLoadTicks();
+            prevProcessorTicks = processor.getProcessorCpuLoadTicks();
+        } catch (Exception e) {
+            log.warn("CPU load ticks not available: {}", e.toString());
+        }
+        collectCounters(values, System.nanoTime());
+    }
+    
+    private OSProcess currentProcess() {
+        try {
+            return systemInfo.getOperatingSystem().getCurrentProcess();
+        } catch (Exception e) {
+            log.warn("Process metrics not available: {}", e.toString());
+            return null;
+        }
+    }
+    
+    private List<NetworkIF> networkInterfaces() {
+        try {
+            return hal.getNetworkIFs();
+        } catch (Exception e) {
+            log.warn("Network metrics not available: {}", e.toString());
+            return Collections.emptyList();
+        }
+    }
+    
+    private List<HWDiskStore> diskStores() {
+        try {
+            return hal.getDiskStores();
+        } catch (Exception e) {
+            log.warn("Disk metrics not available: {}", e.toString());
+            return Collections.emptyList();
+        }
+    }
+    
+    private static double[] emptyValues() {
+        double[] values = new double[SystemMetricsSnapshot.Metric.values().length];
+        Arrays.fill(values, -1);
+        return values;
     }
     
     /**
      * Collects system metrics if enough time has passed since last collection
      * @return SystemMetricsSnapshot with current or cached values
      */
-    public SystemMetricsSnapshot collectMetrics() {
+    public synchronized SystemMetricsSnapshot collectMetrics() {
         long currentTime = System.currentTimeMillis();
         
         // Return cached values if not enough time has passed
         if (currentTime - lastCollectionTime < collectionInterval) {
             return new SystemMetricsSnapshot(
-                lastCpuUsage,
-                lastMemoryUsage,
-                lastUsedMemoryMB,
-                lastAvailableMemoryMB,
+                values,
+                lastPerCoreUsage,
                 false // cached data, not fresh
             );
         }
-        
+        return collectFresh(currentTime);
+    }
+    
+    /**
+     * Alias for collectMetrics() to maintain compatibility
+     * @return SystemMetricsSnapshot with current or cached values
+     */
+    public SystemMetricsSnapshot collectMetricsIfNeeded() {
+        return collectMetrics();
+    }
+    
+    private synchronized SystemMetricsSnapshot collectFresh(long currentTime) {
         // Collect fresh metrics
         double cpuUsage = getCpuUsage();
+        double[] perCoreUsage = getPerCoreUsage();
         double memoryUsage = getMemoryUsage();
         long usedMemoryMB = getUsedMemoryMB();
         long availableMemoryMB = getAvailableMemoryMB();
         
+        Arrays.fill(values, -1);
+        values[SystemMetricsSnapshot.Metric.CPU_USAGE.ordinal()] = cpuUsage;
+        values[SystemMetricsSnapshot.Metric.MEMORY_USAGE.ordinal()] = memoryUsage;
+        values[SystemMetricsSnapshot.Metric.USED_MEMORY_MB.ordinal()] = usedMemoryMB;
+        values[SystemMetricsSnapshot.Metric.AVAILABLE_MEMORY_MB.ordinal()] = availableMemoryMB;
+        collectJvmMetrics(values);
+        collectCounters(values, System.nanoTime());
+        values[SystemMetricsSnapshot.Metric.LOAD_AVERAGE_1M.ordinal()] = getLoadAverage();
+        
         // Update cached values
         lastCpuUsage = cpuUsage;
+        lastPerCoreUsage = perCoreUsage;
         lastMemoryUsage = memoryUsage;
         lastUsedMemoryMB = usedMemoryMB;
         lastAvailableMemoryMB = availableMemoryMB;
         lastCollectionTime = currentTime;
         
-        return new SystemMetricsSnapshot(
-            cpuUsage,
-            memoryUsage,
-            usedMemoryMB,
-            availableMemoryMB,
+        SystemMetricsSnapshot snapshot = new SystemMetricsSnapshot(
+            values,
+            perCoreUsage,
             true // fresh data
         );
+        history.record(snapshot.getTimestamp(), values);
+        latest = snapshot;
+        return snapshot;
     }
     
     /**
-     * Alias for collectMetrics() to maintain compatibility
-     * @return SystemMetricsSnapshot with current or cached values
+     * Starts collecting on a daemon thread every periodMs, unless already started
+     * @param periodMs Collection period in milliseconds
+     * @param listener Called on the collecting thread with every fresh snapshot
      */
-    public SystemMetricsSnapshot collectMetricsIfNeeded() {
-        return collectMetrics();
+    public synchronized void start(long periodMs, Consumer<SystemMetricsSnapshot> listener) {
+        if (sampler != null) {
+            return;
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SystemMetricsSampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> {
+            try {
+                listener.accept(collectFresh(System.currentTimeMillis()));
+            } catch (Exception e) {
+                log.error("Error collecting system metrics", e);
+            }
+        }, 0, periodMs, TimeUnit.MILLISECONDS);
     }
     
     /**
-     * Get CPU usage percentage using OSHI
+     * Stops the collecting thread started by {@link #start}
+     */
+    public synchronized void stop() {
+        if (sampler != null) {
+            sampler.shutdown();
+            sampler = null;
+        }
+    }
+    
+    public synchronized boolean isRunning() {
+        return sampler != null;
+    }
+    
+    /**
+     * Most recent fresh snapshot, without collecting
+     * @return The snapshot, or null before the first collection
+     */
+    public SystemMetricsSnapshot getLatest() {
+        return latest;
+    }
+    
+    /**
+     * Recent fresh snapshots (without per core usage), oldest first, without blocking the collection
+     * @param max Maximum number of snapshots returned
+     * @return Up to max snapshots, limited by the history size
+     */
+    public List<SystemMetricsSnapshot> getHistory(int max) {
+        return history.getLatest(max);
+    }
+    
+    /**
+     * History in which every fresh collection is recorded
+     */
+    public SystemMetricsHistory getMetricsHistory() {
+        return history;
+    }
+    
+    /**
+     * Get CPU usage percentage from the tick deltas since the previous collection
      * @return CPU usage percentage (0-100)
      */
     private double getCpuUsage() {
         try {
-            // Get current CPU ticks
             long[] ticks = processor.getSystemCpuLoadTicks();
-            long currentTime = System.currentTimeMillis();
-            
-            if (prevTicks != null && prevTime > 0) {
-                // Calculate CPU usage based on tick differences
-                long[] tickDiff = new long[ticks.length];
-                for (int i = 0; i < ticks.length; i++) {
-                    tickDiff[i] = ticks[i] - prevTicks[i];
+            double cpuUsage = prevTicks != null ? usageBetween(prevTicks, ticks) : -1;
+            prevTicks = ticks;
+            if (cpuUsage >= 0) {
+                return cpuUsage;
+            }
+        } catch (Exception e) {
+            // If any error occurs, return cached value or 0
+        }
+        
+        return lastCpuUsage > 0 ? lastCpuUsage : 0.0;
+    }
+    
+    /**
+     * Get the usage percentage of every logical processor from the tick deltas since the previous collection
+     * @return Usage per logical processor (0-100), previous values for processors without new ticks
+     */
+    private double[] getPerCoreUsage() {
+        try {
+            long[][] ticks = processor.getProcessorCpuLoadTicks();
+            double[] usage = new double[ticks.length];
+            for (int core = 0; core < ticks.length; core++) {
+                double coreUsage = prevProcessorTicks != null && core < prevProcessorTicks.length
+                    ? usageBetween(prevProcessorTicks[core], ticks[core]) : -1;
+                usage[core] = coreUsage >= 0 ? coreUsage
+                    : core < lastPerCoreUsage.length ? lastPerCoreUsage[core] : 0.0;
+            }
+            prevProcessorTicks = ticks;
+            return usage;
+        } catch (Exception e) {
+            return lastPerCoreUsage;
+        }
+    }
+    
+    /**
+     * Busy percentage between two tick samples: all ticks except idle over all ticks
+     * @return Usage (0-100), or -1 if no ticks elapsed
+     */
+    private static double usageBetween(long[] previous, long[] current) {
+        long totalTicks = 0;
+        long idleTicks = 0;
+        for (int i = 0; i < current.length && i < previous.length; i++) {
+            long delta = current[i] - previous[i];
+            totalTicks += delta;
+            if (i == CentralProcessor.TickType.IDLE.getIndex()) {
+                idleTicks = delta;
+            }
+        }
+        if (totalTicks <= 0) {
+            return -1;
+        }
+        double usage = (double) (totalTicks - idleTicks) / totalTicks * 100.0;
+        return Math.max(0.0, Math.min(100.0, usage));
+    }
+    
+    /**
+     * Heap and non-heap usage of this JVM, and its open file descriptors where the platform MXBean reports them
+     */
+    private void collectJvmMetrics(double[] values) {
+        try {
+            MemoryUsage heap = memoryBean.getHeapMemoryUsage();
+            MemoryUsage nonHeap = memoryBean.getNonHeapMemoryUsage();
+            values[SystemMetricsSnapshot.Metric.HEAP_USED_MB.ordinal()] = heap.getUsed() / (1024 * 1024);
+            values[SystemMetricsSnapshot.Metric.HEAP_COMMITTED_MB.ordinal()] = heap.getCommitted() / (1024 * 1024);
+            values[SystemMetricsSnapshot.Metric.NON_HEAP_USED_MB.ordinal()] = nonHeap.getUsed() / (1024 * 1024);
+        } catch (Exception e) {
+            // Leave the values unavailable
+        }
+        if (osBean instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            values[SystemMetricsSnapshot.Metric.OPEN_FILE_DESCRIPTORS.ordinal()] =
+                ((com.sun.management.UnixOperatingSystemMXBean) osBean).getOpenFileDescriptorCount();
+        } else if (process != null) {
+            values[SystemMetricsSnapshot.Metric.OPEN_FILE_DESCRIPTORS.ordinal()] = process.getOpenFiles();
+        }
+    }
+    
+    /**
+     * Reads the cumulative counters (process CPU time, GC, network, disk) and turns them into values per
+     * collection or per second since the previous read
+     */
+    private void collectCounters(double[] values, long nanos) {
+        double seconds = prevCounterNanos > 0 ? (nanos - prevCounterNanos) / 1e9 : 0;
+        prevCounterNanos = nanos;
+        
+        // Process CPU, in percent of all logical processors as for the system CPU usage
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            long cpuNanos = ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+            if (prevProcessCpuNanos >= 0 && cpuNanos >= prevProcessCpuNanos && seconds > 0) {
+                double usage = (cpuNanos - prevProcessCpuNanos) / 1e9 / seconds / osBean.getAvailableProcessors() * 100.0;
+                values[SystemMetricsSnapshot.Metric.PROCESS_CPU_USAGE.ordinal()] = Math.min(100.0, usage);
+            }
+            prevProcessCpuNanos = cpuNanos;
+        }
+        long rssBytes = readProcSelfRss();
+        if (rssBytes < 0 && process != null && process.updateAttributes()) {
+            rssBytes = process.getResidentSetSize();
+        }
+        if (rssBytes >= 0) {
+            values[SystemMetricsSnapshot.Metric.PROCESS_RSS_MB.ordinal()] = rssBytes / (1024 * 1024);
+        }
+        
+        long gcCount = 0;
+        long gcTimeMs = 0;
+        for (GarbageCollectorMXBean gcBean : gcBeans) {
+            gcCount += Math.max(0, gcBean.getCollectionCount());
+            gcTimeMs += Math.max(0, gcBean.getCollectionTime());
+        }
+        values[SystemMetricsSnapshot.Metric.GC_COUNT.ordinal()] = delta(gcCount, prevGcCount);
+        values[SystemMetricsSnapshot.Metric.GC_TIME_MS.ordinal()] = delta(gcTimeMs, prevGcTimeMs);
+        prevGcCount = gcCount;
+        prevGcTimeMs = gcTimeMs;
+        
+        if (!networkIFs.isEmpty()) {
+            long[] network = new long[4];
+            for (NetworkIF networkIF : networkIFs) {
+                if (networkIF.updateAttributes()) {
+                    network[0] += networkIF.getBytesRecv();
+                    network[1] += networkIF.getBytesSent();
+                    network[2] += networkIF.getPacketsRecv();
+                    network[3] += networkIF.getPacketsSent();
                 }
-                
-                // Calculate total and idle time
-                long totalTicks = 0;
-                long idleTicks = 0;
-                
-                for (int i = 0; i < tickDiff.length; i++) {
-                    totalTicks += tickDiff[i];
-                    if (i == CentralProcessor.TickType.IDLE.getIndex()) {
-                        idleTicks = tickDiff[i];
+            }
+            values[SystemMetricsSnapshot.Metric.NET_RX_BYTES_PER_SEC.ordinal()] = rate(network[0], prevNetworkCounters[0], seconds);
+            values[SystemMetricsSnapshot.Metric.NET_TX_BYTES_PER_SEC.ordinal()] = rate(network[1], prevNetworkCounters[1], seconds);
+            values[SystemMetricsSnapshot.Metric.NET_RX_PACKETS_PER_SEC.ordinal()] = rate(network[2], prevNetworkCounters[2], seconds);
+            values[SystemMetricsSnapshot.Metric.NET_TX_PACKETS_PER_SEC.ordinal()] = rate(network[3], prevNetworkCounters[3], seconds);
+            System.arraycopy(network, 0, prevNetworkCounters, 0, network.length);
+        }
+        
+        if (!diskStores.isEmpty()) {
+            long[] disk = readProcDiskStats();
+            if (disk == null) {
+                disk = new long[2];
+                for (HWDiskStore diskStore : diskStores) {
+                    if (diskStore.updateAttributes()) {
+                        disk[0] += diskStore.getReadBytes();
+                        disk[1] += diskStore.getWriteBytes();
                     }
                 }
-                
-                if (totalTicks > 0) {
-                    double cpuUsage = (double) (totalTicks - idleTicks) / totalTicks * 100.0;
-                    prevTicks = ticks.clone();
-                    prevTime = currentTime;
-                    return Math.max(0.0, Math.min(100.0, cpuUsage));
+            }
+            values[SystemMetricsSnapshot.Metric.DISK_READ_BYTES_PER_SEC.ordinal()] = rate(disk[0], prevDiskCounters[0], seconds);
+            values[SystemMetricsSnapshot.Metric.DISK_WRITE_BYTES_PER_SEC.ordinal()] = rate(disk[1], prevDiskCounters[1], seconds);
+            System.arraycopy(disk, 0, prevDiskCounters, 0, disk.length);
+        }
+    }
+    
+    /**
+     * Resident set size of this process from the VmRSS line of /proc/self/status
+     * @return Bytes, or -1 if not on Linux
+     */
+    private static long readProcSelfRss() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    // "VmRSS:    123456 kB"
+                    String[] fields = line.trim().split("\\s+");
+                    return Long.parseLong(fields[1]) * 1024;
                 }
             }
-            
-            // First run or calculation failed, initialize for next time
-            prevTicks = ticks.clone();
-            prevTime = currentTime;
-            
-            // Fallback: use OSHI's built-in CPU load calculation
-            double systemCpuLoad = processor.getSystemCpuLoad(1000); // 1 second delay
-            if (systemCpuLoad >= 0) {
-                return systemCpuLoad * 100.0;
+        } catch (Exception e) {
+            // Not Linux
+        }
+        return -1;
+    }
+    
+    /**
+     * Bytes read and written by the disks found by OSHI, from /proc/diskstats (sectors are 512 bytes there)
+     * @return {read, written}, or null if not on Linux
+     */
+    private long[] readProcDiskStats() {
+        try {
+            long[] disk = new long[2];
+            for (String line : Files.readAllLines(Path.of("/proc/diskstats"), StandardCharsets.US_ASCII)) {
+                // major minor name reads merged sectors_read ms writes merged sectors_written ...
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length > 9 && diskNames.contains(fields[2])) {
+                    disk[0] += Long.parseLong(fields[5]) * 512;
+                    disk[1] += Long.parseLong(fields[9]) * 512;
+                }
             }
-            
+            return disk;
         } catch (Exception e) {
-            // If any error occurs, return cached value or 0
+            return null;
+        }
+    }
+    
+    /**
+     * Increase of a counter, or -1 without a previous value or after the counter was reset
+     */
+    private static double delta(long current, long previous) {
+        return previous >= 0 && current >= previous ? current - previous : -1;
+    }
+    
+    private static double rate(long current, long previous, double seconds) {
+        double delta = delta(current, previous);
+        return delta >= 0 && seconds > 0 ? Math.round(delta / seconds) : -1;
+    }
+    
+    /**
+     * One minute load average, -1 where the OS does not provide it (Windows)
+     */
+    private double getLoadAverage() {
+        try {
+            double load = processor.getSystemLoadAverage(1)[0];
+            return load >= 0 ? load : -1;
+        } catch (Exception e) {
+            return -1;
         }
-        
-        return lastCpuUsage > 0 ? lastCpuUsage : 0.0;
     }
     
     /**
@@ -0,0 +1,330 @@
+package org.apache.jmeter.visualizers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Fixed-size in-memory history of system metrics samples, stored as primitive arrays (one array of timestamps and
+ * one array per {@link SystemMetricsSnapshot.Metric}) so recording allocates nothing and memory does not grow with
+ * the test duration.
+ * Two rings are kept: the raw samples, and averages over downsampling periods (one minute by default) which cover
+ * a much longer time span once the raw samples have been overwritten. With the defaults, 3600 raw samples and
+ * 1440 one minute averages (24 hours) take about 800 KB.
+ * Samples are recorded by a single thread; readers never block it (optimistic reads of a {@link StampedLock}).
+ */
+public class SystemMetricsHistory {
+
+    public static final int DEFAULT_SIZE = 3600;
+    public static final long DEFAULT_DOWNSAMPLE_MILLIS = 60000;
+    public static final int DEFAULT_DOWNSAMPLED_SIZE = 1440;
+
+    private static final SystemMetricsSnapshot.Metric[] METRICS = SystemMetricsSnapshot.Metric.values();
+
+    private final Ring raw;
+    private final Ring downsampled;
+    private final long downsampleMillis;
+
+    // Downsampling period being accumulated by the recording thread
+    private long period = Long.MIN_VALUE;
+    private final double[] periodSums = new double[METRICS.length];
+    private final int[] periodCounts = new int[METRICS.length];
+    private final double[] periodRow = new double[METRICS.length];
+
+    public SystemMetricsHistory(int size) {
+        this(size, DEFAULT_DOWNSAMPLE_MILLIS, DEFAULT_DOWNSAMPLED_SIZE);
+    }
+
+    /**
+     * Creates an empty history
+     * @param size Number of raw samples kept
+     * @param downsampleMillis Period averaged into one downsampled sample
+     * @param downsampledSize Number of downsampled samples kept
+     */
+    public SystemMetricsHistory(int size, long downsampleMillis, int downsampledSize) {
+        this.raw = new Ring(Math.max(1, size));
+        this.downsampled = new Ring(Math.max(1, downsampledSize));
+        this.downsampleMillis = Math.max(1, downsampleMillis);
+    }
+
+    public long getDownsampleMillis() {
+        return downsampleMillis;
+    }
+
+    /**
+     * Records one sample. Must only be called by one thread at a time.
+     * @param values Value of every metric indexed by ordinal, -1 if not available
+     */
+    public void record(long timestamp, double[] values) {
+        long samplePeriod = Math.floorDiv(timestamp, downsampleMillis);
+        if (samplePeriod != period) {
+            if (period != Long.MIN_VALUE) {
+                closePeriod();
+            }
+            period = samplePeriod;
+        }
+        for (int i = 0; i < METRICS.length; i++) {
+            if (values[i] >= 0) {
+                periodSums[i] += values[i];
+                periodCounts[i]++;
+            }
+        }
+        raw.add(timestamp, values);
+    }
+
+    private void closePeriod() {
+        for (int i = 0; i < METRICS.length; i++) {
+            periodRow[i] = periodCounts[i] > 0 ? periodSums[i] / periodCounts[i] : -1;
+        }
+        downsampled.add(period * downsampleMillis, periodRow);
+        Arrays.fill(periodSums, 0);
+        Arrays.fill(periodCounts, 0);
+    }
+
+    /**
+     * Number of raw samples recorded so far, i.e. the sequence number of the next one
+     */
+    public long getRecordedCount() {
+        return raw.published;
+    }
+
+    /**
+     * Most recent raw samples as snapshots (without per core usage), oldest first
+     * @param max Maximum number of snapshots returned
+     */
+    public List<SystemMetricsSnapshot> getLatest(int max) {
+        long end = raw.published;
+        long start = Math.max(raw.oldestSequence(end), end - Math.max(0, max));
+        List<SystemMetricsSnapshot> snapshots = new ArrayList<>((int) (end - start));
+        double[] row = new double[METRICS.length];
+        for (long sequence = start; sequence < end; sequence++) {
+            long timestamp = raw.read(sequence, row);
+            if (timestamp != Long.MIN_VALUE) {
+                snapshots.add(new SystemMetricsSnapshot(timestamp, row, new double[0], true));
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Appends the raw samples from sequence number fromSequence on as lines of the system metrics CSV
+     * (see {@link SystemMetricsSnapshot#CSV_HEADER}); samples already overwritten are skipped
+     * @return Sequence number of the next sample to append
+     */
+    public long appendCsv(StringBuilder csv, long fromSequence) {
+        long end = raw.published;
+        double[] row = new double[METRICS.length];
+        for (long sequence = Math.max(fromSequence, raw.oldestSequence(end)); sequence < end; sequence++) {
+            long timestamp = raw.read(sequence, row);
+            if (timestamp != Long.MIN_VALUE) {
+                SystemMetricsSnapshot.appendCsv(csv, timestamp, row);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Appends the fields "step", "columns" and "rows" of a JSON object holding the samples between from and to
+     * (inclusive), oldest first. Each row is an array of the timestamp and the value of every column.
+     * Downsampled samples are used before the oldest raw sample. With step &gt; 0, samples are averaged over
+     * periods of step ms (timestamp = period start), ignoring unavailable values.
+     */
+    public void appendRangeJson(StringBuilder json, long from, long to, long step) {
+        json.append("\"step\":").append(Math.max(0, step)).append(",\"columns\":[\"timestamp\"");
+        for (SystemMetricsSnapshot.Metric metric : METRICS) {
+            json.append(",\"").append(metric.getColumnName()).append('"');
+        }
+        json.append("],\"rows\":[");
+
+        RangeWriter writer = new RangeWriter(json, step);
+        long rawEnd = raw.published;
+        long rawStart = raw.oldestSequence(rawEnd);
+        long rawFrom = raw.firstSequenceAtOrAfter(from, rawStart, rawEnd);
+        long oldestRaw = rawStart < rawEnd ? raw.read(rawStart, writer.row) : Long.MIN_VALUE;
+        if (oldestRaw == Long.MIN_VALUE) {
+            oldestRaw = Long.MAX_VALUE;
+        }
+
+        // Downsampled samples only where the raw samples no longer reach
+        if (from < oldestRaw) {
+            long end = downsampled.published;
+            long start = downsampled.oldestSequence(end);
+            for (long sequence = downsampled.firstSequenceAtOrAfter(from, start, end); sequence < end; sequence++) {
+                long timestamp = downsampled.read(sequence, writer.row);
+                if (timestamp == Long.MIN_VALUE) {
+                    continue;
+                }
+                if (timestamp >= oldestRaw || timestamp > to) {
+                    break;
+                }
+                writer.add(timestamp);
+            }
+        }
+        for (long sequence = rawFrom; sequence < rawEnd; sequence++) {
+            long timestamp = raw.read(sequence, writer.row);
+            if (timestamp == Long.MIN_VALUE || timestamp < from) {
+                continue;
+            }
+            if (timestamp > to) {
+                break;
+            }
+            writer.add(timestamp);
+        }
+        writer.finish();
+        json.append(']');
+    }
+
+    /**
+     * Writes the rows of a range, averaging them per step if requested
+     */
+    private static final class RangeWriter {
+        private final StringBuilder json;
+        private final long step;
+        final double[] row = new double[METRICS.length];
+        private final double[] sums = new double[METRICS.length];
+        private final int[] counts = new int[METRICS.length];
+        private long period = Long.MIN_VALUE;
+        private boolean first = true;
+
+        RangeWriter(StringBuilder json, long step) {
+            this.json = json;
+            this.step = step;
+        }
+
+        /**
+         * Adds the sample currently held in row
+         */
+        void add(long timestamp) {
+            if (step <= 0) {
+                writeRow(timestamp, row);
+                return;
+            }
+            long samplePeriod = Math.floorDiv(timestamp, step);
+            if (samplePeriod != period) {
+                finish();
+                period = samplePeriod;
+            }
+            for (int i = 0; i < METRICS.length; i++) {
+                if (row[i] >= 0) {
+                    sums[i] += row[i];
+                    counts[i]++;
+                }
+            }
+        }
+
+        void finish() {
+            if (period == Long.MIN_VALUE) {
+                return;
+            }
+            for (int i = 0; i < METRICS.length; i++) {
+                sums[i] = counts[i] > 0 ? sums[i] / counts[i] : -1;
+            }
+            writeRow(period * step, sums);
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            period = Long.MIN_VALUE;
+        }
+
+        private void writeRow(long timestamp, double[] values) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('[').append(timestamp);
+            for (SystemMetricsSnapshot.Metric metric : METRICS) {
+                json.append(',');
+                SystemMetricsSnapshot.appendValue(json, metric, values[metric.ordinal()]);
+            }
+            json.append(']');
+        }
+    }
+
+    /**
+     * Ring of samples in primitive arrays. Written by one thread under the write lock; readers validate an
+     * optimistic read and only take the read lock if a sample was recorded meanwhile.
+     */
+    private static final class Ring {
+        private final int capacity;
+        private final long[] timestamps;
+        // values[metric][slot]
+        private final double[][] values;
+        private final StampedLock lock = new StampedLock();
+        // Sequence number of the next sample; only changed under the write lock
+        private volatile long published;
+
+        Ring(int capacity) {
+            this.capacity = capacity;
+            this.timestamps = new long[capacity];
+            this.values = new double[METRICS.length][capacity];
+        }
+
+        void add(long timestamp, double[] row) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = (int) (published % capacity);
+                timestamps[slot] = timestamp;
+                for (int i = 0; i < values.length; i++) {
+                    values[i][slot] = row[i];
+                }
+                published++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        long oldestSequence(long end) {
+            return Math.max(0, end - capacity);
+        }
+
+        /**
+         * Copies a sample into row (if not null)
+         * @return Its timestamp, or Long.MIN_VALUE if it was overwritten or not recorded yet
+         */
+        long read(long sequence, double[] row) {
+            long stamp = lock.tryOptimisticRead();
+            long timestamp = readSlot(sequence, row);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    timestamp = readSlot(sequence, row);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return timestamp;
+        }
+
+        private long readSlot(long sequence, double[] row) {
+            long end = published;
+            if (sequence >= end || sequence < end - capacity) {
+                return Long.MIN_VALUE;
+            }
+            int slot = (int) (sequence % capacity);
+            if (row != null) {
+                for (int i = 0; i < values.length; i++) {
+                    row[i] = values[i][slot];
+                }
+            }
+            return timestamps[slot];
+        }
+
+        /**
+         * Binary search (timestamps increase with the sequence number) for the first sample at or after timestamp
+         */
+        long firstSequenceAtOrAfter(long timestamp, long start, long end) {
+            long low = start;
+            long high = end;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                long middleTimestamp = read(middle, null);
+                if (middleTimestamp != Long.MIN_VALUE && middleTimestamp < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
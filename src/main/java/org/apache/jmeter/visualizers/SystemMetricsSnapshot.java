@@ -1,59 +1,167 @@
 package org.apache.jmeter.visualizers;
 
+import java.util.Arrays;
+
 /**
  * Snapshot of system metrics at a point in time
  */
 public class SystemMetricsSnapshot {
-    
-    private final double cpuUsage;
-    private final double memoryUsage;
-    private final long usedMemoryMB;
-    private final long availableMemoryMB;
+
+    /**
+     * Values held by a snapshot, with their column name in the system metrics CSV (also used by the dashboard)
+     * and their name in the /system-metrics JSON. Unavailable values are -1.
+     */
+    public enum Metric {
+        CPU_USAGE("cpu_usage", "cpuUsage", true),
+        MEMORY_USAGE("memory_usage", "memoryUsage", true),
+        USED_MEMORY_MB("used_memory_mb", "usedMemoryMB", false),
+        AVAILABLE_MEMORY_MB("available_memory_mb", "availableMemoryMB", false),
+        /** CPU used by this JVM, in percent of all logical processors */
+        PROCESS_CPU_USAGE("process_cpu_usage", "processCpuUsage", true),
+        PROCESS_RSS_MB("process_rss_mb", "processRssMB", false),
+        HEAP_USED_MB("heap_used_mb", "heapUsedMB", false),
+        HEAP_COMMITTED_MB("heap_committed_mb", "heapCommittedMB", false),
+        NON_HEAP_USED_MB("non_heap_used_mb", "nonHeapUsedMB", false),
+        /** Collections since the previous snapshot */
+        GC_COUNT("gc_count", "gcCount", false),
+        /** Collection time since the previous snapshot, as reported by the GC MXBeans */
+        GC_TIME_MS("gc_time_ms", "gcTimeMs", false),
+        NET_RX_BYTES_PER_SEC("net_rx_bytes_per_sec", "netRxBytesPerSec", false),
+        NET_TX_BYTES_PER_SEC("net_tx_bytes_per_sec", "netTxBytesPerSec", false),
+        NET_RX_PACKETS_PER_SEC("net_rx_packets_per_sec", "netRxPacketsPerSec", false),
+        NET_TX_PACKETS_PER_SEC("net_tx_packets_per_sec", "netTxPacketsPerSec", false),
+        DISK_READ_BYTES_PER_SEC("disk_read_bytes_per_sec", "diskReadBytesPerSec", false),
+        DISK_WRITE_BYTES_PER_SEC("disk_write_bytes_per_sec", "diskWriteBytesPerSec", false),
+        LOAD_AVERAGE_1M("load_average_1m", "loadAverage1m", true),
+        OPEN_FILE_DESCRIPTORS("open_file_descriptors", "openFileDescriptors", false);
+
+        private final String columnName;
+        private final String jsonName;
+        private final boolean fractional;
+
+        Metric(String columnName, String jsonName, boolean fractional) {
+            this.columnName = columnName;
+            this.jsonName = jsonName;
+            this.fractional = fractional;
+        }
+
+        public String getColumnName() {
+            return columnName;
+        }
+
+        public String getJsonName() {
+            return jsonName;
+        }
+    }
+
+    private static final Metric[] METRICS = Metric.values();
+
+    /**
+     * Header of the system metrics CSV written by {@link #appendCsv(StringBuilder)}
+     */
+    public static final String CSV_HEADER = createCsvHeader();
+
+    private final double[] values;
+    private final double[] perCoreUsage;
     private final boolean isFresh;
     private final long timestamp;
-    
-    public SystemMetricsSnapshot(double cpuUsage, double memoryUsage, long usedMemoryMB, 
+
+    public SystemMetricsSnapshot(double cpuUsage, double memoryUsage, long usedMemoryMB,
                                 long availableMemoryMB, boolean isFresh) {
-        this.cpuUsage = cpuUsage;
-        this.memoryUsage = memoryUsage;
-        this.usedMemoryMB = usedMemoryMB;
-        this.availableMemoryMB = availableMemoryMB;
+        this(cpuUsage, memoryUsage, usedMemoryMB, availableMemoryMB, new double[0], isFresh);
+    }
+
+    public SystemMetricsSnapshot(double cpuUsage, double memoryUsage, long usedMemoryMB,
+                                long availableMemoryMB, double[] perCoreUsage, boolean isFresh) {
+        this(basicValues(cpuUsage, memoryUsage, usedMemoryMB, availableMemoryMB), perCoreUsage, isFresh);
+    }
+
+    /**
+     * Creates a snapshot with all metrics
+     * @param values Value of every {@link Metric}, indexed by ordinal
+     * @param perCoreUsage Usage percentage per logical processor
+     * @param isFresh true if collected now, false if cached
+     */
+    public SystemMetricsSnapshot(double[] values, double[] perCoreUsage, boolean isFresh) {
+        this(System.currentTimeMillis(), values, perCoreUsage, isFresh);
+    }
+
+    /**
+     * Creates a snapshot taken at the given time, e.g. from {@link SystemMetricsHistory}
+     */
+    SystemMetricsSnapshot(long timestamp, double[] values, double[] perCoreUsage, boolean isFresh) {
+        this.values = Arrays.copyOf(values, METRICS.length);
+        this.perCoreUsage = perCoreUsage.clone();
         this.isFresh = isFresh;
-        this.timestamp = System.currentTimeMillis();
+        this.timestamp = timestamp;
+    }
+
+    private static double[] basicValues(double cpuUsage, double memoryUsage, long usedMemoryMB, long availableMemoryMB) {
+        double[] values = new double[METRICS.length];
+        Arrays.fill(values, -1);
+        values[Metric.CPU_USAGE.ordinal()] = cpuUsage;
+        values[Metric.MEMORY_USAGE.ordinal()] = memoryUsage;
+        values[Metric.USED_MEMORY_MB.ordinal()] = usedMemoryMB;
+        values[Metric.AVAILABLE_MEMORY_MB.ordinal()] = availableMemoryMB;
+        return values;
+    }
+
+    private static String createCsvHeader() {
+        StringBuilder header = new StringBuilder("timestamp");
+        for (Metric metric : METRICS) {
+            header.append(',').append(metric.columnName);
+        }
+        return header.append('\n').toString();
+    }
+
+    /**
+     * Get the value of a metric
+     * @return The value, or -1 if not available
+     */
+    public double getValue(Metric metric) {
+        return values[metric.ordinal()];
     }
-    
+
     /**
      * Get CPU usage percentage
      * @return CPU usage percentage, or -1 if not available
      */
     public double getCpuUsage() {
-        return cpuUsage;
+        return getValue(Metric.CPU_USAGE);
     }
-    
+
     /**
      * Get memory usage percentage
      * @return Memory usage percentage, or -1 if not available
      */
     public double getMemoryUsage() {
-        return memoryUsage;
+        return getValue(Metric.MEMORY_USAGE);
     }
-    
+
     /**
      * Get used memory in MB
      * @return Used memory in MB
      */
     public long getUsedMemoryMB() {
-        return usedMemoryMB;
+        return (long) getValue(Metric.USED_MEMORY_MB);
     }
-    
+
     /**
      * Get available memory in MB
      * @return Available memory in MB
      */
     public long getAvailableMemoryMB() {
-        return availableMemoryMB;
+        return (long) getValue(Metric.AVAILABLE_MEMORY_MB);
+    }
+
+    /**
+     * Get the usage of every logical processor
+     * @return Usage percentage per logical processor, empty if not available
+     */
+    public double[] getPerCoreUsage() {
+        return perCoreUsage.clone();
     }
-    
+
     /**
      * Check if this snapshot contains fresh data
      * @return true if fresh data, false if cached
@@ -61,7 +169,7 @@ public class SystemMetricsSnapshot {
     public boolean isFresh() {
         return isFresh;
     }
-    
+
     /**
      * Get timestamp when this snapshot was created
      * @return Timestamp in milliseconds
@@ -69,26 +177,86 @@ public class SystemMetricsSnapshot {
     public long getTimestamp() {
         return timestamp;
     }
-    
+
     /**
      * Check if CPU metrics are available
      * @return true if CPU metrics are available
      */
     public boolean isCpuAvailable() {
-        return cpuUsage >= 0;
+        return getCpuUsage() >= 0;
     }
-    
+
     /**
      * Check if memory metrics are available
      * @return true if memory metrics are available
      */
     public boolean isMemoryAvailable() {
-        return memoryUsage >= 0;
+        return getMemoryUsage() >= 0;
+    }
+
+    /**
+     * Appends this snapshot as one line of the system metrics CSV (see {@link #CSV_HEADER})
+     */
+    public void appendCsv(StringBuilder sb) {
+        appendCsv(sb, timestamp, values);
+    }
+
+    /**
+     * Appends one line of the system metrics CSV
+     * @param values Value of every {@link Metric}, indexed by ordinal
+     */
+    static void appendCsv(StringBuilder sb, long timestamp, double[] values) {
+        sb.append(timestamp);
+        for (Metric metric : METRICS) {
+            sb.append(',');
+            appendValue(sb, metric, values[metric.ordinal()]);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Appends this snapshot as a JSON object
+     * @param csvNames true to use the CSV column names as keys, false for the /system-metrics names
+     */
+    public void appendJson(StringBuilder sb, boolean csvNames) {
+        sb.append("{\"timestamp\":").append(timestamp);
+        for (Metric metric : METRICS) {
+            sb.append(",\"").append(csvNames ? metric.columnName : metric.jsonName).append("\":");
+            appendValue(sb, metric, values[metric.ordinal()]);
+        }
+        sb.append(csvNames ? ",\"per_core_usage\":[" : ",\"perCoreUsage\":[");
+        for (int i = 0; i < perCoreUsage.length; i++) {
+            if (i > 0) sb.append(',');
+            appendFixed2(sb, perCoreUsage[i]);
+        }
+        sb.append("]}");
+    }
+
+    /**
+     * Appends a value as written in the CSV and JSON: two decimals for fractional metrics, else a whole number
+     */
+    static void appendValue(StringBuilder sb, Metric metric, double value) {
+        if (metric.fractional && value >= 0) {
+            appendFixed2(sb, value);
+        } else {
+            sb.append(Math.round(value));
+        }
+    }
+
+    // Same output as String.format(Locale.ROOT, "%.2f", value) for non-negative values, without allocating
+    private static void appendFixed2(StringBuilder sb, double value) {
+        long hundredths = Math.round(value * 100);
+        long fraction = hundredths % 100;
+        sb.append(hundredths / 100).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
     }
-    
+
     @Override
     public String toString() {
-        return String.format("SystemMetricsSnapshot{cpu=%.2f%%, memory=%.2f%%, used=%dMB, available=%dMB, fresh=%s}", 
-                           cpuUsage, memoryUsage, usedMemoryMB, availableMemoryMB, isFresh);
+        return String.format("SystemMetricsSnapshot{cpu=%.2f%%, memory=%.2f%%, used=%dMB, available=%dMB, fresh=%s}",
+                           getCpuUsage(), getMemoryUsage(), getUsedMemoryMB(), getAvailableMemoryMB(), isFresh);
     }
 }
@@ -0,0 +1,56 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable-length integers (7 bits per byte, least significant group first) for the compact encodings of
+ * {@link SampleAggregator} and {@link LatencyHistogram}: counts and sums of an interval mostly fit one to three
+ * bytes. Signed values are zigzag encoded so small negative numbers stay short.
+ */
+final class VarInts {
+
+    private VarInts() {
+    }
+
+    static void writeLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable-length integer");
+    }
+
+    static void writeSignedLong(DataOutput out, long value) throws IOException {
+        writeLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readSignedLong(DataInput in) throws IOException {
+        long value = readLong(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a non-negative count that must not exceed max, e.g. an array length
+     */
+    static int readCount(DataInput in, int max) throws IOException {
+        long value = readLong(in);
+        if (value < 0 || value > max) {
+            throw new IOException("Invalid count " + value + " (maximum " + max + ")");
+        }
+        return (int) value;
+    }
+}
@@ -0,0 +1,127 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Lines written by {@link AsyncJtlWriter} while many sampler threads write at once
+ */
+public class AsyncJtlWriterTest {
+
+    private static final int THREADS = 500;
+    private static final int SAMPLES_PER_THREAD = 200;
+    private static final int COLUMNS = JtlRecord.HEADER.split(",").length;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyLineOfConcurrentWritersParses() throws Exception {
+        File file = folder.newFile("concurrent.jtl");
+        // A small queue, so sampler threads also wait for room while the writer thread drains
+        AsyncJtlWriter writer = new AsyncJtlWriter(file, 4096, 8, AsyncJtlWriter.OverflowPolicy.BLOCK, 10,
+            16 * 1024, 50);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            Thread sampler = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < SAMPLES_PER_THREAD; i++) {
+                        writer.write(sample(thread, i));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "sampler-" + t);
+            sampler.start();
+            threads.add(sampler);
+        }
+        start.countDown();
+        for (Thread sampler : threads) {
+            sampler.join();
+        }
+        writer.close();
+        if (failure.get() != null) {
+            throw new AssertionError("Sampler thread failed", failure.get());
+        }
+        assertEquals(0, writer.getDroppedCount());
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(JtlRecord.HEADER.trim(), lines.get(0));
+        assertEquals(THREADS * SAMPLES_PER_THREAD, lines.size() - 1);
+        int[] nextSample = new int[THREADS];
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(",", -1);
+            assertEquals("Columns of " + line, COLUMNS, fields.length);
+            Long.parseLong(fields[0]);
+            Long.parseLong(fields[1]);
+            assertTrue("Label of " + line, fields[2].startsWith("label-"));
+            // Order is kept per sampler thread, the label carries the thread and sample number
+            String[] label = fields[2].substring("label-".length()).split("-");
+            int thread = Integer.parseInt(label[0]);
+            assertEquals("Thread of " + line, "sampler-" + thread, fields[5]);
+            assertEquals("Order of " + line, nextSample[thread]++, Integer.parseInt(label[1]));
+        }
+
+        JtlCsvParser parser = new JtlCsvParser((label, timeStamp, elapsed, success, responseCode, responseMessage,
+                                                bytes, connectTime, latency, allThreads) -> { });
+        assertEquals(THREADS * SAMPLES_PER_THREAD, parser.parse(file));
+        assertEquals(0, parser.getSkippedLines());
+    }
+
+    @Test
+    public void lineBreaksAndQuotesStayInTheirField() throws Exception {
+        File file = folder.newFile("quoted.jtl");
+        String[] messages = {"first line\nsecond line", "windows\r\nline", "trailing\r", "comma, \"quoted\"", "plain"};
+        AsyncJtlWriter writer = new AsyncJtlWriter(file, 64, 1, AsyncJtlWriter.OverflowPolicy.BLOCK, 10, 1024, 50);
+        for (int i = 0; i < messages.length; i++) {
+            SampleResult result = sample(0, i);
+            result.setSuccessful(false);
+            result.setResponseMessage(messages[i]);
+            writer.write(result);
+        }
+        writer.close();
+
+        String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(content, content.contains(",\"first line\nsecond line\","));
+        assertTrue(content, content.contains(",\"trailing\r\","));
+        assertTrue(content, content.contains(",\"comma, \"\"quoted\"\"\","));
+        List<String> parsed = new ArrayList<>();
+        JtlCsvParser parser = new JtlCsvParser((label, timeStamp, elapsed, success, responseCode, message, bytes,
+                                                connectTime, latency, allThreads) -> parsed.add(message));
+        assertEquals(messages.length, parser.parse(file));
+        assertEquals(0, parser.getSkippedLines());
+        assertEquals(Arrays.asList(messages), parsed);
+    }
+
+    private static SampleResult sample(int thread, int i) {
+        long timeStamp = 1_700_000_000_000L + i;
+        SampleResult result = SampleResult.createTestSample(timeStamp, timeStamp + 10 + i % 50);
+        result.setSampleLabel("label-" + thread + "-" + i);
+        result.setThreadName("sampler-" + thread);
+        result.setResponseCode("200");
+        result.setResponseMessage("OK");
+        result.setDataType(SampleResult.TEXT);
+        result.setSuccessful(true);
+        result.setBytes(1024L);
+        result.setAllThreads(THREADS);
+        return result;
+    }
+}
@@ -0,0 +1,165 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Deltas POSTed to /cluster/delta of a run: the shared token, deltas outside a test, and deltas resent with a
+ * sequence already applied
+ */
+public class ClusterDeltaTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+    private static final String TOKEN = "s3cret";
+    private static final Map<String, String> WITH_TOKEN =
+        Collections.singletonMap(ClusterDeltaReporter.TOKEN_HEADER, TOKEN);
+
+    private LiveDashboardEngine run;
+    private String runPath;
+
+    @Before
+    public void acquireRun() throws IOException {
+        LiveDashboardTestServer.start();
+        // Read when the run is created
+        JMeterUtils.setProperty(DistributedSampleSender.TOKEN_PROPERTY, TOKEN);
+        run = LiveDashboardServer.getInstance().acquireRun("ClusterDeltaTest");
+        runPath = "/runs/" + run.getId();
+    }
+
+    @After
+    public void releaseRun() {
+        JMeterUtils.getJMeterProperties().remove(DistributedSampleSender.TOKEN_PROPERTY);
+        run.testEnded();
+        LiveDashboardServer.getInstance().releaseRun(run);
+    }
+
+    @Test
+    public void deltasNeedTheSharedToken() throws IOException {
+        run.testStarted();
+        byte[] payload = payload("engine-1", 1, 1, delta("home", 10));
+        assertEquals(403, post(payload, Collections.emptyMap()).status);
+        assertEquals(403, post(payload, Collections.singletonMap(ClusterDeltaReporter.TOKEN_HEADER, "s3cre")).status);
+        assertEquals(0, samples("home"));
+
+        LiveDashboardTestServer.Response response = post(payload, WITH_TOKEN);
+        assertEquals(200, response.status);
+        assertEquals("{\"sequence\":1}", response.body);
+        assertEquals(10, samples("home"));
+    }
+
+    @Test
+    public void deltasAreRejectedOutsideATest() throws IOException {
+        byte[] payload = payload("engine-1", 1, 1, delta("home", 10));
+        assertEquals(503, post(payload, WITH_TOKEN).status);
+        run.testStarted();
+        assertEquals(200, post(payload, WITH_TOKEN).status);
+        run.testEnded();
+        assertEquals(503, post(payload("engine-1", 1, 2, delta("home", 10)), WITH_TOKEN).status);
+        assertEquals(10, samples("home"));
+    }
+
+    @Test
+    public void resentDeltasAreAppliedOnce() throws IOException {
+        run.testStarted();
+        byte[] first = payload("engine-1", 1, 1, delta("home", 10));
+        assertEquals(200, post(first, WITH_TOKEN).status);
+        // The response was lost, the engine sends the same delta again
+        LiveDashboardTestServer.Response resent = post(first, WITH_TOKEN);
+        assertEquals(200, resent.status);
+        assertEquals("{\"sequence\":1}", resent.body);
+        assertEquals(200, post(payload("engine-1", 1, 2, delta("home", 5)), WITH_TOKEN).status);
+        // Another engine, and the same engine restarted, number their deltas from 1 again
+        assertEquals(200, post(payload("engine-2", 1, 1, delta("home", 3)), WITH_TOKEN).status);
+        assertEquals(200, post(payload("engine-1", 2, 1, delta("home", 1)), WITH_TOKEN).status);
+        assertEquals(19, samples("home"));
+
+        String cluster = get("/cluster").body;
+        assertTrue(cluster, cluster.startsWith("{\"duplicates\":1,"));
+        assertTrue(cluster, cluster.contains("{\"id\":\"engine-1\",\"runId\":2,\"lastSequence\":1,\"deltas\":1,"));
+        assertTrue(cluster, cluster.contains("{\"id\":\"engine-2\",\"runId\":1,\"lastSequence\":1,\"deltas\":1,"));
+    }
+
+    @Test
+    public void invalidDeltasAreRejected() throws IOException {
+        run.testStarted();
+        SampleAggregator delta = new SampleAggregator(LiveDashboardEngine.aggregateBucketMillis() * 2, 0.01);
+        add(delta, "home", 10);
+        assertEquals(409, post(payload("engine-1", 1, 1, delta), WITH_TOKEN).status);
+        assertEquals(400, post(new byte[] {1, 2, 3}, WITH_TOKEN).status);
+        assertEquals(405, get(ClusterDeltaReporter.DELTA_PATH).status);
+        assertEquals(0, samples("home"));
+    }
+
+    @Test
+    public void reporterDeltasAreMerged() throws IOException {
+        run.testStarted();
+        try (ClusterDeltaReporter reporter = new ClusterDeltaReporter(LiveDashboardTestServer.start() + runPath,
+                "engine-1", 60000, LiveDashboardEngine.aggregateBucketMillis(),
+                LiveDashboardEngine.histogramRelativeError(), null, null, TOKEN)) {
+            for (int i = 0; i < 100; i++) {
+                reporter.add("login", BASE + i * 100L, 20 + i, i % 10 != 0, "200", "OK", 1000, 1, 2, 1);
+            }
+            assertTrue(reporter.flush());
+            assertEquals(1, reporter.getDeltasSent());
+        }
+        assertEquals(100, samples("login"));
+    }
+
+    private long samples(String label) {
+        SampleAggregator aggregator = run.getSampleAggregator();
+        if (aggregator == null) {
+            return 0;
+        }
+        return aggregator.getHistogram(label, Long.MIN_VALUE, Long.MAX_VALUE).getCount();
+    }
+
+    private LiveDashboardTestServer.Response post(byte[] payload, Map<String, String> headers) throws IOException {
+        return LiveDashboardTestServer.request(runPath + ClusterDeltaReporter.DELTA_PATH, payload, headers);
+    }
+
+    private LiveDashboardTestServer.Response get(String path) throws IOException {
+        return LiveDashboardTestServer.request(runPath + path, null, Collections.emptyMap());
+    }
+
+    private static SampleAggregator delta(String label, int samples) {
+        SampleAggregator delta = new SampleAggregator(LiveDashboardEngine.aggregateBucketMillis(),
+            LiveDashboardEngine.histogramRelativeError());
+        add(delta, label, samples);
+        return delta;
+    }
+
+    private static void add(SampleAggregator delta, String label, int samples) {
+        for (int i = 0; i < samples; i++) {
+            delta.add(label, BASE + i * 100L, 20, true, "200", "OK", 1000, 1, 2, 1);
+        }
+    }
+
+    /**
+     * Request body of a delta, as {@link ClusterDeltaReporter} encodes it
+     */
+    private static byte[] payload(String engineId, long runId, long sequence, SampleAggregator delta)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ClusterDeltaReporter.PAYLOAD_MAGIC);
+            out.writeUTF(engineId);
+            out.writeLong(runId);
+            out.writeLong(sequence);
+            out.writeDouble(-1);
+            out.writeDouble(-1);
+            delta.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+}
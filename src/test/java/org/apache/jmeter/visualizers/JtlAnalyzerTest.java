@@ -0,0 +1,132 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Exit status and reports of the offline analysis, run as from the command line
+ */
+public class JtlAnalyzerTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+    // Error rate gate: PASS up to 1%, WARNING up to 5%
+    private static final String ERROR_RATE_GATE = "true|Error Rate|Avg|&lt;=|1|5|1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    @Test
+    public void passingAndWarningVerdictsExitWithZero() throws IOException {
+        File jmx = plan(true, ERROR_RATE_GATE);
+        File json = new File(folder.getRoot(), "report.json");
+        File html = new File(folder.getRoot(), "report.html");
+        assertEquals(JtlAnalyzer.EXIT_OK, run("--jmx", jmx.getPath(), "--json", json.getPath(),
+            "--html", html.getPath(), jtl(1000, 0).getPath()));
+        String report = Files.readString(json.toPath());
+        assertTrue(report, report.startsWith("{\"files\":["));
+        assertTrue(report, report.contains("\"samples\":1000,\"skippedLines\":0,"));
+        assertTrue(report, report.contains("\"qualityGate\":{\"status\":\"PASS\",\"score\":80"));
+        assertTrue(html.length() > 0);
+        assertTrue(err(), err().startsWith("Quality gate: PASS (score 80.00), 1000 samples from 1 file(s)"));
+
+        // 3% of failures
+        assertEquals(JtlAnalyzer.EXIT_OK, run("--jmx", jmx.getPath(), jtl(1000, 33).getPath()));
+        assertTrue(out.toString(StandardCharsets.UTF_8), out.toString(StandardCharsets.UTF_8)
+            .contains("\"qualityGate\":{\"status\":\"WARNING\""));
+    }
+
+    @Test
+    public void failingVerdictExitsWithOne() throws IOException {
+        // 10% of failures, over two files
+        File jmx = plan(true, ERROR_RATE_GATE);
+        assertEquals(JtlAnalyzer.EXIT_FAIL, run("--jmx", jmx.getPath(), "--threads", "2",
+            jtl(1000, 10).getPath(), jtl(500, 10).getPath()));
+        assertTrue(err(), err().startsWith("Quality gate: FAIL (score 0.00), 1500 samples from 2 file(s)"));
+    }
+
+    @Test
+    public void planWithoutGatesExitsWithZero() throws IOException {
+        // A disabled element is not the plan's dashboard
+        File jmx = plan(false, ERROR_RATE_GATE);
+        assertEquals(JtlAnalyzer.EXIT_OK, run("--jmx", jmx.getPath(), jtl(100, 1).getPath()));
+        assertTrue(err(), err().startsWith("No Live Dashboard element in "));
+        assertEquals(JtlAnalyzer.EXIT_OK, run(jtl(100, 1).getPath()));
+    }
+
+    @Test
+    public void invalidArgumentsAndFilesExitWithTwo() throws IOException {
+        File jtl = jtl(100, 0);
+        assertEquals(JtlAnalyzer.EXIT_ERROR, run());
+        assertEquals(JtlAnalyzer.EXIT_ERROR, run("--frobnicate", "1", jtl.getPath()));
+        assertEquals(JtlAnalyzer.EXIT_ERROR, run(jtl.getPath(), "--json"));
+        assertEquals(JtlAnalyzer.EXIT_ERROR, run("--threads", "many", jtl.getPath()));
+        assertEquals(JtlAnalyzer.EXIT_ERROR, run(new File(folder.getRoot(), "missing.jtl").getPath()));
+
+        File broken = folder.newFile("broken.jmx");
+        Files.writeString(broken.toPath(), "<jmeterTestPlan><hashTree>");
+        assertEquals(JtlAnalyzer.EXIT_ERROR, run("--jmx", broken.getPath(), jtl.getPath()));
+        assertEquals(JtlAnalyzer.EXIT_ERROR, run("--jmx", plan(true, "true|Error Rate|Avg|&lt;=|one|5|1").getPath(),
+            jtl.getPath()));
+        assertEquals(JtlAnalyzer.EXIT_OK, run("--help"));
+    }
+
+    private int run(String... args) {
+        out.reset();
+        err.reset();
+        return JtlAnalyzer.run(args, new PrintStream(out, true, StandardCharsets.UTF_8),
+            new PrintStream(err, true, StandardCharsets.UTF_8));
+    }
+
+    private String err() {
+        return err.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A JTL file of samples 10 ms apart, one in every failEvery failing (none if 0)
+     */
+    private File jtl(int samples, int failEvery) throws IOException {
+        StringBuilder jtl = new StringBuilder(JtlRecord.HEADER);
+        for (int i = 0; i < samples; i++) {
+            boolean success = failEvery == 0 || i % failEvery != 0;
+            jtl.append(BASE + i * 10L).append(',').append(20 + i % 30).append(",home,")
+                .append(success ? "200,OK" : "500,Internal Server Error")
+                .append(",Thread 1-1,text,").append(success).append(",,1000,100,1,1,,5,0,1\n");
+        }
+        File file = folder.newFile();
+        Files.writeString(file.toPath(), jtl);
+        return file;
+    }
+
+    /**
+     * A test plan with a Live Dashboard element holding the given gate
+     */
+    private File plan(boolean enabled, String gate) throws IOException {
+        File file = folder.newFile();
+        Files.writeString(file.toPath(), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<jmeterTestPlan version=\"1.2\"><hashTree>\n"
+            + "<org.apache.jmeter.visualizers.LiveDashboardCollector"
+            + " guiclass=\"org.apache.jmeter.visualizers.LiveDashboardListener\""
+            + " testclass=\"org.apache.jmeter.visualizers.LiveDashboardCollector\" testname=\"Dashboard\""
+            + " enabled=\"" + enabled + "\">\n"
+            + "<stringProp name=\"QUALITY_GATE_CONFIG\">" + gate + "</stringProp>\n"
+            + "<stringProp name=\"PASS_SCORE\">80</stringProp>\n"
+            + "<stringProp name=\"WARNING_SCORE\">60</stringProp>\n"
+            + "</org.apache.jmeter.visualizers.LiveDashboardCollector>\n"
+            + "</hashTree></jmeterTestPlan>\n");
+        return file;
+    }
+}
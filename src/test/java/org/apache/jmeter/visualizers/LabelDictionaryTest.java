@@ -0,0 +1,95 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Label normalization and the limit of aggregated labels of {@link LabelDictionary}
+ */
+public class LabelDictionaryTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+
+    @Test
+    public void rulesApplyInOrder() {
+        LabelDictionary labels = new LabelDictionary(10, Arrays.asList(
+            "\\?.*=>", "/[0-9]+=>/{id}", "no separator", "[unclosed=>x", "^GET (.*)=>$1", "^/v2$=>/v2/index"));
+        assertEquals("/users/{id}/orders/{id}", labels.resolve("/users/42/orders/7?page=2", 1));
+        assertEquals("/users/{id}/orders/{id}", labels.resolve("/users/43/orders/8", 1));
+        assertEquals("/users/{id}", labels.resolve("GET /users/1", 1));
+        // Each rule reads the label left by the rules before it
+        assertEquals("/v2/index", labels.resolve("/v2?id=5", 1));
+
+        String json = labels.toJson();
+        assertTrue(json, json.contains("\"rules\":[{\"pattern\":\"\\\\?.*\",\"template\":\"\"},"
+            + "{\"pattern\":\"/[0-9]+\",\"template\":\"/{id}\"},{\"pattern\":\"^GET (.*)\",\"template\":\"$1\"},"
+            + "{\"pattern\":\"^/v2$\",\"template\":\"/v2/index\"}]"));
+        assertTrue(json, json.contains("{\"label\":\"/users/{id}/orders/{id}\",\"samples\":2,\"missedSamples\":0}"));
+    }
+
+    @Test
+    public void oneOffLabelsBeyondTheLimitAreFolded() {
+        // 6 labels admitted as they appear, 2 kept for heavy hitters
+        LabelDictionary labels = new LabelDictionary(8, Collections.emptyList());
+        for (int i = 0; i < 6; i++) {
+            assertEquals("page-" + i, labels.resolve("page-" + i, 1));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(LabelDictionary.OTHER_LABEL, labels.resolve("/session/" + i, 1));
+        }
+        // Already folded by a remote engine
+        assertEquals(LabelDictionary.OTHER_LABEL, labels.resolve(LabelDictionary.OTHER_LABEL, 5));
+        assertEquals("page-0", labels.resolve("page-0", 1));
+
+        String json = labels.toJson();
+        assertTrue(json, json.startsWith("{\"maxLabels\":8,\"firstComeLabels\":6,\"promoted\":0,"
+            + "\"otherLabel\":\"(other labels)\",\"otherSamples\":10005,"));
+    }
+
+    @Test
+    public void heavyHitterIsAdmittedOnceItOutnumbersTheOthers() {
+        LabelDictionary labels = new LabelDictionary(8, Collections.emptyList());
+        for (int i = 0; i < 6; i++) {
+            labels.resolve("page-" + i, 10);
+        }
+        // A late label with a sample every 4th among one-off labels
+        int hot = 0;
+        int hotFolded = 0;
+        for (int i = 0; i < 4000; i++) {
+            if (i % 4 == 0) {
+                hot++;
+                if (labels.resolve("checkout", 1).equals(LabelDictionary.OTHER_LABEL)) {
+                    hotFolded++;
+                }
+            } else {
+                assertEquals(LabelDictionary.OTHER_LABEL, labels.resolve("/session/" + i, 1));
+            }
+        }
+        // Admitted once it had more samples than the least used label
+        assertEquals(10, hotFolded);
+        String json = labels.toJson();
+        assertTrue(json, json.contains("\"promoted\":1,"));
+        assertTrue(json, json.contains("{\"label\":\"checkout\",\"samples\":" + (hot - hotFolded)
+            + ",\"missedSamples\":10}"));
+    }
+
+    @Test
+    public void aggregatorKeepsEverySample() {
+        LabelDictionary labels = new LabelDictionary(4, Collections.singletonList("/item/[0-9]+=>/item/N"));
+        SampleAggregator aggregator = new SampleAggregator(1000, 0.01, labels);
+        for (int i = 0; i < 1000; i++) {
+            aggregator.add("/item/" + i % 3, BASE + i, 20, true, "200", "OK", 100, 1, 2, 1);
+            aggregator.add("/session/" + i, BASE + i, 20, true, "200", "OK", 100, 1, 2, 1);
+        }
+        assertEquals(2000, aggregator.getHistogram(null, Long.MIN_VALUE, Long.MAX_VALUE).getCount());
+        assertEquals(1000, aggregator.getHistogram("/item/N", Long.MIN_VALUE, Long.MAX_VALUE).getCount());
+        // The first two sessions take the remaining first-come slots
+        assertEquals(1000 - 2, aggregator.getHistogram(LabelDictionary.OTHER_LABEL, Long.MIN_VALUE, Long.MAX_VALUE)
+            .getCount());
+    }
+}
@@ -0,0 +1,166 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.jmeter.util.JMeterUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Downloads of a file larger than the heap, which the dashboard must stream instead of reading it whole.
+ * Runs in the large-file surefire execution, whose fork has a small heap; skipped in a JVM with a large one.
+ */
+public class LargeFileServingTest {
+
+    // Largest heap the test runs with, so the file it writes stays small enough for a build
+    private static final long MAX_HEAP_BYTES = 256L * 1024 * 1024;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static LiveDashboardServer server;
+    private static String baseUrl;
+    private static long fileSize;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        long maxHeap = Runtime.getRuntime().maxMemory();
+        assumeTrue("Heap of " + maxHeap + " bytes, run with a small -Xmx", maxHeap <= MAX_HEAP_BYTES);
+
+        File bin = folder.newFolder("bin");
+        File properties = new File(bin, "jmeter.properties");
+        // The metrics file is the one served, the collector must not replace it
+        Files.write(properties.toPath(),
+            "live.dashboard.system_metrics.persist=false\n".getBytes(StandardCharsets.ISO_8859_1));
+        JMeterUtils.setJMeterHome(bin.getParent());
+        JMeterUtils.loadJMeterProperties(properties.getPath());
+
+        fileSize = maxHeap + 16L * 1024 * 1024;
+        writeLines(new File(bin, LiveDashboardEngine.SYSTEM_METRICS_FILENAME), fileSize);
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = LiveDashboardServer.getInstance();
+        server.startServer(port);
+        baseUrl = "http://localhost:" + port + "/" + LiveDashboardEngine.SYSTEM_METRICS_FILENAME;
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        if (server != null) {
+            server.stopServer();
+        }
+    }
+
+    @Test
+    public void servesFileLargerThanHeap() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals(fileSize, connection.getContentLengthLong());
+            assertEquals(fileSize, count(in));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void compressesFileLargerThanHeap() throws IOException {
+        downloadCompressed();
+        // Every block of the file is compressed at most once, later downloads are served from the cache
+        String before = server.getGzipCache().toJson();
+        downloadCompressed();
+        String after = server.getGzipCache().toJson();
+        assertEquals(field(before, "misses"), field(after, "misses"));
+        assertEquals(field(before, "hits") + fileSize / GzipBlockCache.BLOCK_BYTES, field(after, "hits"));
+    }
+
+    private void downloadCompressed() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl).openConnection();
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        try (InputStream in = connection.getInputStream()) {
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("gzip", connection.getContentEncoding());
+            assertEquals(fileSize, count(new GZIPInputStream(new MemberAwareStream(in))));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Writes system metrics lines up to exactly size bytes
+     */
+    private static void writeLines(File file, long size) throws IOException {
+        byte[] line = "1700000000000,42.5,61.25\n".getBytes(StandardCharsets.US_ASCII);
+        byte[] chunk = new byte[line.length * 4096];
+        for (int i = 0; i < chunk.length; i += line.length) {
+            System.arraycopy(line, 0, chunk, i, line.length);
+        }
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            long written = 0;
+            while (written < size) {
+                int count = (int) Math.min(chunk.length, size - written);
+                out.write(chunk, 0, count);
+                written += count;
+            }
+        }
+        assertEquals(size, file.length());
+    }
+
+    /**
+     * The response is a series of gzip members, one per cached block. GZIPInputStream stops after a member when
+     * available() is 0, which happens whenever the next member has not arrived yet; this waits for it instead.
+     */
+    private static final class MemberAwareStream extends BufferedInputStream {
+        MemberAwareStream(InputStream in) {
+            super(in, 64 * 1024);
+        }
+
+        @Override
+        public synchronized int available() throws IOException {
+            mark(1);
+            if (read() < 0) {
+                return 0;
+            }
+            reset();
+            return super.available();
+        }
+    }
+
+    private static long field(String json, String name) {
+        Matcher matcher = Pattern.compile("\"" + name + "\":(\\d+)").matcher(json);
+        assertTrue(json, matcher.find());
+        return Long.parseLong(matcher.group(1));
+    }
+
+    private static long count(InputStream in) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            total += read;
+        }
+        return total;
+    }
+}
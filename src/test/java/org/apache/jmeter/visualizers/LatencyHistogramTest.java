@@ -0,0 +1,108 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Percentiles of {@link LatencyHistogram} against the exact values of the same samples
+ */
+public class LatencyHistogramTest {
+
+    private static final double[] PERCENTILES = {1, 10, 50, 75, 90, 95, 99, 99.9};
+
+    @Test
+    public void percentilesAreWithinTheRelativeError() {
+        for (double relativeError : new double[] {0.01, 0.05}) {
+            long[] values = latencies(100_000, 42);
+            LatencyHistogram histogram = new LatencyHistogram(relativeError);
+            for (long value : values) {
+                histogram.add(value);
+            }
+            assertPercentiles(values, histogram, relativeError);
+        }
+    }
+
+    @Test
+    public void mergedHistogramsAnswerLikeOne() {
+        long[] values = latencies(50_000, 7);
+        LatencyHistogram whole = new LatencyHistogram(0.01);
+        LatencyHistogram first = new LatencyHistogram(0.01);
+        LatencyHistogram second = new LatencyHistogram(0.01);
+        for (int i = 0; i < values.length; i++) {
+            whole.add(values[i]);
+            (i % 3 == 0 ? first : second).add(values[i]);
+        }
+        first.merge(second);
+        assertEquals(whole.getCount(), first.getCount());
+        for (double percentile : PERCENTILES) {
+            assertEquals(whole.getPercentile(percentile), first.getPercentile(percentile), 0);
+        }
+        assertPercentiles(values, first, 0.01);
+    }
+
+    @Test
+    public void encodingKeepsThePercentiles() throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram(0.01);
+        for (long value : latencies(10_000, 3)) {
+            histogram.add(value);
+        }
+        histogram.add(0, 5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        histogram.writeTo(new DataOutputStream(bytes));
+        LatencyHistogram decoded = LatencyHistogram.readFrom(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 0.01);
+        assertEquals(histogram.getCount(), decoded.getCount());
+        assertEquals(histogram.getMin(), decoded.getMin());
+        assertEquals(histogram.getMax(), decoded.getMax());
+        for (double percentile : PERCENTILES) {
+            assertEquals(histogram.getPercentile(percentile), decoded.getPercentile(percentile), 0);
+        }
+    }
+
+    @Test
+    public void extremesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram(0.01);
+        assertEquals(0, histogram.getPercentile(50), 0);
+        histogram.add(0, 10);
+        histogram.add(123_456);
+        assertEquals(0, histogram.getPercentile(50), 0);
+        assertEquals(0, histogram.getPercentile(0), 0);
+        assertEquals(123_456, histogram.getPercentile(100), 0);
+        assertEquals(0, histogram.getMin());
+        assertEquals(123_456, histogram.getMax());
+    }
+
+    private static void assertPercentiles(long[] values, LatencyHistogram histogram, double relativeError) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double percentile : PERCENTILES) {
+            // Nearest rank, as the histogram defines percentiles
+            long exact = sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+            double estimate = histogram.getPercentile(percentile);
+            assertTrue("p" + percentile + " at " + relativeError + ": " + estimate + " for " + exact,
+                Math.abs(estimate - exact) <= relativeError * exact + 1e-9);
+        }
+    }
+
+    /**
+     * Values spread evenly over the logarithm of 1 ms to 60 s, like the latencies of a mix of requests
+     */
+    private static long[] latencies(int count, long seed) {
+        Random random = new Random(seed);
+        long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = Math.round(Math.exp(random.nextDouble() * Math.log(60_000)));
+        }
+        return values;
+    }
+}
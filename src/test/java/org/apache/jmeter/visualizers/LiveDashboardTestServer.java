@@ -0,0 +1,119 @@
+package org.apache.jmeter.visualizers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.apache.jmeter.util.JMeterUtils;
+
+/**
+ * The {@link LiveDashboardServer} of the tests. The server is a singleton bound to the bin directory it first
+ * sees, so it is started once per JVM on a free port, with a temporary bin directory deleted on exit; tests
+ * record into runs of their own.
+ */
+final class LiveDashboardTestServer {
+
+    private static String baseUrl;
+
+    private LiveDashboardTestServer() {
+    }
+
+    /**
+     * Starts the server unless it is running
+     * @return URL of the server, without a trailing slash
+     */
+    static synchronized String start() throws IOException {
+        if (baseUrl != null) {
+            return baseUrl;
+        }
+        Path home = Files.createTempDirectory("live-dashboard-test");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(home)));
+        File bin = Files.createDirectory(home.resolve("bin")).toFile();
+        File properties = new File(bin, "jmeter.properties");
+        // No background system metrics file to write
+        Files.write(properties.toPath(),
+            "live.dashboard.system_metrics.persist=false\n".getBytes(StandardCharsets.ISO_8859_1));
+        JMeterUtils.setJMeterHome(home.toString());
+        JMeterUtils.loadJMeterProperties(properties.getPath());
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        LiveDashboardServer.getInstance().startServer(port);
+        baseUrl = "http://localhost:" + port;
+        return baseUrl;
+    }
+
+    /**
+     * Sends a request to the server
+     * @param path Path and query
+     * @param body Body to POST, or null to GET
+     * @param headers Request headers
+     * @return The response, whatever its status
+     */
+    static Response request(String path, byte[] body, Map<String, String> headers) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(start() + path).openConnection();
+        try {
+            headers.forEach(connection::setRequestProperty);
+            if (body != null) {
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    in.transferTo(content);
+                }
+            }
+            return new Response(status, connection.getHeaderFields(), content.toString(StandardCharsets.UTF_8));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void delete(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        } catch (IOException e) {
+            // Left in the temporary directory
+        }
+    }
+
+    static final class Response {
+        final int status;
+        final Map<String, List<String>> headers;
+        final String body;
+
+        Response(int status, Map<String, List<String>> headers, String body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey())) {
+                    return header.getValue().get(0);
+                }
+            }
+            return null;
+        }
+    }
+}
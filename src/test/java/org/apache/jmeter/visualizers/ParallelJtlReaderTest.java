@@ -0,0 +1,123 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Parallel parsing of {@link ParallelJtlReader} against a sequential parse of the same file, with quoted fields
+ * holding commas, quotes and line breaks
+ */
+public class ParallelJtlReaderTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parallelReadEqualsSequentialParse() throws IOException {
+        // Large enough for several ranges of MIN_RANGE_BYTES
+        File file = jtl(3 * ParallelJtlReader.MIN_RANGE_BYTES);
+        Recorder expected = new Recorder();
+        JtlCsvParser sequential = new JtlCsvParser(expected);
+        sequential.parse(file);
+
+        for (int threads : new int[] {1, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                ParallelJtlReader<Recorder> reader = new ParallelJtlReader<>(pool, Recorder::new, Recorder::merge);
+                Recorder actual = reader.read(file);
+                assertEquals(expected.samples.size(), reader.getSampleCount());
+                assertEquals(sequential.getSkippedLines(), reader.getSkippedLines());
+                assertEquals(expected.samples, actual.samples);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        assertEquals(1, sequential.getSkippedLines());
+    }
+
+    @Test
+    public void rangesStartAtTheNextRecord() throws IOException {
+        File file = jtl(32 * 1024);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            JtlCsvParser parser = new JtlCsvParser(null);
+            int headerEnd = (int) parser.readHeader(channel);
+            // Starts of the records that are samples, in file order
+            List<Integer> starts = new ArrayList<>();
+            for (int start = headerEnd; start < bytes.length; ) {
+                int end = JtlCsvParser.recordEnd(bytes, start, bytes.length);
+                // All but the line that is not a sample
+                if (bytes[start] != 'n') {
+                    starts.add(start);
+                }
+                start = end + 1;
+            }
+            int next = 0;
+            for (int position = headerEnd; position < bytes.length; position++) {
+                while (next < starts.size() && starts.get(next) < position) {
+                    next++;
+                }
+                long expected = next < starts.size() ? starts.get(next) : bytes.length;
+                assertEquals("From " + position, expected, parser.nextRecordStart(channel, position, bytes.length));
+            }
+            assertTrue(starts.size() > 100);
+        }
+    }
+
+    /**
+     * A JTL file of at least the given size. Every 5th label holds a comma and quotes, every 7th sample fails with
+     * a two line message whose second line starts like a timestamp, and one line in the middle is not a sample.
+     */
+    private File jtl(long minBytes) throws IOException {
+        StringBuilder jtl = new StringBuilder(JtlRecord.HEADER);
+        for (int i = 0; jtl.length() < minBytes; i++) {
+            if (i == 100) {
+                jtl.append("not a sample\n");
+            }
+            boolean success = i % 7 != 0;
+            jtl.append(BASE + i * 10L - i % 3).append(',').append(i % 1000).append(',')
+                .append(i % 5 == 0 ? "\"say \"\"hi\"\", there\"" : "page-" + i % 20).append(',')
+                .append(success ? "200,OK" : "500,\"Error at\n404, not found\"")
+                .append(",Thread 1-").append(i % 50).append(",text,").append(success)
+                .append(",,").append(1000 + i % 100).append(",100,50,50,,").append(i % 300).append(",0,")
+                .append(i % 40).append('\n');
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), jtl.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Keeps the samples of a range in file order
+     */
+    private static final class Recorder implements JtlCsvParser.SampleSink {
+        private final List<String> samples = new ArrayList<>();
+
+        @Override
+        public void sample(String label, long timeStamp, long elapsed, boolean success, String responseCode,
+                           String responseMessage, long bytes, long connectTime, long latency, int allThreads) {
+            samples.add(timeStamp + "," + elapsed + "," + label + "," + success + "," + responseCode + ","
+                + responseMessage + "," + bytes + "," + connectTime + "," + latency + "," + allThreads);
+        }
+
+        void merge(Recorder later) {
+            samples.addAll(later.samples);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.apache.jmeter.visualizers;
+
+import static org.apache.jmeter.visualizers.RollingWindowsTest.gate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Gate statuses and the weighted score of {@link QualityGateEvaluator}
+ */
+public class QualityGateEvaluatorTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+
+    @Test
+    public void scoreWeighsEachGateStatus() {
+        QualityGateMetric latency = gate("Response Time", "95Pct", "<=", 100f, 200f);
+        latency.setWeightage(2f);
+        QualityGateMetric errors = gate("Error Rate", "Avg", "<=", 1f, 5f);
+        QualityGateMetric throughput = gate("Throughput", "Avg", ">=", 1000f, 500f);
+        QualityGateEvaluator.Evaluation evaluation = evaluate(Arrays.asList(latency, errors, throughput));
+
+        List<QualityGateEvaluator.GateResult> gates = evaluation.getGates();
+        // Elapsed times 10 to 59 twice over: the 95th of 100 is 57
+        assertEquals(57, gates.get(0).getActualValue(), 57 * 0.01);
+        assertEquals(QualityGateEvaluator.PASS, gates.get(0).getStatus());
+        assertEquals(3.0, gates.get(1).getActualValue(), 1e-9);
+        assertEquals(QualityGateEvaluator.WARNING, gates.get(1).getStatus());
+        // 100 samples started over 9.9 seconds
+        assertEquals(100 / 9.9, gates.get(2).getActualValue(), 1e-9);
+        assertEquals(QualityGateEvaluator.FAIL, gates.get(2).getStatus());
+        // (2 * 80 + 1 * 60 + 1 * 0) / 4
+        assertEquals(55.0, evaluation.getScore(), 1e-9);
+        assertEquals(QualityGateEvaluator.FAIL, evaluation.getStatus());
+        assertEquals(100, evaluation.getSampleCount());
+    }
+
+    @Test
+    public void overallStatusFollowsTheScore() {
+        QualityGateMetric latency = gate("Response Time", "Max", "<", 60f, 100f);
+        QualityGateMetric errors = gate("Error Rate", "Avg", "<=", 1f, 5f);
+        // Passing gates score the pass score
+        assertEquals(QualityGateEvaluator.PASS, evaluate(Collections.singletonList(latency)).getStatus());
+        assertEquals(80.0, evaluate(Collections.singletonList(latency)).getScore(), 1e-9);
+        // A pass and a warning average to 70, between the warning and the pass score
+        QualityGateEvaluator.Evaluation evaluation = evaluate(Arrays.asList(latency, errors));
+        assertEquals(70.0, evaluation.getScore(), 1e-9);
+        assertEquals(QualityGateEvaluator.WARNING, evaluation.getStatus());
+        // A weightage of 0 counts half, as in the dashboard
+        errors.setWeightage(0f);
+        assertEquals((80 + 0.5 * 60) / 1.5, evaluate(Arrays.asList(latency, errors)).getScore(), 1e-9);
+    }
+
+    @Test
+    public void gatesWithoutDataFail() {
+        QualityGateMetric cpu = gate("CPU Usage", "Avg", "<=", 80f, 90f);
+        QualityGateMetric latency = gate("Response Time", "Avg", "<=", 100f, 200f);
+        QualityGateEvaluator evaluator = new QualityGateEvaluator(Arrays.asList(cpu, latency), 80, 60, 0.01);
+        QualityGateEvaluator.Evaluation evaluation = evaluator.evaluate(BASE);
+        assertNull(evaluation.getGates().get(0).getActualValue());
+        assertEquals(QualityGateEvaluator.FAIL, evaluation.getGates().get(0).getStatus());
+        assertEquals(QualityGateEvaluator.FAIL, evaluation.getGates().get(1).getStatus());
+        assertEquals(0.0, evaluation.getScore(), 1e-9);
+
+        evaluator.addSystemMetrics(BASE, 50, 40);
+        evaluator.addSystemMetrics(BASE + 1000, 70, 40);
+        assertEquals(60.0, evaluator.evaluate(BASE + 1000).getGates().get(0).getActualValue(), 1e-9);
+    }
+
+    @Test
+    public void disabledGatesAreNotEvaluated() {
+        QualityGateMetric disabled = gate("Throughput", "Avg", ">=", 1000f, 500f);
+        disabled.setEnabled(false);
+        QualityGateEvaluator evaluator = new QualityGateEvaluator(Collections.singletonList(disabled), 80, 60, 0.01);
+        assertFalse(evaluator.hasGates());
+        QualityGateEvaluator.Evaluation evaluation = evaluator.evaluate(BASE);
+        assertEquals(0, evaluation.getGates().size());
+        assertEquals(QualityGateEvaluator.NOT_AVAILABLE, evaluation.getStatus());
+    }
+
+    /**
+     * Evaluates gates over 100 samples, one every 100 ms, with elapsed times 10 to 59 and 3 failures
+     */
+    private static QualityGateEvaluator.Evaluation evaluate(List<QualityGateMetric> gates) {
+        QualityGateEvaluator evaluator = new QualityGateEvaluator(gates, 80, 60, 0.01);
+        for (int i = 0; i < 100; i++) {
+            evaluator.add(BASE + i * 100L, 10 + i % 50, i % 40 != 7);
+        }
+        return evaluator.evaluate(BASE + 10000);
+    }
+}
@@ -0,0 +1,132 @@
+package org.apache.jmeter.visualizers;
+
+import static org.apache.jmeter.visualizers.RollingWindowsTest.gate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * When {@link QualityGateFailFast} stops a test, replaying samples and checking once per simulated second
+ */
+public class QualityGateFailFastTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File summary;
+    // Time of the check that stopped the test, -1 while running
+    private long stoppedAt;
+    private long now;
+
+    @Before
+    public void setUp() {
+        summary = new File(folder.getRoot(), QualityGateFailFast.SUMMARY_FILENAME);
+        stoppedAt = -1;
+        now = BASE;
+    }
+
+    @Test
+    public void stopsOnceTheGracePeriodIsOver() throws Exception {
+        List<QualityGateMetric> gates = Collections.singletonList(gate("Error Rate", "Avg", "<=", 1f, 5f));
+        QualityGateFailFast failFast = failFast(gates, 10000, 5000, 10);
+        QualityGateEvaluator evaluator = evaluator(gates, failFast);
+
+        run(evaluator, failFast, 30, 10, false);
+        assertEquals(-1, stoppedAt);
+        // The first check with failing samples in the window breaches, the one 5 seconds later stops
+        run(evaluator, failFast, 30, 10, true);
+        assertEquals(BASE + 36000, stoppedAt);
+
+        String json = new String(Files.readAllBytes(summary.toPath()), StandardCharsets.UTF_8);
+        assertTrue(json, json.contains("\"breachedSince\":" + (BASE + 31000)));
+        assertTrue(json, json.contains("\"status\":\"FAIL\",\"failingMs\":5000"));
+    }
+
+    @Test
+    public void recoveryRestartsTheGracePeriod() {
+        List<QualityGateMetric> gates = Collections.singletonList(gate("Error Rate", "Avg", "<=", 1f, 5f));
+        QualityGateFailFast failFast = failFast(gates, 2000, 5000, 10);
+        QualityGateEvaluator evaluator = evaluator(gates, failFast);
+
+        // Failing for 4 seconds, recovered for 3, failing again
+        run(evaluator, failFast, 4, 10, true);
+        run(evaluator, failFast, 3, 10, false);
+        run(evaluator, failFast, 5, 10, true);
+        assertEquals(-1, stoppedAt);
+        run(evaluator, failFast, 1, 10, true);
+        assertEquals(BASE + 13000, stoppedAt);
+    }
+
+    @Test
+    public void scopedThroughputGateKeepsAHealthyTestRunning() {
+        QualityGateMetric throughput = gate("Throughput", "Avg", ">=", 8f, 5f);
+        throughput.setScopeSeconds(10);
+        List<QualityGateMetric> gates = Collections.singletonList(throughput);
+        QualityGateFailFast failFast = failFast(gates, 30000, 5000, 10);
+        QualityGateEvaluator evaluator = evaluator(gates, failFast);
+
+        run(evaluator, failFast, 120, 10, false);
+        assertEquals(-1, stoppedAt);
+        assertEquals(10.0, evaluator.evaluateWindow(30000, now).getGates().get(0).getActualValue(), 0.01);
+
+        // 2 samples per second: the 10 second scope falls below the warning value within a few seconds
+        run(evaluator, failFast, 30, 2, false);
+        assertTrue(stoppedAt > 0);
+        assertTrue("Stopped at " + (stoppedAt - BASE), stoppedAt <= BASE + 120000 + 15000);
+    }
+
+    @Test
+    public void windowsWithTooFewSamplesAreNotJudged() {
+        List<QualityGateMetric> gates = Collections.singletonList(gate("Error Rate", "Avg", "<=", 1f, 5f));
+        QualityGateFailFast failFast = failFast(gates, 10000, 1000, 200);
+        QualityGateEvaluator evaluator = evaluator(gates, failFast);
+
+        run(evaluator, failFast, 30, 10, true);
+        assertEquals(-1, stoppedAt);
+        assertFalse(summary.exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsScopesLongerThanTheWindow() {
+        QualityGateMetric throughput = gate("Throughput", "Avg", ">=", 8f, 5f);
+        throughput.setScopeSeconds(300);
+        failFast(Collections.singletonList(throughput), 60000, 5000, 10);
+    }
+
+    private QualityGateFailFast failFast(List<QualityGateMetric> gates, long windowMillis, long graceMillis,
+                                         long minSamples) {
+        return new QualityGateFailFast(gates, 60, windowMillis, graceMillis, minSamples, false, summary,
+            () -> stoppedAt = now);
+    }
+
+    private static QualityGateEvaluator evaluator(List<QualityGateMetric> gates, QualityGateFailFast failFast) {
+        return new QualityGateEvaluator(gates, 80, 60, 0.01, new long[] {failFast.getWindowMillis()});
+    }
+
+    /**
+     * Adds the samples of the given number of seconds, checking at the end of every second until stopped
+     */
+    private void run(QualityGateEvaluator evaluator, QualityGateFailFast failFast, int seconds, int perSecond,
+                     boolean failing) {
+        for (int second = 0; second < seconds && stoppedAt < 0; second++) {
+            for (int i = 0; i < perSecond; i++) {
+                evaluator.add(now + i * 1000L / perSecond, 10, !failing);
+            }
+            now += 1000;
+            failFast.check(evaluator, now);
+        }
+    }
+}
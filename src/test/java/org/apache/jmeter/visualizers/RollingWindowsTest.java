@@ -0,0 +1,128 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Windows of {@link RollingWindows} and the gates reading them
+ */
+public class RollingWindowsTest {
+
+    // A multiple of every slot width used below
+    private static final long BASE = 1_700_000_000_000L;
+
+    @Test
+    public void windowCoversItsLastSlots() {
+        RollingWindows windows = new RollingWindows(new long[] {10000}, 0.01, false);
+        // 20 seconds of 10 samples per second, the second half failing
+        for (int i = 0; i < 200; i++) {
+            windows.add(BASE + i * 100L, 50 + i % 10, i < 100);
+        }
+        long now = BASE + 20000;
+        RollingWindows.Totals totals = windows.read(10000, now);
+        // Slots of seconds 11 to 20: the samples ending from BASE + 11000
+        assertEquals(90, totals.getCount());
+        assertEquals(90, totals.getErrors());
+        assertEquals(9000, totals.getDurationMillis());
+        assertEquals(50, totals.getElapsedMin());
+        assertEquals(59, totals.getElapsedMax());
+
+        // Nothing but expired slots once the samples stop
+        assertEquals(0, windows.read(10000, now + 20000).getCount());
+        assertNull(windows.read(60000, now));
+    }
+
+    @Test
+    public void recycledSlotDropsOlderSubWindow() {
+        RollingWindows windows = new RollingWindows(new long[] {10000}, 0.01, false);
+        windows.add(BASE, 10, true);
+        // Same slot, ten sub-windows later
+        windows.add(BASE + 10000, 20, true);
+        // A late sample of the recycled sub-window is ignored
+        windows.add(BASE + 500, 30, true);
+        RollingWindows.Totals totals = windows.read(10000, BASE + 10000);
+        assertEquals(1, totals.getCount());
+        assertEquals(20, totals.getElapsedSum());
+    }
+
+    @Test
+    public void windowsNeedNotBeWholeSeconds() {
+        RollingWindows windows = new RollingWindows(new long[] {2500, 10000}, 0.01, false);
+        for (int i = 0; i < 100; i++) {
+            windows.add(BASE + i * 100L, 10, true);
+        }
+        long now = BASE + 10000;
+        // 250 ms slots: the samples ending from BASE + 7750
+        assertEquals(22, windows.read(2500, now).getCount());
+        assertEquals(2250, windows.read(2500, now).getDurationMillis());
+        assertTrue(windows.toJson(now, new double[] {90}).contains("{\"seconds\":2.5,"));
+        assertTrue(windows.toJson(now, new double[] {90}).contains("{\"seconds\":10,"));
+    }
+
+    @Test
+    public void scopedThroughputGateReadsItsWindow() {
+        QualityGateMetric throughput = gate("Throughput", "Avg", ">=", 8f, 5f);
+        throughput.setScopeSeconds(10);
+        QualityGateEvaluator evaluator = new QualityGateEvaluator(Collections.singletonList(throughput), 80, 60, 0.01);
+        // 10 samples per second for a minute, then 1 per second for 20 seconds
+        for (int i = 0; i < 600; i++) {
+            evaluator.add(BASE + i * 100L, 10, true);
+        }
+        for (int i = 0; i < 20; i++) {
+            evaluator.add(BASE + 60000 + i * 1000L, 10, true);
+        }
+        QualityGateEvaluator.Evaluation evaluation = evaluator.evaluate(BASE + 80000);
+        QualityGateEvaluator.GateResult result = evaluation.getGates().get(0);
+        assertEquals(1.0, result.getActualValue(), 0.01);
+        assertEquals(QualityGateEvaluator.FAIL, result.getStatus());
+    }
+
+    @Test
+    public void evaluateWindowJudgesUnscopedGatesOverTheWindow() {
+        QualityGateMetric errors = gate("Error Rate", "Avg", "<=", 1f, 5f);
+        QualityGateMetric throughput = gate("Throughput", "Avg", ">=", 8f, 5f);
+        throughput.setScopeSeconds(10);
+        QualityGateEvaluator evaluator = new QualityGateEvaluator(Arrays.asList(errors, throughput), 80, 60, 0.01,
+            new long[] {30000});
+        // A clean first minute, then 30 seconds with every other sample failing, all at 10 per second
+        for (int i = 0; i < 900; i++) {
+            evaluator.add(BASE + i * 100L, 10, i < 600 || i % 2 == 0);
+        }
+        long now = BASE + 90000;
+        QualityGateEvaluator.Evaluation whole = evaluator.evaluate(now);
+        assertEquals(900, whole.getSampleCount());
+        assertEquals(150 * 100.0 / 900, whole.getGates().get(0).getActualValue(), 0.01);
+
+        QualityGateEvaluator.Evaluation window = evaluator.evaluateWindow(30000, now);
+        // Slots of seconds 61 to 90
+        assertEquals(290, window.getSampleCount());
+        assertEquals(145 * 100.0 / 290, window.getGates().get(0).getActualValue(), 0.01);
+        assertEquals(QualityGateEvaluator.FAIL, window.getGates().get(0).getStatus());
+        // The scoped gate keeps its own 10 second window
+        assertEquals(10.0, window.getGates().get(1).getActualValue(), 0.01);
+        assertEquals(QualityGateEvaluator.PASS, window.getGates().get(1).getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void evaluateWindowNeedsTheWindow() {
+        new QualityGateEvaluator(Collections.singletonList(gate("Error Rate", "Avg", "<=", 1f, 5f)), 80, 60, 0.01)
+            .evaluateWindow(30000, BASE);
+    }
+
+    static QualityGateMetric gate(String metric, String aggregate, String operator, Float passValue,
+                                  Float warningValue) {
+        QualityGateMetric gate = new QualityGateMetric();
+        gate.setMetric(metric);
+        gate.setAggregate(aggregate);
+        gate.setOperator(operator);
+        gate.setPassValue(passValue);
+        gate.setWarningValue(warningValue);
+        return gate;
+    }
+}
@@ -0,0 +1,111 @@
+package org.apache.jmeter.visualizers;
+
+import static org.apache.jmeter.visualizers.RollingWindowsTest.gate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Buckets, running totals and /metrics output of {@link SampleAggregator}
+ */
+public class SampleAggregatorTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+
+    @Test
+    public void samplesFarFromTheirLabelAreDropped() {
+        SampleAggregator aggregator = new SampleAggregator(1000, 0.01);
+        for (int i = 0; i < 100; i++) {
+            add(aggregator, "home", BASE + i * 100L);
+        }
+        // An unset timestamp and one a century ahead would need billions of buckets
+        add(aggregator, "home", 0);
+        add(aggregator, "home", BASE + 100L * 365 * 24 * 3600 * 1000);
+        // Days away is still within the span of a label
+        add(aggregator, "home", BASE - 3L * 24 * 3600 * 1000);
+        // Another label starts its own span
+        add(aggregator, "login", 0);
+
+        assertEquals(2, aggregator.getDroppedCount());
+        assertEquals(101, aggregator.getHistogram("home", Long.MIN_VALUE, Long.MAX_VALUE).getCount());
+        assertEquals(1, aggregator.getHistogram("login", Long.MIN_VALUE, Long.MAX_VALUE).getCount());
+        assertEquals(BASE + 9900, aggregator.getLastTimestamp());
+
+        QualityGateEvaluator evaluator = new QualityGateEvaluator(
+            Collections.singletonList(gate("Error Rate", "Avg", "<=", 1f, 5f)), 80, 60, 0.01);
+        assertEquals(102, aggregator.addTo(evaluator));
+    }
+
+    @Test
+    public void metricsAreInTheExpositionFormat() {
+        SampleAggregator aggregator = new SampleAggregator(1000, 0.01);
+        aggregator.add("home", BASE, 20, true, "200", "OK", 1000, 5, 15, 1);
+        aggregator.add("home", BASE + 5000, 300, false, "500", "Error", 500, 5, 15, 1);
+        aggregator.add("say \"hi\"", BASE, 8, true, "200", "OK", 10, 1, 2, 1);
+
+        StringBuilder out = new StringBuilder();
+        aggregator.appendMetrics(out, "run-1", new double[] {10, 100});
+        assertEquals("# HELP jmeter_samples_total Samples of the label\n"
+            + "# TYPE jmeter_samples_total counter\n"
+            + "jmeter_samples_total{run=\"run-1\",label=\"home\"} 2\n"
+            + "jmeter_samples_total{run=\"run-1\",label=\"say \\\"hi\\\"\"} 1\n"
+            + "# HELP jmeter_errors_total Failed samples of the label\n"
+            + "# TYPE jmeter_errors_total counter\n"
+            + "jmeter_errors_total{run=\"run-1\",label=\"home\"} 1\n"
+            + "jmeter_errors_total{run=\"run-1\",label=\"say \\\"hi\\\"\"} 0\n"
+            + "# HELP jmeter_received_bytes_total Bytes received by the samples of the label\n"
+            + "# TYPE jmeter_received_bytes_total counter\n"
+            + "jmeter_received_bytes_total{run=\"run-1\",label=\"home\"} 1500\n"
+            + "jmeter_received_bytes_total{run=\"run-1\",label=\"say \\\"hi\\\"\"} 10\n"
+            + "# HELP jmeter_response_time_seconds Response times of the label\n"
+            + "# TYPE jmeter_response_time_seconds histogram\n"
+            + "jmeter_response_time_seconds_bucket{run=\"run-1\",label=\"home\",le=\"0.01\"} 0\n"
+            + "jmeter_response_time_seconds_bucket{run=\"run-1\",label=\"home\",le=\"0.1\"} 1\n"
+            + "jmeter_response_time_seconds_bucket{run=\"run-1\",label=\"home\",le=\"+Inf\"} 2\n"
+            + "jmeter_response_time_seconds_sum{run=\"run-1\",label=\"home\"} 0.32\n"
+            + "jmeter_response_time_seconds_count{run=\"run-1\",label=\"home\"} 2\n"
+            + "jmeter_response_time_seconds_bucket{run=\"run-1\",label=\"say \\\"hi\\\"\",le=\"0.01\"} 1\n"
+            + "jmeter_response_time_seconds_bucket{run=\"run-1\",label=\"say \\\"hi\\\"\",le=\"0.1\"} 1\n"
+            + "jmeter_response_time_seconds_bucket{run=\"run-1\",label=\"say \\\"hi\\\"\",le=\"+Inf\"} 1\n"
+            + "jmeter_response_time_seconds_sum{run=\"run-1\",label=\"say \\\"hi\\\"\"} 0.008\n"
+            + "jmeter_response_time_seconds_count{run=\"run-1\",label=\"say \\\"hi\\\"\"} 1\n",
+            out.toString());
+    }
+
+    @Test
+    public void runningTotalsFollowDrainMergeAndEncoding() throws IOException {
+        SampleAggregator aggregator = new SampleAggregator(1000, 0.01);
+        for (int i = 0; i < 50; i++) {
+            aggregator.add("home", BASE + i * 100L, 10 + i, i % 10 != 0, "200", "OK", 100, 1, 2, 1);
+        }
+        SampleAggregator drained = aggregator.drain();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        drained.writeTo(new DataOutputStream(bytes));
+        SampleAggregator decoded = SampleAggregator.readFrom(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        aggregator.add("home", BASE + 6000, 100, true, "200", "OK", 100, 1, 2, 1);
+        aggregator.merge(decoded);
+
+        StringBuilder out = new StringBuilder();
+        aggregator.appendMetrics(out, "run", new double[0]);
+        assertTrue(out.toString(), out.toString().contains("jmeter_samples_total{run=\"run\",label=\"home\"} 51\n"));
+        assertTrue(out.toString(), out.toString().contains("jmeter_errors_total{run=\"run\",label=\"home\"} 5\n"));
+        assertTrue(out.toString(),
+            out.toString().contains("jmeter_received_bytes_total{run=\"run\",label=\"home\"} 5100\n"));
+        // 10 + ... + 59 and the 100 ms sample
+        assertTrue(out.toString(),
+            out.toString().contains("jmeter_response_time_seconds_sum{run=\"run\",label=\"home\"} 1.825\n"));
+    }
+
+    private static void add(SampleAggregator aggregator, String label, long timeStamp) {
+        aggregator.add(label, timeStamp, 20, true, "200", "OK", 1000, 5, 15, 1);
+    }
+}
@@ -0,0 +1,153 @@
+package org.apache.jmeter.visualizers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Time range and label filters of /samples over a recorded run spanning several index blocks
+ */
+public class SamplesHandlerTest {
+
+    private static final long BASE = 1_700_000_000_000L;
+    private static final int SAMPLES = 3000;
+    private static final String[] LABELS = {"home", "login", "say \"hi\", there"};
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static LiveDashboardEngine run;
+    private static String samplesPath;
+
+    @BeforeClass
+    public static void record() throws IOException {
+        LiveDashboardTestServer.start();
+        run = LiveDashboardServer.getInstance().acquireRun("SamplesHandlerTest");
+        run.testStarted();
+        for (int i = 0; i < SAMPLES; i++) {
+            SampleResult result = new SampleResult(timeStamp(i), 20);
+            result.setSampleLabel(label(i));
+            result.setSuccessful(!failed(i));
+            result.setResponseCode(failed(i) ? "206" : "200");
+            result.setResponseMessage(message(i));
+            result.setThreadName("Thread 1-1");
+            run.sampleOccurred(result);
+        }
+        run.testEnded();
+        samplesPath = "/runs/" + run.getId() + "/samples";
+    }
+
+    @AfterClass
+    public static void release() {
+        if (run != null) {
+            LiveDashboardServer.getInstance().releaseRun(run);
+        }
+    }
+
+    @Test
+    public void everySampleWithoutFilters() throws IOException {
+        LiveDashboardTestServer.Response response = get("");
+        assertEquals(200, response.status);
+        assertTrue(response.body.startsWith(JtlRecord.HEADER));
+        assertEquals(expected(Long.MIN_VALUE, Long.MAX_VALUE, null), parse(response.body));
+    }
+
+    @Test
+    public void rangeReadsOnlyTheBlocksOverlappingIt() throws IOException {
+        long from = BASE + 12000;
+        long to = BASE + 15000;
+        LiveDashboardTestServer.Response response = get("?from=" + from + "&to=" + to);
+        List<String> samples = parse(response.body);
+        assertEquals(expected(from, to, null), samples);
+        assertTrue(samples.size() > 100);
+
+        // The first block ends before the range: only the second one and the block being filled are read
+        long scanned = Long.parseLong(response.header("X-Samples-Scanned-Bytes"));
+        long whole = Long.parseLong(get("").header("X-Samples-Scanned-Bytes"));
+        assertTrue(scanned + " of " + whole, scanned < whole * 3 / 4);
+    }
+
+    @Test
+    public void labelMatchesTheWholeParsedField() throws IOException {
+        String quoted = LABELS[2];
+        LiveDashboardTestServer.Response response = get("?label=" + URLEncoder.encode(quoted, StandardCharsets.UTF_8));
+        assertEquals(expected(Long.MIN_VALUE, Long.MAX_VALUE, quoted), parse(response.body));
+        assertEquals(SAMPLES / 3, parse(response.body).size());
+
+        long from = BASE + 20000;
+        assertEquals(expected(from, Long.MAX_VALUE, "home"), parse(get("?label=home&from=" + from).body));
+        // Neither a prefix nor the raw quoted text of a label matches
+        assertEquals(Collections.emptyList(), parse(get("?label=hom").body));
+        assertEquals(Collections.emptyList(),
+            parse(get("?label=" + URLEncoder.encode("\"say \"\"hi\"\", there\"", StandardCharsets.UTF_8)).body));
+    }
+
+    @Test
+    public void unknownRunIsNotFound() throws IOException {
+        assertEquals(404, LiveDashboardTestServer.request("/runs/none/samples", null, Collections.emptyMap()).status);
+    }
+
+    // Samples complete out of order: timestamps go back by up to 60 ms
+    private static long timeStamp(int i) {
+        return BASE + i * 10L - (i % 7) * 10L;
+    }
+
+    private static String label(int i) {
+        return LABELS[i % LABELS.length];
+    }
+
+    private static boolean failed(int i) {
+        return i % 100 == 0;
+    }
+
+    // Failures have a message spanning two lines
+    private static String message(int i) {
+        return failed(i) ? "Partial\nContent" : "OK";
+    }
+
+    private static LiveDashboardTestServer.Response get(String query) throws IOException {
+        return LiveDashboardTestServer.request(samplesPath + query, null, Collections.emptyMap());
+    }
+
+    /**
+     * Samples recorded with a timestamp between from and to and the given label (any if null), in recording order
+     */
+    private static List<String> expected(long from, long to, String label) {
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < SAMPLES; i++) {
+            if (timeStamp(i) >= from && timeStamp(i) <= to && (label == null || label.equals(label(i)))) {
+                // Messages are only read back for failures
+                samples.add(timeStamp(i) + " " + label(i) + " " + (failed(i) ? message(i) : null));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Samples of a /samples response, read back as the JTL file they are
+     */
+    private static List<String> parse(String body) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), body.getBytes(StandardCharsets.UTF_8));
+        List<String> samples = new ArrayList<>();
+        new JtlCsvParser((label, timeStamp, elapsed, success, responseCode, responseMessage, bytes, connectTime,
+                          latency, allThreads) -> samples.add(timeStamp + " " + label + " " + responseMessage))
+            .parse(file);
+        return samples;
+    }
+}